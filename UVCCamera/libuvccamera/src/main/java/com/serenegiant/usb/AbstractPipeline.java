@@ -0,0 +1,138 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+/**
+ * Base class of Java side of the native pipelines.
+ * The subclass should create its native object in the constructor.
+ */
+public abstract class AbstractPipeline implements IPipeline {
+	// these fields are accessed from native code and do not change name and remove
+	protected long mNativePtr;
+	protected final int mType;
+	// keep reference of the next pipeline while native code passes frames to it
+	protected IPipeline mNextPipeline;
+	// UVCCamera or AbstractPipeline whose native object passes frames to this pipeline,
+	// this is not guarded by the lock of this object to avoid deadlock with it
+	private volatile Object mUpstream;
+
+	protected AbstractPipeline(final int type) {
+		mType = type;
+	}
+
+	@Override
+	protected void finalize() throws Throwable {
+		try {
+			release();
+		} finally {
+			super.finalize();
+		}
+	}
+
+	@Override
+	public synchronized int getState() {
+		return mNativePtr != 0 ? nativeGetState(mNativePtr) : PIPELINE_STATE_UNINITIALIZED;
+	}
+
+	@Override
+	public synchronized void setPipeline(final IPipeline pipeline) {
+		if (mNativePtr != 0) {
+			nativeSetPipeline(mNativePtr, pipeline);
+			if (mNextPipeline != pipeline) {
+				detachUpstream(mNextPipeline, this);
+			}
+			mNextPipeline = pipeline;
+			attachUpstream(pipeline, this);
+		}
+	}
+
+	@Override
+	public synchronized void start() {
+		if (mNativePtr != 0) {
+			nativeStart(mNativePtr);
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (mNativePtr != 0) {
+			nativeStop(mNativePtr);
+		}
+	}
+
+	/**
+	 * detach this pipeline from the camera or the pipeline that passes frames to it
+	 * before destroying the native object, so that they never pass frames to destroyed one
+	 */
+	@Override
+	public synchronized void release() {
+		final Object upstream = mUpstream;
+		mUpstream = null;
+		if (upstream instanceof UVCCamera) {
+			((UVCCamera)upstream).detachPipeline(this);
+		} else if (upstream instanceof AbstractPipeline) {
+			((AbstractPipeline)upstream).detachPipeline(this);
+		}
+		if (mNativePtr != 0) {
+			nativeDestroy(mNativePtr);
+			mNativePtr = 0;
+		}
+		detachUpstream(mNextPipeline, this);
+		mNextPipeline = null;
+	}
+
+	/**
+	 * stop passing frames to the specific pipeline if this passes frames to it
+	 */
+	/*package*/ synchronized void detachPipeline(final IPipeline pipeline) {
+		if (mNextPipeline == pipeline) {
+			setPipeline(null);
+		}
+	}
+
+	/**
+	 * remember the camera or pipeline that passes frames to the specific pipeline
+	 */
+	/*package*/ static void attachUpstream(final IPipeline pipeline, final Object upstream) {
+		if (pipeline instanceof AbstractPipeline) {
+			((AbstractPipeline)pipeline).mUpstream = upstream;
+		}
+	}
+
+	/**
+	 * forget the camera or pipeline that passed frames to the specific pipeline
+	 */
+	/*package*/ static void detachUpstream(final IPipeline pipeline, final Object upstream) {
+		if ((pipeline instanceof AbstractPipeline)
+			&& (((AbstractPipeline)pipeline).mUpstream == upstream)) {
+
+			((AbstractPipeline)pipeline).mUpstream = null;
+		}
+	}
+
+	protected abstract void nativeDestroy(final long id_pipeline);
+	protected abstract int nativeGetState(final long id_pipeline);
+	protected abstract int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	protected abstract int nativeStart(final long id_pipeline);
+	protected abstract int nativeStop(final long id_pipeline);
+}
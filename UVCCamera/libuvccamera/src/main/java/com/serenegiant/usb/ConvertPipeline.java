@@ -0,0 +1,51 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+/**
+ * Pipeline that converts frames to the specific pixel format
+ * and passes converted frames to the next pipeline.
+ */
+public class ConvertPipeline extends AbstractPipeline {
+
+	/**
+	 * @param pixelFormat one of UVCCamera.PIXEL_FORMAT_XXX
+	 */
+	public ConvertPipeline(final int pixelFormat) {
+		super(PIPELINE_TYPE_CONVERT);
+		mNativePtr = nativeCreate(pixelFormat);
+	}
+
+	// #nativeCreate and #nativeDestroy are not static methods.
+	private final native long nativeCreate(final int pixelFormat);
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+}
@@ -0,0 +1,88 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pipeline that passes each frame to all added pipelines
+ * in addition to the next pipeline set by #setPipeline.
+ */
+public class DistributePipeline extends AbstractPipeline {
+	// keep reference of the added pipelines while native code passes frames to them
+	private final List<IPipeline> mPipelines = new ArrayList<IPipeline>();
+
+	public DistributePipeline() {
+		super(PIPELINE_TYPE_DISTRIBUTE);
+		mNativePtr = nativeCreate();
+	}
+
+	public synchronized void addPipeline(final IPipeline pipeline) {
+		if ((mNativePtr != 0) && (pipeline != null)) {
+			nativeAddPipeline(mNativePtr, pipeline);
+			mPipelines.add(pipeline);
+			attachUpstream(pipeline, this);
+		}
+	}
+
+	public synchronized void removePipeline(final IPipeline pipeline) {
+		if ((mNativePtr != 0) && (pipeline != null)) {
+			nativeRemovePipeline(mNativePtr, pipeline);
+			while (mPipelines.remove(pipeline)) {}
+			detachUpstream(pipeline, this);
+		}
+	}
+
+	@Override
+	public synchronized void release() {
+		super.release();
+		for (final IPipeline pipeline: mPipelines) {
+			detachUpstream(pipeline, this);
+		}
+		mPipelines.clear();
+	}
+
+	@Override
+	/*package*/ synchronized void detachPipeline(final IPipeline pipeline) {
+		super.detachPipeline(pipeline);
+		if (mPipelines.contains(pipeline)) {
+			removePipeline(pipeline);
+		}
+	}
+
+	// #nativeCreate and #nativeDestroy are not static methods.
+	private final native long nativeCreate();
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private static final native int nativeAddPipeline(final long id_pipeline, final IPipeline pipeline);
+	private static final native int nativeRemovePipeline(final long id_pipeline, final IPipeline pipeline);
+}
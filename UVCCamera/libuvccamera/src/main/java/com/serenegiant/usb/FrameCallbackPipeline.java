@@ -0,0 +1,59 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+/**
+ * Pipeline that passes frames to IFrameCallback on its own thread
+ * and passes the original frames to the next pipeline.
+ */
+public class FrameCallbackPipeline extends AbstractPipeline {
+
+	public FrameCallbackPipeline() {
+		super(PIPELINE_TYPE_CALLBACK);
+		mNativePtr = nativeCreate();
+	}
+
+	/**
+	 * @param callback null to clear
+	 * @param pixelFormat one of UVCCamera.PIXEL_FORMAT_XXX except PIXEL_FORMAT_I420
+	 */
+	public synchronized void setFrameCallback(final IFrameCallback callback, final int pixelFormat) {
+		if (mNativePtr != 0) {
+			nativeSetFrameCallback(mNativePtr, callback, pixelFormat);
+		}
+	}
+
+	// #nativeCreate and #nativeDestroy are not static methods.
+	private final native long nativeCreate();
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private static final native int nativeSetFrameCallback(final long id_pipeline, final IFrameCallback callback, final int pixelFormat);
+}
@@ -27,6 +27,8 @@ import java.nio.ByteBuffer;
 /**
  * Callback interface for UVCCamera class
  * If you need frame data as ByteBuffer, you can use this callback interface with UVCCamera#setFrameCallback
+ * This callback does not carry sequence number and capture time of the frame,
+ * use IPooledFrameCallback and UVCFrame if you need them(e.g. for presentationTimeUs of MediaCodec)
  */
 public interface IFrameCallback {
 	/**
@@ -0,0 +1,38 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+/**
+ * Callback interface for UVCCamera#setPooledFrameCallback
+ * Unlike IFrameCallback, the frame is not recycled when #onFrame returns,
+ * so you can pass it to other thread and process it later without copying.
+ */
+public interface IPooledFrameCallback {
+	/**
+	 * This method is called from native library via JNI on the same thread as UVCCamera#startCapture.
+	 * You must call UVCFrame#release when you finished using the frame.
+	 * Frames are dropped while all pooled frames are held by you.
+	 * @param frame pooled frame
+	 */
+	public void onFrame(UVCFrame frame);
+}
@@ -0,0 +1,100 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+import java.io.IOException;
+
+/**
+ * Publish frames to other processes on the same device through an unix domain socket,
+ * e.g. analytics processes can consume frames without JNI.
+ * A subscriber just connects to the socket and reads the following header
+ * and data_bytes of frame data repeatedly, all fields are little endian.
+ * <pre>
+ * offset size
+ *      0    4 magic 0x46435655('UVCF')
+ *      4    4 sequence
+ *      8    8 capture time[usec], CLOCK_MONOTONIC
+ *     16    4 frame format(uvc_frame_format, e.g. YUYV=3, MJPEG=9)
+ *     20    4 width
+ *     24    4 height
+ *     28    4 data_bytes
+ * </pre>
+ * The oldest queued frame is dropped when a subscriber can not keep up,
+ * so a slow subscriber does not block the camera or other subscribers.
+ * Frames are passed to the next pipeline as they are.
+ */
+public class PublisherPipeline extends AbstractPipeline {
+
+	public static final int DEFAULT_QUEUE_NUM = 4;
+
+	/**
+	 * @param address address of the socket, the address that starts with '@'
+	 * 		is in the abstract namespace, otherwise it is a file path
+	 * @throws IOException if the socket can not be bound
+	 */
+	public PublisherPipeline(final String address) throws IOException {
+		this(address, DEFAULT_QUEUE_NUM);
+	}
+
+	/**
+	 * @param address address of the socket, the address that starts with '@'
+	 * 		is in the abstract namespace, otherwise it is a file path
+	 * @param maxQueueNum maximum number of frames queued for each subscriber
+	 * @throws IOException if the socket can not be bound
+	 */
+	public PublisherPipeline(final String address, final int maxQueueNum) throws IOException {
+		super(PIPELINE_TYPE_PUBLISHER);
+		mNativePtr = nativeCreate(address, maxQueueNum);
+		if (mNativePtr == 0) {
+			throw new IOException("failed to bind:" + address);
+		}
+	}
+
+	/**
+	 * @return number of connected subscribers
+	 */
+	public synchronized int getSubscriberCount() {
+		return mNativePtr != 0 ? nativeGetSubscriberCount(mNativePtr) : 0;
+	}
+
+	/**
+	 * @return total number of frames dropped because subscribers were slow
+	 */
+	public synchronized int getDroppedFrames() {
+		return mNativePtr != 0 ? nativeGetDroppedFrames(mNativePtr) : 0;
+	}
+
+	// #nativeCreate and #nativeDestroy are not static methods.
+	private final native long nativeCreate(final String address, final int maxQueueNum);
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private static final native int nativeGetSubscriberCount(final long id_pipeline);
+	private static final native int nativeGetDroppedFrames(final long id_pipeline);
+}
@@ -0,0 +1,144 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Pre-event buffer that keeps the latest frames in a memory mapped ring file.
+ * Frames are passed to the next pipeline as they are, so you can insert this anywhere in the chain.
+ * When an event occurs, you can read the frames of specific time range with #read,
+ * e.g. to encode the last several seconds into a movie file.
+ * The time of the frames is same time base as System#nanoTime.
+ */
+public class RingFileBufferedPipeline extends AbstractPipeline {
+
+	public static final int DEFAULT_SEGMENT_NUM = 16;
+	public static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+	public static final long DEFAULT_KEEP_DURATION_NS = 30000000000L;	// 30sec
+
+	/**
+	 * Callback interface for #read
+	 */
+	public interface FrameReader {
+		/**
+		 * called on the thread that called #read.
+		 * @param frame the buffer is valid only while this method is executing
+		 * @param width
+		 * @param height
+		 * @param timeNs time of the frame[nsec]
+		 */
+		public void onFrame(final ByteBuffer frame, final int width, final int height, final long timeNs);
+	}
+
+	/**
+	 * @param path path of the ring file, the file is overwritten
+	 * @throws IOException if the file can not be allocated or mapped
+	 */
+	public RingFileBufferedPipeline(final String path) throws IOException {
+		this(path, DEFAULT_SEGMENT_NUM, DEFAULT_SEGMENT_BYTES, DEFAULT_KEEP_DURATION_NS);
+	}
+
+	/**
+	 * @param path path of the ring file, the file is overwritten
+	 * @param segmentNum number of segments, at least 2
+	 * @param segmentBytes bytes of each segment, each frame should be smaller than this
+	 * @param keepDurationNs frames older than this are dropped even if the ring still has space, 0 to keep as many as possible
+	 * @throws IOException if the file can not be allocated or mapped
+	 */
+	public RingFileBufferedPipeline(final String path, final int segmentNum,
+		final int segmentBytes, final long keepDurationNs) throws IOException {
+
+		super(PIPELINE_TYPE_RING_FILE_BUFFERED);
+		mNativePtr = nativeCreate(path, segmentNum, segmentBytes, keepDurationNs);
+		if (mNativePtr == 0) {
+			throw new IOException("failed to create ring file:" + path);
+		}
+	}
+
+	/**
+	 * @return number of frames in the ring
+	 */
+	public synchronized int getFrameCount() {
+		return mNativePtr != 0 ? nativeGetFrameCount(mNativePtr) : 0;
+	}
+
+	/**
+	 * @return time of the oldest and latest frames in the ring[nsec], null if no frame
+	 */
+	public synchronized long[] getTimeRange() {
+		final long[] range = new long[2];
+		if ((mNativePtr != 0) && (nativeGetTimeRange(mNativePtr, range) == 0)) {
+			return range;
+		}
+		return null;
+	}
+
+	/**
+	 * drop all frames in the ring
+	 */
+	public synchronized void clear() {
+		if (mNativePtr != 0) {
+			nativeClear(mNativePtr);
+		}
+	}
+
+	/**
+	 * pass the frames in the specific time range to the reader in time order.
+	 * Appending frames continues while reading, but the frames that are overwritten
+	 * during reading are skipped.
+	 * @param startNs
+	 * @param endNs
+	 * @param pixelFormat one of UVCCamera.PIXEL_FORMAT_XXX,
+	 * 		PIXEL_FORMAT_NV21 and PIXEL_FORMAT_YUV20SP have same byte order as IFrameCallback
+	 * @param reader
+	 * @return number of frames passed to the reader
+	 */
+	public int read(final long startNs, final long endNs, final int pixelFormat, final FrameReader reader) {
+		final long id;
+		synchronized (this) {
+			id = mNativePtr;
+		}
+		// do not hold the lock while reading, reading may take long time
+		// and the caller should not release this pipeline while reading
+		return id != 0 ? nativeRead(id, startNs, endNs, pixelFormat, reader) : 0;
+	}
+
+	// #nativeCreate and #nativeDestroy are not static methods.
+	private final native long nativeCreate(final String path, final int segmentNum, final int segmentBytes, final long keepDurationNs);
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private static final native int nativeGetFrameCount(final long id_pipeline);
+	private static final native int nativeGetTimeRange(final long id_pipeline, final long[] range);
+	private static final native int nativeClear(final long id_pipeline);
+	private static final native int nativeRead(final long id_pipeline, final long startNs, final long endNs, final int pixelFormat, final FrameReader reader);
+}
@@ -0,0 +1,86 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * JPEG compression with the TurboJPEG API of the bundled libjpeg-turbo (4:2:0 subsampling).
+ * This is thread safe, each call uses its own compressor.
+ */
+public final class TurboJpegCompressor {
+
+	static {
+		// native methods are registered when UVCCamera loads the native libraries
+		try {
+			Class.forName(UVCCamera.class.getName());
+		} catch (final ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private TurboJpegCompressor() {
+		// never instantiate
+	}
+
+	/**
+	 * @return minimum capacity of the destination buffer of #compress
+	 */
+	public static int getBufferSize(final int width, final int height) {
+		return nativeGetJpegBufferSize(width, height);
+	}
+
+	/**
+	 * compress a frame into JPEG
+	 * @param src direct ByteBuffer, its position and limit are ignored
+	 * @param pixelFormat UVCCamera.PIXEL_FORMAT_RGBX or UVCCamera.PIXEL_FORMAT_I420
+	 * @param quality 1-100
+	 * @param dst direct ByteBuffer whose capacity is equal or larger than #getBufferSize,
+	 * position and limit are set to the JPEG data when this returns successfully
+	 * @return size of JPEG data, negative value if error
+	 */
+	public static int compress(final ByteBuffer src, final int width, final int height,
+		final int pixelFormat, final int quality, final ByteBuffer dst) {
+
+		final int result = nativeCompressJpeg(src, width, height, pixelFormat, quality, dst);
+		if (result > 0) {
+			dst.clear();
+			dst.limit(result);
+		}
+		return result;
+	}
+
+	/**
+	 * compress a pooled frame into JPEG, the frame is not released
+	 * @see #compress(ByteBuffer, int, int, int, int, ByteBuffer)
+	 */
+	public static int compress(final UVCFrame frame, final int quality, final ByteBuffer dst) {
+		return compress(frame.getBuffer(), frame.getWidth(), frame.getHeight(),
+			frame.getPixelFormat(), quality, dst);
+	}
+
+	private static final native int nativeGetJpegBufferSize(final int width, final int height);
+	private static final native int nativeCompressJpeg(final ByteBuffer src,
+		final int width, final int height, final int pixelFormat, final int quality, final ByteBuffer dst);
+}
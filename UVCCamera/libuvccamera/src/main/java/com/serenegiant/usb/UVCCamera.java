@@ -50,6 +50,8 @@ public class UVCCamera {
 	public static final int DEFAULT_PREVIEW_MIN_FPS = 1;
 	public static final int DEFAULT_PREVIEW_MAX_FPS = 30;
 	public static final float DEFAULT_BANDWIDTH = 1.0f;
+	/** default number of pooled frames for IPooledFrameCallback */
+	public static final int DEFAULT_CALLBACK_POOL_NUM = 4;
 
 	public static final int FRAME_FORMAT_YUYV = 0;
 	public static final int FRAME_FORMAT_MJPEG = 1;
@@ -60,6 +62,13 @@ public class UVCCamera {
 	public static final int PIXEL_FORMAT_RGBX = 3;
 	public static final int PIXEL_FORMAT_YUV420SP = 4;
 	public static final int PIXEL_FORMAT_NV21 = 5;		// = YVU420SemiPlanar
+	public static final int PIXEL_FORMAT_I420 = 6;		// = YUV420Planar
+	public static final int PIXEL_FORMAT_MJPEG = 7;		// compressed frame, only for #setMjpegCallback
+
+	/** drop the frame that arrived when the preview queue is full(default) */
+	public static final int FRAME_DROP_NEWEST = 0;
+	/** drop the oldest queued frame and keep the new one, lower latency */
+	public static final int FRAME_DROP_OLDEST = 1;
 
 	//--------------------------------------------------------------------------------
     public static final int	CTRL_SCANNING		= 0x00000001;	// D0:  Scanning Mode
@@ -132,6 +141,8 @@ public class UVCCamera {
 	protected float mCurrentBandwidthFactor = DEFAULT_BANDWIDTH;
     protected String mSupportedSize;
     protected List<Size> mCurrentSizeList;
+    // keep reference of the pipeline chain while native code passes frames to it
+    protected IPipeline mPipeline;
 	// these fields from here are accessed from native code and do not change name and remove
     protected long mNativePtr;
     protected int mScanningModeMin, mScanningModeMax, mScanningModeDef;
@@ -237,6 +248,8 @@ public class UVCCamera {
     	stopPreview();
     	if (mNativePtr != 0) {
     		nativeRelease(mNativePtr);
+    		AbstractPipeline.detachUpstream(mPipeline, this);
+    		mPipeline = null;
 //    		mNativePtr = 0;	// nativeDestroyを呼ぶのでここでクリアしちゃダメ
     	}
     	if (mCtrlBlock != null) {
@@ -411,12 +424,63 @@ public class UVCCamera {
     	}
     }
 
+    /**
+     * set frame callback that receives pooled frames
+     * @param callback
+     * @param pixelFormat
+     */
+    public void setPooledFrameCallback(final IPooledFrameCallback callback, final int pixelFormat) {
+    	setPooledFrameCallback(callback, pixelFormat, DEFAULT_CALLBACK_POOL_NUM);
+    }
+
+    /**
+     * set frame callback that receives pooled frames,
+     * the frames are kept until UVCFrame#release is called, so you can process them asynchronously.
+     * this replaces IFrameCallback if it is set and #setFrameCallback(null, 0) clears this.
+     * @param callback
+     * @param pixelFormat
+     * @param poolNum maximum number of frames that you can hold at once
+     */
+    public void setPooledFrameCallback(final IPooledFrameCallback callback, final int pixelFormat, final int poolNum) {
+    	if (mNativePtr != 0) {
+    		nativeSetPooledFrameCallback(mNativePtr, callback, pixelFormat, poolNum);
+    	}
+    }
+
+    /**
+     * set callback that receives the compressed frames as they came from the camera
+     * while previewing with FRAME_FORMAT_MJPEG, the pixel format of the frames is PIXEL_FORMAT_MJPEG.
+     * Each frame is a complete JPEG data, the standard Huffman table is inserted if the camera omitted it.
+     * When no preview display, capture display, frame callback nor pipeline is set,
+     * the frames are not decoded at all. The callback is called on the preview thread,
+     * so it should return quickly and release the frame after processing it on other thread.
+     * #stopPreview clears this.
+     * @param callback null to clear
+     * @param poolNum maximum number of frames that you can hold at once
+     */
+    public void setMjpegCallback(final IPooledFrameCallback callback, final int poolNum) {
+    	if (mNativePtr != 0) {
+    		nativeSetMjpegCallback(mNativePtr, callback, poolNum);
+    	}
+    }
+
     /**
      * start preview
      */
     public synchronized void startPreview() {
+    	startPreview(false);
+    }
+
+    /**
+     * start preview
+     * @param headless if true, preview starts without preview display and frames are never
+     * converted to RGBX nor drawn to the preview/capture display even if they are set.
+     * Frames are only passed to IFrameCallback/IPooledFrameCallback, #setMjpegCallback and IPipeline,
+     * use them for encoding. see #getSavedCpuTimePerFrame
+     */
+    public synchronized void startPreview(final boolean headless) {
     	if (mCtrlBlock != null) {
-    		nativeStartPreview(mNativePtr);
+    		nativeStartPreview(mNativePtr, headless);
     	}
     }
 
@@ -425,11 +489,135 @@ public class UVCCamera {
      */
     public synchronized void stopPreview() {
     	setFrameCallback(null, 0);
+    	setMjpegCallback(null, 0);
     	if (mCtrlBlock != null) {
     		nativeStopPreview(mNativePtr);
     	}
     }
 
+    /**
+     * bytes of native memory that the stream currently uses for the transfer buffers
+     * and the buffers for assembling frames. The buffers are sized for the negotiated
+     * frame size and grow when a larger frame arrives.
+     * @return 0 if not streaming
+     */
+    public synchronized long getStreamBufferBytes() {
+    	if (mCtrlBlock != null) {
+    		return nativeGetStreamBufferBytes(mNativePtr);
+    	}
+    	return 0;
+    }
+
+    /**
+     * time that headless preview saves for each frame by skipping RGBX conversion.
+     * This is the conversion time measured while previewing with the preview display
+     * at the same frame size, headless preview itself never converts frames to measure it.
+     * @return [nsec], 0 if not headless preview or not measured at the current size
+     */
+    public synchronized long getSavedCpuTimePerFrame() {
+    	if (mCtrlBlock != null) {
+    		return nativeGetSavedCpuTimePerFrame(mNativePtr);
+    	}
+    	return 0;
+    }
+
+    /**
+     * number of frames that skipped RGBX conversion since headless preview started,
+     * multiply by #getSavedCpuTimePerFrame to get the total saved CPU time
+     */
+    public synchronized long getHeadlessFrames() {
+    	if (mCtrlBlock != null) {
+    		return nativeGetHeadlessFrames(mNativePtr);
+    	}
+    	return 0;
+    }
+
+    /**
+     * set number of threads for color conversion of the preview, the capture surface
+     * and IFrameCallback. Large frames of packed formats(YUYV/RGB) are split into bands of lines
+     * and converted in parallel, other frames are converted on single thread.
+     * This is effective only after the camera is opened and kept until it is closed.
+     * @param numThreads number of threads including the thread that requests conversion,
+     * 1 to convert on single thread(default), up to 8
+     * @return actual number of threads, negative value if the camera is not opened
+     */
+    public synchronized int setConversionThreads(final int numThreads) {
+    	if (mCtrlBlock != null) {
+    		return nativeSetConversionThreads(mNativePtr, numThreads);
+    	}
+    	return -1;
+    }
+
+    /**
+     * @return number of threads for color conversion
+     */
+    public synchronized int getConversionThreads() {
+    	if (mCtrlBlock != null) {
+    		return nativeGetConversionThreads(mNativePtr);
+    	}
+    	return 1;
+    }
+
+    /**
+     * set which frame to drop when the preview can not keep up with the frames from the camera.
+     * The frame for capturing and IFrameCallback is always the latest one.
+     * This is effective only after the camera is opened and kept until it is closed.
+     * @param policy FRAME_DROP_NEWEST or FRAME_DROP_OLDEST
+     * @throws IllegalArgumentException
+     */
+    public synchronized void setFrameDropPolicy(final int policy) {
+    	if ((policy != FRAME_DROP_NEWEST) && (policy != FRAME_DROP_OLDEST)) {
+    		throw new IllegalArgumentException("unknown frame drop policy:" + policy);
+    	}
+    	if (mCtrlBlock != null) {
+    		nativeSetFrameDropPolicy(mNativePtr, policy);
+    	}
+    }
+
+    /**
+     * @return FRAME_DROP_NEWEST or FRAME_DROP_OLDEST
+     */
+    public synchronized int getFrameDropPolicy() {
+    	if (mCtrlBlock != null) {
+    		return nativeGetFrameDropPolicy(mNativePtr);
+    	}
+    	return FRAME_DROP_NEWEST;
+    }
+
+    /**
+     * set the head of pipeline chain that receives every decoded preview frame.
+     * Each frame is decoded only once and the pipelines copy it into their own buffers,
+     * so you can add consumers with DistributePipeline without decoding again.
+     * You should start the pipelines yourself. Releasing the pipeline detaches it from this camera.
+     * @param pipeline null to clear
+     */
+    public synchronized void setPipeline(final IPipeline pipeline) {
+    	if (mCtrlBlock != null) {
+    		nativeSetPipeline(mNativePtr, pipeline);
+    		if (mPipeline != pipeline) {
+    			AbstractPipeline.detachUpstream(mPipeline, this);
+    		}
+    		mPipeline = pipeline;
+    		AbstractPipeline.attachUpstream(pipeline, this);
+    	}
+    }
+
+    /**
+     * clear the pipeline if it is the head of pipeline chain, called from AbstractPipeline#release
+     */
+    /*package*/ synchronized void detachPipeline(final IPipeline pipeline) {
+    	if ((mPipeline == pipeline) && (pipeline != null)) {
+    		setPipeline(null);
+    	}
+    }
+
+    /**
+     * @return current head of pipeline chain, null if not set
+     */
+    public synchronized IPipeline getPipeline() {
+    	return mPipeline;
+    }
+
     /**
      * destroy UVCCamera object
      */
@@ -1040,10 +1228,20 @@ public class UVCCamera {
 
     private static final native int nativeSetPreviewSize(final long id_camera, final int width, final int height, final int min_fps, final int max_fps, final int mode, final float bandwidth);
     private static final native String nativeGetSupportedSize(final long id_camera);
-    private static final native int nativeStartPreview(final long id_camera);
+    private static final native int nativeStartPreview(final long id_camera, final boolean headless);
     private static final native int nativeStopPreview(final long id_camera);
+    private static final native long nativeGetStreamBufferBytes(final long id_camera);
+    private static final native long nativeGetSavedCpuTimePerFrame(final long id_camera);
+    private static final native long nativeGetHeadlessFrames(final long id_camera);
+    private static final native int nativeSetConversionThreads(final long id_camera, final int numThreads);
+    private static final native int nativeGetConversionThreads(final long id_camera);
+    private static final native int nativeSetFrameDropPolicy(final long id_camera, final int policy);
+    private static final native int nativeGetFrameDropPolicy(final long id_camera);
+    private static final native int nativeSetPipeline(final long id_camera, final IPipeline pipeline);
     private static final native int nativeSetPreviewDisplay(final long id_camera, final Surface surface);
     private static final native int nativeSetFrameCallback(final long mNativePtr, final IFrameCallback callback, final int pixelFormat);
+    private static final native int nativeSetPooledFrameCallback(final long mNativePtr, final IPooledFrameCallback callback, final int pixelFormat, final int poolNum);
+    private static final native int nativeSetMjpegCallback(final long mNativePtr, final IPooledFrameCallback callback, final int poolNum);
 
 //**********************************************************************
     /**
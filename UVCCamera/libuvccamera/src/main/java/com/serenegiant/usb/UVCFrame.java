@@ -0,0 +1,100 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pooled frame passed to IPooledFrameCallback.
+ * The instances and their direct ByteBuffer are created by the native library
+ * only when the pool is created or the frame size changed, and reused for each frame.
+ * You should not access this frame after calling #release.
+ */
+public final class UVCFrame {
+	// these fields are accessed from native code
+	private final long mNativePool;
+	private final int mIndex;
+	private ByteBuffer mBuffer;
+	private int mBytes;
+	private int mWidth;
+	private int mHeight;
+	private int mPixelFormat;
+	private int mSequence;
+	private long mCaptureTimeNs;
+	private boolean mReleased = true;
+
+	// this is instantiated only from native code
+	private UVCFrame(final long pool, final int index) {
+		mNativePool = pool;
+		mIndex = index;
+	}
+
+	/**
+	 * @return direct ByteBuffer that holds the frame data, its limit is set to the size of the frame
+	 */
+	public ByteBuffer getBuffer() {
+		mBuffer.clear();
+		mBuffer.limit(mBytes);
+		return mBuffer;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * @return one of UVCCamera.PIXEL_FORMAT_XXX
+	 */
+	public int getPixelFormat() {
+		return mPixelFormat;
+	}
+
+	public int getSequence() {
+		return mSequence;
+	}
+
+	/**
+	 * @return capture time[nsec], same time base as System#nanoTime
+	 */
+	public long getCaptureTimeNs() {
+		return mCaptureTimeNs;
+	}
+
+	/**
+	 * return this frame to the pool, calling this more than once is ignored.
+	 * you can call this on any thread
+	 */
+	public void release() {
+		synchronized (this) {
+			if (mReleased) return;
+			mReleased = true;
+		}
+		nativeRelease(mNativePool, mIndex);
+	}
+
+	private static final native void nativeRelease(final long pool, final int index);
+}
@@ -31,3 +31,5 @@ APP_PLATFORM := android-16
 APP_ABI :=  armeabi-v7a
 #APP_OPTIM := debug
 APP_OPTIM := release
+# pipeline classes need STL
+APP_STL := c++_static
@@ -36,6 +36,7 @@ CFLAGS := -Werror
 LOCAL_C_INCLUDES := \
 		$(LOCAL_PATH)/ \
 		$(LOCAL_PATH)/../ \
+		$(LOCAL_PATH)/pipeline \
 		$(LOCAL_PATH)/../rapidjson/include \
 
 LOCAL_CFLAGS := $(LOCAL_C_INCLUDES:%=-I%)
@@ -43,6 +44,9 @@ LOCAL_CFLAGS += -DANDROID_NDK
 LOCAL_CFLAGS += -DLOG_NDEBUG
 LOCAL_CFLAGS += -DACCESS_RAW_DESCRIPTORS
 LOCAL_CFLAGS += -O3 -fstrict-aliasing -fprefetch-loop-arrays
+# pipeline classes use std::list/auto and catch exceptions from the frame handlers
+LOCAL_CPPFLAGS += -std=c++11
+LOCAL_CPP_FEATURES += exceptions
 
 LOCAL_LDLIBS := -L$(SYSROOT)/usr/lib -ldl
 LOCAL_LDLIBS += -llog
@@ -51,7 +55,7 @@ LOCAL_LDLIBS += -ljnigraphics
 LOCAL_LDLIBS += -lbitmap
 
 
-LOCAL_SHARED_LIBRARIES += usb100 uvc
+LOCAL_SHARED_LIBRARIES += usb100 uvc jpeg-turbo1500
 
 LOCAL_ARM_MODE := arm
 
@@ -60,9 +64,24 @@ LOCAL_SRC_FILES := \
 		utilbase.cpp \
 		UVCCamera.cpp \
 		UVCPreview.cpp \
+		TimeWatermark.cpp \
+		ConvertWorkers.cpp \
+		CallbackFramePool.cpp \
 		UVCButtonCallback.cpp \
 		UVCStatusCallback.cpp \
 		Parameters.cpp \
+		pipeline/common_utils.cpp \
+		pipeline/pipeline_helper.cpp \
+		pipeline/IPipeline.cpp \
+		pipeline/AbstractBufferedPipeline.cpp \
+		pipeline/SimpleBufferedPipeline.cpp \
+		pipeline/RingFileBufferedPipeline.cpp \
+		pipeline/CaptureBasePipeline.cpp \
+		pipeline/CallbackPipeline.cpp \
+		pipeline/ConvertPipeline.cpp \
+		pipeline/PreviewPipeline.cpp \
+		pipeline/PublisherPipeline.cpp \
+		pipeline/DistributePipeline.cpp \
 		serenegiant_usb_UVCCamera.cpp
 
 LOCAL_MODULE    := UVCCamera
@@ -0,0 +1,270 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: CallbackFramePool.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#if 1	// set 1 if you don't need debug log
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// w/o LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+//	#undef NDEBUG
+#endif
+
+#include "utilbase.h"
+#include "CallbackFramePool.h"
+
+#define UVCFRAME_CLASS "com/serenegiant/usb/UVCFrame"
+
+/*private*/
+CallbackFramePool::CallbackFramePool(const int num)
+:	slot_num(num > 0 ? num : 1),
+	slots(NULL),
+	in_use_num(0),
+	closing(false),
+	dropped_frames(0) {
+
+	slots = new callback_slot_t[slot_num];
+	memset(slots, 0, sizeof(callback_slot_t) * slot_num);
+}
+
+/*private*/
+CallbackFramePool::~CallbackFramePool() {
+	SAFE_DELETE_ARRAY(slots);
+}
+
+/*public, static*/
+CallbackFramePool *CallbackFramePool::create(JNIEnv *env, const int num) {
+	ENTER();
+
+	CallbackFramePool *pool = new CallbackFramePool(num);
+	if (UNLIKELY(pool->init(env))) {
+		pool->destroy(env);
+		pool = NULL;
+	}
+
+	RETURN(pool, CallbackFramePool *);
+}
+
+/*private*/
+int CallbackFramePool::init(JNIEnv *env) {
+	ENTER();
+
+	jclass clazz = env->FindClass(UVCFRAME_CLASS);
+	if (UNLIKELY(!clazz)) {
+		env->ExceptionClear();
+		LOGE("class %s not found", UVCFRAME_CLASS);
+		RETURN(-1, int);
+	}
+	jmethodID constructor = env->GetMethodID(clazz, "<init>", "(JI)V");
+	fid_buffer = env->GetFieldID(clazz, "mBuffer", "Ljava/nio/ByteBuffer;");
+	fid_bytes = env->GetFieldID(clazz, "mBytes", "I");
+	fid_width = env->GetFieldID(clazz, "mWidth", "I");
+	fid_height = env->GetFieldID(clazz, "mHeight", "I");
+	fid_pixel_format = env->GetFieldID(clazz, "mPixelFormat", "I");
+	fid_sequence = env->GetFieldID(clazz, "mSequence", "I");
+	fid_capture_time_ns = env->GetFieldID(clazz, "mCaptureTimeNs", "J");
+	fid_released = env->GetFieldID(clazz, "mReleased", "Z");
+	int result = -1;
+	if (LIKELY(constructor && fid_buffer && fid_bytes && fid_width && fid_height
+		&& fid_pixel_format && fid_sequence && fid_capture_time_ns && fid_released)) {
+
+		result = 0;
+		for (int i = 0; i < slot_num; i++) {
+			jobject obj = env->NewObject(clazz, constructor, reinterpret_cast<ID_TYPE>(this), i);
+			if (UNLIKELY(!obj)) {
+				result = -1;
+				break;
+			}
+			slots[i].frame_obj = env->NewGlobalRef(obj);
+			env->DeleteLocalRef(obj);
+			// the frame data is owned by this pool, so that converters never reallocate it
+			slots[i].frame = uvc_allocate_frame(0);
+			if (UNLIKELY(!slots[i].frame)) {
+				result = -1;
+				break;
+			}
+			slots[i].frame->library_owns_data = 0;
+		}
+	} else {
+		LOGE("failed to get fields of %s", UVCFRAME_CLASS);
+	}
+	env->ExceptionClear();
+	env->DeleteLocalRef(clazz);
+
+	RETURN(result, int);
+}
+
+/*private*/
+void CallbackFramePool::destroy(JNIEnv *env) {
+	ENTER();
+
+	for (int i = 0; i < slot_num; i++) {
+		callback_slot_t &slot = slots[i];
+		if (slot.buffer_obj) {
+			env->DeleteGlobalRef(slot.buffer_obj);
+		}
+		if (slot.frame_obj) {
+			env->DeleteGlobalRef(slot.frame_obj);
+		}
+		if (slot.frame) {
+			free(slot.frame->data);
+			slot.frame->data = NULL;
+			uvc_free_frame(slot.frame);
+		}
+	}
+	delete this;
+
+	EXIT();
+}
+
+/*public*/
+void CallbackFramePool::close(JNIEnv *env) {
+	ENTER();
+
+	bool can_destroy;
+	pool_mutex.lock();
+	{
+		closing = true;
+		can_destroy = !in_use_num;
+	}
+	pool_mutex.unlock();
+	if (can_destroy) {
+		destroy(env);
+	}
+
+	EXIT();
+}
+
+/**
+ * re-allocate the frame data and the direct ByteBuffer that wraps it
+ * this is called only while the slot is not in use
+ */
+/*private*/
+int CallbackFramePool::update_buffer(JNIEnv *env, callback_slot_t &slot) {
+	if (slot.buffer_obj) {
+		env->DeleteGlobalRef(slot.buffer_obj);
+		slot.buffer_obj = NULL;
+	}
+	jobject buf = env->NewDirectByteBuffer(slot.frame->data, slot.frame->data_bytes);
+	if (UNLIKELY(!buf)) {
+		env->ExceptionClear();
+		return -1;
+	}
+	slot.buffer_obj = env->NewGlobalRef(buf);
+	env->DeleteLocalRef(buf);
+	env->SetObjectField(slot.frame_obj, fid_buffer, slot.buffer_obj);
+	return 0;
+}
+
+/*public*/
+int CallbackFramePool::obtain(JNIEnv *env, const size_t &data_bytes) {
+	int index = -1;
+	pool_mutex.lock();
+	{
+		if (LIKELY(!closing)) {
+			for (int i = 0; i < slot_num; i++) {
+				if (!slots[i].in_use) {
+					slots[i].in_use = true;
+					in_use_num++;
+					index = i;
+					break;
+				}
+			}
+			if (UNLIKELY(index < 0)) {
+				dropped_frames++;
+			}
+		}
+	}
+	pool_mutex.unlock();
+	if (index >= 0) {
+		callback_slot_t &slot = slots[index];
+		if (UNLIKELY(!slot.frame->data || (slot.frame->data_bytes < data_bytes))) {
+			// frame size changed, this happens only on the first frame after changing the size/format
+			void *data = realloc(slot.frame->data, data_bytes);
+			if (UNLIKELY(!data)) {
+				release(env, index);
+				return -1;
+			}
+			slot.frame->data = data;
+			slot.frame->data_bytes = data_bytes;
+			if (UNLIKELY(update_buffer(env, slot))) {
+				release(env, index);
+				return -1;
+			}
+		}
+	}
+	return index;
+}
+
+static inline jlong capture_time_ns(uvc_frame_t *frame) {
+	if (frame->capture_time.tv_sec || frame->capture_time.tv_usec) {
+		return jlong(frame->capture_time.tv_sec) * 1000000000LL + jlong(frame->capture_time.tv_usec) * 1000LL;
+	}
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return jlong(ts.tv_sec) * 1000000000LL + ts.tv_nsec;
+}
+
+/*public*/
+void CallbackFramePool::publish(JNIEnv *env, const int &index, jobject callback_obj, jmethodID on_frame,
+	const size_t &data_bytes, const int &pixel_format) {
+
+	callback_slot_t &slot = slots[index];
+	uvc_frame_t *frame = slot.frame;
+	jobject obj = slot.frame_obj;
+	env->SetIntField(obj, fid_bytes, (jint)data_bytes);
+	env->SetIntField(obj, fid_width, (jint)frame->width);
+	env->SetIntField(obj, fid_height, (jint)frame->height);
+	env->SetIntField(obj, fid_pixel_format, pixel_format);
+	env->SetIntField(obj, fid_sequence, (jint)frame->sequence);
+	env->SetLongField(obj, fid_capture_time_ns, capture_time_ns(frame));
+	env->SetBooleanField(obj, fid_released, JNI_FALSE);
+	env->CallVoidMethod(callback_obj, on_frame, obj);
+	env->ExceptionClear();
+}
+
+/*public*/
+void CallbackFramePool::release(JNIEnv *env, const int &index) {
+	if (UNLIKELY((index < 0) || (index >= slot_num))) return;
+
+	bool can_destroy = false;
+	pool_mutex.lock();
+	{
+		if (LIKELY(slots[index].in_use)) {
+			slots[index].in_use = false;
+			in_use_num--;
+			can_destroy = closing && !in_use_num;
+		}
+	}
+	pool_mutex.unlock();
+	if (can_destroy) {
+		destroy(env);
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: CallbackFramePool.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef CALLBACKFRAMEPOOL_H_
+#define CALLBACKFRAMEPOOL_H_
+
+#include <jni.h>
+#include "Mutex.h"
+#include "libUVCCamera.h"
+
+#pragma interface
+
+using namespace android;
+
+typedef struct callback_slot {
+	volatile bool in_use;
+	uvc_frame_t *frame;		// data is never reallocated while the slot is in use
+	jobject frame_obj;		// global reference of UVCFrame
+	jobject buffer_obj;		// global reference of direct ByteBuffer that wraps frame->data
+} callback_slot_t;
+
+/**
+ * fixed number of frames that are passed to IPooledFrameCallback.
+ * Each slot keeps its UVCFrame object and direct ByteBuffer as global references,
+ * so passing a frame to Java only updates fields of the cached object and no object is created.
+ * A slot is not reused until the consumer calls UVCFrame#release,
+ * so the consumer can keep the frame and process it on other thread without copying.
+ * Frames are dropped while all slots are in use.
+ */
+class CallbackFramePool {
+private:
+	const int slot_num;
+	callback_slot_t *slots;
+	mutable Mutex pool_mutex;
+	int in_use_num;
+	bool closing;
+	uint32_t dropped_frames;
+	// field IDs of UVCFrame
+	jfieldID fid_buffer;
+	jfieldID fid_bytes;
+	jfieldID fid_width;
+	jfieldID fid_height;
+	jfieldID fid_pixel_format;
+	jfieldID fid_sequence;
+	jfieldID fid_capture_time_ns;
+	jfieldID fid_released;
+
+	CallbackFramePool(const int num);
+	~CallbackFramePool();
+	int init(JNIEnv *env);
+	void destroy(JNIEnv *env);
+	int update_buffer(JNIEnv *env, callback_slot_t &slot);
+public:
+	/**
+	 * @return NULL if failed
+	 */
+	static CallbackFramePool *create(JNIEnv *env, const int num);
+	/**
+	 * release the pool, the pool is actually deleted when all slots are released
+	 * you should not access the pool after calling this
+	 */
+	void close(JNIEnv *env);
+	/**
+	 * get free slot that has at least data_bytes of buffer
+	 * @return index of the slot, -1 if all slots are in use
+	 */
+	int obtain(JNIEnv *env, const size_t &data_bytes);
+	inline uvc_frame_t *getFrame(const int &index) { return slots[index].frame; };
+	/**
+	 * pass the slot to Java, the slot is returned to the pool when UVCFrame#release is called
+	 * @param data_bytes number of valid bytes
+	 */
+	void publish(JNIEnv *env, const int &index, jobject callback_obj, jmethodID on_frame,
+		const size_t &data_bytes, const int &pixel_format);
+	/**
+	 * return the slot to the pool, this is called from UVCFrame#release on any thread
+	 */
+	void release(JNIEnv *env, const int &index);
+	uint32_t getDroppedFrames() const { return dropped_frames; };
+};
+
+#endif /* CALLBACKFRAMEPOOL_H_ */
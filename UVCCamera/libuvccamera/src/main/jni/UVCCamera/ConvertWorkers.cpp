@@ -0,0 +1,286 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: ConvertWorkers.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+
+#if 1	// set 1 if you don't need debug log
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// w/o LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+//	#undef NDEBUG
+#endif
+
+#include "utilbase.h"
+#include "ConvertWorkers.h"
+
+/**
+ * output format and bytes per pixel of the conversions that can be split into bands
+ * @return 0 if the conversion can not be split
+ */
+static int band_pixel_bytes(convFunc_t func, const uvc_frame_t *in, enum uvc_frame_format *format) {
+	switch (in->frame_format) {
+	case UVC_FRAME_FORMAT_YUYV:
+	case UVC_FRAME_FORMAT_UYVY:
+	case UVC_FRAME_FORMAT_RGB:
+	case UVC_FRAME_FORMAT_RGBX:
+	case UVC_FRAME_FORMAT_RGB565:
+		// packed formats, a band is a view of the lines
+		if (UNLIKELY(!in->step)) return 0;
+		break;
+	default:
+		return 0;
+	}
+	if ((func == uvc_any2rgbx) || (func == uvc_yuyv2rgbx)) {
+		*format = UVC_FRAME_FORMAT_RGBX;
+		return 4;
+	} else if ((func == uvc_any2rgb565) || (func == uvc_yuyv2rgb565)) {
+		*format = UVC_FRAME_FORMAT_RGB565;
+		return 2;
+	} else if ((func == uvc_any2rgb) || (func == uvc_yuyv2rgb)) {
+		*format = UVC_FRAME_FORMAT_RGB;
+		return 3;
+	}
+	return 0;
+}
+
+ConvertWorkers::ConvertWorkers()
+:	numWorkers(0),
+	mIsRunning(false),
+	generation(0),
+	func(NULL),
+	in(NULL),
+	out(NULL),
+	lines(0),
+	bands(0),
+	bandLines(0),
+	nextBand(0),
+	remaining(0),
+	result(UVC_SUCCESS) {
+
+	ENTER();
+	pthread_mutex_init(&job_mutex, NULL);
+	pthread_mutex_init(&mutex, NULL);
+	pthread_cond_init(&start_sync, NULL);
+	pthread_cond_init(&done_sync, NULL);
+	EXIT();
+}
+
+ConvertWorkers::~ConvertWorkers() {
+	ENTER();
+	pthread_mutex_lock(&job_mutex);
+	stopWorkers();
+	pthread_mutex_unlock(&job_mutex);
+	pthread_cond_destroy(&done_sync);
+	pthread_cond_destroy(&start_sync);
+	pthread_mutex_destroy(&mutex);
+	pthread_mutex_destroy(&job_mutex);
+	EXIT();
+}
+
+/**
+ * this should be called while holding job_mutex
+ */
+void ConvertWorkers::stopWorkers() {
+	pthread_mutex_lock(&mutex);
+	{
+		mIsRunning = false;
+		pthread_cond_broadcast(&start_sync);
+	}
+	pthread_mutex_unlock(&mutex);
+	for (int i = 0; i < numWorkers; i++) {
+		pthread_join(threads[i], NULL);
+	}
+	numWorkers = 0;
+}
+
+int ConvertWorkers::setThreads(const int num_threads) {
+	ENTER();
+
+	int num = num_threads < 1 ? 1 : (num_threads > CONVERT_MAX_THREADS ? CONVERT_MAX_THREADS : num_threads);
+	pthread_mutex_lock(&job_mutex);
+	if (num - 1 != numWorkers) {
+		stopWorkers();
+		mIsRunning = true;
+		for (int i = 0; i < num - 1; i++) {
+			if (UNLIKELY(pthread_create(&threads[i], NULL, worker_thread_func, (void *)this))) {
+				LOGW("failed to create worker thread");
+				break;
+			}
+			numWorkers++;
+		}
+	}
+	num = numWorkers + 1;
+	pthread_mutex_unlock(&job_mutex);
+
+	RETURN(num, int);
+}
+
+int ConvertWorkers::getThreads() {
+	pthread_mutex_lock(&job_mutex);
+	const int num = numWorkers + 1;
+	pthread_mutex_unlock(&job_mutex);
+	return num;
+}
+
+void *ConvertWorkers::worker_thread_func(void *vptr_args) {
+	ConvertWorkers *workers = reinterpret_cast<ConvertWorkers *>(vptr_args);
+	if (LIKELY(workers)) {
+		workers->do_work();
+	}
+	pthread_exit(NULL);
+}
+
+void ConvertWorkers::do_work() {
+	uint32_t last = 0;
+	pthread_mutex_lock(&mutex);
+	for ( ; ; ) {
+		for ( ; mIsRunning && (generation == last) ; ) {
+			pthread_cond_wait(&start_sync, &mutex);
+		}
+		if (UNLIKELY(!mIsRunning)) break;
+		last = generation;
+		pthread_mutex_unlock(&mutex);
+		runBands();
+		pthread_mutex_lock(&mutex);
+	}
+	pthread_mutex_unlock(&mutex);
+}
+
+/**
+ * take bands of current job one by one and convert them until no band remains
+ */
+void ConvertWorkers::runBands() {
+	for ( ; ; ) {
+		pthread_mutex_lock(&mutex);
+		if (nextBand >= bands) {
+			pthread_mutex_unlock(&mutex);
+			break;
+		}
+		const int band = nextBand++;
+		const convFunc_t band_func = func;
+		uvc_frame_t src = *in;
+		uvc_frame_t dst = *out;
+		const int y0 = band * bandLines;
+		const int n = (band == bands - 1) ? lines - y0 : bandLines;
+		pthread_mutex_unlock(&mutex);
+
+		// views of the lines, frame data are not owned by the views
+		src.data = (uint8_t *)src.data + src.step * y0;
+		src.height = n;
+		src.data_bytes = src.actual_bytes = src.step * n;
+		src.library_owns_data = 0;
+		dst.data = (uint8_t *)dst.data + dst.step * y0;
+		dst.height = n;
+		dst.data_bytes = dst.actual_bytes = dst.step * n;
+		dst.library_owns_data = 0;
+		const uvc_error_t r = band_func(&src, &dst);
+
+		pthread_mutex_lock(&mutex);
+		if (UNLIKELY(r)) result = r;
+		if (--remaining == 0) {
+			pthread_cond_signal(&done_sync);
+		}
+		pthread_mutex_unlock(&mutex);
+	}
+}
+
+uvc_error_t ConvertWorkers::convert(convFunc_t func, uvc_frame_t *in, uvc_frame_t *out) {
+	enum uvc_frame_format format;
+	const int pixel_bytes = band_pixel_bytes(func, in, &format);
+	const int height = in->height;
+	if (!numWorkers || !pixel_bytes || (height < CONVERT_MIN_BAND_LINES * 2)) {
+		return func(in, out);
+	}
+
+	pthread_mutex_lock(&job_mutex);
+	const int num_threads = numWorkers + 1;
+	if (UNLIKELY(num_threads < 2)) {
+		pthread_mutex_unlock(&job_mutex);
+		return func(in, out);
+	}
+	// set up the output frame as func does, then each band only writes its lines
+	const int width = in->width;
+	if (out->library_owns_data) {
+		if (UNLIKELY(uvc_ensure_frame_size(out, width * height * pixel_bytes))) {
+			pthread_mutex_unlock(&job_mutex);
+			return UVC_ERROR_NO_MEM;
+		}
+		out->step = width * pixel_bytes;
+		out->width = width;
+		out->height = height;
+	}
+	const int out_lines = (int)(out->step ? out->data_bytes / out->step : 0);
+	const int num_lines = (int)out->height < height ? (int)out->height : height;
+	if (UNLIKELY(!out->step || (out_lines < num_lines))) {
+		pthread_mutex_unlock(&job_mutex);
+		return func(in, out);
+	}
+
+	pthread_mutex_lock(&mutex);
+	{
+		this->func = func;
+		this->in = in;
+		this->out = out;
+		lines = num_lines;
+		// multiple of 4 lines, some converters process 4 lines at once
+		bandLines = ((num_lines / num_threads) + 3) & ~3;
+		if (bandLines < CONVERT_MIN_BAND_LINES) bandLines = CONVERT_MIN_BAND_LINES;
+		bands = (num_lines + bandLines - 1) / bandLines;
+		nextBand = 0;
+		remaining = bands;
+		result = UVC_SUCCESS;
+		generation++;
+		pthread_cond_broadcast(&start_sync);
+	}
+	pthread_mutex_unlock(&mutex);
+
+	runBands();
+
+	pthread_mutex_lock(&mutex);
+	{
+		for ( ; remaining > 0 ; ) {
+			pthread_cond_wait(&done_sync, &mutex);
+		}
+	}
+	const uvc_error_t r = result;
+	pthread_mutex_unlock(&mutex);
+
+	out->width = in->width;
+	out->height = in->height;
+	out->frame_format = format;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->source = in->source;
+	if (out->library_owns_data) {
+		out->actual_bytes = width * height * pixel_bytes;
+	}
+	pthread_mutex_unlock(&job_mutex);
+
+	return r;
+}
@@ -0,0 +1,87 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: ConvertWorkers.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef CONVERTWORKERS_H_
+#define CONVERTWORKERS_H_
+
+#include <pthread.h>
+#include "libUVCCamera.h"
+
+#pragma interface
+
+typedef uvc_error_t (*convFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
+
+// max number of threads including the caller thread
+#define CONVERT_MAX_THREADS 8
+// frames with fewer lines than this are converted on the caller thread
+#define CONVERT_MIN_BAND_LINES 64
+
+/**
+ * split a frame conversion into bands of lines and convert them on worker threads
+ * and the caller thread in parallel.
+ * Only the conversions between packed formats can be split, each band is converted
+ * by the same function on a view of the frame, so the result is same as converting whole frame at once.
+ * Other conversions like planar formats or MJPEG are executed on the caller thread.
+ * One conversion is executed at a time, the callers on other threads wait.
+ */
+class ConvertWorkers {
+private:
+	pthread_mutex_t job_mutex;		// serialize conversions and changing threads
+	pthread_mutex_t mutex;			// guard following fields
+	pthread_cond_t start_sync;
+	pthread_cond_t done_sync;
+	pthread_t threads[CONVERT_MAX_THREADS];
+	int numWorkers;					// number of worker threads, excluding the caller thread
+	volatile bool mIsRunning;
+	// current job
+	uint32_t generation;
+	convFunc_t func;
+	uvc_frame_t *in, *out;
+	int lines;
+	int bands;
+	int bandLines;
+	int nextBand;
+	int remaining;
+	uvc_error_t result;
+
+	static void *worker_thread_func(void *vptr_args);
+	void do_work();
+	void runBands();
+	void stopWorkers();
+public:
+	ConvertWorkers();
+	~ConvertWorkers();
+	/**
+	 * set number of threads for conversion
+	 * @param num_threads including the caller thread, 1 disables the worker threads
+	 */
+	int setThreads(const int num_threads);
+	int getThreads();
+	/**
+	 * convert in to out with func, same as func(in, out)
+	 */
+	uvc_error_t convert(convFunc_t func, uvc_frame_t *in, uvc_frame_t *out);
+};
+
+#endif /* CONVERTWORKERS_H_ */
@@ -0,0 +1,354 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: TimeWatermark.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <sys/time.h>
+
+#if 1	// set 1 if you don't need debug log
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// w/o LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+//	#undef NDEBUG
+#endif
+
+#include "utilbase.h"
+#include "TimeWatermark.h"
+
+// glyph is 5x7 dots, cell is 8x9 dots including 1 dot outline and 1 dot spacing
+#define GLYPH_WIDTH 5
+#define GLYPH_HEIGHT 7
+#define CELL_DOTS_X 8
+#define CELL_DOTS_Y 9
+// luma values for foreground and outline(video range)
+#define LUMA_FOREGROUND 235
+#define LUMA_OUTLINE 16
+#define CHROMA_NEUTRAL 128
+
+#define MASK_NONE 0
+#define MASK_FILL 1
+
+// each byte is one row, bit4 is the left most dot
+static const uint8_t GLYPHS[WATERMARK_NUM_GLYPHS][GLYPH_HEIGHT] = {
+	{ 0x0e, 0x11, 0x13, 0x15, 0x19, 0x11, 0x0e },	// 0
+	{ 0x04, 0x0c, 0x04, 0x04, 0x04, 0x04, 0x0e },	// 1
+	{ 0x0e, 0x11, 0x01, 0x02, 0x04, 0x08, 0x1f },	// 2
+	{ 0x1f, 0x02, 0x04, 0x02, 0x01, 0x11, 0x0e },	// 3
+	{ 0x02, 0x06, 0x0a, 0x12, 0x1f, 0x02, 0x02 },	// 4
+	{ 0x1f, 0x10, 0x1e, 0x01, 0x01, 0x11, 0x0e },	// 5
+	{ 0x06, 0x08, 0x10, 0x1e, 0x11, 0x11, 0x0e },	// 6
+	{ 0x1f, 0x01, 0x02, 0x04, 0x08, 0x08, 0x08 },	// 7
+	{ 0x0e, 0x11, 0x11, 0x0e, 0x11, 0x11, 0x0e },	// 8
+	{ 0x0e, 0x11, 0x11, 0x0f, 0x01, 0x02, 0x0c },	// 9
+	{ 0x00, 0x00, 0x00, 0x1f, 0x00, 0x00, 0x00 },	// -
+	{ 0x00, 0x0c, 0x0c, 0x00, 0x0c, 0x0c, 0x00 },	// :
+	{ 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00 },	// space
+};
+
+static inline int glyph_index(const char c) {
+	if ((c >= '0') && (c <= '9')) return c - '0';
+	if (c == '-') return 10;
+	if (c == ':') return 11;
+	return 12;
+}
+
+// returns true if the dot at (x, y) on the cell is a part of the glyph
+static inline bool is_glyph_dot(const int glyph, const int x, const int y) {
+	const int gx = x - 1, gy = y - 1;
+	if ((gx < 0) || (gx >= GLYPH_WIDTH) || (gy < 0) || (gy >= GLYPH_HEIGHT))
+		return false;
+	return (GLYPHS[glyph][gy] >> (GLYPH_WIDTH - 1 - gx)) & 1;
+}
+
+static inline void put_digits(char *dst, int value, const int digits) {
+	for (int i = digits - 1; i >= 0; i--) {
+		dst[i] = '0' + (value % 10);
+		value /= 10;
+	}
+}
+
+TimeWatermark::TimeWatermark()
+:	frameWidth(0),
+	frameHeight(0),
+	scale(0),
+	cellWidth(0),
+	cellHeight(0),
+	posX(0),
+	posY(0),
+	atlasLuma(NULL),
+	atlasMask(NULL),
+	stripLuma(NULL),
+	stripMask(NULL),
+	lastSec(-1) {
+
+	ENTER();
+	memset(text, 0, sizeof(text));
+	EXIT();
+}
+
+TimeWatermark::~TimeWatermark() {
+	ENTER();
+	release();
+	EXIT();
+}
+
+void TimeWatermark::release() {
+	SAFE_FREE(atlasLuma);
+	SAFE_FREE(atlasMask);
+	SAFE_FREE(stripLuma);
+	SAFE_FREE(stripMask);
+	frameWidth = frameHeight = 0;
+}
+
+/**
+ * (re)allocate the atlas and the text strip for specific frame size
+ * this is called only when the frame size changed
+ */
+int TimeWatermark::configure(const int width, const int height) {
+	ENTER();
+
+	release();
+	scale = height / 180;
+	if (scale < 1) scale = 1;
+	cellWidth = CELL_DOTS_X * scale;	// always even, keep chroma pairs aligned
+	cellHeight = CELL_DOTS_Y * scale;
+	posX = (cellHeight / 2) & ~1;
+	posY = cellHeight / 2;
+	const int strip_width = cellWidth * WATERMARK_TEXT_LENGTH;
+	if (UNLIKELY((posX + strip_width > width) || (posY + cellHeight > height))) {
+		LOGW("frame is too small for watermark:(%d,%d)", width, height);
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	const size_t cell_bytes = cellWidth * cellHeight;
+	atlasLuma = (uint8_t *)malloc(cell_bytes * WATERMARK_NUM_GLYPHS);
+	atlasMask = (uint8_t *)malloc(cell_bytes * WATERMARK_NUM_GLYPHS);
+	stripLuma = (uint8_t *)malloc(cell_bytes * WATERMARK_TEXT_LENGTH);
+	stripMask = (uint8_t *)malloc(cell_bytes * WATERMARK_TEXT_LENGTH);
+	if (UNLIKELY(!atlasLuma || !atlasMask || !stripLuma || !stripMask)) {
+		release();
+		RETURN(UVC_ERROR_NO_MEM, int);
+	}
+	frameWidth = width;
+	frameHeight = height;
+	renderAtlas();
+	// force re-composing all characters on next update
+	memset(text, 0, sizeof(text));
+	lastSec = -1;
+
+	RETURN(0, int);
+}
+
+/**
+ * render all glyphs with outline into the atlas
+ */
+void TimeWatermark::renderAtlas() {
+	const size_t cell_bytes = cellWidth * cellHeight;
+	for (int g = 0; g < WATERMARK_NUM_GLYPHS; g++) {
+		uint8_t *luma = atlasLuma + cell_bytes * g;
+		uint8_t *mask = atlasMask + cell_bytes * g;
+		for (int dy = 0; dy < CELL_DOTS_Y; dy++) {
+			for (int dx = 0; dx < CELL_DOTS_X; dx++) {
+				uint8_t l = 0, m = MASK_NONE;
+				if (is_glyph_dot(g, dx, dy)) {
+					l = LUMA_FOREGROUND;
+					m = MASK_FILL;
+				} else {
+					// outline if any of 8 neighbours is a part of the glyph
+					for (int ny = dy - 1; (ny <= dy + 1) && !m; ny++) {
+						for (int nx = dx - 1; nx <= dx + 1; nx++) {
+							if (is_glyph_dot(g, nx, ny)) {
+								l = LUMA_OUTLINE;
+								m = MASK_FILL;
+								break;
+							}
+						}
+					}
+				}
+				// expand the dot to scale x scale pixels
+				for (int sy = 0; sy < scale; sy++) {
+					const int offset = (dy * scale + sy) * cellWidth + dx * scale;
+					memset(luma + offset, l, scale);
+					memset(mask + offset, m, scale);
+				}
+			}
+		}
+	}
+}
+
+/**
+ * copy specific glyph from the atlas into the text strip
+ */
+void TimeWatermark::renderCell(const int index, const char c) {
+	const size_t cell_bytes = cellWidth * cellHeight;
+	const int g = glyph_index(c);
+	const uint8_t *src_luma = atlasLuma + cell_bytes * g;
+	const uint8_t *src_mask = atlasMask + cell_bytes * g;
+	const int strip_step = cellWidth * WATERMARK_TEXT_LENGTH;
+	uint8_t *dst_luma = stripLuma + cellWidth * index;
+	uint8_t *dst_mask = stripMask + cellWidth * index;
+	for (int y = 0; y < cellHeight; y++) {
+		memcpy(dst_luma, src_luma, cellWidth);
+		memcpy(dst_mask, src_mask, cellWidth);
+		src_luma += cellWidth; src_mask += cellWidth;
+		dst_luma += strip_step; dst_mask += strip_step;
+	}
+}
+
+/**
+ * format the time and re-compose only the characters that changed
+ */
+void TimeWatermark::updateText(const time_t sec) {
+	if (LIKELY(sec == lastSec)) return;
+	lastSec = sec;
+
+	struct tm t;
+	localtime_r(&sec, &t);
+	char work[WATERMARK_TEXT_LENGTH + 1];
+	put_digits(work, t.tm_year + 1900, 4);
+	work[4] = '-';
+	put_digits(work + 5, t.tm_mon + 1, 2);
+	work[7] = '-';
+	put_digits(work + 8, t.tm_mday, 2);
+	work[10] = ' ';
+	put_digits(work + 11, t.tm_hour, 2);
+	work[13] = ':';
+	put_digits(work + 14, t.tm_min, 2);
+	work[16] = ':';
+	put_digits(work + 17, t.tm_sec, 2);
+	work[WATERMARK_TEXT_LENGTH] = '\0';
+
+	for (int i = 0; i < WATERMARK_TEXT_LENGTH; i++) {
+		if (work[i] != text[i]) {
+			renderCell(i, work[i]);
+			text[i] = work[i];
+		}
+	}
+}
+
+int TimeWatermark::apply(uvc_frame_t *frame) {
+	struct timeval tv;
+	gettimeofday(&tv, NULL);
+	return apply(frame, tv.tv_sec);
+}
+
+int TimeWatermark::apply(uvc_frame_t *frame, const time_t sec) {
+	if (UNLIKELY(!frame || !frame->data))
+		return UVC_ERROR_NOT_SUPPORTED;
+	switch (frame->frame_format) {
+	case UVC_FRAME_FORMAT_YUYV:
+	case UVC_FRAME_FORMAT_I420:
+	case UVC_FRAME_FORMAT_NV12:
+	case UVC_FRAME_FORMAT_NV21:
+		break;
+	default:
+		return UVC_ERROR_NOT_SUPPORTED;
+	}
+
+	const int width = frame->width;
+	const int height = frame->height;
+	if (UNLIKELY((width != frameWidth) || (height != frameHeight))) {
+		const int result = configure(width, height);
+		if (UNLIKELY(result)) return result;
+	}
+	updateText(sec);
+
+	if (frame->frame_format == UVC_FRAME_FORMAT_YUYV)
+		applyYUYV(frame);
+	else
+		applyYUV420(frame);
+
+	return 0;
+}
+
+/**
+ * copy the strip into the frame, YUYV has 2 bytes/pixel
+ * and 2 pixels share one pair of chroma samples
+ */
+void TimeWatermark::applyYUYV(uvc_frame_t *frame) {
+	const int width = frame->width;
+	const int step = frame->step ? frame->step : width * 2;
+	const int strip_width = cellWidth * WATERMARK_TEXT_LENGTH;
+	const uint8_t *luma = stripLuma;
+	const uint8_t *mask = stripMask;
+	uint8_t *row = (uint8_t *)frame->data + posY * step + posX * 2;
+	for (int y = 0; y < cellHeight; y++) {
+		uint8_t *yuyv = row;
+		for (int x = 0; x < strip_width; x += 2) {
+			const uint8_t m0 = mask[x], m1 = mask[x + 1];
+			if (m0 | m1) {
+				if (m0) yuyv[0] = luma[x];
+				if (m1) yuyv[2] = luma[x + 1];
+				yuyv[1] = yuyv[3] = CHROMA_NEUTRAL;
+			}
+			yuyv += 4;
+		}
+		luma += strip_width;
+		mask += strip_width;
+		row += step;
+	}
+}
+
+/**
+ * copy the strip into the luma plane, 2x2 pixels share one pair of chroma samples
+ * and the chroma is set to neutral when any of them is masked.
+ * step is the row pitch of the luma plane and the chroma plane(s) follow height rows of it,
+ * a row of the U/V planes of I420 has half of step and a row of the UV plane of NV12/NV21 has step bytes
+ */
+void TimeWatermark::applyYUV420(uvc_frame_t *frame) {
+	const int height = frame->height;
+	const bool planar = frame->frame_format == UVC_FRAME_FORMAT_I420;
+	const int step = frame->step ? frame->step : frame->width;
+	// same as (width + 1) / 2 samples of U/V or pairs of UV for the tightly packed frame
+	const int chroma_step = planar ? (step + 1) >> 1 : (step + 1) & ~1;
+	const int strip_width = cellWidth * WATERMARK_TEXT_LENGTH;
+	uint8_t *y_plane = (uint8_t *)frame->data;
+	uint8_t *u_plane = y_plane + step * height;
+	uint8_t *v_plane = u_plane + chroma_step * ((height + 1) >> 1);
+	const uint8_t *luma = stripLuma;
+	const uint8_t *mask = stripMask;
+	uint8_t *row = y_plane + posY * step + posX;
+	for (int y = 0; y < cellHeight; y++) {
+		const int cy = (posY + y) >> 1;
+		uint8_t *u = planar ? u_plane + cy * chroma_step + (posX >> 1) : u_plane + cy * chroma_step + posX;
+		uint8_t *v = planar ? v_plane + cy * chroma_step + (posX >> 1) : u + 1;
+		const int chroma_step = planar ? 1 : 2;
+		for (int x = 0; x < strip_width; x += 2) {
+			const uint8_t m0 = mask[x], m1 = mask[x + 1];
+			if (m0 | m1) {
+				if (m0) row[x] = luma[x];
+				if (m1) row[x + 1] = luma[x + 1];
+				*u = *v = CHROMA_NEUTRAL;
+			}
+			u += chroma_step;
+			v += chroma_step;
+		}
+		luma += strip_width;
+		mask += strip_width;
+		row += step;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: TimeWatermark.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef TIMEWATERMARK_H_
+#define TIMEWATERMARK_H_
+
+#include <time.h>
+#include "libUVCCamera.h"
+
+#pragma interface
+
+// "YYYY-MM-DD HH:MM:SS"
+#define WATERMARK_TEXT_LENGTH 19
+// '0'-'9', '-', ':', ' '
+#define WATERMARK_NUM_GLYPHS 13
+
+/**
+ * burn the wall clock time into YUYV or YUV420(I420/NV12/NV21) frames in place.
+ * glyphs are pre-rendered into a luma/mask atlas when the frame size changes,
+ * the text strip is re-composed only for the characters that changed since the last second
+ * and each frame only gets the strip copied into its luma samples.
+ * no memory is allocated for each frame.
+ */
+class TimeWatermark {
+private:
+	int frameWidth, frameHeight;
+	int scale;
+	int cellWidth, cellHeight;
+	int posX, posY;
+	// pre-rendered glyphs, WATERMARK_NUM_GLYPHS x (cellWidth x cellHeight)
+	uint8_t *atlasLuma;
+	uint8_t *atlasMask;
+	// composed text, (WATERMARK_TEXT_LENGTH x cellWidth) x cellHeight
+	uint8_t *stripLuma;
+	uint8_t *stripMask;
+	time_t lastSec;
+	char text[WATERMARK_TEXT_LENGTH + 1];
+
+	void release();
+	int configure(const int width, const int height);
+	void renderAtlas();
+	void renderCell(const int index, const char c);
+	void updateText(const time_t sec);
+	void applyYUYV(uvc_frame_t *frame);
+	void applyYUV420(uvc_frame_t *frame);
+public:
+	TimeWatermark();
+	~TimeWatermark();
+	/**
+	 * stamp current wall clock time into specific YUYV/I420/NV12/NV21 frame
+	 * @return 0 if success, UVC_ERROR_NOT_SUPPORTED if the frame format is not supported
+	 */
+	int apply(uvc_frame_t *frame);
+	/**
+	 * stamp specific time into specific frame, mainly for testing
+	 */
+	int apply(uvc_frame_t *frame, const time_t sec);
+};
+
+#endif /* TIMEWATERMARK_H_ */
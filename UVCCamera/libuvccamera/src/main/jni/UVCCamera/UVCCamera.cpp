@@ -264,21 +264,30 @@ int UVCCamera::setPreviewDisplay(ANativeWindow *preview_window) {
 	RETURN(result, int);
 }
 
-int UVCCamera::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format) {
+int UVCCamera::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, int pool_num) {
 	ENTER();
 	int result = EXIT_FAILURE;
 	if (mPreview) {
-		result = mPreview->setFrameCallback(env, frame_callback_obj, pixel_format);
+		result = mPreview->setFrameCallback(env, frame_callback_obj, pixel_format, pool_num);
 	}
 	RETURN(result, int);
 }
 
-int UVCCamera::startPreview() {
+int UVCCamera::setMjpegCallback(JNIEnv *env, jobject mjpeg_callback_obj, int pool_num) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setMjpegCallback(env, mjpeg_callback_obj, pool_num);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::startPreview(bool headless) {
 	ENTER();
 
 	int result = EXIT_FAILURE;
 	if (mDeviceHandle) {
-		return mPreview->startPreview();
+		return mPreview->startPreview(headless);
 	}
 	RETURN(result, int);
 }
@@ -291,6 +300,53 @@ int UVCCamera::stopPreview() {
 	RETURN(0, int);
 }
 
+size_t UVCCamera::getStreamBufferBytes() {
+	return LIKELY(mPreview) ? mPreview->getStreamBufferBytes() : 0;
+}
+
+int64_t UVCCamera::getSavedCpuTimePerFrame() {
+	return LIKELY(mPreview) ? mPreview->getSavedCpuTimePerFrame() : 0;
+}
+
+uint32_t UVCCamera::getHeadlessFrames() {
+	return LIKELY(mPreview) ? mPreview->getHeadlessFrames() : 0;
+}
+
+int UVCCamera::setConversionThreads(int num_threads) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setConversionThreads(num_threads);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::getConversionThreads() {
+	return LIKELY(mPreview) ? mPreview->getConversionThreads() : 1;
+}
+
+int UVCCamera::setFrameDropPolicy(int policy) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setFrameDropPolicy(policy);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::getFrameDropPolicy() {
+	return LIKELY(mPreview) ? mPreview->getFrameDropPolicy() : FRAME_DROP_NEWEST;
+}
+
+int UVCCamera::setPipeline(IPipeline *pipeline) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setPipeline(pipeline);
+	}
+	RETURN(result, int);
+}
+
 int UVCCamera::setCaptureDisplay(ANativeWindow *capture_window) {
 	ENTER();
 	int result = EXIT_FAILURE;
@@ -190,9 +190,18 @@ public:
 	char *getSupportedSize();
 	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = DEFAULT_BANDWIDTH);
 	int setPreviewDisplay(ANativeWindow *preview_window);
-	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
-	int startPreview();
+	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, int pool_num = 0);
+	int setMjpegCallback(JNIEnv *env, jobject mjpeg_callback_obj, int pool_num);
+	int startPreview(bool headless = false);
 	int stopPreview();
+	size_t getStreamBufferBytes();
+	int64_t getSavedCpuTimePerFrame();
+	uint32_t getHeadlessFrames();
+	int setConversionThreads(int num_threads);
+	int getConversionThreads();
+	int setFrameDropPolicy(int policy);
+	int getFrameDropPolicy();
+	int setPipeline(IPipeline *pipeline);
 	int setCaptureDisplay(ANativeWindow *capture_window);
 
 	int getCtrlSupports(uint64_t *supports);
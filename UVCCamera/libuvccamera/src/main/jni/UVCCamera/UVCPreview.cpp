@@ -39,44 +39,63 @@
 
 #include "utilbase.h"
 #include "UVCPreview.h"
+#include "IPipeline.h"
 #include "libuvc_internal.h"
 
 #define	LOCAL_DEBUG 0
 #define MAX_FRAME 4
 #define PREVIEW_PIXEL_BYTES 4	// RGBA/RGBX
-#define FRAME_POOL_SZ MAX_FRAME + 2
+// libuvc holds 2 frames(assembling and latest) in ownership transfer mode
+#define FRAME_POOL_SZ MAX_FRAME + 4
 
 UVCPreview::UVCPreview(uvc_device_handle_t *devh)
-:	mPreviewWindow(NULL),
-	mCaptureWindow(NULL),
-	mDeviceHandle(devh),
+:	mDeviceHandle(devh),
+	mPreviewWindow(NULL),
+	mIsRunning(false),
+	mIsHeadless(false),
+	mConvertNsPerFrame(0),
+	mConvertWidth(0),
+	mConvertHeight(0),
+	mHeadlessFrames(0),
 	requestWidth(DEFAULT_PREVIEW_WIDTH),
 	requestHeight(DEFAULT_PREVIEW_HEIGHT),
+	requestMode(DEFAULT_PREVIEW_MODE),
 	requestMinFps(DEFAULT_PREVIEW_FPS_MIN),
 	requestMaxFps(DEFAULT_PREVIEW_FPS_MAX),
-	requestMode(DEFAULT_PREVIEW_MODE),
 	requestBandwidth(DEFAULT_BANDWIDTH),
 	frameWidth(DEFAULT_PREVIEW_WIDTH),
 	frameHeight(DEFAULT_PREVIEW_HEIGHT),
-	frameBytes(DEFAULT_PREVIEW_WIDTH * DEFAULT_PREVIEW_HEIGHT * 2),	// YUYV
 	frameMode(0),
-	previewBytes(DEFAULT_PREVIEW_WIDTH * DEFAULT_PREVIEW_HEIGHT * PREVIEW_PIXEL_BYTES),
+	frameBytes(DEFAULT_PREVIEW_WIDTH * DEFAULT_PREVIEW_HEIGHT * 2),	// YUYV
+	mStreamHandle(NULL),
+	previewFrames(MAX_FRAME, FRAME_DROP_NEWEST),
 	previewFormat(WINDOW_FORMAT_RGBA_8888),
-	mIsRunning(false),
+	previewBytes(DEFAULT_PREVIEW_WIDTH * DEFAULT_PREVIEW_HEIGHT * PREVIEW_PIXEL_BYTES),
 	mIsCapturing(false),
-	captureQueu(NULL),
+	mCaptureThreadAlive(false),
+	mCaptureParked(false),
+	mCaptureChanging(false),
+	mCaptureWindow(NULL),
+	captureFrames(1, FRAME_DROP_OLDEST),
 	mFrameCallbackObj(NULL),
 	mFrameCallbackFunc(NULL),
-	callbackPixelBytes(2) {
+	callbackPixelBytes(2),
+	mCallbackFrameFormat(UVC_FRAME_FORMAT_YUYV),
+	mCallbackPool(NULL),
+	mMjpegCallbackObj(NULL),
+	mMjpegOnFrame(NULL),
+	mMjpegPool(NULL),
+	mMjpegReserveBytes(0),
+	mPipeline(NULL),
+	mFramePool(FRAME_POOL_SZ) {
 
 	ENTER();
-	pthread_cond_init(&preview_sync, NULL);
 	pthread_mutex_init(&preview_mutex, NULL);
 //
 	pthread_cond_init(&capture_sync, NULL);
 	pthread_mutex_init(&capture_mutex, NULL);
-//	
-	pthread_mutex_init(&pool_mutex, NULL);
+	pthread_mutex_init(&pipeline_mutex, NULL);
+	pthread_mutex_init(&mjpeg_mutex, NULL);
 	EXIT();
 }
 
@@ -92,11 +111,27 @@ UVCPreview::~UVCPreview() {
 	clearPreviewFrame();
 	clearCaptureFrame();
 	clear_pool();
+	if (mCallbackPool) {
+		JNIEnv *env;
+		if (getVM()->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) == JNI_OK) {
+			mCallbackPool->close(env);
+		}
+		mCallbackPool = NULL;
+	}
+	if (mMjpegPool || mMjpegCallbackObj) {
+		JNIEnv *env;
+		if (getVM()->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) == JNI_OK) {
+			if (mMjpegPool) mMjpegPool->close(env);
+			if (mMjpegCallbackObj) env->DeleteGlobalRef(mMjpegCallbackObj);
+		}
+		mMjpegPool = NULL;
+		mMjpegCallbackObj = NULL;
+	}
 	pthread_mutex_destroy(&preview_mutex);
-	pthread_cond_destroy(&preview_sync);
 	pthread_mutex_destroy(&capture_mutex);
 	pthread_cond_destroy(&capture_sync);
-	pthread_mutex_destroy(&pool_mutex);
+	pthread_mutex_destroy(&pipeline_mutex);
+	pthread_mutex_destroy(&mjpeg_mutex);
 	EXIT();
 }
 
@@ -105,16 +140,10 @@ UVCPreview::~UVCPreview() {
  * if pool is empty, create new frame
  * this function does not confirm the frame size
  * and you may need to confirm the size
+ * this is called from libusb event thread, preview thread and capture thread without lock
  */
 uvc_frame_t *UVCPreview::get_frame(size_t data_bytes) {
-	uvc_frame_t *frame = NULL;
-	pthread_mutex_lock(&pool_mutex);
-	{
-		if (!mFramePool.isEmpty()) {
-			frame = mFramePool.last();
-		}
-	}
-	pthread_mutex_unlock(&pool_mutex);
+	uvc_frame_t *frame = mFramePool.get();
 	if UNLIKELY(!frame) {
 		LOGW("allocate new frame");
 		frame = uvc_allocate_frame(data_bytes);
@@ -123,29 +152,33 @@ uvc_frame_t *UVCPreview::get_frame(size_t data_bytes) {
 }
 
 void UVCPreview::recycle_frame(uvc_frame_t *frame) {
-	pthread_mutex_lock(&pool_mutex);
-	if (LIKELY(mFramePool.size() < FRAME_POOL_SZ)) {
-		mFramePool.put(frame);
-		frame = NULL;
-	}
-	pthread_mutex_unlock(&pool_mutex);
-	if (UNLIKELY(frame)) {
+	if (UNLIKELY(frame && !mFramePool.put(frame))) {
 		uvc_free_frame(frame);
 	}
 }
 
 
+/**
+ * frame pool callbacks for libuvc(ownership transfer mode)
+ * these are called from libusb event thread
+ */
+uvc_frame_t *UVCPreview::uvc_preview_get_frame(size_t data_bytes, void *vptr_args) {
+	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
+	return preview->get_frame(data_bytes);
+}
+
+void UVCPreview::uvc_preview_recycle_frame(uvc_frame_t *frame, void *vptr_args) {
+	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
+	preview->recycle_frame(frame);
+}
+
 void UVCPreview::init_pool(size_t data_bytes) {
 	ENTER();
 
 	clear_pool();
-	pthread_mutex_lock(&pool_mutex);
-	{
-		for (int i = 0; i < FRAME_POOL_SZ; i++) {
-			mFramePool.put(uvc_allocate_frame(data_bytes));
-		}
+	for (int i = 0; i < FRAME_POOL_SZ; i++) {
+		mFramePool.put(uvc_allocate_frame(data_bytes));
 	}
-	pthread_mutex_unlock(&pool_mutex);
 
 	EXIT();
 }
@@ -153,15 +186,9 @@ void UVCPreview::init_pool(size_t data_bytes) {
 void UVCPreview::clear_pool() {
 	ENTER();
 
-	pthread_mutex_lock(&pool_mutex);
-	{
-		const int n = mFramePool.size();
-		for (int i = 0; i < n; i++) {
-			uvc_free_frame(mFramePool[i]);
-		}
-		mFramePool.clear();
+	for (uvc_frame_t *frame = mFramePool.get(); frame; frame = mFramePool.get()) {
+		uvc_free_frame(frame);
 	}
-	pthread_mutex_unlock(&pool_mutex);
 	EXIT();
 }
 
@@ -206,20 +233,23 @@ int UVCPreview::setPreviewDisplay(ANativeWindow *preview_window) {
 	RETURN(0, int);
 }
 
-int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format) {
+/**
+ * set IFrameCallback or IPooledFrameCallback
+ * @param pool_num number of UVCFrame for IPooledFrameCallback, 0 for IFrameCallback
+ */
+int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, int pool_num) {
 	
 	ENTER();
 	pthread_mutex_lock(&capture_mutex);
 	{
-		if (isRunning() && isCapturing()) {
-			mIsCapturing = false;
-			if (mFrameCallbackObj) {
-				pthread_cond_signal(&capture_sync);
-				pthread_cond_wait(&capture_sync, &capture_mutex);	// wait finishing capturing
-			}
-		}
+		pauseCapture();
 		if (!env->IsSameObject(mFrameCallbackObj, frame_callback_obj))	{
 			iframecallback_fields.onFrame = NULL;
+			if (mCallbackPool) {
+				// the pool is actually deleted after the consumer released all frames
+				mCallbackPool->close(env);
+				mCallbackPool = NULL;
+			}
 			if (mFrameCallbackObj) {
 				env->DeleteGlobalRef(mFrameCallbackObj);
 			}
@@ -229,11 +259,17 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 				jclass clazz = env->GetObjectClass(frame_callback_obj);
 				if (LIKELY(clazz)) {
 					iframecallback_fields.onFrame = env->GetMethodID(clazz,
-						"onFrame",	"(Ljava/nio/ByteBuffer;)V");
+						"onFrame",	pool_num > 0 ? "(Lcom/serenegiant/usb/UVCFrame;)V" : "(Ljava/nio/ByteBuffer;)V");
 				} else {
 					LOGW("failed to get object class");
 				}
 				env->ExceptionClear();
+				if (iframecallback_fields.onFrame && (pool_num > 0)) {
+					mCallbackPool = CallbackFramePool::create(env, pool_num);
+					if (UNLIKELY(!mCallbackPool)) {
+						iframecallback_fields.onFrame = NULL;
+					}
+				}
 				if (!iframecallback_fields.onFrame) {
 					LOGE("Can't find IFrameCallback#onFrame");
 					env->DeleteGlobalRef(frame_callback_obj);
@@ -244,14 +280,70 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 		if (frame_callback_obj) {
 			mPixelFormat = pixel_format;
 			callbackPixelFormatChanged();
+		} else {
+			mCallbackFrameFormat = UVC_FRAME_FORMAT_YUYV;
 		}
+		resumeCapture();
 	}
 	pthread_mutex_unlock(&capture_mutex);
 	RETURN(0, int);
 }
 
+/**
+ * set IPooledFrameCallback that receives the compressed frames as they came from the camera
+ * (PIXEL_FORMAT_MJPEG), the frames are never decoded for this callback.
+ * This is called on the preview thread and only while previewing with MJPEG,
+ * so it should return quickly and process the frame on other thread if needed.
+ * The timestamp watermark is not burned into these frames.
+ * @param mjpeg_callback_obj global reference, NULL to clear
+ */
+int UVCPreview::setMjpegCallback(JNIEnv *env, jobject mjpeg_callback_obj, int pool_num) {
+
+	ENTER();
+	pthread_mutex_lock(&mjpeg_mutex);
+	{
+		if (!env->IsSameObject(mMjpegCallbackObj, mjpeg_callback_obj))	{
+			mMjpegOnFrame = NULL;
+			if (mMjpegPool) {
+				// the pool is actually deleted after the consumer released all frames
+				mMjpegPool->close(env);
+				mMjpegPool = NULL;
+			}
+			if (mMjpegCallbackObj) {
+				env->DeleteGlobalRef(mMjpegCallbackObj);
+			}
+			mMjpegCallbackObj = mjpeg_callback_obj;
+			mMjpegReserveBytes = 0;
+			if (mjpeg_callback_obj) {
+				jclass clazz = env->GetObjectClass(mjpeg_callback_obj);
+				if (LIKELY(clazz)) {
+					mMjpegOnFrame = env->GetMethodID(clazz, "onFrame", "(Lcom/serenegiant/usb/UVCFrame;)V");
+				} else {
+					LOGW("failed to get object class");
+				}
+				env->ExceptionClear();
+				if (mMjpegOnFrame) {
+					mMjpegPool = CallbackFramePool::create(env, pool_num);
+				}
+				if (UNLIKELY(!mMjpegPool)) {
+					LOGE("Can't find IPooledFrameCallback#onFrame");
+					mMjpegOnFrame = NULL;
+					env->DeleteGlobalRef(mjpeg_callback_obj);
+					mMjpegCallbackObj = NULL;
+				}
+			}
+		} else if (mjpeg_callback_obj) {
+			// same callback object, mMjpegCallbackObj already has its own global reference
+			env->DeleteGlobalRef(mjpeg_callback_obj);
+		}
+	}
+	pthread_mutex_unlock(&mjpeg_mutex);
+	RETURN(0, int);
+}
+
 void UVCPreview::callbackPixelFormatChanged() {
 	mFrameCallbackFunc = NULL;
+	uvc_frame_format callback_frame_format = UVC_FRAME_FORMAT_YUYV;
 	const size_t sz = requestWidth * requestHeight;
 	switch (mPixelFormat) {
 	  case PIXEL_FORMAT_RAW:
@@ -275,14 +367,23 @@ void UVCPreview::callbackPixelFormatChanged() {
 	  case PIXEL_FORMAT_YUV20SP:
 		LOGI("PIXEL_FORMAT_YUV20SP:");
 		mFrameCallbackFunc = uvc_yuyv2iyuv420SP;
+		callback_frame_format = UVC_FRAME_FORMAT_NV21;	// V/U order
 		callbackPixelBytes = (sz * 3) / 2;
 		break;
 	  case PIXEL_FORMAT_NV21:
 		LOGI("PIXEL_FORMAT_NV21:");
 		mFrameCallbackFunc = uvc_yuyv2yuv420SP;
+		callback_frame_format = UVC_FRAME_FORMAT_NV12;	// uvc_yuyv2yuv420SP writes U/V order
+		callbackPixelBytes = (sz * 3) / 2;
+		break;
+	  case PIXEL_FORMAT_I420:
+		LOGI("PIXEL_FORMAT_I420:");
+		mFrameCallbackFunc = uvc_yuyv2i420;
+		callback_frame_format = UVC_FRAME_FORMAT_I420;
 		callbackPixelBytes = (sz * 3) / 2;
 		break;
 	}
+	mCallbackFrameFormat = mFrameCallbackObj ? callback_frame_format : UVC_FRAME_FORMAT_YUYV;
 }
 
 void UVCPreview::clearDisplay() {
@@ -325,15 +426,23 @@ void UVCPreview::clearDisplay() {
 	EXIT();
 }
 
-int UVCPreview::startPreview() {
+/**
+ * start previewing
+ * @param headless if true, this runs without preview display and frames are never converted to RGBX
+ * nor drawn to ANativeWindow even if the preview/capture display is set,
+ * they are only passed to the frame callback, MJPEG callback and pipeline.
+ */
+int UVCPreview::startPreview(bool headless) {
 	ENTER();
 
 	int result = EXIT_FAILURE;
 	if (!isRunning()) {
 		mIsRunning = true;
+		mIsHeadless = headless;
+		mHeadlessFrames = 0;
 		pthread_mutex_lock(&preview_mutex);
 		{
-			if (LIKELY(mPreviewWindow)) {
+			if (LIKELY(headless || mPreviewWindow)) {
 				result = pthread_create(&preview_thread, NULL, preview_thread_func, (void *)this);
 			}
 		}
@@ -341,11 +450,7 @@ int UVCPreview::startPreview() {
 		if (UNLIKELY(result != EXIT_SUCCESS)) {
 			LOGW("UVCCamera::window does not exist/already running/could not create thread etc.");
 			mIsRunning = false;
-			pthread_mutex_lock(&preview_mutex);
-			{
-				pthread_cond_signal(&preview_sync);
-			}
-			pthread_mutex_unlock(&preview_mutex);
+			previewFrames.wakeup();
 		}
 	}
 	RETURN(result, int);
@@ -356,8 +461,13 @@ int UVCPreview::stopPreview() {
 	bool b = isRunning();
 	if (LIKELY(b)) {
 		mIsRunning = false;
-		pthread_cond_signal(&preview_sync);
-		pthread_cond_signal(&capture_sync);
+		previewFrames.wakeup();
+		captureFrames.wakeup();
+		pthread_mutex_lock(&capture_mutex);
+		{
+			pthread_cond_broadcast(&capture_sync);	// in case the capture thread is parked
+		}
+		pthread_mutex_unlock(&capture_mutex);
 		if (pthread_join(capture_thread, NULL) != EXIT_SUCCESS) {
 			LOGW("UVCPreview::terminate capture thread: pthread_join failed");
 		}
@@ -383,78 +493,160 @@ int UVCPreview::stopPreview() {
 	RETURN(0, int);
 }
 
+/**
+ * set number of threads for color conversion of the preview, capture and frame callback
+ * @param num_threads including the thread that requests conversion, 1 to convert on single thread
+ * @return actual number of threads
+ */
+int UVCPreview::setConversionThreads(int num_threads) {
+	ENTER();
+	RETURN(mConvertWorkers.setThreads(num_threads), int);
+}
+
+int UVCPreview::getConversionThreads() {
+	return mConvertWorkers.getThreads();
+}
+
+/**
+ * time[nsec] that headless mode saves for each frame by skipping RGBX conversion,
+ * this is the conversion time measured while previewing with the preview display at the current frame size
+ * 0 if not headless or not measured yet
+ */
+int64_t UVCPreview::getSavedCpuTimePerFrame() {
+	return mIsHeadless && (mConvertWidth == (uint32_t)frameWidth) && (mConvertHeight == (uint32_t)frameHeight)
+		? mConvertNsPerFrame : 0;
+}
+
+/**
+ * number of frames that skipped RGBX conversion since headless preview started
+ */
+uint32_t UVCPreview::getHeadlessFrames() {
+	return mHeadlessFrames;
+}
+
+/**
+ * set which frame to drop when the preview thread can not keep up with the camera
+ * @param policy FRAME_DROP_NEWEST(default) or FRAME_DROP_OLDEST
+ */
+int UVCPreview::setFrameDropPolicy(int policy) {
+	ENTER();
+	if (UNLIKELY((policy != FRAME_DROP_NEWEST) && (policy != FRAME_DROP_OLDEST))) {
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	previewFrames.setPolicy(policy);
+	RETURN(0, int);
+}
+
+int UVCPreview::getFrameDropPolicy() {
+	return previewFrames.getPolicy();
+}
+
+/**
+ * set the head of pipeline chain that receives decoded preview frames
+ * the pipeline copies each frame into its own buffer, so the frame is decoded only once
+ * however many pipelines are chained or distributed after this
+ * the caller should start the pipeline and keep it alive until this is cleared
+ * @param pipeline NULL to clear
+ */
+int UVCPreview::setPipeline(IPipeline *pipeline) {
+	ENTER();
+	pthread_mutex_lock(&pipeline_mutex);
+	{
+		mPipeline = pipeline;
+	}
+	pthread_mutex_unlock(&pipeline_mutex);
+	RETURN(0, int);
+}
+
+/**
+ * pass the decoded frame to the pipeline chain if set
+ * this is called from the preview thread
+ */
+void UVCPreview::queuePipelineFrame(uvc_frame_t *frame) {
+	pthread_mutex_lock(&pipeline_mutex);
+	{
+		if (mPipeline) {
+			mPipeline->queueFrame(frame);
+		}
+	}
+	pthread_mutex_unlock(&pipeline_mutex);
+}
+
+/**
+ * bytes of memory that libuvc currently uses for the transfer buffers
+ * and the buffers for assembling frames, 0 if not streaming
+ */
+size_t UVCPreview::getStreamBufferBytes() {
+	size_t bytes = 0;
+	pthread_mutex_lock(&preview_mutex);
+	{
+		if (mStreamHandle)
+			bytes = uvc_stream_get_buffer_bytes(mStreamHandle);
+	}
+	pthread_mutex_unlock(&preview_mutex);
+	return bytes;
+}
+
 //**********************************************************************
 //
 //**********************************************************************
+/**
+ * the frame comes from our frame pool and libuvc transfers its ownership to us,
+ * so we need to return it to the pool when it is not used any more
+ */
 void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args) {
 	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
-	LOGI("uvc_preview_frame_callback: %u, seq %u ",frame->sequence,frame->capture_time.tv_usec);
-	if UNLIKELY(!preview->isRunning() || !frame || !frame->frame_format || !frame->data || !frame->data_bytes) return;
+	if UNLIKELY(!frame) return;
+	if UNLIKELY(!preview->isRunning() || !frame->frame_format || !frame->data || !frame->data_bytes) {
+		preview->recycle_frame(frame);
+		return;
+	}
 	if (UNLIKELY(
 		((frame->frame_format != UVC_FRAME_FORMAT_MJPEG) && (frame->actual_bytes < preview->frameBytes))
-		|| (frame->width != preview->frameWidth) || (frame->height != preview->frameHeight) )) {
+		|| ((int)frame->width != preview->frameWidth) || ((int)frame->height != preview->frameHeight) )) {
 
 #if LOCAL_DEBUG
 		LOGD("broken frame!:format=%d,actual_bytes=%d/%d(%d,%d/%d,%d)",
 			frame->frame_format, frame->actual_bytes, preview->frameBytes,
 			frame->width, frame->height, preview->frameWidth, preview->frameHeight);
 #endif
+		preview->recycle_frame(frame);
 		return;
 	}
-	if (LIKELY(preview->isRunning())) {
-		uvc_frame_t *copy = preview->get_frame(frame->data_bytes);
-		if (UNLIKELY(!copy)) {
-#if LOCAL_DEBUG
-			LOGE("uvc_callback:unable to allocate duplicate frame!");
-#endif
-			return;
-		}
-		uvc_error_t ret = uvc_duplicate_frame(frame, copy);
-		if (UNLIKELY(ret)) {
-			preview->recycle_frame(copy);
-			return;
-		}
-		preview->addPreviewFrame(copy);
-	}
+	preview->addPreviewFrame(frame);
 }
 
+/**
+ * this is called only from libusb event thread
+ */
 void UVCPreview::addPreviewFrame(uvc_frame_t *frame) {
 
-	pthread_mutex_lock(&preview_mutex);
-	if (isRunning() && (previewFrames.size() < MAX_FRAME)) {
-		previewFrames.put(frame);
-		frame = NULL;
-		pthread_cond_signal(&preview_sync);
+	if (LIKELY(isRunning())) {
+		// returns the frame that was dropped if the queue is full
+		frame = previewFrames.put(frame);
 	}
-	pthread_mutex_unlock(&preview_mutex);
 	if (frame) {
 		recycle_frame(frame);
 	}
 }
 
+/**
+ * this is called only from preview thread,
+ * block only when no frame is available
+ */
 uvc_frame_t *UVCPreview::waitPreviewFrame() {
-	uvc_frame_t *frame = NULL;
-	pthread_mutex_lock(&preview_mutex);
-	{
-		if (!previewFrames.size()) {
-			pthread_cond_wait(&preview_sync, &preview_mutex);
-		}
-		if (LIKELY(isRunning() && previewFrames.size() > 0)) {
-			frame = previewFrames.remove(0);
-		}
+	uvc_frame_t *frame = previewFrames.wait();
+	if (UNLIKELY(frame && !isRunning())) {
+		recycle_frame(frame);
+		frame = NULL;
 	}
-	pthread_mutex_unlock(&preview_mutex);
 	return frame;
 }
 
 void UVCPreview::clearPreviewFrame() {
-	pthread_mutex_lock(&preview_mutex);
-	{
-		for (int i = 0; i < previewFrames.size(); i++)
-			recycle_frame(previewFrames[i]);
-		previewFrames.clear();
+	for (uvc_frame_t *frame = previewFrames.take(); frame; frame = previewFrames.take()) {
+		recycle_frame(frame);
 	}
-	pthread_mutex_unlock(&preview_mutex);
 }
 
 void *UVCPreview::preview_thread_func(void *vptr_args) {
@@ -515,10 +707,25 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 
 	uvc_frame_t *frame = NULL;
 	uvc_frame_t *frame_mjpeg = NULL;
-	uvc_error_t result = uvc_start_streaming_bandwidth(
-		mDeviceHandle, ctrl, uvc_preview_frame_callback, (void *)this, requestBandwidth, 0);
+	uvc_stream_handle_t *strmh = NULL;
+	// libuvc assembles frames directly into our pool frames and hands them to us without copying
+	uvc_error_t result = uvc_stream_open_ctrl(mDeviceHandle, &strmh, ctrl);
+	if (LIKELY(!result)) {
+		result = uvc_stream_set_frame_pool(strmh, uvc_preview_get_frame, uvc_preview_recycle_frame, (void *)this);
+		if (LIKELY(!result)) {
+			result = uvc_stream_start_bandwidth(strmh, uvc_preview_frame_callback, (void *)this, requestBandwidth, 0);
+		}
+		if (UNLIKELY(result)) {
+			uvc_stream_close(strmh);
+		}
+	}
 
 	if (LIKELY(!result)) {
+		pthread_mutex_lock(&preview_mutex);
+		{
+			mStreamHandle = strmh;
+		}
+		pthread_mutex_unlock(&preview_mutex);
 		clearPreviewFrame();
 		pthread_create(&capture_thread, NULL, capture_thread_func, (void *)this);
 
@@ -527,40 +734,70 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 #endif
 		if (frameMode) {
 			// MJPEG mode
+			// attach to JavaVM to pass the compressed frames to MJPEG passthrough callback
+			JavaVM *vm = getVM();
+			JNIEnv *env;
+			vm->AttachCurrentThread(&env, NULL);
+			// reuse one decoder for all frames of this stream
+			uvc_mjpeg_decoder_t *decoder = uvc_mjpeg_decoder_create();
 			for ( ; LIKELY(isRunning()) ; ) {
 				frame_mjpeg = waitPreviewFrame();
 				if (LIKELY(frame_mjpeg)) {
+					publishMjpegFrame(env, frame_mjpeg);
+					if (!isDecodeNeeded()) {
+						// nobody consumes the decoded frames, skip decoding entirely
+						recycle_frame(frame_mjpeg);
+						continue;
+					}
 					frame = get_frame(frame_mjpeg->width * frame_mjpeg->height * 2);
-					result = uvc_mjpeg2yuyv(frame_mjpeg, frame);   // MJPEG => yuyv
-                    LOGE("uvc_mjpeg2yuyv frame callback  %u, seq %u ",frame_mjpeg->sequence,frame_mjpeg->capture_time.tv_usec);
-                    char *context;
-                    sprintf(context,"%u - %u",frame_mjpeg->sequence,frame_mjpeg->capture_time.tv_usec);
-                    auto filter_yuv_data = create_yuv_time(context);
-                    //合并filter
+					if (LIKELY(decoder)) {
+						// decode directly into the format of IFrameCallback when it is YUV420,
+						// the preview converts it to RGBX and the callback does not need to convert again
+						result = uvc_mjpeg_decode(decoder, frame_mjpeg, frame, mCallbackFrameFormat);
+					} else {
+						result = uvc_mjpeg2yuyv(frame_mjpeg, frame);   // MJPEG => yuyv
+					}
 					recycle_frame(frame_mjpeg);
-					av_filter_water(frame,filter_yuv_data);
 					if (LIKELY(!result)) {
-						frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
+						mWatermark.apply(frame);	// burn timestamp in place
+						queuePipelineFrame(frame);
+						if (mIsHeadless) {
+							skip_preview_one(frame);
+						} else {
+							frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
+						}
 						addCaptureFrame(frame);
 					} else {
 						recycle_frame(frame);
 					}
 				}
 			}
+			uvc_mjpeg_decoder_destroy(decoder);
+			vm->DetachCurrentThread();
 		} else {
 			// yuvyv mode
 			for ( ; LIKELY(isRunning()) ; ) {
 				frame = waitPreviewFrame();
 				if (LIKELY(frame)) {
-					frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
+					queuePipelineFrame(frame);
+					if (mIsHeadless) {
+						skip_preview_one(frame);
+					} else {
+						frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
+					}
 					addCaptureFrame(frame);
 				}
 			}
 		}
-		pthread_cond_signal(&capture_sync);
+		captureFrames.wakeup();
 #if LOCAL_DEBUG
 		LOGI("preview_thread_func:wait for all callbacks complete");
 #endif
+		pthread_mutex_lock(&preview_mutex);
+		{
+			mStreamHandle = NULL;
+		}
+		pthread_mutex_unlock(&preview_mutex);
 		uvc_stop_streaming(mDeviceHandle);
 #if LOCAL_DEBUG
 		LOGI("Streaming finished");
@@ -617,7 +854,7 @@ int copyToSurface(uvc_frame_t *frame, ANativeWindow **window) {
 			// use lower transfer bytes
 			const int w = src_w < dest_w ? src_w : dest_w;
 			// use lower height
-			const int h = frame->height < buffer.height ? frame->height : buffer.height;
+			const int h = (int)frame->height < buffer.height ? (int)frame->height : buffer.height;
 			// transfer from frame data to the Surface
 			copyFrame(src, dest, w, h, src_step, dest_step);
 			ANativeWindow_unlockAndPost(*window);
@@ -630,6 +867,60 @@ int copyToSurface(uvc_frame_t *frame, ANativeWindow **window) {
 	return result; //RETURN(result, int);
 }
 
+static inline int64_t now_ns() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+// convert specific frame data directly into the Surface(ANativeWindow) without intermediate frame
+// return -1 if the Surface is not available or its buffer is smaller than the frame,
+// and then you need to convert into intermediate frame and use copyToSurface
+// start_ns is set to the time when the conversion started, locking the Surface is not included
+static int convertToSurface(uvc_frame_t *frame, ANativeWindow **window, convFunc_t convert_func, ConvertWorkers *workers,
+	int64_t &start_ns) {
+	// ENTER();
+	int result = -1;
+	if (LIKELY(*window)) {
+		ANativeWindow_Buffer buffer;
+		if (LIKELY(ANativeWindow_lock(*window, &buffer, NULL) == 0)) {
+			if (LIKELY((buffer.width >= (int)frame->width) && (buffer.height >= (int)frame->height))) {
+				// wrap the Surface buffer so that libuvc does not reallocate it
+				uvc_frame_t dest;
+				memset(&dest, 0, sizeof(dest));
+				dest.data = buffer.bits;
+				dest.data_bytes = dest.actual_bytes = buffer.stride * buffer.height * PREVIEW_PIXEL_BYTES;
+				dest.width = buffer.width;
+				dest.height = buffer.height;
+				dest.step = buffer.stride * PREVIEW_PIXEL_BYTES;
+				dest.library_owns_data = 0;
+				start_ns = now_ns();
+				if (UNLIKELY(workers->convert(convert_func, frame, &dest))) {
+					LOGE("failed converting");
+				}
+				result = 0;
+			}
+			ANativeWindow_unlockAndPost(*window);
+		}
+	}
+	return result; //RETURN(result, int);
+}
+
+/**
+ * keep moving average of the conversion time of the preview frames for #getSavedCpuTimePerFrame,
+ * this is restarted when the frame size changes
+ */
+void UVCPreview::update_convert_time(uvc_frame_t *frame, const int64_t &start_ns) {
+	const int32_t ns = (int32_t)(now_ns() - start_ns);
+	if ((mConvertWidth != frame->width) || (mConvertHeight != frame->height) || !mConvertNsPerFrame) {
+		mConvertWidth = frame->width;
+		mConvertHeight = frame->height;
+		mConvertNsPerFrame = ns > 0 ? ns : 1;
+	} else {
+		mConvertNsPerFrame = (int32_t)(((int64_t)mConvertNsPerFrame * 7 + ns) / 8);
+	}
+}
+
 // changed to return original frame instead of returning converted frame even if convert_func is not null.
 uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t convert_func, int pixcelBytes) {
 	// ENTER();
@@ -642,11 +933,24 @@ uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **wi
 	pthread_mutex_unlock(&preview_mutex);
 	if (LIKELY(b)) {
 		uvc_frame_t *converted;
+		if (convert_func && (pixcelBytes == PREVIEW_PIXEL_BYTES)) {
+			// try to convert directly into the Surface to avoid extra copying
+			int64_t start = 0;
+			pthread_mutex_lock(&preview_mutex);
+			b = convertToSurface(frame, window, convert_func, &mConvertWorkers, start);
+			pthread_mutex_unlock(&preview_mutex);
+			if (LIKELY(!b)) {
+				update_convert_time(frame, start);
+				return frame;
+			}
+		}
 		if (convert_func) {
 			converted = get_frame(frame->width * frame->height * pixcelBytes);
 			if LIKELY(converted) {
-				b = convert_func(frame, converted);
+				const int64_t start = now_ns();
+				b = mConvertWorkers.convert(convert_func, frame, converted);
 				if (!b) {
+					update_convert_time(frame, start);
 					pthread_mutex_lock(&preview_mutex);
 					copyToSurface(converted, window);
 					pthread_mutex_unlock(&preview_mutex);
@@ -664,22 +968,49 @@ uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **wi
 	return frame; //RETURN(frame, uvc_frame_t *);
 }
 
+/**
+ * headless counterpart of draw_preview_one, the frame is not converted.
+ */
+void UVCPreview::skip_preview_one(uvc_frame_t *frame) {
+	mHeadlessFrames++;
+}
+
 //======================================================================
 //
 //======================================================================
 inline const bool UVCPreview::isCapturing() const { return mIsCapturing; }
 
+/**
+ * stop the capture thread at the top of its loop before changing the capture state,
+ * the capture thread stays parked until #resumeCapture is called.
+ * Call this with capture_mutex locked, only one setter can change the state at once.
+ */
+void UVCPreview::pauseCapture() {
+	while (mCaptureChanging) {
+		pthread_cond_wait(&capture_sync, &capture_mutex);
+	}
+	mCaptureChanging = true;
+	mIsCapturing = false;
+	captureFrames.wakeup();
+	while (mCaptureThreadAlive && !mCaptureParked) {
+		pthread_cond_wait(&capture_sync, &capture_mutex);
+	}
+}
+
+/**
+ * let the capture thread run again with the new state, call this with capture_mutex locked
+ */
+void UVCPreview::resumeCapture() {
+	mCaptureChanging = false;
+	mIsCapturing = true;
+	pthread_cond_broadcast(&capture_sync);
+}
+
 int UVCPreview::setCaptureDisplay(ANativeWindow *capture_window) {
 	ENTER();
 	pthread_mutex_lock(&capture_mutex);
 	{
-		if (isRunning() && isCapturing()) {
-			mIsCapturing = false;
-			if (mCaptureWindow) {
-				pthread_cond_signal(&capture_sync);
-				pthread_cond_wait(&capture_sync, &capture_mutex);	// wait finishing capturing
-			}
-		}
+		pauseCapture();
 		if (mCaptureWindow != capture_window) {
 			// release current Surface if already assigned.
 			if (UNLIKELY(mCaptureWindow))
@@ -700,40 +1031,35 @@ int UVCPreview::setCaptureDisplay(ANativeWindow *capture_window) {
 				}
 			}
 		}
+		resumeCapture();
 	}
 	pthread_mutex_unlock(&capture_mutex);
 	RETURN(0, int);
 }
 
+/**
+ * this is called only from preview thread
+ */
 void UVCPreview::addCaptureFrame(uvc_frame_t *frame) {
-	pthread_mutex_lock(&capture_mutex);
 	if (LIKELY(isRunning())) {
-		// keep only latest one
-		if (captureQueu) {
-			recycle_frame(captureQueu);
-		}
-		captureQueu = frame;
-		pthread_cond_broadcast(&capture_sync);
+		// keep only latest one, returns the older frame
+		frame = captureFrames.put(frame);
+	}
+	if (frame) {
+		recycle_frame(frame);
 	}
-	pthread_mutex_unlock(&capture_mutex);
 }
 
 /**
  * get frame data for capturing, if not exist, block and wait
+ * this is called only from capture thread
  */
 uvc_frame_t *UVCPreview::waitCaptureFrame() {
-	uvc_frame_t *frame = NULL;
-	pthread_mutex_lock(&capture_mutex);
-	{
-		if (!captureQueu) {
-			pthread_cond_wait(&capture_sync, &capture_mutex);
-		}
-		if (LIKELY(isRunning() && captureQueu)) {
-			frame = captureQueu;
-			captureQueu = NULL;
-		}
+	uvc_frame_t *frame = captureFrames.wait();
+	if (UNLIKELY(frame && !isRunning())) {
+		recycle_frame(frame);
+		frame = NULL;
 	}
-	pthread_mutex_unlock(&capture_mutex);
 	return frame;
 }
 
@@ -741,13 +1067,9 @@ uvc_frame_t *UVCPreview::waitCaptureFrame() {
  * clear drame data for capturing
  */
 void UVCPreview::clearCaptureFrame() {
-	pthread_mutex_lock(&capture_mutex);
-	{
-		if (captureQueu)
-			recycle_frame(captureQueu);
-		captureQueu = NULL;
+	for (uvc_frame_t *frame = captureFrames.take(); frame; frame = captureFrames.take()) {
+		recycle_frame(frame);
 	}
-	pthread_mutex_unlock(&capture_mutex);
 }
 
 //======================================================================
@@ -783,16 +1105,43 @@ void UVCPreview::do_capture(JNIEnv *env) {
 	ENTER();
 
 	clearCaptureFrame();
-	callbackPixelFormatChanged();
+	pthread_mutex_lock(&capture_mutex);
+	{
+		callbackPixelFormatChanged();
+		mCaptureThreadAlive = true;
+		mCaptureParked = false;
+		mIsCapturing = !mCaptureChanging;
+	}
+	pthread_mutex_unlock(&capture_mutex);
 	for (; isRunning() ;) {
-		mIsCapturing = true;
-		if (mCaptureWindow) {
+		bool use_surface = false;
+		pthread_mutex_lock(&capture_mutex);
+		{
+			// park while a setter is changing the capture state,
+			// the setter is waiting for mCaptureParked before touching the state
+			while (!mIsCapturing && isRunning()) {
+				mCaptureParked = true;
+				pthread_cond_broadcast(&capture_sync);
+				pthread_cond_wait(&capture_sync, &capture_mutex);
+			}
+			mCaptureParked = false;
+			use_surface = mCaptureWindow && !mIsHeadless;
+		}
+		pthread_mutex_unlock(&capture_mutex);
+		if (!isRunning()) break;
+		if (use_surface) {
 			do_capture_surface(env);
 		} else {
 			do_capture_idle_loop(env);
 		}
-		pthread_cond_broadcast(&capture_sync);
 	}	// end of for (; isRunning() ;)
+	pthread_mutex_lock(&capture_mutex);
+	{
+		mCaptureThreadAlive = false;
+		mCaptureParked = false;
+		pthread_cond_broadcast(&capture_sync);
+	}
+	pthread_mutex_unlock(&capture_mutex);
 	EXIT();
 }
 
@@ -825,7 +1174,7 @@ void UVCPreview::do_capture_surface(JNIEnv *env) {
 					converted = get_frame(previewBytes);
 				}
 				if (LIKELY(converted)) {
-					int b = uvc_any2rgbx(frame, converted);
+					int b = mConvertWorkers.convert(uvc_any2rgbx, frame, converted);
 					if (!b) {
 						if (LIKELY(mCaptureWindow)) {
 							copyToSurface(converted, &mCaptureWindow);
@@ -839,10 +1188,7 @@ void UVCPreview::do_capture_surface(JNIEnv *env) {
 	if (converted) {
 		recycle_frame(converted);
 	}
-	if (mCaptureWindow) {
-		ANativeWindow_release(mCaptureWindow);
-		mCaptureWindow = NULL;
-	}
+	// mCaptureWindow is released by setCaptureDisplay/stopPreview while this thread is parked
 
 	EXIT();
 }
@@ -856,10 +1202,17 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 	if (LIKELY(frame)) {
 		uvc_frame_t *callback_frame = frame;
 		if (mFrameCallbackObj) {
-			if (mFrameCallbackFunc) {
+			if (frame->frame_format != UVC_FRAME_FORMAT_YUYV) {
+				// MJPEG frame was already decoded into the callback format,
+				// skip it if the callback format changed after decoding
+				if (UNLIKELY((frame->frame_format != mCallbackFrameFormat)
+					|| (frame->actual_bytes < callbackPixelBytes))) {
+					goto SKIP;
+				}
+			} else if (mFrameCallbackFunc && !mCallbackPool) {
 				callback_frame = get_frame(callbackPixelBytes);
 				if (LIKELY(callback_frame)) {
-					int b = mFrameCallbackFunc(frame, callback_frame);
+					int b = mConvertWorkers.convert(mFrameCallbackFunc, frame, callback_frame);
 					recycle_frame(frame);
 					if (UNLIKELY(b)) {
 						LOGW("failed to convert for callback frame");
@@ -871,10 +1224,14 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 					goto SKIP;
 				}
 			}
-			jobject buf = env->NewDirectByteBuffer(callback_frame->data, callbackPixelBytes);
-			env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
-			env->ExceptionClear();
-			env->DeleteLocalRef(buf);
+			if (mCallbackPool) {
+				publishPooledFrame(env, callback_frame);
+			} else {
+				jobject buf = env->NewDirectByteBuffer(callback_frame->data, callbackPixelBytes);
+				env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
+				env->ExceptionClear();
+				env->DeleteLocalRef(buf);
+			}
 		}
  SKIP:
 		recycle_frame(callback_frame);
@@ -882,10 +1239,159 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 	EXIT();
 }
 
-void UVCPreview::av_filter_water(uvc_frame_t *pFrame, void *data) {
+/**
+ * whether any consumer needs the decoded MJPEG frames.
+ * These are read without locking, a stale value only affects a frame around changing consumers.
+ */
+bool UVCPreview::isDecodeNeeded() {
+	return (!mIsHeadless && (mPreviewWindow || mCaptureWindow)) || mFrameCallbackObj || mPipeline;
+}
+
+// Huffman table segment (DHT) of ITU-T T.81 Annex K.3 that MJPEG frames of UVC camera omit
+static const uint8_t standard_dht[] = {
+	0xff, 0xc4, 0x01, 0xa2,
+	// luminance DC
+	0x00,
+	0x00, 0x01, 0x05, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+	0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0a, 0x0b,
+	// luminance AC
+	0x10,
+	0x00, 0x02, 0x01, 0x03, 0x03, 0x02, 0x04, 0x03, 0x05, 0x05, 0x04, 0x04, 0x00, 0x00, 0x01, 0x7d,
+	0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+	0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+	0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+	0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+	0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+	0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+	0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+	0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+	0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+	0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+	0xf9, 0xfa,
+	// chrominance DC
+	0x01,
+	0x00, 0x03, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00,
+	0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0a, 0x0b,
+	// chrominance AC
+	0x11,
+	0x00, 0x02, 0x01, 0x02, 0x04, 0x04, 0x03, 0x04, 0x07, 0x05, 0x04, 0x04, 0x00, 0x01, 0x02, 0x77,
+	0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+	0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+	0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+	0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+	0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+	0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+	0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+	0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+	0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+	0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+	0xf9, 0xfa,
+};
 
+/**
+ * find the offset where the DHT segment should be inserted
+ * @return offset of SOS marker, 0 if the data already has DHT or is not a JPEG data
+ */
+static size_t find_dht_insert_offset(const uint8_t *data, const size_t bytes) {
+	if ((bytes < 4) || (data[0] != 0xff) || (data[1] != 0xd8)) return 0;
+	size_t i = 2;
+	for ( ; i + 4 <= bytes ; ) {
+		if (UNLIKELY(data[i] != 0xff)) return 0;
+		const uint8_t marker = data[i + 1];
+		if (marker == 0xff) {	// fill byte
+			i++;
+			continue;
+		}
+		if (marker == 0xc4) return 0;	// DHT
+		if (marker == 0xda) return i;	// SOS
+		i += 2 + ((data[i + 2] << 8) | data[i + 3]);
+	}
+	return 0;
 }
 
-void* UVCPreview::create_yuv_time(char *context) {
+/**
+ * pass the compressed frame to MJPEG passthrough callback without decoding.
+ * The frame is copied once into the pooled direct buffer,
+ * DHT is inserted before SOS if the frame does not have it, so that each frame is a complete JPEG.
+ */
+void UVCPreview::publishMjpegFrame(JNIEnv *env, uvc_frame_t *frame_mjpeg) {
+	pthread_mutex_lock(&mjpeg_mutex);
+	if (mMjpegPool) {
+		const uint8_t *src = (const uint8_t *)frame_mjpeg->data;
+		const size_t src_bytes = frame_mjpeg->actual_bytes;
+		const size_t offset = find_dht_insert_offset(src, src_bytes);
+		const size_t bytes = src_bytes + (offset ? sizeof(standard_dht) : 0);
+		if (UNLIKELY(bytes > mMjpegReserveBytes)) {
+			// compressed size changes every frame, keep margin to avoid reallocation of the slots
+			mMjpegReserveBytes = bytes + bytes / 4;
+		}
+		const int index = mMjpegPool->obtain(env, mMjpegReserveBytes);
+		if (index >= 0) {
+			uvc_frame_t *dst = mMjpegPool->getFrame(index);
+			uint8_t *data = (uint8_t *)dst->data;
+			if (offset) {
+				memcpy(data, src, offset);
+				memcpy(data + offset, standard_dht, sizeof(standard_dht));
+				memcpy(data + offset + sizeof(standard_dht), src + offset, src_bytes - offset);
+			} else {
+				memcpy(data, src, src_bytes);
+			}
+			dst->width = frame_mjpeg->width;
+			dst->height = frame_mjpeg->height;
+			dst->frame_format = frame_mjpeg->frame_format;
+			dst->sequence = frame_mjpeg->sequence;
+			dst->capture_time = frame_mjpeg->capture_time;
+			mMjpegPool->publish(env, index, mMjpegCallbackObj, mMjpegOnFrame, bytes, PIXEL_FORMAT_MJPEG);
+		}
+	}
+	pthread_mutex_unlock(&mjpeg_mutex);
+}
 
+/**
+ * pass the frame to IPooledFrameCallback through CallbackFramePool
+ * the frame is converted directly into the buffer of the pooled UVCFrame,
+ * the frame is dropped if the consumer still holds all of them
+ */
+void UVCPreview::publishPooledFrame(JNIEnv *env, uvc_frame_t *frame) {
+	const int index = mCallbackPool->obtain(env, callbackPixelBytes);
+	if (index < 0) return;
+
+	uvc_frame_t *dst = mCallbackPool->getFrame(index);
+	if ((frame->frame_format == UVC_FRAME_FORMAT_YUYV) && mFrameCallbackFunc) {
+		// the buffer is not owned by libuvc, so the converters write into it without reallocation
+		dst->width = frame->width;
+		dst->height = frame->height;
+		switch (mPixelFormat) {
+		case PIXEL_FORMAT_RGB565:
+			dst->step = frame->width * 2;
+			break;
+		case PIXEL_FORMAT_RGBX:
+			dst->step = frame->width * 4;
+			break;
+		default:
+			// planar YUV420, the converters set step by themselves
+			dst->step = 0;
+			break;
+		}
+		if (UNLIKELY(mConvertWorkers.convert(mFrameCallbackFunc, frame, dst))) {
+			LOGW("failed to convert for callback frame");
+			mCallbackPool->release(env, index);
+			return;
+		}
+		// YUV420 converters do not copy these, the encoder needs them for PTS and dropped frames
+		if (mCallbackFrameFormat != UVC_FRAME_FORMAT_YUYV) {
+			dst->frame_format = mCallbackFrameFormat;
+		}
+		dst->sequence = frame->sequence;
+		dst->capture_time = frame->capture_time;
+	} else {
+		memcpy(dst->data, frame->data, frame->actual_bytes < callbackPixelBytes ? frame->actual_bytes : callbackPixelBytes);
+		dst->width = frame->width;
+		dst->height = frame->height;
+		dst->frame_format = frame->frame_format;
+		dst->sequence = frame->sequence;
+		dst->capture_time = frame->capture_time;
+	}
+	mCallbackPool->publish(env, index, mFrameCallbackObj, iframecallback_fields.onFrame,
+		callbackPixelBytes, mPixelFormat);
 }
@@ -30,9 +30,15 @@
 #include <android/native_window.h>
 #include <android/bitmap.h>
 #include "objectarray.h"
+#include "framering.h"
+#include "TimeWatermark.h"
+#include "ConvertWorkers.h"
+#include "CallbackFramePool.h"
 
 #pragma interface
 
+class IPipeline;
+
 #define DEFAULT_PREVIEW_WIDTH 640
 #define DEFAULT_PREVIEW_HEIGHT 480
 #define DEFAULT_PREVIEW_FPS_MIN 1
@@ -40,14 +46,14 @@
 #define DEFAULT_PREVIEW_MODE 0
 #define DEFAULT_BANDWIDTH 1.0f
 
-typedef uvc_error_t (*convFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
-
 #define PIXEL_FORMAT_RAW 0		// same as PIXEL_FORMAT_YUV
 #define PIXEL_FORMAT_YUV 1
 #define PIXEL_FORMAT_RGB565 2
 #define PIXEL_FORMAT_RGBX 3
 #define PIXEL_FORMAT_YUV20SP 4
 #define PIXEL_FORMAT_NV21 5		// YVU420SemiPlanar
+#define PIXEL_FORMAT_I420 6		// YUV420Planar
+#define PIXEL_FORMAT_MJPEG 7	// compressed frame from the camera, only for MJPEG passthrough
 
 // for callback to Java object
 typedef struct {
@@ -59,6 +65,13 @@ private:
 	uvc_device_handle_t *mDeviceHandle;
 	ANativeWindow *mPreviewWindow;
 	volatile bool mIsRunning;
+	// headless mode, frames are never converted to RGBX nor drawn to ANativeWindow
+	volatile bool mIsHeadless;
+	// time of RGBX conversion of a preview frame measured while drawing to the preview display,
+	// this is what headless mode saves for each frame of the same size
+	volatile int32_t mConvertNsPerFrame;
+	uint32_t mConvertWidth, mConvertHeight;
+	volatile uint32_t mHeadlessFrames;
 	int requestWidth, requestHeight, requestMode;
 	int requestMinFps, requestMaxFps;
 	float requestBandwidth;
@@ -67,29 +80,55 @@ private:
 	size_t frameBytes;
 	pthread_t preview_thread;
 	pthread_mutex_t preview_mutex;
-	pthread_cond_t preview_sync;
-	ObjectArray<uvc_frame_t *> previewFrames;
+	uvc_stream_handle_t *mStreamHandle;	// only valid while streaming, guarded by preview_mutex
+	FrameRing previewFrames;			// libusb event thread => preview thread
 	int previewFormat;
 	size_t previewBytes;
 //
-	volatile bool mIsCapturing;
+	volatile bool mIsCapturing;			// cleared to request the capture thread to park
+	// handshake with the capture thread, guarded by capture_mutex
+	bool mCaptureThreadAlive;			// capture thread is running do_capture
+	bool mCaptureParked;				// capture thread does not access the capture state now
+	bool mCaptureChanging;				// a setter is changing the capture state
 	ANativeWindow *mCaptureWindow;
 	pthread_t capture_thread;
 	pthread_mutex_t capture_mutex;
 	pthread_cond_t capture_sync;
-	uvc_frame_t *captureQueu;			// keep latest frame
+	FrameRing captureFrames;			// preview thread => capture thread, keep latest frame
 	jobject mFrameCallbackObj;
 	convFunc_t mFrameCallbackFunc;
 	Fields_iframecallback iframecallback_fields;
 	int mPixelFormat;
 	size_t callbackPixelBytes;
+	// frame format that can be passed to IFrameCallback without conversion,
+	// MJPEG frames are decoded directly into this format
+	volatile uvc_frame_format mCallbackFrameFormat;
+	// frames for IPooledFrameCallback, NULL when IFrameCallback is set
+	CallbackFramePool *mCallbackPool;
+// raw MJPEG frames for IPooledFrameCallback without decoding, guarded by mjpeg_mutex
+	pthread_mutex_t mjpeg_mutex;
+	jobject mMjpegCallbackObj;
+	jmethodID mMjpegOnFrame;
+	CallbackFramePool *mMjpegPool;
+	size_t mMjpegReserveBytes;
+	void publishMjpegFrame(JNIEnv *env, uvc_frame_t *frame_mjpeg);
+	bool isDecodeNeeded();
+// burn wall clock time into MJPEG frames
+	TimeWatermark mWatermark;
+// split color conversion of large frames across multiple threads
+	ConvertWorkers mConvertWorkers;
+// pipeline chain that receives every decoded preview frame, guarded by pipeline_mutex
+	pthread_mutex_t pipeline_mutex;
+	IPipeline *mPipeline;
+	void queuePipelineFrame(uvc_frame_t *frame);
 // improve performance by reducing memory allocation
-	pthread_mutex_t pool_mutex;
-	ObjectArray<uvc_frame_t *> mFramePool;
+	FramePool mFramePool;
 	uvc_frame_t *get_frame(size_t data_bytes);
 	void recycle_frame(uvc_frame_t *frame);
 	void init_pool(size_t data_bytes);
 	void clear_pool();
+	static uvc_frame_t *uvc_preview_get_frame(size_t data_bytes, void *vptr_args);
+	static void uvc_preview_recycle_frame(uvc_frame_t *frame, void *vptr_args);
 //
 	void clearDisplay();
 	static void uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args);
@@ -100,15 +139,20 @@ private:
 	int prepare_preview(uvc_stream_ctrl_t *ctrl);
 	void do_preview(uvc_stream_ctrl_t *ctrl);
 	uvc_frame_t *draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t func, int pixelBytes);
+	void skip_preview_one(uvc_frame_t *frame);
+	void update_convert_time(uvc_frame_t *frame, const int64_t &start_ns);
 //
 	void addCaptureFrame(uvc_frame_t *frame);
 	uvc_frame_t *waitCaptureFrame();
 	void clearCaptureFrame();
 	static void *capture_thread_func(void *vptr_args);
 	void do_capture(JNIEnv *env);
+	void pauseCapture();
+	void resumeCapture();
 	void do_capture_surface(JNIEnv *env);
 	void do_capture_idle_loop(JNIEnv *env);
 	void do_capture_callback(JNIEnv *env, uvc_frame_t *frame);
+	void publishPooledFrame(JNIEnv *env, uvc_frame_t *frame);
 	void callbackPixelFormatChanged();
 public:
 	UVCPreview(uvc_device_handle_t *devh);
@@ -117,15 +161,20 @@ public:
 	inline const bool isRunning() const;
 	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = 1.0f);
 	int setPreviewDisplay(ANativeWindow *preview_window);
-	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
-	int startPreview();
+	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, int pool_num = 0);
+	int setMjpegCallback(JNIEnv *env, jobject mjpeg_callback_obj, int pool_num);
+	int startPreview(bool headless = false);
 	int stopPreview();
+	size_t getStreamBufferBytes();
+	int setConversionThreads(int num_threads);
+	int setFrameDropPolicy(int policy);
+	int getFrameDropPolicy();
+	int getConversionThreads();
+	int64_t getSavedCpuTimePerFrame();
+	uint32_t getHeadlessFrames();
+	int setPipeline(IPipeline *pipeline);
 	inline const bool isCapturing() const;
 	int setCaptureDisplay(ANativeWindow *capture_window);
-
-    void av_filter_water(uvc_frame_t *pFrame, void *data);
-
-    void* create_yuv_time(char *context);
 };
 
 #endif /* UVCPREVIEW_H_ */
@@ -0,0 +1,215 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: framering.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef FRAMERING_H_
+#define FRAMERING_H_
+
+#include <unistd.h>
+#include <sys/syscall.h>
+#include <linux/futex.h>
+#include "utilbase.h"
+#include "libUVCCamera.h"
+
+// what to drop when a frame is added to the full ring
+#define FRAME_DROP_NEWEST 0		// drop the frame that is being added
+#define FRAME_DROP_OLDEST 1		// drop the oldest frame in the ring and add new one
+
+/**
+ * bounded single producer/single consumer queue of frames without any lock.
+ * Only the producer thread can call put and only the consumer thread can call take/wait.
+ * The consumer sleeps on a futex only when the queue is empty.
+ * In drop-oldest mode the producer also takes the oldest frame when the queue is full,
+ * so both sides advance the head with compare-and-swap.
+ */
+class FrameRing {
+private:
+	uvc_frame_t **slots;
+	const uint32_t mask;
+	volatile uint32_t head;		// next position to take
+	volatile uint32_t tail;		// next position to put, written only by the producer
+	volatile int32_t seq;		// futex word, incremented when the consumer should wake up
+	volatile int32_t waiting;	// consumer is or is about to be sleeping on seq
+	volatile int32_t pending;	// wakeup was requested, consumer returns from wait even if empty
+	volatile int policy;
+
+	static inline uint32_t capacity_of(int capacity) {
+		uint32_t n = 1;
+		for ( ; n < (uint32_t)capacity; n <<= 1) ;
+		return n;
+	}
+
+	inline void wake() {
+		__atomic_add_fetch(&seq, 1, __ATOMIC_SEQ_CST);
+		if (__atomic_load_n(&waiting, __ATOMIC_SEQ_CST)) {
+			syscall(__NR_futex, &seq, FUTEX_WAKE_PRIVATE, 1, NULL, NULL, 0);
+		}
+	}
+public:
+	/**
+	 * @param capacity rounded up to power of 2
+	 */
+	FrameRing(int capacity, int drop_policy = FRAME_DROP_NEWEST)
+		: slots(new uvc_frame_t *[capacity_of(capacity)]),
+		  mask(capacity_of(capacity) - 1),
+		  head(0), tail(0), seq(0), waiting(0), pending(0),
+		  policy(drop_policy) {
+	}
+
+	~FrameRing() { SAFE_DELETE_ARRAY(slots); }
+
+	inline int getPolicy() const { return policy; }
+	inline void setPolicy(int drop_policy) { policy = drop_policy; }
+	inline int capacity() const { return mask + 1; }
+
+	inline int size() const {
+		return (int)(__atomic_load_n(&tail, __ATOMIC_ACQUIRE) - __atomic_load_n(&head, __ATOMIC_ACQUIRE));
+	}
+
+	/**
+	 * take the oldest frame
+	 * @return NULL if empty
+	 */
+	uvc_frame_t *take() {
+		uint32_t h = __atomic_load_n(&head, __ATOMIC_ACQUIRE);
+		for ( ; ; ) {
+			if (h == __atomic_load_n(&tail, __ATOMIC_ACQUIRE)) return NULL;
+			// the producer may overwrite this slot only after head passed it, then CAS fails
+			uvc_frame_t *frame = __atomic_load_n(&slots[h & mask], __ATOMIC_RELAXED);
+			if (__atomic_compare_exchange_n(&head, &h, h + 1, false, __ATOMIC_ACQ_REL, __ATOMIC_ACQUIRE)) {
+				return frame;
+			}
+			// the producer dropped the oldest one, h was updated, retry
+		}
+	}
+
+	/**
+	 * add frame, called only from the producer thread
+	 * @return frame that was dropped and should be recycled by the caller, NULL if nothing was dropped
+	 */
+	uvc_frame_t *put(uvc_frame_t *frame) {
+		uvc_frame_t *dropped = NULL;
+		const uint32_t t = tail;
+		uint32_t h = __atomic_load_n(&head, __ATOMIC_ACQUIRE);
+		if (t - h > mask) {
+			if (policy != FRAME_DROP_OLDEST) {
+				return frame;
+			}
+			dropped = __atomic_load_n(&slots[h & mask], __ATOMIC_RELAXED);
+			if (!__atomic_compare_exchange_n(&head, &h, h + 1, false, __ATOMIC_ACQ_REL, __ATOMIC_ACQUIRE)) {
+				// the consumer took it, now there is room
+				dropped = NULL;
+			}
+		}
+		__atomic_store_n(&slots[t & mask], frame, __ATOMIC_RELAXED);
+		__atomic_store_n(&tail, t + 1, __ATOMIC_RELEASE);
+		wake();
+		return dropped;
+	}
+
+	/**
+	 * take the oldest frame, block until a frame is added or wakeup is called.
+	 * the caller should check its own stop condition before calling this,
+	 * wakeup makes only one wait return
+	 * @return NULL if woken up without frame
+	 */
+	uvc_frame_t *wait() {
+		uvc_frame_t *frame = take();
+		if (!frame) {
+			// announce waiting before reading seq and checking again,
+			// then any put/wakeup after this check changes seq or sees waiting
+			__atomic_store_n(&waiting, 1, __ATOMIC_SEQ_CST);
+			const int32_t s = __atomic_load_n(&seq, __ATOMIC_SEQ_CST);
+			if (!__atomic_exchange_n(&pending, 0, __ATOMIC_SEQ_CST)) {
+				frame = take();
+				if (!frame) {
+					syscall(__NR_futex, &seq, FUTEX_WAIT_PRIVATE, s, NULL, NULL, 0);
+				}
+			}
+			__atomic_store_n(&waiting, 0, __ATOMIC_SEQ_CST);
+			if (!frame) frame = take();
+		}
+		return frame;
+	}
+
+	/**
+	 * wake up the consumer that is waiting, e.g. when stopping.
+	 * if the consumer is not waiting now, its next wait returns immediately
+	 */
+	inline void wakeup() {
+		__atomic_store_n(&pending, 1, __ATOMIC_SEQ_CST);
+		wake();
+	}
+};
+
+/**
+ * fixed number of slots of frames that any thread can get from/recycle to without lock.
+ * Each slot holds a frame or NULL and is swapped with compare-and-swap,
+ * a frame is in at most one slot so there is no ABA problem.
+ */
+class FramePool {
+private:
+	uvc_frame_t **slots;
+	const int num_slots;
+public:
+	FramePool(int capacity)
+		: slots(new uvc_frame_t *[capacity]),
+		  num_slots(capacity) {
+		for (int i = 0; i < num_slots; i++) slots[i] = NULL;
+	}
+
+	~FramePool() { SAFE_DELETE_ARRAY(slots); }
+
+	inline int capacity() const { return num_slots; }
+
+	/**
+	 * @return NULL if the pool is empty
+	 */
+	uvc_frame_t *get() {
+		for (int i = 0; i < num_slots; i++) {
+			uvc_frame_t *frame = __atomic_load_n(&slots[i], __ATOMIC_ACQUIRE);
+			if (frame && __atomic_compare_exchange_n(&slots[i], &frame, (uvc_frame_t *)NULL,
+					false, __ATOMIC_ACQ_REL, __ATOMIC_RELAXED)) {
+				return frame;
+			}
+		}
+		return NULL;
+	}
+
+	/**
+	 * @return false if the pool is full, the caller should free the frame
+	 */
+	bool put(uvc_frame_t *frame) {
+		for (int i = 0; i < num_slots; i++) {
+			uvc_frame_t *empty = NULL;
+			if (!__atomic_load_n(&slots[i], __ATOMIC_RELAXED)
+				&& __atomic_compare_exchange_n(&slots[i], &empty, frame,
+					false, __ATOMIC_RELEASE, __ATOMIC_RELAXED)) {
+				return true;
+			}
+		}
+		return false;
+	}
+};
+
+#endif /* FRAMERING_H_ */
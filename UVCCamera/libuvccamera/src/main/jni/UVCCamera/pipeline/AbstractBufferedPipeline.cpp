@@ -148,10 +148,13 @@ uvc_frame_t *AbstractBufferedPipeline::get_frame(const size_t &data_bytes) {
 		}
 		n -= total_frame_num;
 		if (LIKELY(n > 0)) {
-			for (int i = 0; i < n; i++) {
+			for (uint32_t i = 0; i < n; i++) {
 				frame = uvc_allocate_frame(data_bytes);
+				if (UNLIKELY(!frame)) break;
+				frame_pool.push_back(frame);
 				total_frame_num++;
 			}
+			frame = NULL;
 			LOGW("allocate new frame:%d", total_frame_num);
 		} else {
 			LOGW("number of allocated frame exceeds limit");
@@ -254,11 +257,9 @@ int AbstractBufferedPipeline::add_frame(uvc_frame_t *frame) {
 		// FIXME as current implementation, transferring frame data on my device is slower than that coming from UVC camera... just drop them now
 		if (frame_buffers.size() > max_buffer_num) {
 			// erase old frames
-			int cnt = 0;
-			for (auto iter = frame_buffers.begin();
-				 (iter != frame_buffers.end()) && (cnt < 5); iter++, cnt++) {
-				recycle_frame(*iter);
-				iter = frame_buffers.erase(iter);
+			for (int cnt = 0; !frame_buffers.empty() && (cnt < 5); cnt++) {
+				recycle_frame(frame_buffers.front());
+				frame_buffers.pop_front();
 			}
 			LOGW("droped frame data");
 		}
@@ -26,11 +26,14 @@
 
 CallbackPipeline::CallbackPipeline(const size_t &_data_bytes)
 :	CaptureBasePipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
+	mFrameCallbackObj(NULL),
 	mFrameCallbackFunc(NULL),
+	mPixelFormat(PIXEL_FORMAT_RAW),
 	callbackPixelBytes(0)
 {
 	ENTER();
 
+	iframecallback_fields.onFrame = NULL;
 	setState(PIPELINE_STATE_INITIALIZED);
 
 	EXIT();
@@ -151,7 +154,7 @@ void CallbackPipeline::do_capture(JNIEnv *env) {
 							goto SKIP;
 						}
 					}
-					jobject buf = env->NewDirectByteBuffer(callback_frame->data, callbackPixelBytes);
+					jobject buf = env->NewDirectByteBuffer(callback_frame->data, sz);
 					env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
 					env->ExceptionClear();
 					env->DeleteLocalRef(buf);
@@ -209,8 +212,8 @@ static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
 	jint result = JNI_ERR;
 	CallbackPipeline *pipeline = reinterpret_cast<CallbackPipeline *>(id_pipeline);
 	if (pipeline) {
-		IPipeline *pipeline = getPipeline(env, pipeline_obj);
-		result = pipeline->setPipeline(pipeline);
+		IPipeline *target_pipeline = getPipeline(env, pipeline_obj);
+		result = pipeline->setPipeline(target_pipeline);
 	}
 
 	RETURN(result, jint);
@@ -0,0 +1,53 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: Condition.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef PUPILMOBILE_CONDITION_H
+#define PUPILMOBILE_CONDITION_H
+
+#include <pthread.h>
+#include "Mutex.h"
+
+// minimum subset of android::Condition(libutils) on pthread, that is not available from NDK
+namespace android {
+
+class Condition {
+private:
+	pthread_cond_t mCond;
+	// force inhibiting copy/assignment
+	Condition(const Condition &src);
+	Condition &operator =(const Condition &src);
+public:
+	Condition() { pthread_cond_init(&mCond, NULL); }
+	~Condition() { pthread_cond_destroy(&mCond); }
+	/**
+	 * the mutex should be locked by the caller
+	 */
+	inline int wait(Mutex &mutex) { return -pthread_cond_wait(&mCond, &mutex.mMutex); }
+	inline void signal() { pthread_cond_signal(&mCond); }
+	inline void broadcast() { pthread_cond_broadcast(&mCond); }
+};
+
+}	// namespace android
+
+#endif //PUPILMOBILE_CONDITION_H
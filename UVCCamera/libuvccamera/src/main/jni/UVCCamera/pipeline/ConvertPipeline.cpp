@@ -112,6 +112,10 @@ int ConvertPipeline::handle_frame(uvc_frame_t *frame) {
 			}
 		}
 		next_pipeline->queueFrame(copy);
+		// queueFrame duplicates the frame, so we can recycle the converted one here
+		if (copy != frame) {
+			recycle_frame(copy);
+		}
 	}
 
 	RETURN(1, int);
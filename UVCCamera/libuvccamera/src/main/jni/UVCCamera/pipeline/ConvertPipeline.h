@@ -6,6 +6,7 @@
 #define PUPILMOBILE_CONVERTPIPELINE_H
 
 #include "libUVCCamera.h"
+#include "UVCPreview.h"	// PIXEL_FORMAT_XXX, convFunc_t, Fields_iframecallback
 #include "AbstractBufferedPipeline.h"
 
 class ConvertPipeline : virtual public AbstractBufferedPipeline {
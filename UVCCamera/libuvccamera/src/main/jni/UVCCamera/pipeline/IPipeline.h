@@ -19,7 +19,7 @@ using namespace android;
 
 typedef enum pipeline_type {
 	PIPELINE_TYPE_SIMPLE_BUFFERED = 0,
-	PIPELINE_TYPE_SQLITE_BUFFERED = 10,
+	PIPELINE_TYPE_RING_FILE_BUFFERED = 10,
 	PIPELINE_TYPE_UVC_CONTROL = 100,
 	PIPELINE_TYPE_CALLBACK = 200,
 	PIPELINE_TYPE_CONVERT = 300,
@@ -13,6 +13,7 @@
 	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
 #endif
 
+#include <string.h>
 #include <android/native_window_jni.h>
 
 #include "utilbase.h"
@@ -99,7 +100,7 @@ static int copyToSurface(uvc_frame_t *frame, ANativeWindow **window) {
 			// use lower transfer bytes
 			const int w = src_w < dest_w ? src_w : dest_w;
 			// use lower height
-			const int h = frame->height < buffer.height ? frame->height : buffer.height;
+			const int h = (int)frame->height < buffer.height ? (int)frame->height : buffer.height;
 			// transfer from frame data to the Surface
 			copyFrame(src, dest, w, h, src_step, dest_step);
 			ANativeWindow_unlockAndPost(*window);
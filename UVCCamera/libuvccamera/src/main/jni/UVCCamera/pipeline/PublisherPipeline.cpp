@@ -2,8 +2,6 @@
 // Created by saki on 15/10/06.
 //
 
-#define MEAS_TIME 0
-
 #if 1	// set 1 if you don't need debug message
 	#ifndef LOG_NDEBUG
 		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
@@ -15,123 +13,191 @@
 	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
 #endif
 
-#if MEAS_TIME
-#define MEAS_TIME_INIT	nsecs_t _meas_time_ = 0; int _meas_count_ = 0;
-#define MEAS_TIME_START	const nsecs_t _meas_t_ = systemTime();
-#define MEAS_TIME_STOP \
-	_meas_time_ += (systemTime() - _meas_t_); \
-	if UNLIKELY((++_meas_count_ % 100) == 0) { \
-		const float d = _meas_time_ / (1000000.f * _meas_count_); \
-		LOGI("meas time=%5.2f[msec]", d); \
-	}
-#else
-#define MEAS_TIME_INIT
-#define MEAS_TIME_START
-#define MEAS_TIME_STOP
-#endif
-
 #include <stdlib.h>
-#include <linux/time.h>
+#include <string.h>
+#include <errno.h>
+#include <endian.h>
+#include <poll.h>
+#include <time.h>
 #include <unistd.h>
+#include <stddef.h>
+#include <sys/socket.h>
+#include <sys/uio.h>
+#include <sys/un.h>
 
 #include "utilbase.h"
 #include "common_utils.h"
 
 #include "libUVCCamera.h"
-#include "endian_unaligned.h"
-
 #include "pipeline_helper.h"
 #include "PublisherPipeline.h"
-#include "pupilmobile_defs.h"
 
 #define INIT_FRAME_POOL_SZ 2
 #define MAX_FRAME_NUM 8
-#define RETRY_INTERVALS_US 25000
+#define ACCEPT_POLL_MS 100
+#define MAX_PUBLISH_POOL_NUM 8
 
 /* public */
-PublisherPipeline::PublisherPipeline(const size_t &_data_bytes, const char *addr, const char *_subscription_id)
-:	AbstractBufferedPipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
-	host(addr),
-	subscription_id(_subscription_id),
-	data_bytes(_data_bytes),
-	context(NULL),
-	publisher(NULL)
+PublisherPipeline::PublisherPipeline(const char *_address, const uint32_t &_max_queue_num)
+:	AbstractBufferedPipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, DEFAULT_FRAME_SZ),
+	address(_address ? _address : ""),
+	max_queue_num(_max_queue_num > 0 ? _max_queue_num : 1),
+	listen_fd(-1),
+	accepting(false),
+	dropped_frames(0)
 {
 	ENTER();
 
+	// the address that starts with '@' is in the abstract namespace, otherwise it is a file path
+	struct sockaddr_un addr;
+	memset(&addr, 0, sizeof(addr));
+	addr.sun_family = AF_UNIX;
+	const size_t len = address.size();
+	if (LIKELY(len && (len < sizeof(addr.sun_path)))) {
+		memcpy(addr.sun_path, address.c_str(), len);
+		if (addr.sun_path[0] == '@') {
+			addr.sun_path[0] = '\0';
+		} else {
+			unlink(addr.sun_path);
+		}
+		listen_fd = socket(AF_UNIX, SOCK_STREAM | SOCK_CLOEXEC, 0);
+		if (LIKELY(listen_fd >= 0)) {
+			const socklen_t addr_len = offsetof(struct sockaddr_un, sun_path) + len;
+			if (UNLIKELY(bind(listen_fd, (struct sockaddr *)&addr, addr_len)
+				|| listen(listen_fd, 4))) {
+
+				LOGE("failed to bind %s:errno=%d", address.c_str(), errno);
+				close(listen_fd);
+				listen_fd = -1;
+			}
+		} else {
+			LOGE("failed to create socket:errno=%d", errno);
+		}
+	} else {
+		LOGE("invalid address");
+	}
 	setState(PIPELINE_STATE_INITIALIZED);
 
 	EXIT();
 }
 
-/* public */
-PublisherPipeline::PublisherPipeline(const char *addr, const char *_subscription_id)
-:	PublisherPipeline(DEFAULT_FRAME_SZ, addr, _subscription_id)
-{
-}
-
 /* public */
 PublisherPipeline::~PublisherPipeline() {
 	ENTER();
 
-	LOGI("destructor finished");
+	close_socket();
+	Mutex::Autolock lock(publish_pool_mutex);
+	for (std::list<publish_frame_t *>::iterator iter = publish_pool.begin(); iter != publish_pool.end(); iter++) {
+		free((*iter)->data);
+		delete *iter;
+	}
+	publish_pool.clear();
 
 	EXIT();
 }
 
 /*public*/
-int PublisherPipeline::queueFrame(uvc_frame_t *frame) {
-//	ENTER();
+int PublisherPipeline::release() {
+	ENTER();
 
-	int result = AbstractBufferedPipeline::queueFrame(frame);
-	chain_frame(frame);
+	AbstractBufferedPipeline::release();
+	close_socket();
 
-	return result; // 	RETURN(result, int);
+	RETURN(0, int);
+}
+
+void PublisherPipeline::close_socket() {
+	if (listen_fd >= 0) {
+		close(listen_fd);
+		listen_fd = -1;
+		if (address.size() && (address[0] != '@')) {
+			unlink(address.c_str());
+		}
+	}
+}
+
+/*public*/
+const bool PublisherPipeline::isOpened() const { return listen_fd >= 0; }
+
+/*public*/
+int PublisherPipeline::getSubscriberCount() {
+	Mutex::Autolock lock(subscriber_mutex);
+
+	return subscribers.size();
+}
+
+/**
+ * @return total number of frames that were dropped because a subscriber was slow
+ */
+/*public*/
+uint32_t PublisherPipeline::getDroppedFrames() {
+	return __atomic_load_n(&dropped_frames, __ATOMIC_RELAXED);
 }
 
 //********************************************************************************
 //
 //********************************************************************************
-/**
- * build transfer header.
- * all multi bytes fields are little endian.
- */
-static void build_header(publish_header_t &header, uvc_frame_t *frame) {
-	// build header
-	switch (frame->frame_format) {
-	case UVC_FRAME_FORMAT_YUYV:
-		header.format_le = htole32(VIDEO_FRAME_FORMAT_YUYV);
-		break;
-	case UVC_FRAME_FORMAT_MJPEG:
-		header.format_le = htole32(VIDEO_FRAME_FORMAT_MJPEG);
-		break;
-//	case UVC_FRAME_FORMAT_H264:	// XXX this definition does not exist now
-//		header.format_le = htole32(VIDEO_FRAME_FORMAT_H264);
-//		break;
-	default:
-		header.format_le = htole32(VIDEO_FRAME_FORMAT_UNKNOWN);
+publish_frame_t *PublisherPipeline::obtain_publish_frame(const size_t &data_bytes) {
+	publish_frame_t *frame = NULL;
+	publish_pool_mutex.lock();
+	{
+		if (!publish_pool.empty()) {
+			frame = publish_pool.front();
+			publish_pool.pop_front();
+		}
+	}
+	publish_pool_mutex.unlock();
+	if (!frame) {
+		frame = new publish_frame_t();
+		frame->capacity = 0;
+		frame->data = NULL;
+	}
+	if (frame->capacity < data_bytes) {
+		uint8_t *data = (uint8_t *)realloc(frame->data, data_bytes);
+		if (UNLIKELY(!data)) {
+			free(frame->data);
+			delete frame;
+			return NULL;
+		}
+		frame->data = data;
+		frame->capacity = data_bytes;
+	}
+	frame->refs = 1;
+	return frame;
+}
+
+void PublisherPipeline::release_publish_frame(publish_frame_t *frame) {
+	if (__atomic_sub_fetch(&frame->refs, 1, __ATOMIC_ACQ_REL) == 0) {
+		Mutex::Autolock lock(publish_pool_mutex);
+		if (publish_pool.size() < MAX_PUBLISH_POOL_NUM) {
+			publish_pool.push_back(frame);
+		} else {
+			free(frame->data);
+			delete frame;
+		}
 	}
-	header.width_le = htole32(frame->width);
-	header.height_le = htole32(frame->height);
-	header.sequence_le = htole32(frame->sequence);
-//	header.presentation_time_us_le = htole64(systemTime() / 1000);
-	header.presentation_time_us_le = htole64(nsecs_t(frame->capture_time.tv_sec)*1000000LL + nsecs_t(frame->capture_time.tv_usec));
-	header.data_bytes_le = htole32(frame->actual_bytes);
+}
+
+static inline int64_t capture_time_us(uvc_frame_t *frame) {
+	if (frame->capture_time.tv_sec || frame->capture_time.tv_usec) {
+		return int64_t(frame->capture_time.tv_sec) * 1000000LL + frame->capture_time.tv_usec;
+	}
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return int64_t(ts.tv_sec) * 1000000LL + ts.tv_nsec / 1000;
 }
 
 /* override protected */
 void PublisherPipeline::on_start() {
 	ENTER();
 
-	Mutex::Autolock lock(publisher_mutex);
-
-	context = new zmq::context_t();
-	publisher = new zmq::socket_t(*context, ZMQ_PAIR/*ZMQ_PUB*/);
-	LOGV("set timeout value");
-	publisher->setsockopt(ZMQ_SNDTIMEO, 1000);
-	publisher->setsockopt(ZMQ_LINGER, 100);
-	LOGV("bind");
-	publisher->bind(host.c_str());
+	if (LIKELY(listen_fd >= 0)) {
+		accepting = true;
+		if (UNLIKELY(pthread_create(&accept_thread, NULL, accept_thread_func, (void *)this) != EXIT_SUCCESS)) {
+			LOGW("failed to create accept thread");
+			accepting = false;
+		}
+	}
 
 	EXIT();
 }
@@ -140,17 +206,22 @@ void PublisherPipeline::on_start() {
 void PublisherPipeline::on_stop() {
 	ENTER();
 
-	Mutex::Autolock lock(publisher_mutex);
-	LOGI("on_stop:finished");
-	LOGI("stop publisher zmq::socket");
-	if (publisher) {
-		publisher->close();
-		SAFE_DELETE(publisher);
+	if (accepting) {
+		accepting = false;
+		pthread_join(accept_thread, NULL);
 	}
-	LOGI("stop publisher zmq::context");
-	if (context) {
-		context->close();
-		SAFE_DELETE(context);
+	for ( ; ; ) {
+		publish_subscriber_t *subscriber = NULL;
+		subscriber_mutex.lock();
+		{
+			if (!subscribers.empty()) {
+				subscriber = subscribers.front();
+				subscribers.pop_front();
+			}
+		}
+		subscriber_mutex.unlock();
+		if (!subscriber) break;
+		remove_subscriber(subscriber);
 	}
 	LOGI("on_stop:finished");
 
@@ -161,81 +232,226 @@ void PublisherPipeline::on_stop() {
 int PublisherPipeline::handle_frame(uvc_frame_t *frame) {
 //	ENTER();
 
-	// local cache
-	const int sub_sz = subscription_id.size();
-	const char *sub_str = subscription_id.c_str();
-//	LOGD("sub_str=%s,sub_sz=%d", sub_str, sub_sz);
-
-	publish_header_t header;
-	// create payload
-	zmq::message_t payload(frame->actual_bytes + sizeof(publish_header_t));
-	// copy header to payload
-	build_header(header, frame);
-	memcpy(payload.data(), &header, sizeof(publish_header_t));
-	// copy frame data to payload
-	memcpy(((uint8_t *)payload.data()) + sizeof(publish_header_t), frame->data, frame->actual_bytes);
-/*
-* zmq::socket_t#send(backed by zmq_msg_send of libzmq) just add message to the internal queue.
-* and we can't know how many entries we can send without exceeding queue
-* and we also can't know when the queue exceed/overflow and message disappeared.
-* As my current test result, if the subscribing speed is slower than publisher
-* or bandwidth of network is not enough, zmq drops messages periodically without any error.
-* Even worse, queueing to zmq socket always success and no error.
-* As I can see the API and source code of zmq, there are no way to handle this now.
-* Only one way is receive number of subscribed frames from subscriber via other connection
-* and wait for publishing if the difference between number of publishing frames
-* and number of subscribed frames become bigger than the limit.
-* Unfortunately this way only works well if only one subscriber exist.
-* If we actually need to handle this issue, I assume it will be better to use other protocol
-* or make own protocol that supports handshake instead of using zmq.
-*
-* 1280x720p:
-* Nexus7(2013, Android5.1.1) => 11n(2.4GHz) => router => 11n(5Ghz) => Nexus9(Android5.1.1) : OK
-* Nexus7(2013, Android5.1.1) => 11n(2.4GHz) => router => 11n(2.4GHz) => GALAXY S5(Android5.0) : NG, slow, periodically drops frames.
-* Nexus9(Android5.1.1) => 11n(5GHz) => router => 11n(2.4GHz) => GALAXY S5(Android5.0) : OK
-* Nexus9(Android5.1.1) => 11n(5GHz) => router => 11n(2.4GHz) => MemoPad7(Android4.4.2) : NG, sometimes become slow, periodically drops frames.
-* GALAXY S5(Android5.0) => 11n(2.4GHz) => router => 11n(5Ghz) => Nexus9(Android5.1.1) : OK
-* GALAXY S5(Android5.0) => 11n(2.4GHz) => router => 11n(2.4Ghz) => GALAXY note2(Android4.4.2) : NG, slow, periodically drops frames.
-* saki
-*/
-	for ( ; LIKELY(isRunning()) ; ) {
-		try {
-			// set subscribe id
-			if ((LIKELY(publisher->send(sub_str, sub_sz, ZMQ_SNDMORE)))) {
-				// send payload
-				if (LIKELY(publisher->send(payload))) {
-					// success to send
-					break;
-				}
+	remove_closed_subscribers();
+
+	Mutex::Autolock lock(subscriber_mutex);
+
+	if (subscribers.empty()) {
+		return 0;	// nobody is listening, just pass the frame to the next pipeline
+	}
+	publish_frame_t *publish = obtain_publish_frame(frame->actual_bytes);
+	if (UNLIKELY(!publish)) {
+		LOGW("failed to allocate publish frame");
+		return 0;
+	}
+	publish_header_t &header = publish->header;
+	header.magic = htole32(PUBLISH_HEADER_MAGIC);
+	header.sequence = htole32(frame->sequence);
+	header.capture_time_us = htole64(capture_time_us(frame));
+	header.format = htole32(frame->frame_format);
+	header.width = htole32(frame->width);
+	header.height = htole32(frame->height);
+	header.data_bytes = htole32(frame->actual_bytes);
+	memcpy(publish->data, frame->data, frame->actual_bytes);
+
+	for (std::list<publish_subscriber_t *>::iterator iter = subscribers.begin(); iter != subscribers.end(); iter++) {
+		publish_subscriber_t *subscriber = *iter;
+		publish_frame_t *dropped = NULL;
+		subscriber->lock.lock();
+		{
+			if (subscriber->queue.size() >= max_queue_num) {
+				// the subscriber can't keep up, drop the oldest one
+				dropped = subscriber->queue.front();
+				subscriber->queue.pop_front();
 			}
-			LOGD("failed to send");
-			usleep(RETRY_INTERVALS_US);
-		} catch (zmq::error_t e) {
-			// when error occur other than EAGAIN
-			LOGW("failed to send:%d", e.num());
-			break;
-		} catch (...) {
-			LOGW("publishing error");
-			break;
+			__atomic_add_fetch(&publish->refs, 1, __ATOMIC_RELAXED);
+			subscriber->queue.push_back(publish);
+			subscriber->sync.signal();
+		}
+		subscriber->lock.unlock();
+		if (dropped) {
+			__atomic_add_fetch(&dropped_frames, 1, __ATOMIC_RELAXED);
+			release_publish_frame(dropped);
 		}
 	}
+	release_publish_frame(publish);
 
-	return 1; // RETURN(1, int);
+	return 0; // RETURN(0, int);
+}
+
+//********************************************************************************
+//
+//********************************************************************************
+void *PublisherPipeline::accept_thread_func(void *vptr_args) {
+	ENTER();
+
+	PublisherPipeline *pipeline = reinterpret_cast<PublisherPipeline *>(vptr_args);
+	if (LIKELY(pipeline)) {
+		pipeline->do_accept();
+	}
+
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+void PublisherPipeline::do_accept() {
+	ENTER();
+
+	struct pollfd fds;
+	for ( ; LIKELY(accepting) ; ) {
+		fds.fd = listen_fd;
+		fds.events = POLLIN;
+		fds.revents = 0;
+		const int ret = poll(&fds, 1, ACCEPT_POLL_MS);
+		if ((ret <= 0) || !(fds.revents & POLLIN)) {
+			if (UNLIKELY((ret < 0) && (errno != EINTR))) {
+				LOGW("poll failed:errno=%d", errno);
+				break;
+			}
+			continue;
+		}
+		const int fd = accept(listen_fd, NULL, NULL);
+		if (UNLIKELY(fd < 0)) continue;
+		LOGI("subscriber connected:fd=%d", fd);
+		publish_subscriber_t *subscriber = new publish_subscriber_t();
+		subscriber->parent = this;
+		subscriber->fd = fd;
+		subscriber->running = true;
+		if (LIKELY(pthread_create(&subscriber->thread, NULL, subscriber_thread_func, (void *)subscriber) == EXIT_SUCCESS)) {
+			Mutex::Autolock lock(subscriber_mutex);
+			subscribers.push_back(subscriber);
+		} else {
+			LOGW("failed to create subscriber thread");
+			close(fd);
+			delete subscriber;
+		}
+	}
+
+	EXIT();
+}
+
+void *PublisherPipeline::subscriber_thread_func(void *vptr_args) {
+	ENTER();
+
+	publish_subscriber_t *subscriber = reinterpret_cast<publish_subscriber_t *>(vptr_args);
+	if (LIKELY(subscriber)) {
+		subscriber->parent->do_send(subscriber);
+	}
+
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+void PublisherPipeline::do_send(publish_subscriber_t *subscriber) {
+	ENTER();
+
+	struct iovec iov[2];
+	struct msghdr msg;
+	memset(&msg, 0, sizeof(msg));
+	for ( ; LIKELY(subscriber->running) ; ) {
+		publish_frame_t *publish = NULL;
+		subscriber->lock.lock();
+		{
+			if (subscriber->queue.empty() && subscriber->running) {
+				subscriber->sync.wait(subscriber->lock);
+			}
+			if (!subscriber->queue.empty()) {
+				publish = subscriber->queue.front();
+				subscriber->queue.pop_front();
+			}
+		}
+		subscriber->lock.unlock();
+		if (!publish) continue;
+		iov[0].iov_base = &publish->header;
+		iov[0].iov_len = sizeof(publish_header_t);
+		iov[1].iov_base = publish->data;
+		iov[1].iov_len = le32toh(publish->header.data_bytes);
+		msg.msg_iov = iov;
+		msg.msg_iovlen = 2;
+		// send the header and the frame data at once, retry partial writes
+		for ( ; (msg.msg_iovlen > 0) && subscriber->running ; ) {
+			ssize_t sent = sendmsg(subscriber->fd, &msg, MSG_NOSIGNAL);
+			if (UNLIKELY(sent < 0)) {
+				if (errno == EINTR) continue;
+				LOGI("subscriber disconnected:fd=%d,errno=%d", subscriber->fd, errno);
+				subscriber->running = false;
+				break;
+			}
+			for ( ; (msg.msg_iovlen > 0) && ((size_t)sent >= msg.msg_iov[0].iov_len) ; ) {
+				sent -= msg.msg_iov[0].iov_len;
+				msg.msg_iov++;
+				msg.msg_iovlen--;
+			}
+			if (msg.msg_iovlen > 0) {
+				msg.msg_iov[0].iov_base = (uint8_t *)msg.msg_iov[0].iov_base + sent;
+				msg.msg_iov[0].iov_len -= sent;
+			}
+		}
+		release_publish_frame(publish);
+	}
+
+	EXIT();
+}
+
+/**
+ * stop the sender thread of the subscriber and release it
+ * the subscriber should be removed from the subscriber list before calling this
+ */
+void PublisherPipeline::remove_subscriber(publish_subscriber_t *subscriber) {
+	ENTER();
+
+	subscriber->lock.lock();
+	{
+		subscriber->running = false;
+		subscriber->sync.signal();
+	}
+	subscriber->lock.unlock();
+	// unblock sendmsg
+	shutdown(subscriber->fd, SHUT_RDWR);
+	pthread_join(subscriber->thread, NULL);
+	close(subscriber->fd);
+	for ( ; !subscriber->queue.empty() ; ) {
+		release_publish_frame(subscriber->queue.front());
+		subscriber->queue.pop_front();
+	}
+	delete subscriber;
+
+	EXIT();
+}
+
+void PublisherPipeline::remove_closed_subscribers() {
+	std::list<publish_subscriber_t *> closed;
+	subscriber_mutex.lock();
+	{
+		for (std::list<publish_subscriber_t *>::iterator iter = subscribers.begin(); iter != subscribers.end(); ) {
+			if (!(*iter)->running) {
+				closed.push_back(*iter);
+				iter = subscribers.erase(iter);
+			} else {
+				iter++;
+			}
+		}
+	}
+	subscriber_mutex.unlock();
+	for (std::list<publish_subscriber_t *>::iterator iter = closed.begin(); iter != closed.end(); iter++) {
+		remove_subscriber(*iter);
+	}
 }
 
 //********************************************************************************
 //
 //********************************************************************************
 static ID_TYPE nativeCreate(JNIEnv *env, jobject thiz,
-	jstring publisher_addr_str, jstring subscription_id_str) {
+	jstring address_str, jint max_queue_num) {
 
 	ENTER();
 
-	const char *c_addr = env->GetStringUTFChars(publisher_addr_str, JNI_FALSE);
-	const char *c_sub_id = env->GetStringUTFChars(subscription_id_str, JNI_FALSE);
-	PublisherPipeline *pipeline = new PublisherPipeline(DEFAULT_FRAME_SZ, c_addr, c_sub_id);
-	env->ReleaseStringUTFChars(publisher_addr_str, c_addr);
-	env->ReleaseStringUTFChars(subscription_id_str, c_sub_id);
+	const char *c_address = env->GetStringUTFChars(address_str, JNI_FALSE);
+	PublisherPipeline *pipeline = new PublisherPipeline(c_address, max_queue_num);
+	env->ReleaseStringUTFChars(address_str, c_address);
+	if (UNLIKELY(!pipeline->isOpened())) {
+		SAFE_DELETE(pipeline);
+	}
 	setField_long(env, thiz, "mNativePtr", reinterpret_cast<ID_TYPE>(pipeline));
 
 	RETURN(reinterpret_cast<ID_TYPE>(pipeline), ID_TYPE);
@@ -308,15 +524,40 @@ static jint nativeStop(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+static jint nativeGetSubscriberCount(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = 0;
+	PublisherPipeline *pipeline = reinterpret_cast<PublisherPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->getSubscriberCount();
+	}
+	return result;
+}
+
+static jint nativeGetDroppedFrames(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = 0;
+	PublisherPipeline *pipeline = reinterpret_cast<PublisherPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = (jint)pipeline->getDroppedFrames();
+	}
+	return result;
+}
+
 //================================================================================
 static JNINativeMethod methods_publisher_pipeline[] = {
-	{ "nativeCreate", 		"(Ljava/lang/String;Ljava/lang/String;)J", (void *) nativeCreate},
+	{ "nativeCreate", 		"(Ljava/lang/String;I)J", (void *) nativeCreate},
 	{ "nativeDestroy",		"(J)V", (void *) nativeDestroy},
 	{ "nativeSetPipeline",	"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetPipeline },
 
 	{ "nativeGetState",		"(J)I", (void *) nativeGetState },
 	{ "nativeStart",		"(J)I", (void *) nativeStart },
 	{ "nativeStop",			"(J)I", (void *) nativeStop },
+
+	{ "nativeGetSubscriberCount",	"(J)I", (void *) nativeGetSubscriberCount },
+	{ "nativeGetDroppedFrames",		"(J)I", (void *) nativeGetDroppedFrames },
 };
 
 int register_publisher_pipeline(JNIEnv *env) {
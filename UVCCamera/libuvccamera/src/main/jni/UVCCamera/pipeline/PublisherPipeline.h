@@ -7,33 +7,95 @@
 
 #pragma interface
 
+#include <stdint.h>
+#include <pthread.h>
 #include <string>
+#include <list>
+#include <deque>
 #include "Mutex.h"
-#include "Timers.h"
-#include "zmq.hpp"
+#include "Condition.h"
 
-#include "pupilmobile_defs.h"
+#include "libUVCCamera.h"
 #include "AbstractBufferedPipeline.h"
 
 using namespace android;
 
+#define PUBLISH_HEADER_MAGIC 0x46435655		// 'UVCF'
+#define DEFAULT_PUBLISH_QUEUE_NUM 4
+
+/**
+ * header that precedes each frame on the socket, frame data of data_bytes follows this.
+ * all fields are little endian.
+ */
+typedef struct publish_header {
+	uint32_t magic;				// PUBLISH_HEADER_MAGIC
+	uint32_t sequence;
+	int64_t capture_time_us;	// CLOCK_MONOTONIC [usec]
+	uint32_t format;			// uvc_frame_format
+	uint32_t width;
+	uint32_t height;
+	uint32_t data_bytes;
+} publish_header_t;				// 32 bytes
+
+// frame shared by all subscribers, the last subscriber that sent it returns it to the pool
+typedef struct publish_frame {
+	int32_t refs;
+	publish_header_t header;
+	size_t capacity;
+	uint8_t *data;
+} publish_frame_t;
+
+class PublisherPipeline;
+
+typedef struct publish_subscriber {
+	PublisherPipeline *parent;
+	int fd;
+	pthread_t thread;
+	volatile bool running;
+	Mutex lock;
+	Condition sync;
+	std::deque<publish_frame_t *> queue;
+} publish_subscriber_t;
+
+/**
+ * publish frames to other processes on the same device through an unix domain socket.
+ * Each subscriber just connects to the socket and reads publish_header_t and frame data repeatedly.
+ * Each subscriber has its own sender thread and short queue,
+ * the oldest queued frame is dropped when the subscriber can not keep up,
+ * so a slow subscriber never blocks the camera or other subscribers.
+ */
 class PublisherPipeline : virtual public AbstractBufferedPipeline {
 private:
+	const std::string address;
+	const uint32_t max_queue_num;
+	int listen_fd;
+	pthread_t accept_thread;
+	volatile bool accepting;
+	volatile uint32_t dropped_frames;
+	mutable Mutex subscriber_mutex;
+	std::list<publish_subscriber_t *> subscribers;
+	mutable Mutex publish_pool_mutex;
+	std::list<publish_frame_t *> publish_pool;
+	static void *accept_thread_func(void *vptr_args);
+	static void *subscriber_thread_func(void *vptr_args);
+	void close_socket();
+	void do_accept();
+	void do_send(publish_subscriber_t *subscriber);
+	void remove_subscriber(publish_subscriber_t *subscriber);
+	void remove_closed_subscribers();
+	publish_frame_t *obtain_publish_frame(const size_t &data_bytes);
+	void release_publish_frame(publish_frame_t *frame);
 protected:
-	const std::string host;
-	const std::string subscription_id;
-	size_t data_bytes;
-	zmq::context_t *context;
-	zmq::socket_t *publisher;
-	mutable Mutex publisher_mutex;
 	virtual void on_start();
 	virtual void on_stop();
 	virtual int handle_frame(uvc_frame_t *frame);
 public:
-	PublisherPipeline(const size_t &_data_bytes = DEFAULT_FRAME_SZ, const char *addr = NULL, const char *subscription_id = NULL);
-	PublisherPipeline(const char *addr, const char *subscription_id);
+	PublisherPipeline(const char *address, const uint32_t &max_queue_num = DEFAULT_PUBLISH_QUEUE_NUM);
 	virtual ~PublisherPipeline();
-	virtual int queueFrame(uvc_frame_t *frame);
+	virtual int release();
+	const bool isOpened() const;
+	int getSubscriberCount();
+	uint32_t getDroppedFrames();
 };
 
 #endif //PUPILMOBILE_PUBLISHER_PIPELINE_H
@@ -0,0 +1,565 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: RingFileBufferedPipeline.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <time.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <algorithm>
+
+#include "utilbase.h"
+#include "common_utils.h"
+
+#include "libUVCCamera.h"
+#include "UVCPreview.h"		// PIXEL_FORMAT_XXX
+#include "pipeline_helper.h"
+#include "IPipeline.h"
+#include "RingFileBufferedPipeline.h"
+
+#define INIT_FRAME_POOL_SZ 2
+#define MAX_FRAME_NUM 8
+
+#define RING_RECORD_MAGIC 0x46425552	// 'RUBF'
+#define RING_ALIGN(n) (((n) + 7) & ~7)
+#define ZERO_FILL_BYTES (256 * 1024)
+
+static inline nsecs_t monotonic_nsec() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return nsecs_t(ts.tv_sec) * 1000000000LL + ts.tv_nsec;
+}
+
+static bool compare_dtime(const nsecs_t &dtime, const ring_index_t &index) {
+	return dtime < index.dtime;
+}
+
+/*public*/
+RingFileBufferedPipeline::RingFileBufferedPipeline(const char *path,
+	const uint32_t &_segment_num, const uint32_t &_segment_bytes, const nsecs_t &_keep_nsec)
+:	AbstractBufferedPipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, DEFAULT_FRAME_SZ),
+	segment_num(_segment_num > 2 ? _segment_num : 2),
+	segment_bytes(RING_ALIGN(_segment_bytes)),
+	keep_nsec(_keep_nsec),
+	fd(-1),
+	mapped(NULL),
+	mapped_bytes(0),
+	write_segment(0),
+	write_offset(0),
+	last_dtime(0)
+{
+	ENTER();
+
+	const size_t bytes = (size_t)segment_num * segment_bytes;
+	fd = open(path, O_RDWR | O_CREAT, 0600);
+	if (LIKELY(fd >= 0)) {
+		// fill the file with zero instead of ftruncate,
+		// writing into the sparse file through mmap raises SIGBUS when the storage is full
+		struct stat st;
+		off_t filled = (fstat(fd, &st) == 0) && (st.st_size > 0) ? st.st_size : 0;
+		if (filled > (off_t)bytes) {
+			ftruncate(fd, bytes);
+			filled = bytes;
+		}
+		void *zero = calloc(1, ZERO_FILL_BYTES);
+		for (; zero && (filled < (off_t)bytes); ) {
+			size_t n = bytes - filled;
+			if (n > ZERO_FILL_BYTES) n = ZERO_FILL_BYTES;
+			const ssize_t written = pwrite(fd, zero, n, filled);
+			if (written <= 0) break;
+			filled += written;
+		}
+		free(zero);
+		if (LIKELY(filled == (off_t)bytes)) {
+			void *addr = mmap(NULL, bytes, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+			if (LIKELY(addr != MAP_FAILED)) {
+				mapped = (uint8_t *)addr;
+				mapped_bytes = bytes;
+			} else {
+				LOGE("mmap failed:errno=%d", errno);
+			}
+		} else {
+			LOGE("failed to allocate ring file:errno=%d", errno);
+		}
+	} else {
+		LOGE("failed to open ring file:errno=%d", errno);
+	}
+	if (!mapped) {
+		close_file();
+	}
+	setState(PIPELINE_STATE_INITIALIZED);
+
+	EXIT();
+}
+
+/*public*/
+RingFileBufferedPipeline::~RingFileBufferedPipeline() {
+	ENTER();
+
+	close_file();
+
+	EXIT();
+}
+
+/*public*/
+int RingFileBufferedPipeline::release() {
+	ENTER();
+
+	AbstractBufferedPipeline::release();
+	close_file();
+
+	RETURN(0, int);
+}
+
+void RingFileBufferedPipeline::close_file() {
+	Mutex::Autolock lock(ring_mutex);
+
+	if (mapped) {
+		munmap(mapped, mapped_bytes);
+		mapped = NULL;
+		mapped_bytes = 0;
+	}
+	if (fd >= 0) {
+		close(fd);
+		fd = -1;
+	}
+	ring_index.clear();
+}
+
+/*public*/
+const bool RingFileBufferedPipeline::isOpened() const { return mapped != NULL; }
+
+/* override protected */
+void RingFileBufferedPipeline::on_start() {
+	ENTER();
+	EXIT();
+}
+
+/* override protected */
+void RingFileBufferedPipeline::on_stop() {
+	ENTER();
+	EXIT();
+}
+
+/* override protected */
+int RingFileBufferedPipeline::handle_frame(uvc_frame_t *frame) {
+	append(frame);
+	return 0;	// pass the frame to the next pipeline
+}
+
+/**
+ * drop the index of the records in the segment that is overwritten from now
+ * the segments are used in order, so these records are always the oldest ones
+ */
+void RingFileBufferedPipeline::recycle_segment(const uint32_t &segment) {
+	for (; !ring_index.empty() && (ring_index.front().segment == segment); ) {
+		ring_index.pop_front();
+	}
+}
+
+/**
+ * append the frame to the ring, the oldest segment is overwritten when the ring is full
+ * @return 0 on success
+ */
+/*public*/
+int RingFileBufferedPipeline::append(uvc_frame_t *frame) {
+
+	Mutex::Autolock lock(ring_mutex);
+
+	if (UNLIKELY(!mapped || !frame)) {
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	const uint32_t need = RING_ALIGN(sizeof(ring_record_header_t) + frame->actual_bytes);
+	if (UNLIKELY(need > segment_bytes)) {
+		LOGW("frame is larger than the segment:%u", need);
+		return UVC_ERROR_NO_MEM;
+	}
+	nsecs_t dtime = (frame->capture_time.tv_sec || frame->capture_time.tv_usec)
+		? nsecs_t(frame->capture_time.tv_sec) * 1000000000LL + nsecs_t(frame->capture_time.tv_usec) * 1000LL
+		: monotonic_nsec();
+	// index requires unique and increasing dtime
+	if (UNLIKELY(dtime <= last_dtime)) {
+		dtime = last_dtime + 1;
+	}
+	last_dtime = dtime;
+	if (write_offset + need > segment_bytes) {
+		write_segment = (write_segment + 1) % segment_num;
+		write_offset = 0;
+		recycle_segment(write_segment);
+	}
+	uint8_t *top = mapped + (size_t)write_segment * segment_bytes + write_offset;
+	ring_record_header_t *header = (ring_record_header_t *)top;
+	header->magic = RING_RECORD_MAGIC;
+	header->sequence = frame->sequence;
+	header->dtime = dtime;
+	header->format = frame->frame_format;
+	header->width = frame->width;
+	header->height = frame->height;
+	header->step = frame->step;
+	header->data_bytes = frame->actual_bytes;
+	header->reserved = 0;
+	memcpy(top + sizeof(ring_record_header_t), frame->data, frame->actual_bytes);
+
+	ring_index_t index = { dtime, write_segment, write_offset };
+	ring_index.push_back(index);
+	write_offset += need;
+	// drop frames that are older than the limit even if the ring still has space
+	for (; (keep_nsec > 0) && !ring_index.empty()
+		&& (ring_index.front().dtime < dtime - keep_nsec); ) {
+		ring_index.pop_front();
+	}
+
+	return 0;
+}
+
+/*public*/
+int RingFileBufferedPipeline::getFrameCount() {
+	Mutex::Autolock lock(ring_mutex);
+
+	return ring_index.size();
+}
+
+/**
+ * @param oldest dtime of the oldest frame in the ring [nsec]
+ * @param newest dtime of the latest frame in the ring [nsec]
+ * @return UVC_ERROR_NOT_FOUND if no frame
+ */
+/*public*/
+int RingFileBufferedPipeline::getTimeRange(nsecs_t &oldest, nsecs_t &newest) {
+	Mutex::Autolock lock(ring_mutex);
+
+	if (ring_index.empty()) {
+		oldest = newest = 0;
+		return UVC_ERROR_NOT_FOUND;
+	}
+	oldest = ring_index.front().dtime;
+	newest = ring_index.back().dtime;
+	return 0;
+}
+
+/**
+ * copy the first frame whose dtime is later than the specific time
+ * @param after
+ * @param frame the frame is copied into this
+ * @param dtime dtime of the copied frame [nsec]
+ * @return UVC_ERROR_NOT_FOUND if no frame
+ */
+/*public*/
+int RingFileBufferedPipeline::readNext(const nsecs_t &after, uvc_frame_t *frame, nsecs_t &dtime) {
+	Mutex::Autolock lock(ring_mutex);
+
+	if (UNLIKELY(!mapped || !frame)) {
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	auto iter = std::upper_bound(ring_index.begin(), ring_index.end(), after, compare_dtime);
+	if (iter == ring_index.end()) {
+		return UVC_ERROR_NOT_FOUND;
+	}
+	const uint8_t *top = mapped + (size_t)(*iter).segment * segment_bytes + (*iter).offset;
+	const ring_record_header_t *header = (const ring_record_header_t *)top;
+	if (UNLIKELY((header->magic != RING_RECORD_MAGIC) || (header->dtime != (*iter).dtime))) {
+		LOGE("broken record:segment=%u,offset=%u", (*iter).segment, (*iter).offset);
+		return UVC_ERROR_OTHER;
+	}
+	if (UNLIKELY(uvc_ensure_frame_size(frame, header->data_bytes))) {
+		return UVC_ERROR_NO_MEM;
+	}
+	memcpy(frame->data, top + sizeof(ring_record_header_t), header->data_bytes);
+	frame->actual_bytes = header->data_bytes;
+	frame->frame_format = (uvc_frame_format)header->format;
+	frame->width = header->width;
+	frame->height = header->height;
+	frame->step = header->step;
+	frame->sequence = header->sequence;
+	frame->capture_time.tv_sec = header->dtime / 1000000000LL;
+	frame->capture_time.tv_usec = (header->dtime % 1000000000LL) / 1000;
+	dtime = header->dtime;
+
+	return 0;
+}
+
+/*public*/
+void RingFileBufferedPipeline::clear() {
+	Mutex::Autolock lock(ring_mutex);
+
+	ring_index.clear();
+	write_segment = 0;
+	write_offset = 0;
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+/**
+ * convert the frame read from the ring into specific pixel format
+ */
+static uvc_error_t convert_frame(uvc_mjpeg_decoder_t *decoder, uvc_frame_t *in, uvc_frame_t *out, const int &pixel_format) {
+	uvc_frame_format target;
+	switch (pixel_format) {
+	case PIXEL_FORMAT_RAW:
+		return uvc_duplicate_frame(in, out);
+	case PIXEL_FORMAT_YUV:		target = UVC_FRAME_FORMAT_YUYV; break;
+	case PIXEL_FORMAT_RGB565:	target = UVC_FRAME_FORMAT_RGB565; break;
+	case PIXEL_FORMAT_RGBX:		target = UVC_FRAME_FORMAT_RGBX; break;
+	case PIXEL_FORMAT_YUV20SP:	target = UVC_FRAME_FORMAT_NV21; break;	// same as IFrameCallback, V/U order
+	case PIXEL_FORMAT_NV21:		target = UVC_FRAME_FORMAT_NV12; break;	// same as IFrameCallback, U/V order
+	case PIXEL_FORMAT_I420:		target = UVC_FRAME_FORMAT_I420; break;
+	default:
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	if (in->frame_format == target) {
+		return uvc_duplicate_frame(in, out);
+	}
+	switch (in->frame_format) {
+	case UVC_FRAME_FORMAT_MJPEG:
+		if (target == UVC_FRAME_FORMAT_RGB565) {
+			return uvc_mjpeg2rgb565(in, out);
+		}
+		return decoder ? uvc_mjpeg_decode(decoder, in, out, target) : UVC_ERROR_NO_MEM;
+	case UVC_FRAME_FORMAT_YUYV:
+		switch (target) {
+		case UVC_FRAME_FORMAT_RGB565:	return uvc_yuyv2rgb565(in, out);
+		case UVC_FRAME_FORMAT_RGBX:		return uvc_yuyv2rgbx(in, out);
+		case UVC_FRAME_FORMAT_NV21:		return uvc_yuyv2iyuv420SP(in, out);
+		case UVC_FRAME_FORMAT_NV12:		return uvc_yuyv2yuv420SP(in, out);
+		case UVC_FRAME_FORMAT_I420:		return uvc_yuyv2i420(in, out);
+		default:
+			break;
+		}
+		break;
+	default:
+		break;
+	}
+	return UVC_ERROR_NOT_SUPPORTED;
+}
+
+static ID_TYPE nativeCreate(JNIEnv *env, jobject thiz,
+	jstring path_str, jint segment_num, jint segment_bytes, jlong keep_nsec) {
+
+	ENTER();
+
+	const char *c_path = env->GetStringUTFChars(path_str, JNI_FALSE);
+	RingFileBufferedPipeline *pipeline = new RingFileBufferedPipeline(c_path, segment_num, segment_bytes, keep_nsec);
+	env->ReleaseStringUTFChars(path_str, c_path);
+	if (UNLIKELY(!pipeline->isOpened())) {
+		SAFE_DELETE(pipeline);
+	}
+
+	setField_long(env, thiz, "mNativePtr", reinterpret_cast<ID_TYPE>(pipeline));
+	RETURN(reinterpret_cast<ID_TYPE>(pipeline), ID_TYPE);
+}
+
+static void nativeDestroy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	setField_long(env, thiz, "mNativePtr", 0);
+	RingFileBufferedPipeline *pipeline = reinterpret_cast<RingFileBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		pipeline->release();
+		SAFE_DELETE(pipeline);
+	}
+	EXIT();
+}
+
+static jint nativeGetState(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	jint result = 0;
+	RingFileBufferedPipeline *pipeline = reinterpret_cast<RingFileBufferedPipeline *>(id_pipeline);
+	if (pipeline) {
+		result = pipeline->getState();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jobject pipeline_obj) {
+
+	ENTER();
+	jint result = JNI_ERR;
+	RingFileBufferedPipeline *pipeline = reinterpret_cast<RingFileBufferedPipeline *>(id_pipeline);
+	if (pipeline) {
+		IPipeline *target_pipeline = getPipeline(env, pipeline_obj);
+		result = pipeline->setPipeline(target_pipeline);
+	}
+
+	RETURN(result, jint);
+}
+
+static jint nativeStart(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+
+	int result = JNI_ERR;
+	RingFileBufferedPipeline *pipeline = reinterpret_cast<RingFileBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->start();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeStop(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	RingFileBufferedPipeline *pipeline = reinterpret_cast<RingFileBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->stop();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetFrameCount(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = 0;
+	ENTER();
+	RingFileBufferedPipeline *pipeline = reinterpret_cast<RingFileBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->getFrameCount();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetTimeRange(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jlongArray range) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	RingFileBufferedPipeline *pipeline = reinterpret_cast<RingFileBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline && range && (env->GetArrayLength(range) >= 2))) {
+		nsecs_t oldest, newest;
+		result = pipeline->getTimeRange(oldest, newest);
+		jlong values[2] = { oldest, newest };
+		env->SetLongArrayRegion(range, 0, 2, values);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeClear(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	RingFileBufferedPipeline *pipeline = reinterpret_cast<RingFileBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		pipeline->clear();
+		result = 0;
+	}
+	RETURN(result, jint);
+}
+
+/**
+ * pass the frames in [start_nsec, end_nsec] to FrameReader#onFrame one by one on the caller thread
+ * @return number of frames passed to the reader, negative value on error
+ */
+static jint nativeRead(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jlong start_nsec, jlong end_nsec, jint pixel_format, jobject reader) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	RingFileBufferedPipeline *pipeline = reinterpret_cast<RingFileBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline && reader)) {
+		jclass clazz = env->GetObjectClass(reader);
+		jmethodID onFrame = clazz ? env->GetMethodID(clazz, "onFrame", "(Ljava/nio/ByteBuffer;IIJ)V") : NULL;
+		env->ExceptionClear();
+		if (clazz) env->DeleteLocalRef(clazz);
+		if (UNLIKELY(!onFrame)) {
+			LOGE("Can't find FrameReader#onFrame");
+			RETURN(JNI_ERR, jint);
+		}
+		uvc_frame_t *frame = uvc_allocate_frame(DEFAULT_FRAME_SZ);
+		uvc_frame_t *converted = uvc_allocate_frame(DEFAULT_FRAME_SZ);
+		uvc_mjpeg_decoder_t *decoder = uvc_mjpeg_decoder_create();
+		nsecs_t dtime = start_nsec - 1;
+		result = 0;
+		for ( ; LIKELY(frame && converted) ; ) {
+			const int r = pipeline->readNext(dtime, frame, dtime);
+			if (r || (dtime > end_nsec)) break;
+			if (UNLIKELY(convert_frame(decoder, frame, converted, pixel_format))) {
+				LOGW("failed to convert frame:format=%d", frame->frame_format);
+				continue;
+			}
+			jobject buf = env->NewDirectByteBuffer(converted->data, converted->actual_bytes);
+			env->CallVoidMethod(reader, onFrame, buf, (jint)converted->width, (jint)converted->height, (jlong)dtime);
+			env->DeleteLocalRef(buf);
+			if (UNLIKELY(env->ExceptionCheck())) {
+				// leave the exception to the caller
+				break;
+			}
+			result++;
+		}
+		if (decoder) uvc_mjpeg_decoder_destroy(decoder);
+		if (converted) uvc_free_frame(converted);
+		if (frame) uvc_free_frame(frame);
+	}
+	RETURN(result, jint);
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+static JNINativeMethod methods[] = {
+	{ "nativeCreate",					"(Ljava/lang/String;IIJ)J", (void *) nativeCreate },
+	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
+
+	{ "nativeGetState",					"(J)I", (void *) nativeGetState },
+	{ "nativeSetPipeline",				"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetPipeline },
+
+	{ "nativeStart",					"(J)I", (void *) nativeStart },
+	{ "nativeStop",						"(J)I", (void *) nativeStop },
+
+	{ "nativeGetFrameCount",			"(J)I", (void *) nativeGetFrameCount },
+	{ "nativeGetTimeRange",				"(J[J)I", (void *) nativeGetTimeRange },
+	{ "nativeClear",					"(J)I", (void *) nativeClear },
+	{ "nativeRead",						"(JJJILcom/serenegiant/usb/RingFileBufferedPipeline$FrameReader;)I", (void *) nativeRead },
+};
+
+int register_ring_file_buffered_pipeline(JNIEnv *env) {
+	LOGV("register_ring_file_buffered_pipeline:");
+	if (registerNativeMethods(env,
+		"com/serenegiant/usb/RingFileBufferedPipeline",
+		methods, NUM_ARRAY_ELEMENTS(methods)) < 0) {
+		return -1;
+	}
+    return 0;
+}
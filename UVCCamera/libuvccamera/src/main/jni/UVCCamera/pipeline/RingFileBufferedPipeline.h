@@ -0,0 +1,108 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: RingFileBufferedPipeline.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef PUPILMOBILE_RINGFILEBUFFEREDPIPELINE_H
+#define PUPILMOBILE_RINGFILEBUFFEREDPIPELINE_H
+
+#include <stdint.h>
+#include <deque>
+#include "Mutex.h"
+
+#include "libUVCCamera.h"
+#include "AbstractBufferedPipeline.h"
+
+#pragma interface
+
+using namespace android;
+
+typedef int64_t nsecs_t;
+
+#define DEFAULT_RING_SEGMENT_NUM 16
+#define DEFAULT_RING_SEGMENT_BYTES (4 * 1024 * 1024)
+#define DEFAULT_RING_KEEP_NSEC 30000000000LL		// 30sec
+
+// header of each record in the ring file, the frame data follows this
+typedef struct ring_record_header {
+	uint32_t magic;
+	uint32_t sequence;
+	int64_t dtime;			// [nsec]
+	uint32_t format;		// uvc_frame_format
+	uint32_t width;
+	uint32_t height;
+	uint32_t step;
+	uint32_t data_bytes;
+	uint32_t reserved;
+} ring_record_header_t;
+
+// in-memory index of each record, sorted by dtime
+typedef struct ring_index {
+	nsecs_t dtime;
+	uint32_t segment;
+	uint32_t offset;		// offset of ring_record_header_t from the top of the segment
+} ring_index_t;
+
+/**
+ * pre-event buffer that keeps the latest frames in a memory mapped file.
+ * The file is split into fixed size segments that are used as a ring,
+ * so appending a frame never allocates memory or blocks on a database
+ * and the oldest segment is simply overwritten when the ring is full.
+ * The in-memory index maps dtime to the record, so the frames of specific time range
+ * can be read by binary search while the ring is being written.
+ * The index is not stored in the file, so the frames do not survive re-opening.
+ */
+class RingFileBufferedPipeline : virtual public AbstractBufferedPipeline {
+private:
+	const uint32_t segment_num;
+	const uint32_t segment_bytes;
+	const nsecs_t keep_nsec;
+	int fd;
+	uint8_t *mapped;
+	size_t mapped_bytes;
+	uint32_t write_segment;
+	uint32_t write_offset;
+	nsecs_t last_dtime;
+	mutable Mutex ring_mutex;
+	std::deque<ring_index_t> ring_index;
+	void close_file();
+	void recycle_segment(const uint32_t &segment);
+protected:
+	virtual void on_start();
+	virtual void on_stop();
+	virtual int handle_frame(uvc_frame_t *frame);
+public:
+	RingFileBufferedPipeline(const char *path,
+		const uint32_t &segment_num = DEFAULT_RING_SEGMENT_NUM,
+		const uint32_t &segment_bytes = DEFAULT_RING_SEGMENT_BYTES,
+		const nsecs_t &keep_nsec = DEFAULT_RING_KEEP_NSEC);
+	virtual ~RingFileBufferedPipeline();
+	virtual int release();
+	const bool isOpened() const;
+	int append(uvc_frame_t *frame);
+	int getFrameCount();
+	int getTimeRange(nsecs_t &oldest, nsecs_t &newest);
+	int readNext(const nsecs_t &after, uvc_frame_t *frame, nsecs_t &dtime);
+	void clear();
+};
+
+#endif //PUPILMOBILE_RINGFILEBUFFEREDPIPELINE_H
@@ -3,10 +3,8 @@
 //
 
 #include "utilbase.h"
-#include "Timers.h"
 #include "SimpleBufferedPipeline.h"
-#include "SQLiteBufferedPipeline.h"
-#include "UVCCameraControl.h"
+#include "RingFileBufferedPipeline.h"
 #include "CallbackPipeline.h"
 #include "ConvertPipeline.h"
 #include "PreviewPipeline.h"
@@ -26,11 +24,8 @@ IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
 		case PIPELINE_TYPE_SIMPLE_BUFFERED:
 			result = reinterpret_cast<SimpleBufferedPipeline *>(id_pipeline);
 			break;
-		case PIPELINE_TYPE_SQLITE_BUFFERED:
-			result = reinterpret_cast<SQLiteBufferedPipeline *>(id_pipeline);
-			break;
-		case PIPELINE_TYPE_UVC_CONTROL:
-			result = reinterpret_cast<UVCCameraControl *>(id_pipeline);
+		case PIPELINE_TYPE_RING_FILE_BUFFERED:
+			result = reinterpret_cast<RingFileBufferedPipeline *>(id_pipeline);
 			break;
 		case PIPELINE_TYPE_CALLBACK:
 			result = reinterpret_cast<CallbackPipeline *>(id_pipeline);
@@ -54,3 +49,25 @@ IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
 
 	RETURN(result, IPipeline *);
 }
+
+extern int register_simple_buffered_pipeline(JNIEnv *env);
+extern int register_ring_file_buffered_pipeline(JNIEnv *env);
+extern int register_callback_pipeline(JNIEnv *env);
+extern int register_convert_pipeline(JNIEnv *env);
+extern int register_preview_pipeline(JNIEnv *env);
+extern int register_publisher_pipeline(JNIEnv *env);
+extern int register_distribute_pipeline(JNIEnv *env);
+
+int register_pipelines(JNIEnv *env) {
+	LOGV("register_pipelines:");
+	if (register_simple_buffered_pipeline(env)
+		|| register_ring_file_buffered_pipeline(env)
+		|| register_callback_pipeline(env)
+		|| register_convert_pipeline(env)
+		|| register_preview_pipeline(env)
+		|| register_publisher_pipeline(env)
+		|| register_distribute_pipeline(env)) {
+		return -1;
+	}
+	return 0;
+}
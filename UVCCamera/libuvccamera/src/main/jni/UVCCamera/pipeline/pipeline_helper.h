@@ -10,5 +10,7 @@
 #include "IPipeline.h"
 
 IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj);
+// register native methods of all pipeline classes
+int register_pipelines(JNIEnv *env);
 
 #endif //PUPILMOBILE_PIPELINE_HELPER_H_H
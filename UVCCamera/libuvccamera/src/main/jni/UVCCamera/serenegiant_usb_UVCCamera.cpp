@@ -38,6 +38,9 @@
 
 #include "libUVCCamera.h"
 #include "UVCCamera.h"
+#include "CallbackFramePool.h"
+#include "turbojpeg.h"
+#include "pipeline_helper.h"
 
 /**
  * set the value into the long field
@@ -46,7 +49,7 @@
  * @param field_name
  * @params val
  */
-static jlong setField_long(JNIEnv *env, jobject java_obj, const char *field_name, jlong val) {
+jlong setField_long(JNIEnv *env, jobject java_obj, const char *field_name, jlong val) {
 #if LOCAL_DEBUG
 	LOGV("setField_long:");
 #endif
@@ -227,12 +230,12 @@ static jint nativeSetPreviewSize(JNIEnv *env, jobject thiz,
 }
 
 static jint nativeStartPreview(JNIEnv *env, jobject thiz,
-	ID_TYPE id_camera) {
+	ID_TYPE id_camera, jboolean headless) {
 
 	ENTER();
 	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
 	if (LIKELY(camera)) {
-		return camera->startPreview();
+		return camera->startPreview(headless);
 	}
 	RETURN(JNI_ERR, jint);
 }
@@ -250,6 +253,103 @@ static jint nativeStopPreview(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+static jlong nativeGetStreamBufferBytes(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jlong result = 0;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = (jlong)camera->getStreamBufferBytes();
+	}
+	RETURN(result, jlong);
+}
+
+static jlong nativeGetSavedCpuTimePerFrame(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jlong result = 0;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = (jlong)camera->getSavedCpuTimePerFrame();
+	}
+	RETURN(result, jlong);
+}
+
+static jlong nativeGetHeadlessFrames(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jlong result = 0;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = (jlong)camera->getHeadlessFrames();
+	}
+	RETURN(result, jlong);
+}
+
+static jint nativeSetConversionThreads(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint num_threads) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setConversionThreads(num_threads);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetConversionThreads(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jint result = 1;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->getConversionThreads();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetFrameDropPolicy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint policy) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setFrameDropPolicy(policy);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetFrameDropPolicy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jint result = 0;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->getFrameDropPolicy();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject pipeline_obj) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		IPipeline *pipeline = getPipeline(env, pipeline_obj);
+		result = camera->setPipeline(pipeline);
+	}
+	RETURN(result, jint);
+}
+
 static jint nativeSetPreviewDisplay(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera, jobject jSurface) {
 
@@ -276,6 +376,32 @@ static jint nativeSetFrameCallback(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+static jint nativeSetPooledFrameCallback(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject jIPooledFrameCallback, jint pixel_format, jint pool_num) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		jobject frame_callback_obj = env->NewGlobalRef(jIPooledFrameCallback);
+		result = camera->setFrameCallback(env, frame_callback_obj, pixel_format, pool_num > 0 ? pool_num : 1);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetMjpegCallback(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject jIPooledFrameCallback, jint pool_num) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		jobject mjpeg_callback_obj = env->NewGlobalRef(jIPooledFrameCallback);
+		result = camera->setMjpegCallback(env, mjpeg_callback_obj, pool_num > 0 ? pool_num : 1);
+	}
+	RETURN(result, jint);
+}
+
 static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera, jobject jSurface) {
 
@@ -2024,10 +2150,20 @@ static JNINativeMethod methods[] = {
 
 	{ "nativeGetSupportedSize",			"(J)Ljava/lang/String;", (void *) nativeGetSupportedSize },
 	{ "nativeSetPreviewSize",			"(JIIIIIF)I", (void *) nativeSetPreviewSize },
-	{ "nativeStartPreview",				"(J)I", (void *) nativeStartPreview },
+	{ "nativeStartPreview",				"(JZ)I", (void *) nativeStartPreview },
 	{ "nativeStopPreview",				"(J)I", (void *) nativeStopPreview },
+	{ "nativeGetStreamBufferBytes",		"(J)J", (void *) nativeGetStreamBufferBytes },
+	{ "nativeGetSavedCpuTimePerFrame",	"(J)J", (void *) nativeGetSavedCpuTimePerFrame },
+	{ "nativeGetHeadlessFrames",		"(J)J", (void *) nativeGetHeadlessFrames },
+	{ "nativeSetConversionThreads",		"(JI)I", (void *) nativeSetConversionThreads },
+	{ "nativeGetConversionThreads",		"(J)I", (void *) nativeGetConversionThreads },
+	{ "nativeSetFrameDropPolicy",		"(JI)I", (void *) nativeSetFrameDropPolicy },
+	{ "nativeGetFrameDropPolicy",		"(J)I", (void *) nativeGetFrameDropPolicy },
+	{ "nativeSetPipeline",				"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetPipeline },
 	{ "nativeSetPreviewDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetPreviewDisplay },
 	{ "nativeSetFrameCallback",			"(JLcom/serenegiant/usb/IFrameCallback;I)I", (void *) nativeSetFrameCallback },
+	{ "nativeSetPooledFrameCallback",	"(JLcom/serenegiant/usb/IPooledFrameCallback;II)I", (void *) nativeSetPooledFrameCallback },
+	{ "nativeSetMjpegCallback",			"(JLcom/serenegiant/usb/IPooledFrameCallback;I)I", (void *) nativeSetMjpegCallback },
 
 	{ "nativeSetCaptureDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetCaptureDisplay },
 
@@ -2191,6 +2327,92 @@ static JNINativeMethod methods[] = {
 	{ "nativeGetPrivacy",				"(J)I", (void *) nativeGetPrivacy },
 };
 
+//================================================================================
+static void nativeReleaseFrame(JNIEnv *env, jclass clazz,
+	ID_TYPE id_pool, jint index) {
+
+	CallbackFramePool *pool = reinterpret_cast<CallbackFramePool *>(id_pool);
+	if (LIKELY(pool)) {
+		pool->release(env, index);
+	}
+}
+
+static JNINativeMethod methods_frame[] = {
+	{ "nativeRelease",					"(JI)V", (void *) nativeReleaseFrame },
+};
+
+//================================================================================
+static jint nativeGetJpegBufferSize(JNIEnv *env, jclass clazz,
+	jint width, jint height) {
+
+	return (jint)tjBufSize(width, height, TJSAMP_420);
+}
+
+/**
+ * compress RGBX or I420 frame into JPEG with TurboJPEG
+ * @param src direct ByteBuffer
+ * @param dst direct ByteBuffer, its capacity should be equal or larger than #nativeGetJpegBufferSize
+ * @return size of JPEG data, negative value if error
+ */
+static jint nativeCompressJpeg(JNIEnv *env, jclass clazz,
+	jobject src_obj, jint width, jint height, jint pixel_format, jint quality, jobject dst_obj) {
+
+	ENTER();
+	const uint8_t *src = (const uint8_t *)env->GetDirectBufferAddress(src_obj);
+	uint8_t *dst = (uint8_t *)env->GetDirectBufferAddress(dst_obj);
+	if (UNLIKELY(!src || !dst || (width <= 0) || (height <= 0))) {
+		RETURN(UVC_ERROR_INVALID_PARAM, jint);
+	}
+	const jlong src_bytes = env->GetDirectBufferCapacity(src_obj);
+	const jlong dst_bytes = env->GetDirectBufferCapacity(dst_obj);
+	if (UNLIKELY(dst_bytes < (jlong)tjBufSize(width, height, TJSAMP_420))) {
+		RETURN(UVC_ERROR_NO_MEM, jint);
+	}
+	tjhandle handle = tjInitCompress();
+	if (UNLIKELY(!handle)) {
+		RETURN(UVC_ERROR_NO_MEM, jint);
+	}
+	unsigned char *jpeg = dst;
+	unsigned long jpeg_bytes = 0;
+	int result;
+	// dst is never reallocated because its size is checked above
+	const int flags = TJFLAG_NOREALLOC | TJFLAG_FASTDCT;
+	switch (pixel_format) {
+	case PIXEL_FORMAT_RGBX:
+		if (src_bytes < (jlong)width * height * 4) {
+			result = UVC_ERROR_INVALID_PARAM;
+			break;
+		}
+		result = tjCompress2(handle, (unsigned char *)src, width, 0, height, TJPF_RGBX,
+			&jpeg, &jpeg_bytes, TJSAMP_420, quality, flags);
+		break;
+	case PIXEL_FORMAT_I420:
+		if (src_bytes < (jlong)tjBufSizeYUV2(width, 1, height, TJSAMP_420)) {
+			result = UVC_ERROR_INVALID_PARAM;
+			break;
+		}
+		result = tjCompressFromYUV(handle, src, width, 1, height, TJSAMP_420,
+			&jpeg, &jpeg_bytes, quality, flags);
+		break;
+	default:
+		result = UVC_ERROR_NOT_SUPPORTED;
+		break;
+	}
+	if (!result) {
+		result = (int)jpeg_bytes;
+	} else if (result == -1) {
+		LOGW("tjCompress:%s", tjGetErrorStr());
+		result = JNI_ERR;
+	}
+	tjDestroy(handle);
+	RETURN(result, jint);
+}
+
+static JNINativeMethod methods_jpeg[] = {
+	{ "nativeGetJpegBufferSize",		"(II)I", (void *) nativeGetJpegBufferSize },
+	{ "nativeCompressJpeg",			"(Ljava/nio/ByteBuffer;IIIILjava/nio/ByteBuffer;)I", (void *) nativeCompressJpeg },
+};
+
 int register_uvccamera(JNIEnv *env) {
 	LOGV("register_uvccamera:");
 	if (registerNativeMethods(env,
@@ -2198,5 +2420,15 @@ int register_uvccamera(JNIEnv *env) {
 		methods, NUM_ARRAY_ELEMENTS(methods)) < 0) {
 		return -1;
 	}
+	if (registerNativeMethods(env,
+		"com/serenegiant/usb/UVCFrame",
+		methods_frame, NUM_ARRAY_ELEMENTS(methods_frame)) < 0) {
+		return -1;
+	}
+	if (registerNativeMethods(env,
+		"com/serenegiant/usb/TurboJpegCompressor",
+		methods_jpeg, NUM_ARRAY_ELEMENTS(methods_jpeg)) < 0) {
+		return -1;
+	}
     return 0;
 }
@@ -70,6 +70,18 @@ LOCAL_SRC_FILES := \
 	src/init.c \
 	src/stream.c
 
+# SIMD kernels of the frame converters, selected at runtime
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+LOCAL_SRC_FILES += src/frame-neon.c.neon
+LOCAL_STATIC_LIBRARIES += cpufeatures
+else ifeq ($(TARGET_ARCH_ABI),arm64-v8a)
+LOCAL_SRC_FILES += src/frame-neon.c
+else ifeq ($(TARGET_ARCH_ABI),x86)
+LOCAL_SRC_FILES += src/frame-sse2.c
+else ifeq ($(TARGET_ARCH_ABI),x86_64)
+LOCAL_SRC_FILES += src/frame-sse2.c
+endif
+
 LOCAL_MODULE := libuvc_static
 include $(BUILD_STATIC_LIBRARY)
 
@@ -85,3 +97,5 @@ LOCAL_DISABLE_FATAL_LINKER_WARNINGS := true
 
 LOCAL_MODULE := uvc
 include $(BUILD_SHARED_LIBRARY)
+
+$(call import-module,android/cpufeatures)
@@ -105,6 +105,14 @@ enum uvc_frame_format {
 	UVC_FRAME_FORMAT_MJPEG,
 	UVC_FRAME_FORMAT_GRAY8,
 	UVC_FRAME_FORMAT_BY8,
+	/** YUV420 planar, Y plane followed by U(Cb) and V(Cr) planes of half width and half height */
+	UVC_FRAME_FORMAT_I420,
+	/** YUV422 planar, Y plane followed by U(Cb) and V(Cr) planes of half width and full height */
+	UVC_FRAME_FORMAT_I422,
+	/** YUV420 semi-planar, Y plane followed by interleaved U(Cb)/V(Cr) plane of half width and half height */
+	UVC_FRAME_FORMAT_NV12,
+	/** YVU420 semi-planar, Y plane followed by interleaved V(Cr)/U(Cb) plane of half width and half height */
+	UVC_FRAME_FORMAT_NV21,
 	/** Number of formats understood */
 	UVC_FRAME_FORMAT_COUNT,
 };
@@ -347,6 +355,14 @@ typedef struct uvc_device_handle uvc_device_handle_t;
 struct uvc_stream_handle;
 typedef struct uvc_stream_handle uvc_stream_handle_t;
 
+/** MJPEG decoder that is reused for all frames of a stream.
+ *
+ * Get one of these from uvc_mjpeg_decoder_create().
+ * This is not thread safe, use one decoder for each decoding thread.
+ */
+struct uvc_mjpeg_decoder;
+typedef struct uvc_mjpeg_decoder uvc_mjpeg_decoder_t;
+
 /** Representation of the interface that brings data into the UVC device */
 typedef struct uvc_input_terminal {
 	struct uvc_input_terminal *prev, *next;
@@ -470,7 +486,8 @@ typedef struct uvc_frame {
 	size_t step;
 	/** Frame number (may skip, but is strictly monotonically increasing) */
 	uint32_t sequence;
-	/** Estimate of system time when the device started capturing the image */
+	/** Estimate of system time when the device started capturing the image
+	 * XXX this is CLOCK_MONOTONIC(same base as System.nanoTime), not wall clock */
 	struct timeval capture_time;
 	/** Handle on the device that produced the image.
 	 * @warning You must not call any uvc_* functions during a callback. */
@@ -489,6 +506,20 @@ typedef struct uvc_frame {
  */
 typedef void(uvc_frame_callback_t)(struct uvc_frame *frame, void *user_ptr);
 
+/** A callback function to obtain a frame from the user's frame pool
+ * @ingroup streaming
+ * The returned frame should have library_owns_data set so that
+ * the library can resize its data buffer.
+ * @see uvc_stream_set_frame_pool
+ */
+typedef struct uvc_frame *(uvc_frame_pool_get_t)(size_t data_bytes, void *user_ptr);
+
+/** A callback function to return a frame to the user's frame pool
+ * @ingroup streaming
+ * @see uvc_stream_set_frame_pool
+ */
+typedef void(uvc_frame_pool_recycle_t)(struct uvc_frame *frame, void *user_ptr);
+
 /** Streaming mode, includes all information needed to select stream
  * @ingroup streaming
  */
@@ -603,6 +634,9 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		uvc_frame_callback_t *cb, void *user_ptr, float bandwidth, uint8_t flags);	// XXX added saki
 uvc_error_t uvc_stream_start_iso(uvc_stream_handle_t *strmh,
 		uvc_frame_callback_t *cb, void *user_ptr);
+uvc_error_t uvc_stream_set_frame_pool(uvc_stream_handle_t *strmh,
+		uvc_frame_pool_get_t *get_frame, uvc_frame_pool_recycle_t *recycle_frame, void *pool_ptr);	// XXX ownership transfer mode
+size_t uvc_stream_get_buffer_bytes(uvc_stream_handle_t *strmh);
 uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 		uvc_frame_t **frame, int32_t timeout_us);
 uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh);
@@ -801,6 +835,10 @@ uvc_error_t uvc_mjpeg2bgr(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 uvc_error_t uvc_mjpeg2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out);		// XXX
+uvc_mjpeg_decoder_t *uvc_mjpeg_decoder_create(void);
+void uvc_mjpeg_decoder_destroy(uvc_mjpeg_decoder_t *decoder);
+uvc_error_t uvc_mjpeg_decode(uvc_mjpeg_decoder_t *decoder,
+		uvc_frame_t *in, uvc_frame_t *out, enum uvc_frame_format out_format);
 #endif
 
 uvc_error_t uvc_yuyv2rgb565(uvc_frame_t *in, uvc_frame_t *out);		// XXX
@@ -811,9 +849,11 @@ uvc_error_t uvc_any2rgb565(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_uyvy2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_rgb2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
+uvc_error_t uvc_yuv420_2rgbx(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 uvc_error_t uvc_any2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 
 uvc_error_t uvc_yuyv2yuv420P(uvc_frame_t *in, uvc_frame_t *out);	// XXX
+uvc_error_t uvc_yuyv2i420(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_yuyv2yuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 uvc_error_t uvc_any2yuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 
@@ -823,6 +863,9 @@ uvc_error_t uvc_any2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 
 uvc_error_t uvc_any2yuyv(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 
+const char *uvc_get_simd_name(void);
+void uvc_set_simd_enabled(int enabled);
+
 uvc_error_t uvc_ensure_frame_size(uvc_frame_t *frame, size_t need_bytes); // XXX
 
 //**********************************************************************
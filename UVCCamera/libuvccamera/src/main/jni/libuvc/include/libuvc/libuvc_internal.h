@@ -249,7 +249,11 @@ typedef struct uvc_device_info {
  */
 #define LIBUVC_NUM_TRANSFER_BUFS 10
 
+/* upper limit of the buffers for assembling a frame,
+ * the buffers are allocated for dwMaxVideoFrameSize and grow on demand up to this size */
 #define LIBUVC_XFER_BUF_SIZE	( 16 * 1024 * 1024 )
+/* lower limit of the buffers for assembling a frame */
+#define LIBUVC_XFER_BUF_MIN_SIZE	( 64 * 1024 )
 
 struct uvc_stream_handle {
   struct uvc_device_handle *devh;
@@ -267,9 +271,15 @@ struct uvc_stream_handle {
   uint8_t fid;
   uint32_t seq, hold_seq;
   uint32_t pts, hold_pts;
+  /* CLOCK_MONOTONIC time when the first data of the frame arrived */
+  struct timeval capture_time, hold_capture_time;
   uint32_t last_scr, hold_last_scr;
   size_t got_bytes, hold_bytes;
   size_t size_buf;	// XXX add for boundary check
+  /* current size of each buffer for assembling a frame, grows when a frame overflows it */
+  size_t frame_buf_size;
+  /* total bytes of the transfer buffers while streaming */
+  size_t transfer_buf_bytes;
   uint8_t *outbuf, *holdbuf;
   pthread_mutex_t cb_mutex;
   pthread_cond_t cb_cond;
@@ -281,6 +291,16 @@ struct uvc_stream_handle {
   uint8_t *transfer_bufs[LIBUVC_NUM_TRANSFER_BUFS];
   struct uvc_frame frame;
   enum uvc_frame_format frame_format;
+  /* ownership transfer mode, frames are assembled directly into
+   * the frames that come from user's frame pool and are handed to the user callback
+   * without copying, see uvc_stream_set_frame_pool */
+  uvc_frame_pool_get_t *pool_get;
+  uvc_frame_pool_recycle_t *pool_recycle;
+  void *pool_ptr;
+  /* frame that is being assembled, outbuf points to its data */
+  struct uvc_frame *outframe;
+  /* latest complete frame that is not handed to the user callback yet */
+  struct uvc_frame *holdframe;
 };
 
 /** Handle on an open UVC device
@@ -327,6 +347,29 @@ uvc_error_t uvc_query_stream_ctrl(
     uint8_t probe,
     enum uvc_req_code req);
 
+/** @internal
+ * SIMD kernels of the frame converters, selected once at runtime.
+ * Each kernel converts the largest multiple of 16 pixels that does not exceed pixels
+ * and returns the number of converted pixels, the caller converts the rest with the scalar code.
+ * The results must be bit exact with the scalar code.
+ */
+typedef struct uvc_simd_kernels {
+	const char *name;
+	int (*yuyv2rgbx)(const uint8_t *yuyv, uint8_t *rgbx, const int pixels);
+	int (*yuyv2rgb565)(const uint8_t *yuyv, uint8_t *rgb565, const int pixels);
+	/** two lines of YUYV to two Y lines and one interleaved chroma line, U/V order or V/U order if vu is not 0 */
+	int (*yuyv2yuv420SP)(const uint8_t *yuyv0, const uint8_t *yuyv1,
+		uint8_t *y0, uint8_t *y1, uint8_t *uv, const int pixels, const int vu);
+	/** one line of I420(uv_pixel_bytes=1) or NV12/NV21(uv_pixel_bytes=2) to RGBX,
+	 * u and v point the first chroma samples of the line */
+	int (*yuv420_2rgbx)(const uint8_t *y, const uint8_t *u, const uint8_t *v,
+		const int uv_pixel_bytes, uint8_t *rgbx, const int pixels);
+} uvc_simd_kernels_t;
+
+/** @internal kernels are weak references, they are NULL when the file is not compiled for the target */
+extern const uvc_simd_kernels_t uvc_simd_kernels_neon __attribute__((weak));
+extern const uvc_simd_kernels_t uvc_simd_kernels_sse2 __attribute__((weak));
+
 void uvc_start_handler_thread(uvc_context_t *ctx);
 uvc_error_t uvc_claim_if(uvc_device_handle_t *devh, int idx);
 uvc_error_t uvc_release_if(uvc_device_handle_t *devh, int idx);
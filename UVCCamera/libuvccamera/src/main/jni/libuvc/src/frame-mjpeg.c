@@ -550,3 +550,396 @@ fail:
 	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER+1;
 }
 
+
+//**********************************************************************
+// decoder that is reused for all frames of a stream
+//**********************************************************************
+struct uvc_mjpeg_decoder {
+	struct jpeg_decompress_struct dinfo;
+	struct error_mgr jerr;
+	/** YCbCr lines to convert to YUYV/planar formats */
+	uint8_t *work;
+	size_t work_bytes;
+	/** dummy line for padding rows of raw data output */
+	uint8_t *dummy;
+	size_t dummy_bytes;
+};
+
+static int _ensure_buffer(uint8_t **buf, size_t *bytes, const size_t need_bytes) {
+	if (UNLIKELY(*bytes < need_bytes)) {
+		uint8_t *p = realloc(*buf, need_bytes);
+		if (UNLIKELY(!p))
+			return -1;
+		*buf = p;
+		*bytes = need_bytes;
+	}
+	return 0;
+}
+
+/** @brief Create MJPEG decoder
+ * @ingroup frame
+ *
+ * The decompress object, the Huffman tables and the line buffers are kept
+ * in the decoder and reused for following frames instead of setting up them on every frame.
+ * @return decoder, NULL if failed
+ */
+uvc_mjpeg_decoder_t *uvc_mjpeg_decoder_create(void) {
+	uvc_mjpeg_decoder_t *decoder = calloc(1, sizeof(uvc_mjpeg_decoder_t));
+	if (UNLIKELY(!decoder))
+		return NULL;
+
+	decoder->dinfo.err = jpeg_std_error(&decoder->jerr.super);
+	decoder->jerr.super.error_exit = _error_exit;
+	if (setjmp(decoder->jerr.jmp)) {
+		jpeg_destroy_decompress(&decoder->dinfo);
+		free(decoder);
+		return NULL;
+	}
+	jpeg_create_decompress(&decoder->dinfo);
+	return decoder;
+}
+
+/** @brief Destroy MJPEG decoder
+ * @ingroup frame
+ */
+void uvc_mjpeg_decoder_destroy(uvc_mjpeg_decoder_t *decoder) {
+	if (LIKELY(decoder)) {
+		jpeg_destroy_decompress(&decoder->dinfo);
+		free(decoder->work);
+		free(decoder->dummy);
+		free(decoder);
+	}
+}
+
+/** @internal
+ * whether libjpeg-turbo can write its raw(planar) data directly into I420/I422 planes.
+ * needs YCbCr with 2x1 or 2x2 subsampled chroma and the width of multiple of MCU width
+ */
+static int _can_read_raw_data(j_decompress_ptr dinfo) {
+	return (dinfo->num_components == 3)
+		&& (dinfo->jpeg_color_space == JCS_YCbCr)
+		&& (dinfo->comp_info[0].h_samp_factor == 2)
+		&& ((dinfo->comp_info[0].v_samp_factor == 1) || (dinfo->comp_info[0].v_samp_factor == 2))
+		&& (dinfo->comp_info[1].h_samp_factor == 1) && (dinfo->comp_info[1].v_samp_factor == 1)
+		&& (dinfo->comp_info[2].h_samp_factor == 1) && (dinfo->comp_info[2].v_samp_factor == 1)
+		&& !(dinfo->image_width % (2 * DCTSIZE));
+}
+
+/** @internal
+ * read raw data of each component directly into I420/I422 planes without color conversion
+ * and upsampling. Chroma lines are dropped or duplicated when the vertical subsampling differs.
+ * For NV12/NV21, chroma lines are read into the work buffer and interleaved into the UV plane.
+ * @return number of lines read
+ */
+static size_t _read_raw_data(uvc_mjpeg_decoder_t *decoder, uvc_frame_t *out,
+	const int chroma_height) {
+
+	j_decompress_ptr dinfo = &decoder->dinfo;
+	const int width = out->width;
+	const int height = out->height;
+	const int chroma_width = width >> 1;
+	const int max_v = dinfo->max_v_samp_factor;
+	const int lines = max_v * DCTSIZE;
+	const int is_i420 = out->frame_format != UVC_FRAME_FORMAT_I422;
+	const int is_nv12 = out->frame_format == UVC_FRAME_FORMAT_NV12;
+	const int is_semi_planar = is_nv12 || (out->frame_format == UVC_FRAME_FORMAT_NV21);
+	uint8_t *y_plane = out->data;
+	uint8_t *u_plane = y_plane + width * height;
+	uint8_t *v_plane = u_plane + chroma_width * chroma_height;
+	uint8_t *dummy = decoder->dummy;
+	uint8_t *u_work = decoder->work;
+	uint8_t *v_work = u_work + chroma_width * DCTSIZE;
+	JSAMPROW y_rows[2 * DCTSIZE], u_rows[DCTSIZE], v_rows[DCTSIZE];
+	JSAMPARRAY planes[3] = { y_rows, u_rows, v_rows };
+	int dst_rows[DCTSIZE];
+	int i, x, y, r, dst;
+
+	for (y = 0; dinfo->output_scanline < dinfo->output_height; y += lines) {
+		for (i = 0; i < lines; i++) {
+			y_rows[i] = (y + i < height) ? y_plane + (y + i) * width : dummy;
+		}
+		for (i = 0; i < DCTSIZE; i++) {
+			r = y / max_v + i;	// line number of chroma component
+			if (is_i420) {
+				dst = max_v == 2 ? r : ((r & 1) ? -1 : r >> 1);
+			} else {
+				dst = max_v == 2 ? r << 1 : r;
+			}
+			if ((dst >= 0) && (dst < chroma_height)) {
+				if (is_semi_planar) {
+					u_rows[i] = u_work + i * chroma_width;
+					v_rows[i] = v_work + i * chroma_width;
+				} else {
+					u_rows[i] = u_plane + dst * chroma_width;
+					v_rows[i] = v_plane + dst * chroma_width;
+				}
+			} else {
+				u_rows[i] = v_rows[i] = dummy;
+				dst = -1;
+			}
+			dst_rows[i] = dst;
+		}
+		if (UNLIKELY(!jpeg_read_raw_data(dinfo, planes, lines)))
+			break;
+		if (is_semi_planar) {
+			// interleave chroma lines, NV12 is U/V order and NV21 is V/U order
+			for (i = 0; i < DCTSIZE; i++) {
+				if (dst_rows[i] < 0) continue;
+				const uint8_t *first = is_nv12 ? u_rows[i] : v_rows[i];
+				const uint8_t *second = is_nv12 ? v_rows[i] : u_rows[i];
+				uint8_t *uv = u_plane + dst_rows[i] * width;
+				for (x = 0; x < chroma_width; x++) {
+					*(uv++) = first[x];
+					*(uv++) = second[x];
+				}
+			}
+			continue;
+		}
+		if (!is_i420 && (max_v == 2)) {
+			// 4:2:0 => 4:2:2, duplicate chroma lines
+			for (i = 0; i < DCTSIZE; i++) {
+				dst = (y / max_v + i) << 1;
+				if (dst + 1 < chroma_height) {
+					memcpy(u_plane + (dst + 1) * chroma_width, u_plane + dst * chroma_width, chroma_width);
+					memcpy(v_plane + (dst + 1) * chroma_width, v_plane + dst * chroma_width, chroma_width);
+				}
+			}
+		}
+	}
+	return dinfo->output_scanline >= dinfo->output_height ? height : dinfo->output_scanline;
+}
+
+/** @internal
+ * read YCbCr lines and convert them into YUYV, I420/I422 planes or NV12/NV21
+ * @return number of lines read
+ */
+static size_t _read_ycbcr(uvc_mjpeg_decoder_t *decoder, uvc_frame_t *out,
+	const int chroma_height) {
+
+	j_decompress_ptr dinfo = &decoder->dinfo;
+	const int width = out->width;
+	const int height = out->height;
+	const int chroma_width = (width + 1) >> 1;
+	const int row_stride = dinfo->output_width * dinfo->output_components;
+	// YCbCr bytes of the pixels that are converted by 8 pixels
+	const int yuyv_stride = (width & ~7) * 3;
+	const int is_yuyv = out->frame_format == UVC_FRAME_FORMAT_YUYV;
+	const int is_i420 = out->frame_format != UVC_FRAME_FORMAT_I422;
+	const int is_nv12 = out->frame_format == UVC_FRAME_FORMAT_NV12;
+	const int is_semi_planar = is_nv12 || (out->frame_format == UVC_FRAME_FORMAT_NV21);
+	uint8_t *data = out->data;
+	const int out_step = out->step;
+	uint8_t *y_plane = data;
+	uint8_t *u_plane = y_plane + width * height;
+	uint8_t *v_plane = u_plane + chroma_width * chroma_height;
+	JSAMPROW buffer[MAX_READLINE];
+	size_t lines_read = 0;
+	int i, j, x, num_scanlines;
+	register uint8_t *yuyv, *ycbcr;
+
+	for (i = 0; i < MAX_READLINE; i++)
+		buffer[i] = decoder->work + i * row_stride;
+
+	for (; dinfo->output_scanline < dinfo->output_height ;) {
+		num_scanlines = jpeg_read_scanlines(dinfo, buffer, MAX_READLINE);
+		if (UNLIKELY(!num_scanlines))
+			break;
+		for (j = 0; j < num_scanlines; j++) {
+			const int y = lines_read + j;
+			ycbcr = buffer[j];
+			if (is_yuyv) {
+				yuyv = data + y * out_step;
+				for (i = 0; i < yuyv_stride; i += 24) {	// step by YCbCr x 8 pixels = 3 x 8 bytes
+					YCbCr_YUYV_2(ycbcr + i, yuyv);
+					YCbCr_YUYV_2(ycbcr + i + 6, yuyv);
+					YCbCr_YUYV_2(ycbcr + i + 12, yuyv);
+					YCbCr_YUYV_2(ycbcr + i + 18, yuyv);
+				}
+				// rest of the pixels when the width is not multiple of 8,
+				// not to read/write beyond the end of the lines
+				for (x = width & ~7; x < width - 1; x += 2) {
+					YCbCr_YUYV_2(ycbcr + x * 3, yuyv);
+				}
+				if (x < width) {
+					*(yuyv++) = ycbcr[x * 3];
+					*(yuyv++) = ycbcr[x * 3 + 1];
+				}
+			} else {
+				uint8_t *dst_y = y_plane + y * width;
+				for (x = 0; x < width; x++) {
+					dst_y[x] = ycbcr[x * 3];
+				}
+				if (is_semi_planar) {
+					if (!(y & 1)) {
+						// NV12 is U/V order and NV21 is V/U order
+						const int first = is_nv12 ? 1 : 2, second = is_nv12 ? 2 : 1;
+						uint8_t *dst_uv = u_plane + (y >> 1) * chroma_width * 2;
+						for (x = 0; x < width - 1; x += 2) {
+							*(dst_uv++) = (ycbcr[x * 3 + first] + ycbcr[x * 3 + first + 3]) >> 1;
+							*(dst_uv++) = (ycbcr[x * 3 + second] + ycbcr[x * 3 + second + 3]) >> 1;
+						}
+						if (x < width) {
+							*(dst_uv++) = ycbcr[x * 3 + first];
+							*(dst_uv++) = ycbcr[x * 3 + second];
+						}
+					}
+				} else if (!is_i420 || !(y & 1)) {
+					const int cy = is_i420 ? y >> 1 : y;
+					uint8_t *dst_u = u_plane + cy * chroma_width;
+					uint8_t *dst_v = v_plane + cy * chroma_width;
+					for (x = 0; x < width - 1; x += 2) {
+						dst_u[x >> 1] = (ycbcr[x * 3 + 1] + ycbcr[x * 3 + 4]) >> 1;
+						dst_v[x >> 1] = (ycbcr[x * 3 + 2] + ycbcr[x * 3 + 5]) >> 1;
+					}
+					if (x < width) {
+						dst_u[x >> 1] = ycbcr[x * 3 + 1];
+						dst_v[x >> 1] = ycbcr[x * 3 + 2];
+					}
+				}
+			}
+		}
+		lines_read += num_scanlines;
+	}
+	return lines_read;
+}
+
+/** @brief Decode an MJPEG frame with the decoder
+ * @ingroup frame
+ *
+ * For UVC_FRAME_FORMAT_I420 and UVC_FRAME_FORMAT_I422, libjpeg-turbo writes its raw data
+ * directly into the planes when the frame is YCbCr 4:2:2 or 4:2:0,
+ * other frames are decoded as YCbCr and converted.
+ * UVC_FRAME_FORMAT_NV12 and UVC_FRAME_FORMAT_NV21 also use the raw data
+ * and only interleave the chroma lines, so the frame can be passed to the encoder as is.
+ *
+ * @param decoder decoder from uvc_mjpeg_decoder_create
+ * @param in MJPEG frame
+ * @param out output frame
+ * @param out_format one of UVC_FRAME_FORMAT_YUYV, UVC_FRAME_FORMAT_RGB, UVC_FRAME_FORMAT_BGR,
+ *        UVC_FRAME_FORMAT_RGB565, UVC_FRAME_FORMAT_RGBX, UVC_FRAME_FORMAT_I420, UVC_FRAME_FORMAT_I422,
+ *        UVC_FRAME_FORMAT_NV12, UVC_FRAME_FORMAT_NV21
+ */
+uvc_error_t uvc_mjpeg_decode(uvc_mjpeg_decoder_t *decoder,
+	uvc_frame_t *in, uvc_frame_t *out, enum uvc_frame_format out_format) {
+
+	out->actual_bytes = 0;	// XXX
+	if (UNLIKELY(!decoder || (in->frame_format != UVC_FRAME_FORMAT_MJPEG)))
+		return UVC_ERROR_INVALID_PARAM;
+
+	const int width = in->width;
+	const int height = in->height;
+	int chroma_height = 0;
+	size_t out_bytes;
+	size_t step;
+	J_COLOR_SPACE color_space;
+	switch (out_format) {
+	case UVC_FRAME_FORMAT_YUYV:
+		step = width * 2; out_bytes = step * height; color_space = JCS_YCbCr;
+		break;
+	case UVC_FRAME_FORMAT_RGB:
+		step = width * 3; out_bytes = step * height; color_space = JCS_RGB;
+		break;
+	case UVC_FRAME_FORMAT_BGR:
+		step = width * 3; out_bytes = step * height; color_space = JCS_EXT_BGR;
+		break;
+	case UVC_FRAME_FORMAT_RGB565:
+		step = width * 2; out_bytes = step * height; color_space = JCS_RGB565;
+		break;
+	case UVC_FRAME_FORMAT_RGBX:
+		step = width * 4; out_bytes = step * height; color_space = JCS_EXT_RGBA;
+		break;
+	case UVC_FRAME_FORMAT_I420:
+	case UVC_FRAME_FORMAT_NV12:
+	case UVC_FRAME_FORMAT_NV21:
+		chroma_height = (height + 1) >> 1;
+		step = width; out_bytes = width * height + ((width + 1) >> 1) * chroma_height * 2;
+		color_space = JCS_YCbCr;
+		break;
+	case UVC_FRAME_FORMAT_I422:
+		chroma_height = height;
+		step = width; out_bytes = width * height + ((width + 1) >> 1) * chroma_height * 2;
+		color_space = JCS_YCbCr;
+		break;
+	default:
+		return UVC_ERROR_NOT_SUPPORTED;
+	}
+
+	if (uvc_ensure_frame_size(out, out_bytes) < 0)
+		return UVC_ERROR_NO_MEM;
+
+	out->width = width;
+	out->height = height;
+	out->frame_format = out_format;
+	out->step = step;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->source = in->source;
+
+	j_decompress_ptr dinfo = &decoder->dinfo;
+	size_t lines_read = 0;
+
+	if (setjmp(decoder->jerr.jmp)) {
+		// keep the decompress object for next frame
+		jpeg_abort_decompress(dinfo);
+		return UVC_ERROR_OTHER+1;
+	}
+
+	jpeg_mem_src(dinfo, in->data, in->actual_bytes);
+	jpeg_read_header(dinfo, TRUE);
+
+	if (dinfo->dc_huff_tbl_ptrs[0] == NULL) {
+		/* This frame is missing the Huffman tables: fill in the standard ones.
+		 * The tables stay in the decompress object and are reused for following frames */
+		insert_huff_tables(dinfo);
+	}
+
+	dinfo->out_color_space = color_space;
+	dinfo->dct_method = JDCT_IFAST;
+	dinfo->raw_data_out = chroma_height && _can_read_raw_data(dinfo);
+
+	jpeg_start_decompress(dinfo);
+
+	if (UNLIKELY((dinfo->output_width != width) || (dinfo->output_height != height))) {
+		jpeg_abort_decompress(dinfo);
+		return UVC_ERROR_OTHER;
+	}
+
+	if (dinfo->raw_data_out) {
+		if (UNLIKELY((_ensure_buffer(&decoder->dummy, &decoder->dummy_bytes, width) < 0)
+			|| (_ensure_buffer(&decoder->work, &decoder->work_bytes, width * DCTSIZE) < 0))) {
+
+			jpeg_abort_decompress(dinfo);
+			return UVC_ERROR_NO_MEM;
+		}
+		lines_read = _read_raw_data(decoder, out, chroma_height);
+	} else if (color_space == JCS_YCbCr) {
+		if (UNLIKELY(_ensure_buffer(&decoder->work, &decoder->work_bytes,
+			dinfo->output_width * dinfo->output_components * MAX_READLINE) < 0)) {
+
+			jpeg_abort_decompress(dinfo);
+			return UVC_ERROR_NO_MEM;
+		}
+		lines_read = _read_ycbcr(decoder, out, chroma_height);
+	} else {
+		JSAMPROW buffer[MAX_READLINE];
+		uint8_t *data = out->data;
+		int i, num_scanlines;
+		for (; dinfo->output_scanline < dinfo->output_height ;) {
+			buffer[0] = data + lines_read * step;
+			for (i = 1; i < MAX_READLINE; i++)
+				buffer[i] = buffer[i-1] + step;
+			num_scanlines = jpeg_read_scanlines(dinfo, buffer, MAX_READLINE);
+			if (UNLIKELY(!num_scanlines))
+				break;
+			lines_read += num_scanlines;
+		}
+	}
+
+	if (LIKELY(lines_read == height)) {
+		jpeg_finish_decompress(dinfo);
+		out->actual_bytes = out_bytes;
+		return UVC_SUCCESS;
+	}
+	jpeg_abort_decompress(dinfo);
+	return UVC_ERROR_OTHER;
+}
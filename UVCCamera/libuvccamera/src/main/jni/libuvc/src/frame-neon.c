@@ -0,0 +1,150 @@
+/*********************************************************************
+ * NEON kernels for the frame converters in frame.c
+ * Copyright (C) 2014-2017 saki@serenegiant All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted under the same conditions as frame.c
+ *********************************************************************/
+/**
+ * @defgroup frame Frame processing
+ *
+ * All kernels use the same fixed point coefficients as the scalar macros in frame.c,
+ * products are calculated in 32 bit and shifted arithmetically,
+ * so the results are bit exact with the scalar code.
+ * On armeabi-v7a this file is compiled with NEON and only used when the cpu supports it.
+ */
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+
+#if defined(__ARM_NEON__) || defined(__ARM_NEON)
+#include <arm_neon.h>
+
+/** @internal (c0 * x + c1 * y) >> 14 for 8 lanes */
+static inline int16x8_t mul_shift(const int16x8_t x, const int16_t c0,
+	const int16x8_t y, const int16_t c1) {
+
+	int32x4_t lo = vmull_n_s16(vget_low_s16(x), c0);
+	int32x4_t hi = vmull_n_s16(vget_high_s16(x), c0);
+	if (c1) {
+		lo = vmlal_n_s16(lo, vget_low_s16(y), c1);
+		hi = vmlal_n_s16(hi, vget_high_s16(y), c1);
+	}
+	return vcombine_s16(vshrn_n_s32(lo, 14), vshrn_n_s32(hi, 14));
+}
+
+/** @internal y + d for even and odd pixels, saturated to 0-255 same as sat() and zipped */
+static inline uint8x16_t add_sat(const int16x8_t y_even, const int16x8_t y_odd, const int16x8_t d) {
+	const uint8x8x2_t zipped = vzip_u8(
+		vqmovun_s16(vaddq_s16(y_even, d)),
+		vqmovun_s16(vaddq_s16(y_odd, d)));
+	return vcombine_u8(zipped.val[0], zipped.val[1]);
+}
+
+/** @internal r/g/b of 8 pairs of pixels from luma of even/odd pixels and a pair of chroma of each pair */
+static inline void uv_y_to_rgb16(const uint8x8_t y_even8, const uint8x8_t y_odd8,
+	const uint8x8_t u8, const uint8x8_t v8, uint8x16_t *r, uint8x16_t *g, uint8x16_t *b) {
+
+	const uint8x8_t c128 = vdup_n_u8(128);
+	const int16x8_t u = vreinterpretq_s16_u16(vsubl_u8(u8, c128));
+	const int16x8_t v = vreinterpretq_s16_u16(vsubl_u8(v8, c128));
+	const int16x8_t y_even = vreinterpretq_s16_u16(vmovl_u8(y_even8));
+	const int16x8_t y_odd = vreinterpretq_s16_u16(vmovl_u8(y_odd8));
+	*r = add_sat(y_even, y_odd, mul_shift(v, 22987, v, 0));
+	*g = add_sat(y_even, y_odd, mul_shift(u, -5636, v, -11698));
+	*b = add_sat(y_even, y_odd, mul_shift(u, 29049, u, 0));
+}
+
+/** @internal r/g/b of 16 pixels from 32 bytes of YUYV */
+static inline void yuyv_to_rgb16(const uint8_t *yuyv, uint8x16_t *r, uint8x16_t *g, uint8x16_t *b) {
+	// val[0]=y0, val[1]=u, val[2]=y1, val[3]=v of 8 pairs of pixels
+	const uint8x8x4_t src = vld4_u8(yuyv);
+	uv_y_to_rgb16(src.val[0], src.val[2], src.val[1], src.val[3], r, g, b);
+}
+
+static int yuyv2rgbx_neon(const uint8_t *yuyv, uint8_t *rgbx, const int pixels) {
+	uint8x16x4_t dst;
+	dst.val[3] = vdupq_n_u8(0xff);
+	int i;
+	for (i = 0; i + 16 <= pixels; i += 16) {
+		yuyv_to_rgb16(yuyv, &dst.val[0], &dst.val[1], &dst.val[2]);
+		vst4q_u8(rgbx, dst);
+		yuyv += 32;
+		rgbx += 64;
+	}
+	return i;
+}
+
+static int yuv420_2rgbx_neon(const uint8_t *y, const uint8_t *u, const uint8_t *v,
+	const int uv_pixel_bytes, uint8_t *rgbx, const int pixels) {
+
+	const int vu = v < u;	// NV21
+	uint8x16x4_t dst;
+	dst.val[3] = vdupq_n_u8(0xff);
+	int i;
+	for (i = 0; i + 16 <= pixels; i += 16) {
+		// val[0]=even, val[1]=odd pixels
+		const uint8x8x2_t luma = vld2_u8(y);
+		if (uv_pixel_bytes == 1) {
+			uv_y_to_rgb16(luma.val[0], luma.val[1], vld1_u8(u), vld1_u8(v),
+				&dst.val[0], &dst.val[1], &dst.val[2]);
+		} else {
+			// val[0]=first, val[1]=second of the interleaved chroma
+			const uint8x8x2_t uv = vld2_u8(vu ? v : u);
+			uv_y_to_rgb16(luma.val[0], luma.val[1], vu ? uv.val[1] : uv.val[0], vu ? uv.val[0] : uv.val[1],
+				&dst.val[0], &dst.val[1], &dst.val[2]);
+		}
+		vst4q_u8(rgbx, dst);
+		y += 16;
+		u += 8 * uv_pixel_bytes;
+		v += 8 * uv_pixel_bytes;
+		rgbx += 64;
+	}
+	return i;
+}
+
+/** @internal r/g/b bytes to little endian RGB565 */
+static inline uint16x8_t pack_rgb565(const uint8x8_t r, const uint8x8_t g, const uint8x8_t b) {
+	uint16x8_t result = vshll_n_u8(vand_u8(r, vdup_n_u8(0xf8)), 8);
+	result = vorrq_u16(result, vshll_n_u8(vand_u8(g, vdup_n_u8(0xfc)), 3));
+	return vorrq_u16(result, vmovl_u8(vshr_n_u8(b, 3)));
+}
+
+static int yuyv2rgb565_neon(const uint8_t *yuyv, uint8_t *rgb565, const int pixels) {
+	uint8x16_t r, g, b;
+	int i;
+	for (i = 0; i + 16 <= pixels; i += 16) {
+		yuyv_to_rgb16(yuyv, &r, &g, &b);
+		vst1q_u16((uint16_t *)rgb565, pack_rgb565(vget_low_u8(r), vget_low_u8(g), vget_low_u8(b)));
+		vst1q_u16((uint16_t *)(rgb565 + 16), pack_rgb565(vget_high_u8(r), vget_high_u8(g), vget_high_u8(b)));
+		yuyv += 32;
+		rgb565 += 32;
+	}
+	return i;
+}
+
+static int yuyv2yuv420SP_neon(const uint8_t *yuyv0, const uint8_t *yuyv1,
+	uint8_t *y0, uint8_t *y1, uint8_t *uv, const int pixels, const int vu) {
+
+	int i;
+	for (i = 0; i + 16 <= pixels; i += 16) {
+		// val[0]=y, val[1]=u/v of 16 pixels
+		const uint8x16x2_t a = vld2q_u8(yuyv0);
+		const uint8x16x2_t b = vld2q_u8(yuyv1);
+		vst1q_u8(y0, a.val[0]);
+		vst1q_u8(y1, b.val[0]);
+		vst1q_u8(uv, vu ? vrev16q_u8(a.val[1]) : a.val[1]);
+		yuyv0 += 32; yuyv1 += 32;
+		y0 += 16; y1 += 16; uv += 16;
+	}
+	return i;
+}
+
+const uvc_simd_kernels_t uvc_simd_kernels_neon = {
+	.name = "neon",
+	.yuyv2rgbx = yuyv2rgbx_neon,
+	.yuyv2rgb565 = yuyv2rgb565_neon,
+	.yuyv2yuv420SP = yuyv2yuv420SP_neon,
+	.yuv420_2rgbx = yuv420_2rgbx_neon,
+};
+
+#endif // defined(__ARM_NEON__) || defined(__ARM_NEON)
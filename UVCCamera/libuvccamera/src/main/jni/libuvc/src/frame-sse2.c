@@ -0,0 +1,198 @@
+/*********************************************************************
+ * SSE2 kernels for the frame converters in frame.c
+ * Copyright (C) 2014-2017 saki@serenegiant All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted under the same conditions as frame.c
+ *********************************************************************/
+/**
+ * @defgroup frame Frame processing
+ *
+ * All kernels use the same fixed point coefficients as the scalar macros in frame.c,
+ * products are calculated in 32 bit and shifted arithmetically,
+ * so the results are bit exact with the scalar code.
+ */
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+
+#if defined(__SSE2__)
+#include <emmintrin.h>
+
+/** @internal
+ * calculate r/g/b of 16 pixels from their luma and 8 pairs of chroma.
+ * chroma pairs are duplicated for both pixels of each pair.
+ * @param uv_a u0, v0, u1, v1... of pixel 0-7 as 16 bit, offset by -128
+ * @param uv_c same for pixel 8-15
+ * @param y_a luma of pixel 0-7 as 16 bit
+ * @param y_c luma of pixel 8-15 as 16 bit
+ */
+static inline void uv_y_to_rgb16(const __m128i uv_a, const __m128i uv_c,
+	const __m128i y_a, const __m128i y_c,
+	__m128i *r, __m128i *g, __m128i *b) {
+
+	// coefficients for (u, v) pairs
+	const __m128i coef_r = _mm_setr_epi16(0, 22987, 0, 22987, 0, 22987, 0, 22987);
+	const __m128i coef_g = _mm_setr_epi16(-5636, -11698, -5636, -11698, -5636, -11698, -5636, -11698);
+	const __m128i coef_b = _mm_setr_epi16(29049, 0, 29049, 0, 29049, 0, 29049, 0);
+
+	const __m128i dr = _mm_packs_epi32(
+		_mm_srai_epi32(_mm_madd_epi16(uv_a, coef_r), 14),
+		_mm_srai_epi32(_mm_madd_epi16(uv_c, coef_r), 14));
+	const __m128i dg = _mm_packs_epi32(
+		_mm_srai_epi32(_mm_madd_epi16(uv_a, coef_g), 14),
+		_mm_srai_epi32(_mm_madd_epi16(uv_c, coef_g), 14));
+	const __m128i db = _mm_packs_epi32(
+		_mm_srai_epi32(_mm_madd_epi16(uv_a, coef_b), 14),
+		_mm_srai_epi32(_mm_madd_epi16(uv_c, coef_b), 14));
+	// saturate to 0-255 same as sat()
+	*r = _mm_packus_epi16(
+		_mm_add_epi16(y_a, _mm_unpacklo_epi16(dr, dr)),
+		_mm_add_epi16(y_c, _mm_unpackhi_epi16(dr, dr)));
+	*g = _mm_packus_epi16(
+		_mm_add_epi16(y_a, _mm_unpacklo_epi16(dg, dg)),
+		_mm_add_epi16(y_c, _mm_unpackhi_epi16(dg, dg)));
+	*b = _mm_packus_epi16(
+		_mm_add_epi16(y_a, _mm_unpacklo_epi16(db, db)),
+		_mm_add_epi16(y_c, _mm_unpackhi_epi16(db, db)));
+}
+
+/** @internal
+ * calculate r/g/b of 8 pairs of pixels(16 pixels) from 32 bytes of YUYV.
+ */
+static inline void yuyv_to_rgb16(const uint8_t *yuyv,
+	__m128i *r, __m128i *g, __m128i *b) {
+
+	const __m128i c128 = _mm_set1_epi16(128);
+	const __m128i mask_y = _mm_set1_epi16(0x00ff);
+
+	const __m128i a = _mm_loadu_si128((const __m128i *)yuyv);
+	const __m128i c = _mm_loadu_si128((const __m128i *)(yuyv + 16));
+	uv_y_to_rgb16(
+		_mm_sub_epi16(_mm_srli_epi16(a, 8), c128),
+		_mm_sub_epi16(_mm_srli_epi16(c, 8), c128),
+		_mm_and_si128(a, mask_y), _mm_and_si128(c, mask_y),
+		r, g, b);
+}
+
+/** @internal r/g/b/x of 16 pixels to 64 bytes of RGBX */
+static inline void store_rgbx(uint8_t *rgbx, const __m128i r, const __m128i g, const __m128i b) {
+	const __m128i alpha = _mm_set1_epi8((char)0xff);
+	const __m128i rg_lo = _mm_unpacklo_epi8(r, g);
+	const __m128i rg_hi = _mm_unpackhi_epi8(r, g);
+	const __m128i bx_lo = _mm_unpacklo_epi8(b, alpha);
+	const __m128i bx_hi = _mm_unpackhi_epi8(b, alpha);
+	_mm_storeu_si128((__m128i *)rgbx, _mm_unpacklo_epi16(rg_lo, bx_lo));
+	_mm_storeu_si128((__m128i *)(rgbx + 16), _mm_unpackhi_epi16(rg_lo, bx_lo));
+	_mm_storeu_si128((__m128i *)(rgbx + 32), _mm_unpacklo_epi16(rg_hi, bx_hi));
+	_mm_storeu_si128((__m128i *)(rgbx + 48), _mm_unpackhi_epi16(rg_hi, bx_hi));
+}
+
+static int yuyv2rgbx_sse2(const uint8_t *yuyv, uint8_t *rgbx, const int pixels) {
+	__m128i r, g, b;
+	int i;
+	for (i = 0; i + 16 <= pixels; i += 16) {
+		yuyv_to_rgb16(yuyv, &r, &g, &b);
+		store_rgbx(rgbx, r, g, b);
+		yuyv += 32;
+		rgbx += 64;
+	}
+	return i;
+}
+
+static int yuv420_2rgbx_sse2(const uint8_t *y, const uint8_t *u, const uint8_t *v,
+	const int uv_pixel_bytes, uint8_t *rgbx, const int pixels) {
+
+	const __m128i zero = _mm_setzero_si128();
+	const __m128i c128 = _mm_set1_epi16(128);
+	const int vu = v < u;	// NV21
+	__m128i r, g, b;
+	int i;
+	for (i = 0; i + 16 <= pixels; i += 16) {
+		__m128i uv;
+		if (uv_pixel_bytes == 1) {
+			uv = _mm_unpacklo_epi8(
+				_mm_loadl_epi64((const __m128i *)u), _mm_loadl_epi64((const __m128i *)v));
+		} else {
+			uv = _mm_loadu_si128((const __m128i *)(vu ? v : u));
+			if (vu) {
+				// swap v and u
+				uv = _mm_or_si128(_mm_slli_epi16(uv, 8), _mm_srli_epi16(uv, 8));
+			}
+		}
+		const __m128i luma = _mm_loadu_si128((const __m128i *)y);
+		uv_y_to_rgb16(
+			_mm_sub_epi16(_mm_unpacklo_epi8(uv, zero), c128),
+			_mm_sub_epi16(_mm_unpackhi_epi8(uv, zero), c128),
+			_mm_unpacklo_epi8(luma, zero), _mm_unpackhi_epi8(luma, zero),
+			&r, &g, &b);
+		store_rgbx(rgbx, r, g, b);
+		y += 16;
+		u += 8 * uv_pixel_bytes;
+		v += 8 * uv_pixel_bytes;
+		rgbx += 64;
+	}
+	return i;
+}
+
+/** @internal r/g/b bytes to little endian RGB565 */
+static inline __m128i pack_rgb565(const __m128i r, const __m128i g, const __m128i b) {
+	const __m128i mask_r = _mm_set1_epi16((short)0xf800);
+	const __m128i mask_g = _mm_set1_epi16(0x07e0);
+	// r/g/b are in the high byte of each 16 bit lane
+	return _mm_or_si128(_mm_or_si128(
+		_mm_and_si128(r, mask_r),
+		_mm_and_si128(_mm_srli_epi16(g, 5), mask_g)),
+		_mm_srli_epi16(b, 11));
+}
+
+static int yuyv2rgb565_sse2(const uint8_t *yuyv, uint8_t *rgb565, const int pixels) {
+	const __m128i zero = _mm_setzero_si128();
+	__m128i r, g, b;
+	int i;
+	for (i = 0; i + 16 <= pixels; i += 16) {
+		yuyv_to_rgb16(yuyv, &r, &g, &b);
+		_mm_storeu_si128((__m128i *)rgb565, pack_rgb565(
+			_mm_unpacklo_epi8(zero, r), _mm_unpacklo_epi8(zero, g), _mm_unpacklo_epi8(zero, b)));
+		_mm_storeu_si128((__m128i *)(rgb565 + 16), pack_rgb565(
+			_mm_unpackhi_epi8(zero, r), _mm_unpackhi_epi8(zero, g), _mm_unpackhi_epi8(zero, b)));
+		yuyv += 32;
+		rgb565 += 32;
+	}
+	return i;
+}
+
+static int yuyv2yuv420SP_sse2(const uint8_t *yuyv0, const uint8_t *yuyv1,
+	uint8_t *y0, uint8_t *y1, uint8_t *uv, const int pixels, const int vu) {
+
+	const __m128i mask_y = _mm_set1_epi16(0x00ff);
+	int i;
+	for (i = 0; i + 16 <= pixels; i += 16) {
+		const __m128i a = _mm_loadu_si128((const __m128i *)yuyv0);
+		const __m128i c = _mm_loadu_si128((const __m128i *)(yuyv0 + 16));
+		const __m128i d = _mm_loadu_si128((const __m128i *)yuyv1);
+		const __m128i e = _mm_loadu_si128((const __m128i *)(yuyv1 + 16));
+		__m128i uv_a = _mm_srli_epi16(a, 8);
+		__m128i uv_c = _mm_srli_epi16(c, 8);
+		if (vu) {
+			// swap u and v
+			uv_a = _mm_shufflehi_epi16(_mm_shufflelo_epi16(uv_a, _MM_SHUFFLE(2, 3, 0, 1)), _MM_SHUFFLE(2, 3, 0, 1));
+			uv_c = _mm_shufflehi_epi16(_mm_shufflelo_epi16(uv_c, _MM_SHUFFLE(2, 3, 0, 1)), _MM_SHUFFLE(2, 3, 0, 1));
+		}
+		_mm_storeu_si128((__m128i *)y0, _mm_packus_epi16(_mm_and_si128(a, mask_y), _mm_and_si128(c, mask_y)));
+		_mm_storeu_si128((__m128i *)y1, _mm_packus_epi16(_mm_and_si128(d, mask_y), _mm_and_si128(e, mask_y)));
+		_mm_storeu_si128((__m128i *)uv, _mm_packus_epi16(uv_a, uv_c));
+		yuyv0 += 32; yuyv1 += 32;
+		y0 += 16; y1 += 16; uv += 16;
+	}
+	return i;
+}
+
+const uvc_simd_kernels_t uvc_simd_kernels_sse2 = {
+	.name = "sse2",
+	.yuyv2rgbx = yuyv2rgbx_sse2,
+	.yuyv2rgb565 = yuyv2rgb565_sse2,
+	.yuyv2yuv420SP = yuyv2yuv420SP_sse2,
+	.yuv420_2rgbx = yuv420_2rgbx_sse2,
+};
+
+#endif // defined(__SSE2__)
@@ -50,8 +50,72 @@
  */
 #include "libuvc/libuvc.h"
 #include "libuvc/libuvc_internal.h"
+#if defined(__ANDROID__) && defined(__arm__)
+#include <cpu-features.h>
+#endif
 
 #define USE_STRIDE 1
+
+static const uvc_simd_kernels_t *simd_kernels = NULL;
+static volatile int simd_enabled = 1;
+static pthread_once_t simd_once = PTHREAD_ONCE_INIT;
+
+/** @internal select SIMD kernels that the cpu supports */
+static void _uvc_init_simd(void) {
+	const uvc_simd_kernels_t *kernels = NULL;
+#if defined(__aarch64__)
+	kernels = &uvc_simd_kernels_neon;	// NEON is mandatory on arm64
+#elif defined(__arm__)
+#if defined(__ANDROID__)
+	if ((android_getCpuFamily() == ANDROID_CPU_FAMILY_ARM)
+		&& (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON)) {
+		kernels = &uvc_simd_kernels_neon;
+	}
+#elif defined(__ARM_NEON__)
+	kernels = &uvc_simd_kernels_neon;
+#endif
+#elif defined(__i386__) || defined(__x86_64__)
+	kernels = &uvc_simd_kernels_sse2;	// SSE2 is a part of Android x86/x86_64 ABI
+#endif
+	// kernels are weak references and NULL when the file is not compiled
+	simd_kernels = kernels;
+}
+
+/** @internal
+ * @return SIMD kernels, NULL if they are not available or disabled
+ */
+static inline const uvc_simd_kernels_t *_uvc_simd(void) {
+	pthread_once(&simd_once, _uvc_init_simd);
+	return LIKELY(simd_enabled) ? simd_kernels : NULL;
+}
+
+/** @internal
+ * number of 8 pixel blocks that the converters can process before reaching the end of buffer,
+ * same as the boundary check of the scalar loops
+ */
+static inline int _uvc_blocks(const uint8_t *p, const uint8_t *end, const int block_bytes) {
+	return p <= end ? (end - p) / block_bytes : 0;
+}
+
+/** @brief Name of SIMD kernels that the frame converters use
+ * @ingroup frame
+ * @return "neon", "sse2" or "none"
+ */
+const char *uvc_get_simd_name(void) {
+	const uvc_simd_kernels_t *kernels = _uvc_simd();
+	return kernels ? kernels->name : "none";
+}
+
+/** @brief Enable/disable SIMD kernels of the frame converters
+ * @ingroup frame
+ *
+ * The converters always fall back to the scalar code when the cpu does not support SIMD,
+ * this is for comparing the results and the performance with the scalar code.
+ * @param enabled 0: use the scalar code only
+ */
+void uvc_set_simd_enabled(int enabled) {
+	simd_enabled = enabled;
+}
 /** @internal */
 uvc_error_t uvc_ensure_frame_size(uvc_frame_t *frame, size_t need_bytes) {
 	if LIKELY(frame->library_owns_data) {
@@ -473,6 +537,25 @@ uvc_error_t uvc_yuyv2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 	return UVC_SUCCESS;
 }
 
+/** @internal convert blocks x 8 pixels of YUYV to RGB565 with SIMD kernel if available */
+static inline void _uvc_yuyv2rgb565_blocks(const uvc_simd_kernels_t *simd,
+	const uint8_t *pyuv, uint8_t *prgb565, int blocks) {
+
+	uint8_t tmp[PIXEL8_RGB];	// for temporary rgb888 data(8pixel)
+	if (simd && (blocks >= 2)) {
+		const int n = simd->yuyv2rgb565(pyuv, prgb565, blocks * 8);
+		pyuv += n * PIXEL_YUYV;
+		prgb565 += n * PIXEL_RGB565;
+		blocks -= n / 8;
+	}
+	for (; blocks > 0; blocks--) {
+		IYUYV2RGB_8(pyuv, tmp, 0, 0);
+		RGB2RGB565_8(tmp, prgb565, 0, 0);
+		prgb565 += PIXEL8_RGB565;
+		pyuv += PIXEL8_YUYV;
+	}
+}
+
 /** @brief Convert a frame from YUYV to RGB565
  * @ingroup frame
  * @param ini YUYV frame
@@ -498,38 +581,28 @@ uvc_error_t uvc_yuyv2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_YUYV;
 	uint8_t *prgb565 = out->data;
 	const uint8_t *prgb565_end = prgb565 + out->data_bytes - PIXEL8_RGB565;
-
-	uint8_t tmp[PIXEL8_RGB];	// for temporary rgb888 data(8pixel)
+	const uvc_simd_kernels_t *simd = _uvc_simd();
 
 #if USE_STRIDE
 	if (in->step && out->step && (in->step != out->step)) {
 		const int hh = in->height < out->height ? in->height : out->height;
 		const int ww = in->width < out->width ? in->width : out->width;
-		int h, w;
+		int h, blocks;
 		for (h = 0; h < hh; h++) {
-			w = 0;
 			pyuv = in->data + in->step * h;
 			prgb565 = out->data + out->step * h;
-			for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
-				IYUYV2RGB_8(pyuv, tmp, 0, 0);
-				RGB2RGB565_8(tmp, prgb565, 0, 0);
-
-				prgb565 += PIXEL8_YUYV;
-				pyuv += PIXEL8_RGB565;
-				w += 8;
-			}
+			blocks = MIN((ww + 7) / 8, MIN(_uvc_blocks(pyuv, in->data + in->data_bytes, PIXEL8_YUYV),
+				_uvc_blocks(prgb565, out->data + out->data_bytes, PIXEL8_RGB565)));
+			_uvc_yuyv2rgb565_blocks(simd, pyuv, prgb565, blocks);
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
-		for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) ;) {
-			IYUYV2RGB_8(pyuv, tmp, 0, 0);
-			RGB2RGB565_8(tmp, prgb565, 0, 0);
-
-			prgb565 += PIXEL8_YUYV;
-			pyuv += PIXEL8_RGB565;
-		}
+		_uvc_yuyv2rgb565_blocks(simd, pyuv, prgb565,
+			MIN(_uvc_blocks(pyuv, in->data + in->data_bytes, PIXEL8_YUYV),
+				_uvc_blocks(prgb565, out->data + out->data_bytes, PIXEL8_RGB565)));
 	}
 #else
+	uint8_t tmp[PIXEL8_RGB];	// for temporary rgb888 data(8pixel)
 	// YUYV => RGB565
 	for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) ;) {
 		IYUYV2RGB_8(pyuv, tmp, 0, 0);
@@ -569,6 +642,23 @@ uvc_error_t uvc_yuyv2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 	IYUYV2RGBX_2(pyuv, prgbx, ax, bx) \
 	IYUYV2RGBX_2(pyuv, prgbx, ax + PIXEL2_YUYV, bx + PIXEL2_RGBX);
 
+/** @internal convert blocks x 8 pixels of YUYV to RGBX8888 with SIMD kernel if available */
+static inline void _uvc_yuyv2rgbx_blocks(const uvc_simd_kernels_t *simd,
+	const uint8_t *pyuv, uint8_t *prgbx, int blocks) {
+
+	if (simd && (blocks >= 2)) {
+		const int n = simd->yuyv2rgbx(pyuv, prgbx, blocks * 8);
+		pyuv += n * PIXEL_YUYV;
+		prgbx += n * PIXEL_RGBX;
+		blocks -= n / 8;
+	}
+	for (; blocks > 0; blocks--) {
+		IYUYV2RGBX_8(pyuv, prgbx, 0, 0);
+		prgbx += PIXEL8_RGBX;
+		pyuv += PIXEL8_YUYV;
+	}
+}
+
 /** @brief Convert a frame from YUYV to RGBX8888
  * @ingroup frame
  * @param ini YUYV frame
@@ -594,33 +684,26 @@ uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_YUYV;
 	uint8_t *prgbx = out->data;
 	const uint8_t *prgbx_end = prgbx + out->data_bytes - PIXEL8_RGBX;
+	const uvc_simd_kernels_t *simd = _uvc_simd();
 
 	// YUYV => RGBX8888
 #if USE_STRIDE
 	if (in->step && out->step && (in->step != out->step)) {
 		const int hh = in->height < out->height ? in->height : out->height;
 		const int ww = in->width < out->width ? in->width : out->width;
-		int h, w;
+		int h, blocks;
 		for (h = 0; h < hh; h++) {
-			w = 0;
 			pyuv = in->data + in->step * h;
 			prgbx = out->data + out->step * h;
-			for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
-				IYUYV2RGBX_8(pyuv, prgbx, 0, 0);
-
-				prgbx += PIXEL8_RGBX;
-				pyuv += PIXEL8_YUYV;
-				w += 8;
-			}
+			blocks = MIN((ww + 7) / 8, MIN(_uvc_blocks(pyuv, in->data + in->data_bytes, PIXEL8_YUYV),
+				_uvc_blocks(prgbx, out->data + out->data_bytes, PIXEL8_RGBX)));
+			_uvc_yuyv2rgbx_blocks(simd, pyuv, prgbx, blocks);
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
-		for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) ;) {
-			IYUYV2RGBX_8(pyuv, prgbx, 0, 0);
-
-			prgbx += PIXEL8_RGBX;
-			pyuv += PIXEL8_YUYV;
-		}
+		_uvc_yuyv2rgbx_blocks(simd, pyuv, prgbx,
+			MIN(_uvc_blocks(pyuv, in->data + in->data_bytes, PIXEL8_YUYV),
+				_uvc_blocks(prgbx, out->data + out->data_bytes, PIXEL8_RGBX)));
 	}
 #else
 	for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) ;) {
@@ -1148,6 +1231,40 @@ int uvc_yuyv2iyuv420P(uvc_frame_t *in, uvc_frame_t *out) {
 	RETURN(0, int);
 }
 
+/** @internal
+ * convert two lines of YUYV to two lines of Y and one line of interleaved chroma,
+ * U/V order if vu is 0, otherwise V/U order. width is rounded up to multiple of 4 as before.
+ * @return next position of chroma line
+ */
+static inline uint8_t *_uvc_yuyv2yuv420SP_lines(const uvc_simd_kernels_t *simd,
+	const uint8_t *yuv, const int32_t src_width, uint8_t *y0, uint8_t *y1, uint8_t *uv,
+	const int32_t width, const int vu) {
+
+	int w = 0;
+	if (simd) {
+		w = simd->yuyv2yuv420SP(yuv, yuv + src_width, y0, y1, uv, (width + 3) & ~3, vu);
+		yuv += w * PIXEL_YUYV;
+		y0 += w; y1 += w; uv += w;
+	}
+	const int iu = vu ? 3 : 1, iv = vu ? 1 : 3;
+	for (; w < width; w += 4) {
+		*(y0++) = yuv[0];	// y
+		*(y0++) = yuv[2];	// y'
+		*(y0++) = yuv[4];	// y''
+		*(y0++) = yuv[6];	// y'''
+		*(uv++) = yuv[iu];	// u(v)
+		*(uv++) = yuv[iv];	// v(u)
+		*(uv++) = yuv[iu + 4];	// u(v)
+		*(uv++) = yuv[iv + 4];	// v(u)
+		*(y1++) = yuv[src_width+0];	// y on next low
+		*(y1++) = yuv[src_width+2];	// y' on next low
+		*(y1++) = yuv[src_width+4];	// y''  on next low
+		*(y1++) = yuv[src_width+6];	// y'''  on next low
+		yuv += 8;	// (1pixel=2bytes)x4pixels=8bytes
+	}
+	return uv;
+}
+
 uvc_error_t uvc_yuyv2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	ENTER();
 	
@@ -1167,27 +1284,14 @@ uvc_error_t uvc_yuyv2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	const int32_t dest_height = out->height = in->height;
 
 	const uint32_t hh = src_height < dest_height ? src_height : dest_height;
+	const uvc_simd_kernels_t *simd = _uvc_simd();
 	uint8_t *uv = dest + dest_width * dest_height;
-	int h, w;
+	int h;
 	for (h = 0; h < hh - 1; h += 2) {
 		uint8_t *y0 = dest + width * h;
 		uint8_t *y1 = y0 + width;
 		const uint8_t *yuv = src + src_width * h;
-		for (w = 0; w < width; w += 4) {
-			*(y0++) = yuv[0];	// y
-			*(y0++) = yuv[2];	// y'
-			*(y0++) = yuv[4];	// y''
-			*(y0++) = yuv[6];	// y'''
-			*(uv++) = yuv[1];	// u
-			*(uv++) = yuv[3];	// v
-			*(uv++) = yuv[5];	// u
-			*(uv++) = yuv[7];	// v
-			*(y1++) = yuv[src_width+0];	// y on next low
-			*(y1++) = yuv[src_width+2];	// y' on next low
-			*(y1++) = yuv[src_width+4];	// y''  on next low
-			*(y1++) = yuv[src_width+6];	// y'''  on next low
-			yuv += 8;	// (1pixel=2bytes)x4pixels=8bytes
-		}
+		uv = _uvc_yuyv2yuv420SP_lines(simd, yuv, src_width, y0, y1, uv, width, 0);
 	}
 	
 	RETURN(UVC_SUCCESS, uvc_error_t);
@@ -1212,7 +1316,46 @@ uvc_error_t uvc_yuyv2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	const int32_t dest_height = out->height = in->height;
 
 	const uint32_t hh = src_height < dest_height ? src_height : dest_height;
+	const uvc_simd_kernels_t *simd = _uvc_simd();
 	uint8_t *uv = dest + dest_width * dest_height;
+	int h;
+	for (h = 0; h < hh - 1; h += 2) {
+		uint8_t *y0 = dest + width * h;
+		uint8_t *y1 = y0 + width;
+		const uint8_t *yuv = src + src_width * h;
+		uv = _uvc_yuyv2yuv420SP_lines(simd, yuv, src_width, y0, y1, uv, width, 1);
+	}
+	
+	RETURN(UVC_SUCCESS, uvc_error_t);
+}
+
+/** @brief Convert a frame from YUYV to yuv420 planar(I420), Y plane followed by U and V planes
+ * @ingroup frame
+ *
+ * @param in YUYV frame
+ * @param out I420 frame
+ */
+uvc_error_t uvc_yuyv2i420(uvc_frame_t *in, uvc_frame_t *out) {
+	ENTER();
+
+	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_YUYV))
+		RETURN(UVC_ERROR_INVALID_PARAM, uvc_error_t);
+
+	if (UNLIKELY(uvc_ensure_frame_size(out, (in->width * in->height * 3) / 2) < 0))
+		RETURN(UVC_ERROR_NO_MEM, uvc_error_t);
+
+	const uint8_t *src = in->data;
+	uint8_t *dest = out->data;
+	const int32_t width = in->width;
+	const int32_t src_width = in->step;
+	const int32_t src_height = in->height;
+	const int32_t dest_width = out->width = out->step = in->width;
+	const int32_t dest_height = out->height = in->height;
+	out->frame_format = UVC_FRAME_FORMAT_I420;
+
+	const uint32_t hh = src_height < dest_height ? src_height : dest_height;
+	uint8_t *u = dest + dest_width * dest_height;
+	uint8_t *v = u + (dest_width * dest_height) / 4;
 	int h, w;
 	for (h = 0; h < hh - 1; h += 2) {
 		uint8_t *y0 = dest + width * h;
@@ -1223,10 +1366,10 @@ uvc_error_t uvc_yuyv2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 			*(y0++) = yuv[2];	// y'
 			*(y0++) = yuv[4];	// y''
 			*(y0++) = yuv[6];	// y'''
-			*(uv++) = yuv[3];	// v
-			*(uv++) = yuv[1];	// u
-			*(uv++) = yuv[7];	// v
-			*(uv++) = yuv[5];	// u
+			*(u++) = yuv[1];	// u
+			*(v++) = yuv[3];	// v
+			*(u++) = yuv[5];	// u
+			*(v++) = yuv[7];	// v
 			*(y1++) = yuv[src_width+0];	// y on next low
 			*(y1++) = yuv[src_width+2];	// y' on next low
 			*(y1++) = yuv[src_width+4];	// y''  on next low
@@ -1234,10 +1377,113 @@ uvc_error_t uvc_yuyv2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 			yuv += 8;	// (1pixel=2bytes)x4pixels=8bytes
 		}
 	}
-	
+
 	RETURN(UVC_SUCCESS, uvc_error_t);
 }
 
+#define IYUV2RGBX(y, r, g, b, prgbx) { \
+		(prgbx)[0] = sat(y + r); \
+		(prgbx)[1] = sat(y + g); \
+		(prgbx)[2] = sat(y + b); \
+		(prgbx)[3] = 0xff; \
+	}
+
+/** @brief Convert a frame from yuv420 planar(I420) or semi-planar(NV12/NV21) to RGBX8888
+ * @ingroup frame
+ *
+ * in->step is the row pitch of the Y plane(0 for width) and the chroma plane(s) follow
+ * height rows of it. A row of the U/V planes of I420 has half of the step
+ * and a row of the interleaved chroma plane of NV12/NV21 has the step bytes.
+ * @param in I420, NV12 or NV21 frame
+ * @param out RGBX8888 frame
+ */
+uvc_error_t uvc_yuv420_2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
+	const int width = in->width;
+	const int height = in->height;
+	const int y_step = in->step ? in->step : width;
+	const uint8_t *y_plane = in->data;
+	const uint8_t *u_plane, *v_plane;
+	int uv_pixel_bytes, uv_step;
+
+	switch (in->frame_format) {
+	case UVC_FRAME_FORMAT_I420:
+		uv_step = (y_step + 1) >> 1;	// (width + 1) / 2 for tightly packed frame
+		u_plane = y_plane + y_step * height;
+		v_plane = u_plane + uv_step * ((height + 1) >> 1);
+		uv_pixel_bytes = 1;
+		break;
+	case UVC_FRAME_FORMAT_NV12:
+		uv_step = (y_step + 1) & ~1;
+		u_plane = y_plane + y_step * height;
+		v_plane = u_plane + 1;
+		uv_pixel_bytes = 2;
+		break;
+	case UVC_FRAME_FORMAT_NV21:
+		uv_step = (y_step + 1) & ~1;
+		v_plane = y_plane + y_step * height;
+		u_plane = v_plane + 1;
+		uv_pixel_bytes = 2;
+		break;
+	default:
+		return UVC_ERROR_INVALID_PARAM;
+	}
+
+	if (UNLIKELY(uvc_ensure_frame_size(out, width * height * PIXEL_RGBX) < 0))
+		return UVC_ERROR_NO_MEM;
+
+	int ww = width, hh = height, out_step = width * PIXEL_RGBX;
+	if (!out->library_owns_data && out->step) {
+		// the output is a buffer supplied by the user, e.g. Surface buffer
+		out_step = out->step;
+		if (out->width && (out->width < ww)) ww = out->width;
+		if (out->height && (out->height < hh)) hh = out->height;
+	}
+	out->width = width;
+	out->height = height;
+	out->frame_format = UVC_FRAME_FORMAT_RGBX;
+	if (out->library_owns_data) {
+		out->step = width * PIXEL_RGBX;
+		out->actual_bytes = width * height * PIXEL_RGBX;
+	}
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->source = in->source;
+
+	const uvc_simd_kernels_t *simd = _uvc_simd();
+	int h, w;
+	for (h = 0; h < hh; h++) {
+		const uint8_t *py = y_plane + h * y_step;
+		const uint8_t *pu = u_plane + (h >> 1) * uv_step;
+		const uint8_t *pv = v_plane + (h >> 1) * uv_step;
+		uint8_t *prgbx = (uint8_t *)out->data + h * out_step;
+		w = 0;
+		if (simd && simd->yuv420_2rgbx) {
+			// the rest of the line is converted with the scalar code
+			w = simd->yuv420_2rgbx(py, pu, pv, uv_pixel_bytes, prgbx, ww);
+			py += w;
+			pu += (w >> 1) * uv_pixel_bytes;
+			pv += (w >> 1) * uv_pixel_bytes;
+			prgbx += w * PIXEL_RGBX;
+		}
+		for ( ; w < ww; w += 2) {
+			const int d1 = *pu;
+			const int d3 = *pv;
+			const int r = (22987 * (d3 - 128)) >> 14;
+			const int g = (-5636 * (d1 - 128) - 11698 * (d3 - 128)) >> 14;
+			const int b = (29049 * (d1 - 128)) >> 14;
+			IYUV2RGBX(py[0], r, g, b, prgbx);
+			if (LIKELY(w + 1 < ww)) {
+				IYUV2RGBX(py[1], r, g, b, prgbx + PIXEL_RGBX);
+			}
+			py += 2;
+			pu += uv_pixel_bytes;
+			pv += uv_pixel_bytes;
+			prgbx += PIXEL2_RGBX;
+		}
+	}
+	return UVC_SUCCESS;
+}
+
 /** @brief Convert a frame to RGB565
  * @ingroup frame
  *
@@ -1333,6 +1579,10 @@ uvc_error_t uvc_any2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		return uvc_duplicate_frame(in, out);
 	case UVC_FRAME_FORMAT_RGB:
 		return uvc_rgb2rgbx(in, out);
+	case UVC_FRAME_FORMAT_I420:
+	case UVC_FRAME_FORMAT_NV12:
+	case UVC_FRAME_FORMAT_NV21:
+		return uvc_yuv420_2rgbx(in, out);
 	default:
 		return UVC_ERROR_NOT_SUPPORTED;
 	}
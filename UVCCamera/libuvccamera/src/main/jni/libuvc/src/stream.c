@@ -68,6 +68,8 @@ uvc_frame_desc_t *uvc_find_frame_desc(uvc_device_handle_t *devh,
 		uint16_t format_id, uint16_t frame_id);
 static void *_uvc_user_caller(void *arg);
 static void _uvc_populate_frame(uvc_stream_handle_t *strmh);
+static void _uvc_populate_frame_info(uvc_stream_handle_t *strmh, uvc_frame_t *frame);
+static void _uvc_release_pool_frames(uvc_stream_handle_t *strmh);
 
 struct format_table_entry {
 	enum uvc_frame_format format;
@@ -596,12 +598,99 @@ uvc_error_t uvc_probe_stream_ctrl(uvc_device_handle_t *devh,
 	return UVC_SUCCESS;
 }
 
+/** @internal
+ * @brief initial size of the buffers for assembling a frame
+ * this is dwMaxVideoFrameSize of current control block. Some camera does not report it,
+ * then the maximum frame buffer size or the frame size as YUYV of the frame descriptor is used.
+ * The buffers grow on demand if a frame is larger than this, see _uvc_grow_buffers
+ */
+static size_t _uvc_initial_frame_buf_size(uvc_stream_handle_t *strmh) {
+	size_t bytes = strmh->cur_ctrl.dwMaxVideoFrameSize;
+	if (UNLIKELY(!bytes)) {
+		uvc_frame_desc_t *frame_desc = uvc_find_frame_desc_stream(strmh,
+			strmh->cur_ctrl.bFormatIndex, strmh->cur_ctrl.bFrameIndex);
+		if (frame_desc) {
+			bytes = frame_desc->dwMaxVideoFrameBufferSize;
+			if (!bytes)
+				bytes = frame_desc->wWidth * frame_desc->wHeight * 2;
+		}
+	}
+	if (UNLIKELY(bytes < LIBUVC_XFER_BUF_MIN_SIZE))
+		bytes = LIBUVC_XFER_BUF_MIN_SIZE;
+	if (UNLIKELY(bytes > LIBUVC_XFER_BUF_SIZE))
+		bytes = LIBUVC_XFER_BUF_SIZE;
+	return bytes;
+}
+
+/** @internal
+ * @brief get a frame from the user's frame pool to assemble next frame into
+ * the data buffer of the frame is resized to frame_buf_size
+ */
+static uvc_frame_t *_uvc_get_pool_frame(uvc_stream_handle_t *strmh) {
+	const size_t need_bytes = strmh->frame_buf_size;
+	uvc_frame_t *frame = strmh->pool_get(need_bytes, strmh->pool_ptr);
+	if (LIKELY(frame)) {
+		if (UNLIKELY(!frame->library_owns_data
+			|| (uvc_ensure_frame_size(frame, need_bytes) != UVC_SUCCESS))) {
+
+			strmh->pool_recycle(frame, strmh->pool_ptr);
+			frame = NULL;
+		}
+	}
+	return frame;
+}
+
+/** @internal
+ * @brief Publish the working frame as the presented frame and notify consumers,
+ * ownership transfer mode version of _uvc_swap_buffers.
+ * If the user callback thread has not taken previous frame yet, previous one is dropped.
+ * If no frame is available in the pool or the working frame has error,
+ * the working frame is reused and the data in it is discarded.
+ */
+static void _uvc_swap_frames(uvc_stream_handle_t *strmh) {
+	uvc_frame_t *next = NULL;
+	uvc_frame_t *drop = NULL;
+
+	if (LIKELY(!strmh->bfh_err && strmh->got_bytes))
+		next = _uvc_get_pool_frame(strmh);
+	if (LIKELY(next)) {
+		pthread_mutex_lock(&strmh->cb_mutex);
+		{
+			drop = strmh->holdframe;
+			strmh->holdframe = strmh->outframe;
+			strmh->hold_bfh_err = strmh->bfh_err;
+			strmh->hold_bytes = strmh->got_bytes;
+			strmh->hold_last_scr = strmh->last_scr;
+			strmh->hold_pts = strmh->pts;
+			strmh->hold_seq = strmh->seq;
+			strmh->hold_capture_time = strmh->capture_time;
+			strmh->outframe = next;
+			strmh->outbuf = next->data;
+			strmh->size_buf = next->data_bytes;
+			pthread_cond_broadcast(&strmh->cb_cond);
+		}
+		pthread_mutex_unlock(&strmh->cb_mutex);
+		if (drop)
+			strmh->pool_recycle(drop, strmh->pool_ptr);
+	}
+
+	strmh->seq++;
+	strmh->got_bytes = 0;
+	strmh->last_scr = 0;
+	strmh->pts = 0;
+	strmh->bfh_err = 0;	// XXX
+}
+
 /** @internal
  * @brief Swap the working buffer with the presented buffer and notify consumers
  */
 static void _uvc_swap_buffers(uvc_stream_handle_t *strmh) {
 	uint8_t *tmp_buf;
 
+	if (strmh->pool_get) {
+		_uvc_swap_frames(strmh);
+		return;
+	}
 	pthread_mutex_lock(&strmh->cb_mutex);
 	{
 		/* swap the buffers */
@@ -613,10 +702,7 @@ static void _uvc_swap_buffers(uvc_stream_handle_t *strmh) {
 		strmh->hold_last_scr = strmh->last_scr;
 		strmh->hold_pts = strmh->pts;
 		strmh->hold_seq = strmh->seq;
-
-		//add pts seq to frame
-		strmh->frame.sequence = strmh->seq;
-		strmh->frame.capture_time.tv_usec = strmh->pts;
+		strmh->hold_capture_time = strmh->capture_time;
 
 		pthread_cond_broadcast(&strmh->cb_cond);
             //print frame pts info
@@ -665,6 +751,84 @@ static void _uvc_delete_transfer(struct libusb_transfer *transfer) {
 
 #define USE_EOF
 
+/** @internal
+ * @brief grow the buffers for assembling frames so that they can hold need_bytes.
+ * This is called on the event thread when a frame overflows the buffers.
+ * The data that was already received is kept.
+ * @return 0 if success, the buffers are not changed on failure
+ */
+static int _uvc_grow_buffers(uvc_stream_handle_t *strmh, const size_t need_bytes) {
+	if (UNLIKELY(need_bytes > LIBUVC_XFER_BUF_SIZE))
+		return -1;
+	// grow by 1.5 times at least, not to reallocate on every overflow
+	size_t new_size = strmh->frame_buf_size + (strmh->frame_buf_size >> 1);
+	if (new_size < need_bytes)
+		new_size = need_bytes;
+	if (new_size > LIBUVC_XFER_BUF_SIZE)
+		new_size = LIBUVC_XFER_BUF_SIZE;
+	int ret = -1;
+	if (strmh->pool_get) {
+		// get a larger frame from the pool and move the received data into it,
+		// the pool is called without cb_mutex, see uvc_stream_set_frame_pool
+		const size_t prev_size = strmh->frame_buf_size;
+		strmh->frame_buf_size = new_size;
+		uvc_frame_t *frame = _uvc_get_pool_frame(strmh);
+		if (LIKELY(frame)) {
+			uvc_frame_t *prev;
+			if (strmh->got_bytes)
+				memcpy(frame->data, strmh->outbuf, strmh->got_bytes);
+			pthread_mutex_lock(&strmh->cb_mutex);
+			{
+				prev = strmh->outframe;
+				strmh->outframe = frame;
+				strmh->outbuf = frame->data;
+				strmh->size_buf = frame->data_bytes;
+			}
+			pthread_mutex_unlock(&strmh->cb_mutex);
+			if (prev)
+				strmh->pool_recycle(prev, strmh->pool_ptr);
+			ret = 0;
+		} else {
+			strmh->frame_buf_size = prev_size;
+		}
+	} else {
+		pthread_mutex_lock(&strmh->cb_mutex);
+		{
+			uint8_t *outbuf = realloc(strmh->outbuf, new_size);
+			if (LIKELY(outbuf)) {
+				strmh->outbuf = outbuf;
+				uint8_t *holdbuf = realloc(strmh->holdbuf, new_size);
+				if (LIKELY(holdbuf)) {
+					strmh->holdbuf = holdbuf;
+					strmh->size_buf = strmh->frame_buf_size = new_size;
+					ret = 0;
+				}
+			}
+		}
+		pthread_mutex_unlock(&strmh->cb_mutex);
+	}
+	if (LIKELY(!ret)) {
+		LOGD("frame buffers grew to %d bytes", (int)new_size);
+	} else {
+		LOGW("failed to grow frame buffers to %d bytes", (int)new_size);
+	}
+	return ret;
+}
+
+/** @internal
+ * @brief Stamp the host time when the first data of the frame arrived.
+ * This is as close to the exposure as we can get on host side.
+ * The device pts is in the device clock and can not be compared with the host clock,
+ * so CLOCK_MONOTONIC(same base as System.nanoTime) is used instead.
+ */
+static inline void _uvc_stamp_capture_time(uvc_stream_handle_t *strmh) {
+	struct timespec ts;
+
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	strmh->capture_time.tv_sec = ts.tv_sec;
+	strmh->capture_time.tv_usec = ts.tv_nsec / 1000;
+}
+
 /** @internal
  * @brief Process a payload transfer
  * 
@@ -773,7 +937,11 @@ static void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payl
 	}
 
 	if (LIKELY(data_len > 0)) {
-		if (LIKELY(strmh->got_bytes + data_len < strmh->size_buf)) {
+		if (!strmh->got_bytes)
+			_uvc_stamp_capture_time(strmh);
+		if (LIKELY(strmh->got_bytes + data_len <= strmh->size_buf)
+			|| !_uvc_grow_buffers(strmh, strmh->got_bytes + data_len)) {
+
 			memcpy(strmh->outbuf + strmh->got_bytes, payload + header_len, data_len);
 			strmh->got_bytes += data_len;
 		} else {
@@ -939,11 +1107,19 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 			// from "if (pkt->actual_length - header_len > 0)"
 			if (LIKELY(pkt->actual_length > header_len)) {
 				const size_t odd_bytes = pkt->actual_length - header_len;
-				assert(strmh->got_bytes + odd_bytes < strmh->size_buf);
 				assert(strmh->outbuf);
 				assert(pktbuf);
-				memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
-				strmh->got_bytes += odd_bytes;
+				if (!strmh->got_bytes)
+					_uvc_stamp_capture_time(strmh);
+				// XXX the buffers are sized for dwMaxVideoFrameSize, grow them if the frame overflows
+				if (LIKELY(strmh->got_bytes + odd_bytes <= strmh->size_buf)
+					|| !_uvc_grow_buffers(strmh, strmh->got_bytes + odd_bytes)) {
+
+					memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
+					strmh->got_bytes += odd_bytes;
+				} else {
+					strmh->bfh_err |= UVC_STREAM_ERR;
+				}
 			}
 #ifdef USE_EOF
 			if ((pktbuf[1] & UVC_STREAM_EOF) && strmh->got_bytes != 0) {
@@ -1346,10 +1522,18 @@ uvc_error_t uvc_stream_open_ctrl(uvc_device_handle_t *devh,
 
 	// Set up the streaming status and data space
 	strmh->running = 0;
-	/** @todo take only what we need */
-	strmh->outbuf = malloc(LIBUVC_XFER_BUF_SIZE);
-	strmh->holdbuf = malloc(LIBUVC_XFER_BUF_SIZE);
-	strmh->size_buf = LIBUVC_XFER_BUF_SIZE;	// xxx for boundary check
+	// take only what we need, these grow on demand
+	strmh->frame_buf_size = _uvc_initial_frame_buf_size(strmh);
+	strmh->outbuf = malloc(strmh->frame_buf_size);
+	strmh->holdbuf = malloc(strmh->frame_buf_size);
+	strmh->size_buf = strmh->frame_buf_size;	// xxx for boundary check
+	if (UNLIKELY(!strmh->outbuf || !strmh->holdbuf)) {
+		free(strmh->outbuf);
+		free(strmh->holdbuf);
+		uvc_release_if(strmh->devh, strmh->stream_if->bInterfaceNumber);
+		ret = UVC_ERROR_NO_MEM;
+		goto fail;
+	}
 
 	pthread_mutex_init(&strmh->cb_mutex, NULL);
 	pthread_cond_init(&strmh->cb_cond, NULL);
@@ -1430,6 +1614,18 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 	format_desc = frame_desc->parent;
 
 	strmh->frame_format = uvc_frame_format_for_guid(format_desc->guidFormat);
+	if (strmh->pool_get && !strmh->outframe) {
+		// ownership transfer mode, assemble frames directly into the pool frames
+		strmh->outframe = _uvc_get_pool_frame(strmh);
+		if (UNLIKELY(!strmh->outframe)) {
+			ret = UVC_ERROR_NO_MEM;
+			LOGE("failed to get frame from the pool");
+			goto fail;
+		}
+		strmh->outbuf = strmh->outframe->data;
+		strmh->size_buf = strmh->outframe->data_bytes;
+	}
+	strmh->got_bytes = 0;
 	if (UNLIKELY(strmh->frame_format == UVC_FRAME_FORMAT_UNKNOWN)) {
 		ret = UVC_ERROR_NOT_SUPPORTED;
 		LOGE("unlnown frame format");
@@ -1573,6 +1769,7 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 
 			libusb_set_iso_packet_lengths(transfer, endpoint_bytes_per_packet);
 		}
+		strmh->transfer_buf_bytes = total_transfer_size * LIBUVC_NUM_TRANSFER_BUFS;
 	} else {
 		MARK("bulk transfer mode");
 		/** prepare for bulk transfer */
@@ -1586,6 +1783,7 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 				strmh->cur_ctrl.dwMaxPayloadTransferSize, _uvc_stream_callback,
 				(void *)strmh, 5000);
 		}
+		strmh->transfer_buf_bytes = strmh->cur_ctrl.dwMaxPayloadTransferSize * LIBUVC_NUM_TRANSFER_BUFS;
 	}
 
 	strmh->user_cb = cb;
@@ -1637,6 +1835,133 @@ uvc_error_t uvc_stream_start_iso(uvc_stream_handle_t *strmh,
 	return uvc_stream_start(strmh, cb, user_ptr, 0);
 }
 
+/** Switch the stream to ownership transfer mode.
+ * @ingroup streaming
+ *
+ * In this mode, each frame is assembled directly into a frame that comes from the
+ * user's frame pool and the frame is passed to the user callback without copying.
+ * The user callback takes the ownership of the frame and must return it
+ * to the pool by itself (immediately or later). If the user callback thread can not keep up,
+ * older frames are returned to the pool by the library without calling the user callback.
+ * uvc_stream_get_frame is not available in this mode.
+ * This must be called before starting the stream.
+ *
+ * Locking: get_frame and recycle_frame are never called while the library holds
+ * its internal stream lock. They may be called from the event thread, the user callback thread
+ * and the thread that calls uvc_stream_set_frame_pool/uvc_stream_stop/uvc_stream_close,
+ * so the pool must be thread safe by itself. They may block or take the user's own locks,
+ * but must not call back into the stream functions of the same stream.
+ *
+ * @param strmh UVC stream
+ * @param get_frame function to get a frame from the pool, NULL to return to the copying mode
+ * @param recycle_frame function to return a frame to the pool
+ * @param pool_ptr user pointer passed to get_frame and recycle_frame
+ */
+uvc_error_t uvc_stream_set_frame_pool(uvc_stream_handle_t *strmh,
+		uvc_frame_pool_get_t *get_frame, uvc_frame_pool_recycle_t *recycle_frame, void *pool_ptr) {
+
+	uvc_error_t ret = UVC_SUCCESS;
+
+	UVC_ENTER();
+
+	if (UNLIKELY(!strmh || (!get_frame != !recycle_frame))) {
+		UVC_EXIT(UVC_ERROR_INVALID_PARAM);
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	if (UNLIKELY(strmh->running)) {
+		UVC_EXIT(UVC_ERROR_BUSY);
+		return UVC_ERROR_BUSY;
+	}
+
+	_uvc_release_pool_frames(strmh);
+	pthread_mutex_lock(&strmh->cb_mutex);
+	{
+		if (get_frame) {
+			if (!strmh->pool_get) {
+				// the buffers for copying mode are not necessary any more
+				free(strmh->outbuf);
+				free(strmh->holdbuf);
+			}
+			strmh->outbuf = strmh->holdbuf = NULL;
+			strmh->size_buf = 0;
+		} else if (strmh->pool_get) {
+			strmh->outbuf = malloc(strmh->frame_buf_size);
+			strmh->holdbuf = malloc(strmh->frame_buf_size);
+			strmh->size_buf = strmh->frame_buf_size;
+			if (UNLIKELY(!strmh->outbuf || !strmh->holdbuf)) {
+				free(strmh->outbuf);
+				free(strmh->holdbuf);
+				strmh->outbuf = strmh->holdbuf = NULL;
+				strmh->size_buf = 0;
+				ret = UVC_ERROR_NO_MEM;
+			}
+		}
+		strmh->pool_get = get_frame;
+		strmh->pool_recycle = recycle_frame;
+		strmh->pool_ptr = pool_ptr;
+	}
+	pthread_mutex_unlock(&strmh->cb_mutex);
+
+	UVC_EXIT(ret);
+	return ret;
+}
+
+/** @internal
+ * @brief return the frames that the library holds to the user's frame pool
+ * must be called without stream cb lock held, the frames are taken under the lock
+ * and returned to the pool after releasing it.
+ */
+static void _uvc_release_pool_frames(uvc_stream_handle_t *strmh) {
+	uvc_frame_t *hold, *out;
+
+	pthread_mutex_lock(&strmh->cb_mutex);
+	{
+		hold = strmh->holdframe;
+		out = strmh->outframe;
+		strmh->holdframe = strmh->outframe = NULL;
+		if (strmh->pool_get) {
+			strmh->outbuf = NULL;
+			strmh->size_buf = 0;
+		}
+	}
+	pthread_mutex_unlock(&strmh->cb_mutex);
+	if (hold)
+		strmh->pool_recycle(hold, strmh->pool_ptr);
+	if (out)
+		strmh->pool_recycle(out, strmh->pool_ptr);
+}
+
+/** @internal
+ * @brief User callback runner thread for ownership transfer mode
+ * the ownership of each frame is transferred to the user callback
+ */
+static void *_uvc_user_caller_pool(uvc_stream_handle_t *strmh) {
+	uvc_frame_t *frame;
+
+	for (; 1 ;) {
+		pthread_mutex_lock(&strmh->cb_mutex);
+		{
+			for (; strmh->running && !strmh->holdframe ;) {
+				pthread_cond_wait(&strmh->cb_cond, &strmh->cb_mutex);
+			}
+
+			if (UNLIKELY(!strmh->running)) {
+				pthread_mutex_unlock(&strmh->cb_mutex);
+				break;
+			}
+
+			frame = strmh->holdframe;
+			strmh->holdframe = NULL;
+			_uvc_populate_frame_info(strmh, frame);
+		}
+		pthread_mutex_unlock(&strmh->cb_mutex);
+
+		strmh->user_cb(frame, strmh->user_ptr);	// call user callback function, it owns the frame now
+	}
+
+	return NULL; // return value ignored
+}
+
 /** @internal
  * @brief User callback runner thread
  * @note There should be at most one of these per currently streaming device
@@ -1647,6 +1972,9 @@ static void *_uvc_user_caller(void *arg) {
 
 	uint32_t last_seq = 0;
 
+	if (strmh->pool_get) {
+		return _uvc_user_caller_pool(strmh);
+	}
 	for (; 1 ;) {
 		pthread_mutex_lock(&strmh->cb_mutex);
 		{
@@ -1677,8 +2005,25 @@ static void *_uvc_user_caller(void *arg) {
  * must be called with stream cb lock held!
  */
 void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
-	size_t alloc_size = strmh->cur_ctrl.dwMaxVideoFrameSize;
 	uvc_frame_t *frame = &strmh->frame;
+
+	_uvc_populate_frame_info(strmh, frame);
+
+	/* copy the image data from the hold buffer to the frame (unnecessary extra buf?) */
+	if (UNLIKELY(frame->data_bytes < strmh->hold_bytes)) {
+		frame->data = realloc(frame->data, strmh->hold_bytes);	// TODO add error handling when failed realloc
+		frame->data_bytes = strmh->hold_bytes;
+	}
+	memcpy(frame->data, strmh->holdbuf, strmh->hold_bytes/*frame->data_bytes*/);	// XXX
+
+	/** @todo set the frame time */
+}
+
+/** @internal
+ * @brief Populate the fields except the image data of a frame to be handed to user code
+ * must be called with stream cb lock held!
+ */
+static void _uvc_populate_frame_info(uvc_stream_handle_t *strmh, uvc_frame_t *frame) {
 	uvc_frame_desc_t *frame_desc;
 
 	/** @todo this stuff that hits the main config cache should really happen
@@ -1707,15 +2052,9 @@ void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
 		frame->step = 0;
 		break;
 	}
-
-	/* copy the image data from the hold buffer to the frame (unnecessary extra buf?) */
-	if (UNLIKELY(frame->data_bytes < strmh->hold_bytes)) {
-		frame->data = realloc(frame->data, strmh->hold_bytes);	// TODO add error handling when failed realloc
-		frame->data_bytes = strmh->hold_bytes;
-	}
-	memcpy(frame->data, strmh->holdbuf, strmh->hold_bytes/*frame->data_bytes*/);	// XXX
-
-	/** @todo set the frame time */
+	frame->sequence = strmh->hold_seq;
+	frame->capture_time = strmh->hold_capture_time;
+	frame->source = strmh->devh;
 }
 
 /** Poll for a frame
@@ -1738,6 +2077,9 @@ uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 	if (UNLIKELY(strmh->user_cb))
 		return UVC_ERROR_CALLBACK_EXISTS;
 
+	if (UNLIKELY(strmh->pool_get))
+		return UVC_ERROR_NOT_SUPPORTED;	// frames are handed only to the user callback
+
 	pthread_mutex_lock(&strmh->cb_mutex);
 	{
 		if (strmh->last_polled_seq < strmh->hold_seq) {
@@ -1862,9 +2204,51 @@ uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh) {
 		pthread_join(strmh->cb_thread, NULL);
 	}
 
+	_uvc_release_pool_frames(strmh);
+	pthread_mutex_lock(&strmh->cb_mutex);
+	{
+		strmh->transfer_buf_bytes = 0;
+	}
+	pthread_mutex_unlock(&strmh->cb_mutex);
+
 	RETURN(UVC_SUCCESS, uvc_error_t);
 }
 
+/** Get the bytes of memory that the stream currently uses
+ * for the transfer buffers and the buffers for assembling frames.
+ * @ingroup streaming
+ *
+ * @param strmh UVC stream
+ * @return bytes, 0 if strmh is NULL
+ */
+size_t uvc_stream_get_buffer_bytes(uvc_stream_handle_t *strmh) {
+	size_t bytes = 0;
+
+	if (UNLIKELY(!strmh))
+		return 0;
+
+	pthread_mutex_lock(&strmh->cb_mutex);
+	{
+		bytes = strmh->transfer_buf_bytes;
+		if (strmh->pool_get) {
+			if (strmh->outframe)
+				bytes += strmh->outframe->data_bytes;
+			if (strmh->holdframe)
+				bytes += strmh->holdframe->data_bytes;
+		} else {
+			if (strmh->outbuf)
+				bytes += strmh->size_buf;
+			if (strmh->holdbuf)
+				bytes += strmh->size_buf;
+			if (strmh->frame.data)
+				bytes += strmh->frame.data_bytes;
+		}
+	}
+	pthread_mutex_unlock(&strmh->cb_mutex);
+
+	return bytes;
+}
+
 /** @brief Close stream.
  * @ingroup streaming
  *
@@ -1887,7 +2271,9 @@ void uvc_stream_close(uvc_stream_handle_t *strmh) {
 		strmh->frame.data = NULL;
 	}
 
-	if (strmh->outbuf) {
+	_uvc_release_pool_frames(strmh);	// in case of failure of uvc_stream_start
+
+	if (strmh->outbuf && !strmh->pool_get) {
 		free(strmh->outbuf);
 		strmh->outbuf = NULL;
 	}
@@ -0,0 +1,136 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: bench_convert_workers.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+// host benchmark of ConvertWorkers with 1/2/4/8 threads,
+// the output of each thread count is compared with the conversion on single thread.
+
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+
+#include "ConvertWorkers.h"
+#include "test_common.h"
+
+struct Conversion {
+	const char *name;
+	convFunc_t func;
+	int pixel_bytes;
+};
+
+static const Conversion conversions[] = {
+	{ "uvc_any2rgbx", uvc_any2rgbx, 4 },
+	{ "uvc_any2rgb565", uvc_any2rgb565, 2 },
+	{ "uvc_any2rgb", uvc_any2rgb, 3 },
+};
+
+static const int thread_counts[] = { 1, 2, 4, 8 };
+
+static uvc_frame_t *create_yuyv(const int width, const int height) {
+	uvc_frame_t *frame = uvc_allocate_frame(width * height * 2);
+	frame->width = width;
+	frame->height = height;
+	frame->step = width * 2;
+	frame->frame_format = UVC_FRAME_FORMAT_YUYV;
+	uint8_t *p = (uint8_t *)frame->data;
+	uint32_t seed = 1;
+	for (size_t i = 0; i < frame->data_bytes; i++) {
+		seed = seed * 1103515245 + 12345;
+		p[i] = (uint8_t)(seed >> 16);
+	}
+	return frame;
+}
+
+/**
+ * output frame that the caller owns, like the buffer of ANativeWindow that has its own stride
+ */
+static void init_window_frame(uvc_frame_t *frame, uint8_t *buf, const int width, const int height,
+	const int stride, const int pixel_bytes) {
+
+	memset(frame, 0, sizeof(*frame));
+	frame->data = buf;
+	frame->data_bytes = stride * pixel_bytes * height;
+	frame->width = width;
+	frame->height = height;
+	frame->step = stride * pixel_bytes;
+	frame->library_owns_data = 0;
+	memset(buf, 0x5a, frame->data_bytes);
+}
+
+static void run(ConvertWorkers &workers, const int width, const int height) {
+	uvc_frame_t *in = create_yuyv(width, height);
+	printf("%dx%d YUYV, ms/frame\n", width, height);
+	for (size_t k = 0; k < sizeof(conversions) / sizeof(conversions[0]); k++) {
+		const Conversion &conv = conversions[k];
+		const size_t out_bytes = width * height * conv.pixel_bytes;
+		uvc_frame_t *expected = uvc_allocate_frame(out_bytes);
+		uvc_frame_t *out = uvc_allocate_frame(out_bytes);
+		memset(expected->data, 0x5a, out_bytes);
+		EXPECT_EQ(UVC_SUCCESS, conv.func(in, expected));
+		// caller owned output with stride, as the preview converts into the window buffer
+		const int stride = (width + 63) & ~63;
+		uint8_t *window_buf = (uint8_t *)malloc(stride * conv.pixel_bytes * height);
+		uint8_t *window_expected = (uint8_t *)malloc(stride * conv.pixel_bytes * height);
+		uvc_frame_t window;
+		init_window_frame(&window, window_expected, width, height, stride, conv.pixel_bytes);
+		EXPECT_EQ(UVC_SUCCESS, conv.func(in, &window));
+
+		printf("  %-16s", conv.name);
+		for (size_t t = 0; t < sizeof(thread_counts) / sizeof(thread_counts[0]); t++) {
+			workers.setThreads(thread_counts[t]);
+			memset(out->data, 0x5a, out_bytes);
+			EXPECT_EQ(UVC_SUCCESS, workers.convert(conv.func, in, out));
+			EXPECT(!memcmp(expected->data, out->data, out_bytes));
+			init_window_frame(&window, window_buf, width, height, stride, conv.pixel_bytes);
+			EXPECT_EQ(UVC_SUCCESS, workers.convert(conv.func, in, &window));
+			EXPECT(!memcmp(window_expected, window_buf, window.data_bytes));
+
+			const int frames = 60;
+			const uint64_t start = test_now_ns();
+			for (int i = 0; i < frames; i++) {
+				workers.convert(conv.func, in, out);
+			}
+			printf(" %d:%7.3f", thread_counts[t], (test_now_ns() - start) / 1e6 / frames);
+		}
+		printf("\n");
+		free(window_buf);
+		free(window_expected);
+		uvc_free_frame(out);
+		uvc_free_frame(expected);
+	}
+	uvc_free_frame(in);
+}
+
+int main(int argc, char **argv) {
+	printf("%ld cpus online, SIMD kernels: %s\n", sysconf(_SC_NPROCESSORS_ONLN), uvc_get_simd_name());
+	ConvertWorkers workers;
+	run(workers, 1280, 720);
+	run(workers, 1920, 1080);
+	run(workers, 3840, 2160);
+	// devices without the SIMD kernels
+	uvc_set_simd_enabled(0);
+	printf("without SIMD\n");
+	run(workers, 1920, 1080);
+	uvc_set_simd_enabled(1);
+	return TEST_RESULT();
+}
@@ -0,0 +1,296 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: bench_mjpeg_decoder.c
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+// host benchmark of MJPEG decoding, per frame setup of uvc_mjpeg2yuyv
+// vs the decoder that is kept across frames(uvc_mjpeg_decoder_t)
+//   bench_mjpeg_decoder [folder]
+// folder has captured MJPEG frames, one frame per file.
+// Without it, frames are generated and their DHT segments are removed as UVC cameras do.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <dirent.h>
+#include <setjmp.h>
+#include <jpeglib.h>
+
+#include "libuvc/libuvc.h"
+#include "test_common.h"
+
+#define MAX_FRAMES 64
+#define MIN_DECODES 300
+
+typedef struct mjpeg_frame {
+	uint8_t *data;
+	size_t bytes;
+	int width, height;
+} mjpeg_frame_t;
+
+static mjpeg_frame_t frames[MAX_FRAMES];
+static int num_frames = 0;
+
+/**
+ * get the size from SOFn marker
+ * @return 0 if success
+ */
+static int parse_size(mjpeg_frame_t *frame) {
+	const uint8_t *p = frame->data;
+	size_t i = 2;
+	if ((frame->bytes < 4) || (p[0] != 0xff) || (p[1] != 0xd8))
+		return -1;
+	while (i + 9 < frame->bytes) {
+		if (p[i] != 0xff) return -1;
+		const uint8_t marker = p[i + 1];
+		const size_t len = (p[i + 2] << 8) | p[i + 3];
+		if ((marker >= 0xc0) && (marker <= 0xcf) && (marker != 0xc4) && (marker != 0xc8) && (marker != 0xcc)) {
+			frame->height = (p[i + 5] << 8) | p[i + 6];
+			frame->width = (p[i + 7] << 8) | p[i + 8];
+			return 0;
+		}
+		i += 2 + len;
+	}
+	return -1;
+}
+
+static void load_folder(const char *path) {
+	DIR *dir = opendir(path);
+	if (!dir) {
+		fprintf(stderr, "failed to open %s\n", path);
+		return;
+	}
+	struct dirent *entry;
+	char name[4096];
+	while ((num_frames < MAX_FRAMES) && (entry = readdir(dir))) {
+		if (entry->d_name[0] == '.') continue;
+		snprintf(name, sizeof(name), "%s/%s", path, entry->d_name);
+		FILE *fp = fopen(name, "rb");
+		if (!fp) continue;
+		fseek(fp, 0, SEEK_END);
+		mjpeg_frame_t *frame = &frames[num_frames];
+		frame->bytes = ftell(fp);
+		fseek(fp, 0, SEEK_SET);
+		frame->data = malloc(frame->bytes);
+		if ((fread(frame->data, 1, frame->bytes, fp) == frame->bytes) && !parse_size(frame)) {
+			num_frames++;
+		} else {
+			fprintf(stderr, "skip %s, not a JPEG\n", name);
+			free(frame->data);
+		}
+		fclose(fp);
+	}
+	closedir(dir);
+}
+
+/**
+ * remove DHT segments, libjpeg writes the standard tables that the decoder inserts
+ */
+static size_t remove_dht(uint8_t *p, size_t bytes) {
+	size_t i = 2;
+	while (i + 4 < bytes) {
+		const uint8_t marker = p[i + 1];
+		const size_t len = (p[i + 2] << 8) | p[i + 3];
+		if (marker == 0xda) break;	// start of scan
+		if (marker == 0xc4) {
+			memmove(p + i, p + i + 2 + len, bytes - (i + 2 + len));
+			bytes -= 2 + len;
+		} else {
+			i += 2 + len;
+		}
+	}
+	return bytes;
+}
+
+/**
+ * generate YCbCr 4:2:2 frames that change a bit frame by frame like a camera
+ */
+static void generate_frames(const int width, const int height, const int n) {
+	uint8_t *row = malloc(width * 3);
+	for (int k = 0; (k < n) && (num_frames < MAX_FRAMES); k++) {
+		struct jpeg_compress_struct cinfo;
+		struct jpeg_error_mgr jerr;
+		unsigned long bytes = 0;
+		unsigned char *buf = NULL;
+		cinfo.err = jpeg_std_error(&jerr);
+		jpeg_create_compress(&cinfo);
+		jpeg_mem_dest(&cinfo, &buf, &bytes);
+		cinfo.image_width = width;
+		cinfo.image_height = height;
+		cinfo.input_components = 3;
+		cinfo.in_color_space = JCS_RGB;
+		jpeg_set_defaults(&cinfo);
+		jpeg_set_quality(&cinfo, 85, TRUE);
+		cinfo.comp_info[0].h_samp_factor = 2;
+		cinfo.comp_info[0].v_samp_factor = 1;
+		jpeg_start_compress(&cinfo, TRUE);
+		uint32_t seed = 12345 + k;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				seed = seed * 1103515245 + 12345;
+				const int noise = (seed >> 16) & 15;
+				const int box = ((x - k * 8) / 64 + y / 64) & 1;
+				row[x * 3 + 0] = (uint8_t)((x * 255 / width) + noise);
+				row[x * 3 + 1] = (uint8_t)((y * 255 / height) ^ (box ? 0x40 : 0));
+				row[x * 3 + 2] = (uint8_t)(((x + y) >> 2) + noise);
+			}
+			JSAMPROW rows[1] = { row };
+			jpeg_write_scanlines(&cinfo, rows, 1);
+		}
+		jpeg_finish_compress(&cinfo);
+		jpeg_destroy_compress(&cinfo);
+		mjpeg_frame_t *frame = &frames[num_frames++];
+		frame->bytes = remove_dht(buf, bytes);
+		frame->data = malloc(frame->bytes);
+		memcpy(frame->data, buf, frame->bytes);
+		frame->width = width;
+		frame->height = height;
+		free(buf);
+	}
+	free(row);
+}
+
+static void set_input(uvc_frame_t *in, const mjpeg_frame_t *frame) {
+	in->data = frame->data;
+	in->data_bytes = in->actual_bytes = frame->bytes;
+	in->width = frame->width;
+	in->height = frame->height;
+	in->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	in->library_owns_data = 0;
+}
+
+static int decode_count() {
+	return ((MIN_DECODES + num_frames - 1) / num_frames) * num_frames;
+}
+
+static void report(const char *name, const int n, const uint64_t elapsed, const int errors) {
+	printf("  %-28s %8.1f frames/s%s\n", name, n * 1e9 / elapsed, errors ? " (with errors)" : "");
+}
+
+static void bench_per_frame_setup(uvc_frame_t *out) {
+	uvc_frame_t in;
+	memset(&in, 0, sizeof(in));
+	const int n = decode_count();
+	int errors = 0;
+	const uint64_t start = test_now_ns();
+	for (int i = 0; i < n; i++) {
+		set_input(&in, &frames[i % num_frames]);
+		if (uvc_mjpeg2yuyv(&in, out)) errors++;
+	}
+	report("uvc_mjpeg2yuyv", n, test_now_ns() - start, errors);
+}
+
+static void bench_decoder(uvc_mjpeg_decoder_t *decoder, uvc_frame_t *out,
+	const enum uvc_frame_format format, const char *name) {
+
+	uvc_frame_t in;
+	memset(&in, 0, sizeof(in));
+	const int n = decode_count();
+	int errors = 0;
+	const uint64_t start = test_now_ns();
+	for (int i = 0; i < n; i++) {
+		set_input(&in, &frames[i % num_frames]);
+		if (uvc_mjpeg_decode(decoder, &in, out, format)) errors++;
+	}
+	report(name, n, test_now_ns() - start, errors);
+}
+
+/**
+ * YUYV of the decoder should be same as uvc_mjpeg2yuyv.
+ * uvc_mjpeg2yuyv converts by 8 pixels and its output is broken when the width is not multiple of 8,
+ * then the decoder is compared with its I422 output, that does not use the raw data for such widths
+ */
+static void check_same_output(uvc_mjpeg_decoder_t *decoder, const size_t max_bytes) {
+	uvc_frame_t in;
+	memset(&in, 0, sizeof(in));
+	uvc_frame_t *a = uvc_allocate_frame(max_bytes);
+	uvc_frame_t *b = uvc_allocate_frame(max_bytes);
+	for (int i = 0; i < num_frames; i++) {
+		const int width = frames[i].width, height = frames[i].height;
+		set_input(&in, &frames[i]);
+		EXPECT_EQ(UVC_SUCCESS, uvc_mjpeg_decode(decoder, &in, b, UVC_FRAME_FORMAT_YUYV));
+		if (!(width & 7)) {
+			EXPECT_EQ(UVC_SUCCESS, uvc_mjpeg2yuyv(&in, a));
+			EXPECT_EQ(a->actual_bytes, b->actual_bytes);
+			EXPECT(!memcmp(a->data, b->data, a->actual_bytes));
+		} else {
+			EXPECT_EQ(UVC_SUCCESS, uvc_mjpeg_decode(decoder, &in, a, UVC_FRAME_FORMAT_I422));
+			const int chroma_width = (width + 1) >> 1;
+			const uint8_t *y_plane = a->data;
+			const uint8_t *u_plane = y_plane + width * height;
+			const uint8_t *v_plane = u_plane + chroma_width * height;
+			int diff = 0;
+			for (int y = 0; y < height; y++) {
+				const uint8_t *yuyv = (const uint8_t *)b->data + y * width * 2;
+				for (int x = 0; x < width; x++) {
+					if (yuyv[x * 2] != y_plane[y * width + x]) diff++;
+					// U for even pixels, V for odd pixels
+					const uint8_t *plane = x & 1 ? v_plane : u_plane;
+					if (yuyv[x * 2 + 1] != plane[y * chroma_width + (x >> 1)]) diff++;
+				}
+			}
+			EXPECT_EQ(0, diff);
+		}
+	}
+	uvc_free_frame(a);
+	uvc_free_frame(b);
+}
+
+static void run(const char *title) {
+	if (!num_frames) return;
+	printf("%s: %d frames of %dx%d, %zu bytes\n", title, num_frames,
+		frames[0].width, frames[0].height, frames[0].bytes);
+	size_t max_bytes = 0;
+	for (int i = 0; i < num_frames; i++) {
+		const size_t bytes = frames[i].width * frames[i].height * 4;
+		if (bytes > max_bytes) max_bytes = bytes;
+	}
+	uvc_mjpeg_decoder_t *decoder = uvc_mjpeg_decoder_create();
+	// frames from uvc_allocate_frame(0) do not own data and can not be resized
+	uvc_frame_t *out = uvc_allocate_frame(max_bytes);
+	check_same_output(decoder, max_bytes);
+	bench_per_frame_setup(out);
+	bench_decoder(decoder, out, UVC_FRAME_FORMAT_YUYV, "decoder, YUYV");
+	bench_decoder(decoder, out, UVC_FRAME_FORMAT_I420, "decoder, I420");
+	bench_decoder(decoder, out, UVC_FRAME_FORMAT_NV12, "decoder, NV12");
+	uvc_free_frame(out);
+	uvc_mjpeg_decoder_destroy(decoder);
+	for (int i = 0; i < num_frames; i++) {
+		free(frames[i].data);
+	}
+	num_frames = 0;
+}
+
+int main(int argc, char **argv) {
+	if (argc > 1) {
+		load_folder(argv[1]);
+		run(argv[1]);
+	} else {
+		generate_frames(640, 480, 8);
+		run("generated");
+		generate_frames(1280, 720, 8);
+		run("generated");
+		generate_frames(1920, 1080, 8);
+		run("generated");
+	}
+	return TEST_RESULT();
+}
@@ -0,0 +1,162 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: bench_ring_vs_sqlite.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+// host benchmark of sustained append speed, RingFileBufferedPipeline vs SQLite
+// that stores each frame as a BLOB row as SQLiteBufferedPipeline did
+// (same table, one INSERT per frame in its own transaction, delete_older every 5 seconds).
+//   bench_ring_vs_sqlite [number of frames]
+// needs sqlite3 headers and library of the host, see Makefile.
+
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <sqlite3.h>
+
+#include "RingFileBufferedPipeline.h"
+#include "test_common.h"
+
+#define FRAME_BYTES (200 * 1024)	// 1080p MJPEG
+#define FRAME_INTERVAL_NSEC 33333000LL
+#define KEEP_NSEC 30000000000LL
+#define CHECK_INTERVAL_NSEC 5000000000LL
+#define T0 1000000000000LL
+
+// same as SQLiteBufferedPipeline
+#define TABLE_NAME "backend"
+#define INSERT_FIELDS "dtime, format, width, height, sequence, data_bytes, data"
+
+static void set_frame(uvc_frame_t *frame, const uint32_t sequence) {
+	frame->sequence = sequence;
+	const nsecs_t dtime = T0 + sequence * FRAME_INTERVAL_NSEC;
+	frame->capture_time.tv_sec = dtime / 1000000000LL;
+	frame->capture_time.tv_usec = (dtime % 1000000000LL) / 1000;
+	// frames differ each other
+	memcpy(frame->data, &sequence, sizeof(sequence));
+}
+
+static void report(const char *name, const int frames, const uint64_t elapsed) {
+	printf("  %-40s %9.1f MB/s %8.1f frames/s\n", name,
+		(double)FRAME_BYTES * frames * 1000.0 / elapsed, frames * 1e9 / elapsed);
+}
+
+static void bench_ring(const char *dir, uvc_frame_t *frame, const int frames) {
+	char path[256];
+	snprintf(path, sizeof(path), "%s/bench_ring.bin", dir);
+	{
+		RingFileBufferedPipeline ring(path);
+		const uint64_t start = test_now_ns();
+		for (int i = 0; i < frames; i++) {
+			set_frame(frame, i);
+			ring.append(frame);
+		}
+		report("RingFileBufferedPipeline", frames, test_now_ns() - start);
+	}
+	unlink(path);
+}
+
+/**
+ * @param pragma executed after opening the database, NULL for the default settings
+ */
+static void bench_sqlite(const char *dir, uvc_frame_t *frame, const int frames,
+	const char *name, const char *pragma) {
+
+	char path[256];
+	snprintf(path, sizeof(path), "%s/bench_sqlite.db", dir);
+	unlink(path);
+	sqlite3 *db = NULL;
+	sqlite3_stmt *insert = NULL, *delete_older = NULL;
+	if ((sqlite3_open(path, &db) != SQLITE_OK)
+		|| (pragma && (sqlite3_exec(db, pragma, NULL, NULL, NULL) != SQLITE_OK))
+		|| (sqlite3_exec(db,
+			"CREATE TABLE IF NOT EXISTS " TABLE_NAME " ("
+			"id INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, "
+			"dtime INTEGER NOT NULL UNIQUE, "
+			"format INTEGER NOT NULL, "
+			"width INTEGER NOT NULL, "
+			"height INTEGER NOT NULL, "
+			"sequence INTEGER NOT NULL, "
+			"data_bytes INTEGER NOT NULL, "
+			"data BLOB NOT NULL"
+			");", NULL, NULL, NULL) != SQLITE_OK)
+		|| (sqlite3_prepare_v2(db, "INSERT INTO " TABLE_NAME
+			" (" INSERT_FIELDS ") VALUES (?, ?, ?, ?, ?, ?, ?);", -1, &insert, NULL) != SQLITE_OK)
+		|| (sqlite3_prepare_v2(db, "DELETE FROM " TABLE_NAME " WHERE (dtime<?);",
+			-1, &delete_older, NULL) != SQLITE_OK)) {
+
+		fprintf(stderr, "failed to set up the database:%s\n", db ? sqlite3_errmsg(db) : "");
+		EXPECT(!"sqlite");
+	} else {
+		int errors = 0;
+		nsecs_t last_check = T0;
+		const uint64_t start = test_now_ns();
+		for (int i = 0; i < frames; i++) {
+			set_frame(frame, i);
+			const nsecs_t dtime = T0 + i * FRAME_INTERVAL_NSEC;
+			sqlite3_reset(insert);
+			sqlite3_bind_int64(insert, 1, dtime);
+			sqlite3_bind_int(insert, 2, frame->frame_format);
+			sqlite3_bind_int(insert, 3, frame->width);
+			sqlite3_bind_int(insert, 4, frame->height);
+			sqlite3_bind_int(insert, 5, frame->sequence);
+			sqlite3_bind_int(insert, 6, frame->actual_bytes);
+			sqlite3_bind_blob(insert, 7, frame->data, frame->actual_bytes, SQLITE_STATIC);
+			if (sqlite3_step(insert) != SQLITE_DONE) errors++;
+			if (dtime - last_check >= CHECK_INTERVAL_NSEC) {
+				last_check = dtime;
+				sqlite3_reset(delete_older);
+				sqlite3_bind_int64(delete_older, 1, dtime - KEEP_NSEC);
+				if (sqlite3_step(delete_older) != SQLITE_DONE) errors++;
+			}
+		}
+		report(name, frames, test_now_ns() - start);
+		EXPECT_EQ(0, errors);
+	}
+	sqlite3_finalize(insert);
+	sqlite3_finalize(delete_older);
+	sqlite3_close(db);
+	unlink(path);
+	snprintf(path, sizeof(path), "%s/bench_sqlite.db-wal", dir);
+	unlink(path);
+	snprintf(path, sizeof(path), "%s/bench_sqlite.db-shm", dir);
+	unlink(path);
+}
+
+int main(int argc, char **argv) {
+	const int frames = argc > 1 ? atoi(argv[1]) : 1800;	// 1 minute at 30fps
+	const char *tmpdir = getenv("TMPDIR");
+	const char *dir = tmpdir ? tmpdir : "/tmp";
+	uvc_frame_t *frame = uvc_allocate_frame(FRAME_BYTES);
+	memset(frame->data, 0x55, FRAME_BYTES);
+	frame->actual_bytes = FRAME_BYTES;
+	frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	frame->width = 1920;
+	frame->height = 1080;
+	printf("%d frames of %d bytes into %s, SQLite %s\n", frames, FRAME_BYTES, dir, sqlite3_libversion());
+	bench_ring(dir, frame, frames);
+	bench_sqlite(dir, frame, frames, "SQLite, default(SQLiteBufferedPipeline)", NULL);
+	bench_sqlite(dir, frame, frames, "SQLite, WAL and synchronous=NORMAL",
+		"PRAGMA journal_mode=WAL; PRAGMA synchronous=NORMAL;");
+	uvc_free_frame(frame);
+	return TEST_RESULT();
+}
@@ -0,0 +1,68 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: log.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef HOST_ANDROID_LOG_H_
+#define HOST_ANDROID_LOG_H_
+
+// replacement of NDK's android/log.h for host tests, writes the logs to stderr
+
+#include <stdio.h>
+#include <stdarg.h>
+#include <stdlib.h>
+
+typedef enum android_LogPriority {
+	ANDROID_LOG_UNKNOWN = 0,
+	ANDROID_LOG_DEFAULT,
+	ANDROID_LOG_VERBOSE,
+	ANDROID_LOG_DEBUG,
+	ANDROID_LOG_INFO,
+	ANDROID_LOG_WARN,
+	ANDROID_LOG_ERROR,
+	ANDROID_LOG_FATAL,
+	ANDROID_LOG_SILENT,
+} android_LogPriority;
+
+static inline int __android_log_write(int prio, const char *tag, const char *text) {
+	return prio >= ANDROID_LOG_WARN ? fprintf(stderr, "%s:%s\n", tag, text) : 0;
+}
+
+static inline int __android_log_print(int prio, const char *tag, const char *fmt, ...) {
+	int result = 0;
+	if (prio >= ANDROID_LOG_WARN) {
+		va_list args;
+		va_start(args, fmt);
+		result = fprintf(stderr, "%s:", tag);
+		result += vfprintf(stderr, fmt, args);
+		result += fprintf(stderr, "\n");
+		va_end(args);
+	}
+	return result;
+}
+
+static inline void __android_log_assert(const char *cond, const char *tag, const char *fmt, ...) {
+	fprintf(stderr, "%s:assertion failed:%s\n", tag, cond ? cond : "");
+	abort();
+}
+
+#endif /* HOST_ANDROID_LOG_H_ */
@@ -0,0 +1,33 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: native_window.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef HOST_ANDROID_NATIVE_WINDOW_H_
+#define HOST_ANDROID_NATIVE_WINDOW_H_
+
+// replacement of NDK's android/native_window.h for host tests,
+// only the opaque type that the headers refer is declared, host tests never draw to a window
+
+typedef struct ANativeWindow ANativeWindow;
+
+#endif /* HOST_ANDROID_NATIVE_WINDOW_H_ */
@@ -0,0 +1,67 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: test_common.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef TEST_COMMON_H_
+#define TEST_COMMON_H_
+
+// minimal helpers for host tests and benchmarks, this works with both C and C++
+
+#include <stdio.h>
+#include <stdint.h>
+#include <time.h>
+
+static int test_failures = 0;
+
+#define EXPECT(cond) do { \
+	if (!(cond)) { \
+		fprintf(stderr, "%s:%d: EXPECT failed: %s\n", __FILE__, __LINE__, #cond); \
+		test_failures++; \
+	} \
+} while (0)
+
+#define EXPECT_EQ(expected, actual) do { \
+	const long long _e = (long long)(expected), _a = (long long)(actual); \
+	if (_e != _a) { \
+		fprintf(stderr, "%s:%d: EXPECT_EQ failed: %s, expected %lld but was %lld\n", \
+			__FILE__, __LINE__, #actual, _e, _a); \
+		test_failures++; \
+	} \
+} while (0)
+
+#define RUN_TEST(func) do { \
+	const int _prev = test_failures; \
+	func(); \
+	printf("%s %s\n", test_failures == _prev ? "PASS" : "FAIL", #func); \
+} while (0)
+
+// exit status of main
+#define TEST_RESULT() (test_failures ? 1 : 0)
+
+static inline uint64_t test_now_ns(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (uint64_t)ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+}
+
+#endif /* TEST_COMMON_H_ */
@@ -0,0 +1,366 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: test_publisher_pipeline.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+// host test of PublisherPipeline with subscribers that connect to its unix domain socket
+// as other processes do, and the throughput to a single subscriber
+
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <endian.h>
+#include <poll.h>
+#include <unistd.h>
+#include <stddef.h>
+#include <pthread.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+
+#include "PublisherPipeline.h"
+#include "test_common.h"
+
+#define READ_TIMEOUT_MS 3000
+#define QUEUE_INTERVAL_US 5000	// slower than the pipeline thread so AbstractBufferedPipeline never drops
+
+static char socket_path[108];
+
+static inline uint8_t pattern(const uint32_t sequence, const size_t offset) {
+	return (uint8_t)(sequence * 13 + offset * 5 + (offset >> 9));
+}
+
+static void set_frame(uvc_frame_t *frame, const uint32_t sequence, const size_t bytes) {
+	uvc_ensure_frame_size(frame, bytes);
+	uint8_t *p = (uint8_t *)frame->data;
+	for (size_t i = 0; i < bytes; i++) {
+		p[i] = pattern(sequence, i);
+	}
+	frame->actual_bytes = bytes;
+	frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	frame->width = 1920;
+	frame->height = 1080;
+	frame->sequence = sequence;
+	frame->capture_time.tv_sec = 1000 + sequence;
+	frame->capture_time.tv_usec = sequence * 7;
+}
+
+static int connect_subscriber(const char *address) {
+	struct sockaddr_un addr;
+	memset(&addr, 0, sizeof(addr));
+	addr.sun_family = AF_UNIX;
+	const size_t len = strlen(address);
+	memcpy(addr.sun_path, address, len);
+	if (addr.sun_path[0] == '@') {
+		addr.sun_path[0] = '\0';
+	}
+	const int fd = socket(AF_UNIX, SOCK_STREAM, 0);
+	if ((fd >= 0) && connect(fd, (struct sockaddr *)&addr, offsetof(struct sockaddr_un, sun_path) + len)) {
+		close(fd);
+		return -1;
+	}
+	return fd;
+}
+
+/**
+ * @return false on timeout, error or end of stream
+ */
+static bool read_fully(const int fd, void *buf, size_t bytes) {
+	uint8_t *p = (uint8_t *)buf;
+	for ( ; bytes > 0 ; ) {
+		struct pollfd fds = { fd, POLLIN, 0 };
+		if (poll(&fds, 1, READ_TIMEOUT_MS) <= 0) return false;
+		const ssize_t n = read(fd, p, bytes);
+		if (n < 0 && errno == EINTR) continue;
+		if (n <= 0) return false;
+		p += n;
+		bytes -= n;
+	}
+	return true;
+}
+
+/**
+ * read a frame as a subscriber and check its header and data
+ * @param data buffer that is large enough for the frame
+ * @param check_data false to check only the header
+ * @return sequence of the frame, -1 on error
+ */
+static int64_t read_frame(const int fd, uint8_t *data, const bool check_data = true) {
+	publish_header_t header;
+	if (!read_fully(fd, &header, sizeof(header))) return -1;
+	const uint32_t sequence = le32toh(header.sequence);
+	const uint32_t bytes = le32toh(header.data_bytes);
+	EXPECT_EQ(PUBLISH_HEADER_MAGIC, le32toh(header.magic));
+	EXPECT_EQ((1000 + sequence) * 1000000LL + sequence * 7, (int64_t)le64toh(header.capture_time_us));
+	EXPECT_EQ(UVC_FRAME_FORMAT_MJPEG, le32toh(header.format));
+	EXPECT_EQ(1920, le32toh(header.width));
+	EXPECT_EQ(1080, le32toh(header.height));
+	if (!read_fully(fd, data, bytes)) return -1;
+	for (uint32_t i = 0; check_data && (i < bytes); i++) {
+		if (data[i] != pattern(sequence, i)) {
+			EXPECT(!"frame data");
+			break;
+		}
+	}
+	return sequence;
+}
+
+static size_t frame_bytes(const uint32_t sequence) {
+	return 10000 + (sequence * 7919) % 10000;
+}
+
+static bool start_pipeline(PublisherPipeline &publisher) {
+	publisher.start();
+	for (int i = 0; (i < 1000) && (publisher.getState() != PIPELINE_STATE_RUNNING); i++) {
+		usleep(1000);
+	}
+	return publisher.getState() == PIPELINE_STATE_RUNNING;
+}
+
+static bool wait_subscribers(PublisherPipeline &publisher, const int n) {
+	for (int i = 0; (i < 1000) && (publisher.getSubscriberCount() != n); i++) {
+		usleep(1000);
+	}
+	return publisher.getSubscriberCount() == n;
+}
+
+static void test_invalid_address() {
+	PublisherPipeline empty("");
+	EXPECT(!empty.isOpened());
+	char too_long[200];
+	memset(too_long, 'a', sizeof(too_long) - 1);
+	too_long[sizeof(too_long) - 1] = '\0';
+	PublisherPipeline long_address(too_long);
+	EXPECT(!long_address.isOpened());
+}
+
+/**
+ * frames are passed to the next pipeline even if nobody subscribes
+ */
+static void test_no_subscriber() {
+	PublisherPipeline publisher(socket_path);
+	EXPECT(publisher.isOpened());
+	EXPECT(start_pipeline(publisher));
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	for (uint32_t i = 0; i < 10; i++) {
+		set_frame(frame, i, frame_bytes(i));
+		EXPECT_EQ(0, publisher.queueFrame(frame));
+		usleep(QUEUE_INTERVAL_US);
+	}
+	usleep(50000);
+	EXPECT_EQ(0, publisher.getSubscriberCount());
+	EXPECT_EQ(0, publisher.getDroppedFrames());
+	publisher.stop();
+	uvc_free_frame(frame);
+}
+
+static void check_all_frames(const char *address) {
+	PublisherPipeline publisher(address);
+	EXPECT(publisher.isOpened());
+	EXPECT(start_pipeline(publisher));
+	const int fd = connect_subscriber(address);
+	EXPECT(fd >= 0);
+	EXPECT(wait_subscribers(publisher, 1));
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	uint8_t *data = new uint8_t[20000];
+	for (uint32_t i = 0; i < 30; i++) {
+		set_frame(frame, i, frame_bytes(i));
+		publisher.queueFrame(frame);
+		EXPECT_EQ(i, read_frame(fd, data));
+	}
+	EXPECT_EQ(0, publisher.getDroppedFrames());
+	publisher.stop();
+	EXPECT_EQ(0, publisher.getSubscriberCount());
+	// the publisher closes the connection when it stops
+	EXPECT_EQ(-1, read_frame(fd, data));
+	close(fd);
+	delete[] data;
+	uvc_free_frame(frame);
+}
+
+static void test_file_path_socket() {
+	check_all_frames(socket_path);
+	// the socket file is removed on release
+	EXPECT(access(socket_path, F_OK) != 0);
+}
+
+static void test_abstract_socket() {
+	char address[64];
+	snprintf(address, sizeof(address), "@test_publisher_%d", getpid());
+	check_all_frames(address);
+}
+
+typedef struct reader_args {
+	int fd;
+	int frames;
+	size_t max_bytes;
+	bool check_data;
+	int64_t last_sequence;
+	volatile int received;
+	bool increasing;
+} reader_args_t;
+
+static void init_reader(reader_args_t &args, const int fd, const int frames,
+	const size_t max_bytes, const bool check_data) {
+
+	args.fd = fd;
+	args.frames = frames;
+	args.max_bytes = max_bytes;
+	args.check_data = check_data;
+	args.last_sequence = -1;
+	args.received = 0;
+	args.increasing = true;
+}
+
+static void *reader_thread_func(void *vptr_args) {
+	reader_args_t *args = (reader_args_t *)vptr_args;
+	uint8_t *data = new uint8_t[args->max_bytes];
+	for ( ; args->last_sequence < args->frames - 1 ; ) {
+		const int64_t sequence = read_frame(args->fd, data, args->check_data);
+		if (sequence < 0) break;
+		if (sequence <= args->last_sequence) args->increasing = false;
+		args->last_sequence = sequence;
+		__atomic_add_fetch(&args->received, 1, __ATOMIC_RELEASE);
+	}
+	delete[] data;
+	return NULL;
+}
+
+/**
+ * a subscriber that does not read loses its oldest frames but never blocks the others,
+ * and it receives the newest frames in order when it starts reading
+ */
+static void test_slow_subscriber() {
+	const uint32_t queue_num = 2;
+	const int frames = 40;
+	const size_t bytes = 1024 * 1024;	// larger than the socket buffer
+	PublisherPipeline publisher(socket_path, queue_num);
+	EXPECT(start_pipeline(publisher));
+	reader_args_t fast;
+	init_reader(fast, connect_subscriber(socket_path), frames, bytes, true);
+	const int slow_fd = connect_subscriber(socket_path);
+	EXPECT((fast.fd >= 0) && (slow_fd >= 0));
+	EXPECT(wait_subscribers(publisher, 2));
+	pthread_t reader;
+	pthread_create(&reader, NULL, reader_thread_func, &fast);
+	uvc_frame_t *frame = uvc_allocate_frame(bytes);
+	for (int i = 0; i < frames; i++) {
+		set_frame(frame, i, bytes);
+		publisher.queueFrame(frame);
+		usleep(QUEUE_INTERVAL_US);
+	}
+	pthread_join(reader, NULL);
+	EXPECT_EQ(frames, fast.received);
+	EXPECT(fast.increasing);
+	reader_args_t slow;
+	init_reader(slow, slow_fd, frames, bytes, true);
+	reader_thread_func(&slow);
+	EXPECT_EQ(frames - 1, slow.last_sequence);
+	EXPECT(slow.increasing);
+	// the slow one has a frame in its sender and queue_num frames in the queue at most
+	EXPECT(slow.received <= (int)queue_num + 1);
+	EXPECT_EQ((uint32_t)frames, slow.received + publisher.getDroppedFrames());
+	publisher.stop();
+	close(fast.fd);
+	close(slow_fd);
+	uvc_free_frame(frame);
+}
+
+/**
+ * the subscriber is removed when it disconnects and the others keep receiving frames
+ */
+static void test_disconnect() {
+	PublisherPipeline publisher(socket_path);
+	EXPECT(start_pipeline(publisher));
+	const int fd1 = connect_subscriber(socket_path);
+	const int fd2 = connect_subscriber(socket_path);
+	EXPECT(wait_subscribers(publisher, 2));
+	close(fd1);
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	uint8_t *data = new uint8_t[20000];
+	uint32_t sequence = 0;
+	for ( ; (sequence < 100) && (publisher.getSubscriberCount() > 1); sequence++) {
+		set_frame(frame, sequence, frame_bytes(sequence));
+		publisher.queueFrame(frame);
+		EXPECT_EQ(sequence, read_frame(fd2, data));
+	}
+	EXPECT_EQ(1, publisher.getSubscriberCount());
+	set_frame(frame, sequence, frame_bytes(sequence));
+	publisher.queueFrame(frame);
+	EXPECT_EQ(sequence, read_frame(fd2, data));
+	publisher.stop();
+	close(fd2);
+	delete[] data;
+	uvc_free_frame(frame);
+}
+
+/**
+ * throughput to a subscriber that reads as fast as it can,
+ * next frame is queued when the subscriber has received all but IN_FLIGHT_FRAMES frames
+ */
+#define IN_FLIGHT_FRAMES 2
+
+static void bench_throughput(const size_t bytes, const char *name) {
+	const int frames = 300;
+	PublisherPipeline publisher(socket_path);
+	start_pipeline(publisher);
+	reader_args_t args;
+	init_reader(args, connect_subscriber(socket_path), frames, bytes, false);
+	wait_subscribers(publisher, 1);
+	pthread_t reader;
+	pthread_create(&reader, NULL, reader_thread_func, &args);
+	uvc_frame_t *frame = uvc_allocate_frame(bytes);
+	set_frame(frame, 0, bytes);
+	const uint64_t start = test_now_ns();
+	for (int i = 0; i < frames; i++) {
+		// the data is not rewritten and not checked to measure only the publisher
+		frame->sequence = i;
+		frame->capture_time.tv_sec = 1000 + i;
+		frame->capture_time.tv_usec = i * 7;
+		for ( ; i - __atomic_load_n(&args.received, __ATOMIC_ACQUIRE) > IN_FLIGHT_FRAMES ; ) {
+			usleep(100);
+		}
+		publisher.queueFrame(frame);
+	}
+	pthread_join(reader, NULL);
+	const uint64_t elapsed = test_now_ns() - start;
+	printf("%-14s %d frames of %zu bytes: received %d, dropped %u, %.1f MB/s, %.1f frames/s\n",
+		name, frames, bytes, args.received, publisher.getDroppedFrames(),
+		(double)bytes * args.received * 1000.0 / elapsed, args.received * 1e9 / elapsed);
+	publisher.stop();
+	close(args.fd);
+	uvc_free_frame(frame);
+}
+
+int main(int argc, char **argv) {
+	const char *tmpdir = getenv("TMPDIR");
+	snprintf(socket_path, sizeof(socket_path), "%s/test_publisher_%d", tmpdir ? tmpdir : "/tmp", getpid());
+	RUN_TEST(test_invalid_address);
+	RUN_TEST(test_no_subscriber);
+	RUN_TEST(test_file_path_socket);
+	RUN_TEST(test_abstract_socket);
+	RUN_TEST(test_slow_subscriber);
+	RUN_TEST(test_disconnect);
+	bench_throughput(200 * 1024, "1080p MJPEG");
+	bench_throughput(1920 * 1080 * 2, "1080p YUYV");
+	unlink(socket_path);
+	return TEST_RESULT();
+}
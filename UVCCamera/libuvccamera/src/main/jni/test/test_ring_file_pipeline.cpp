@@ -0,0 +1,317 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: test_ring_file_pipeline.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+// host test of RingFileBufferedPipeline with synthetic frames and its sustained append speed
+
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+
+#include "RingFileBufferedPipeline.h"
+#include "test_common.h"
+
+#define FRAME_INTERVAL_NSEC 33333000LL	// 30fps, multiple of usec as capture_time is timeval
+#define T0 1000000000000LL
+
+static char ring_path[256];
+
+static inline uint8_t pattern(const uint32_t sequence, const size_t offset) {
+	return (uint8_t)(sequence * 13 + offset * 5 + (offset >> 9));
+}
+
+static void set_frame(uvc_frame_t *frame, const uint32_t sequence, const size_t bytes, const nsecs_t dtime) {
+	uvc_ensure_frame_size(frame, bytes);
+	uint8_t *p = (uint8_t *)frame->data;
+	for (size_t i = 0; i < bytes; i++) {
+		p[i] = pattern(sequence, i);
+	}
+	frame->actual_bytes = bytes;
+	frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	frame->width = 1920;
+	frame->height = 1080;
+	frame->step = 0;
+	frame->sequence = sequence;
+	frame->capture_time.tv_sec = dtime / 1000000000LL;
+	frame->capture_time.tv_usec = (dtime % 1000000000LL) / 1000;
+}
+
+static bool check_frame(const uvc_frame_t *frame, const uint32_t sequence, const size_t bytes) {
+	if ((frame->sequence != sequence) || (frame->actual_bytes != bytes)
+		|| (frame->frame_format != UVC_FRAME_FORMAT_MJPEG)
+		|| (frame->width != 1920) || (frame->height != 1080)) {
+		return false;
+	}
+	const uint8_t *p = (const uint8_t *)frame->data;
+	for (size_t i = 0; i < bytes; i++) {
+		if (p[i] != pattern(sequence, i)) return false;
+	}
+	return true;
+}
+
+static size_t frame_bytes(const uint32_t sequence) {
+	return 10000 + (sequence * 7919) % 10000;
+}
+
+static nsecs_t frame_dtime(const uint32_t sequence) {
+	return T0 + sequence * FRAME_INTERVAL_NSEC;
+}
+
+/**
+ * read all frames in the ring from the oldest one
+ * @return number of frames, -1 if any frame is broken or out of order
+ */
+static int read_all(RingFileBufferedPipeline &ring, uvc_frame_t *frame, uint32_t &first, uint32_t &last) {
+	nsecs_t after = 0, dtime;
+	int n = 0;
+	for (; !ring.readNext(after, frame, dtime); after = dtime, n++) {
+		if (n && (frame->sequence != last + 1)) return -1;
+		if (!check_frame(frame, frame->sequence, frame_bytes(frame->sequence))) return -1;
+		if (dtime != frame_dtime(frame->sequence)) return -1;
+		if (!n) first = frame->sequence;
+		last = frame->sequence;
+	}
+	return n;
+}
+
+static void test_append_and_read() {
+	RingFileBufferedPipeline ring(ring_path, 4, 1024 * 1024, 0);
+	EXPECT(ring.isOpened());
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	nsecs_t oldest, newest;
+	EXPECT_EQ(UVC_ERROR_NOT_FOUND, ring.getTimeRange(oldest, newest));
+	for (uint32_t i = 0; i < 100; i++) {
+		set_frame(frame, i, frame_bytes(i), frame_dtime(i));
+		EXPECT_EQ(0, ring.append(frame));
+	}
+	EXPECT_EQ(100, ring.getFrameCount());
+	EXPECT_EQ(0, ring.getTimeRange(oldest, newest));
+	EXPECT_EQ(frame_dtime(0), oldest);
+	EXPECT_EQ(frame_dtime(99), newest);
+	uint32_t first = 0, last = 0;
+	EXPECT_EQ(100, read_all(ring, frame, first, last));
+	EXPECT_EQ(0, first);
+	EXPECT_EQ(99, last);
+	uvc_free_frame(frame);
+}
+
+static void test_range_read() {
+	RingFileBufferedPipeline ring(ring_path, 4, 1024 * 1024, 0);
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	for (uint32_t i = 0; i < 50; i++) {
+		set_frame(frame, i, frame_bytes(i), frame_dtime(i));
+		ring.append(frame);
+	}
+	nsecs_t dtime;
+	// the first frame later than the time
+	EXPECT_EQ(0, ring.readNext(frame_dtime(10), frame, dtime));
+	EXPECT_EQ(11, frame->sequence);
+	EXPECT_EQ(0, ring.readNext(frame_dtime(10) - 1, frame, dtime));
+	EXPECT_EQ(10, frame->sequence);
+	EXPECT(check_frame(frame, 10, frame_bytes(10)));
+	EXPECT_EQ(0, ring.readNext(0, frame, dtime));
+	EXPECT_EQ(0, frame->sequence);
+	EXPECT_EQ(UVC_ERROR_NOT_FOUND, ring.readNext(frame_dtime(49), frame, dtime));
+	// capture_time of the read frame has the dtime
+	EXPECT_EQ(0, ring.readNext(frame_dtime(20), frame, dtime));
+	EXPECT_EQ(frame_dtime(21) / 1000000000LL, frame->capture_time.tv_sec);
+	EXPECT_EQ((frame_dtime(21) % 1000000000LL) / 1000, frame->capture_time.tv_usec);
+	uvc_free_frame(frame);
+}
+
+/**
+ * the oldest segment is overwritten when the ring is full
+ * and only the frames in the remaining segments are kept
+ */
+static void test_wrap_around() {
+	const uint32_t segment_num = 4, segment_bytes = 64 * 1024;
+	RingFileBufferedPipeline ring(ring_path, segment_num, segment_bytes, 0);
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	uint32_t first = 0, last = 0;
+	for (uint32_t i = 0; i < 500; i++) {
+		set_frame(frame, i, frame_bytes(i), frame_dtime(i));
+		EXPECT_EQ(0, ring.append(frame));
+		if (i % 37 == 0) {
+			const int n = read_all(ring, frame, first, last);
+			EXPECT_EQ(ring.getFrameCount(), n);
+			EXPECT_EQ(i, last);
+		}
+	}
+	const int n = read_all(ring, frame, first, last);
+	EXPECT_EQ(ring.getFrameCount(), n);
+	EXPECT_EQ(499, last);
+	// at least (segment_num - 1) segments of frames are kept
+	EXPECT(n >= (int)((segment_num - 1) * segment_bytes / (20000 + sizeof(ring_record_header_t))));
+	EXPECT(n <= (int)(segment_num * segment_bytes / 10000));
+	uvc_free_frame(frame);
+}
+
+static void test_keep_time() {
+	// keep 1 second
+	RingFileBufferedPipeline ring(ring_path, 4, 1024 * 1024, 1000000000LL);
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	for (uint32_t i = 0; i < 100; i++) {
+		set_frame(frame, i, frame_bytes(i), frame_dtime(i));
+		ring.append(frame);
+	}
+	nsecs_t oldest, newest;
+	EXPECT_EQ(0, ring.getTimeRange(oldest, newest));
+	EXPECT(newest - oldest <= 1000000000LL);
+	EXPECT(newest - oldest > 1000000000LL - FRAME_INTERVAL_NSEC);
+	uint32_t first = 0, last = 0;
+	EXPECT_EQ(ring.getFrameCount(), read_all(ring, frame, first, last));
+	EXPECT_EQ(99, last);
+	uvc_free_frame(frame);
+}
+
+static void test_unique_dtime() {
+	RingFileBufferedPipeline ring(ring_path, 4, 1024 * 1024, 0);
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	// same capture time and going back, dtime should be unique and increasing
+	const nsecs_t times[] = { T0, T0, T0, T0 - 1000000, T0 + 1000 };
+	for (uint32_t i = 0; i < 5; i++) {
+		set_frame(frame, i, 100, times[i]);
+		ring.append(frame);
+	}
+	nsecs_t after = 0, dtime, prev = 0;
+	int n = 0;
+	for (; !ring.readNext(after, frame, dtime); after = dtime, n++) {
+		EXPECT(dtime > prev);
+		EXPECT_EQ(n, frame->sequence);
+		prev = dtime;
+	}
+	EXPECT_EQ(5, n);
+	// no capture time, the current time is used
+	set_frame(frame, 5, 100, 0);
+	ring.append(frame);
+	nsecs_t oldest, newest;
+	ring.getTimeRange(oldest, newest);
+	EXPECT(newest > prev);
+	uvc_free_frame(frame);
+}
+
+static void test_too_large_frame() {
+	RingFileBufferedPipeline ring(ring_path, 4, 64 * 1024, 0);
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	set_frame(frame, 0, 1000, frame_dtime(0));
+	ring.append(frame);
+	set_frame(frame, 1, 64 * 1024, frame_dtime(1));
+	EXPECT_EQ(UVC_ERROR_NO_MEM, ring.append(frame));
+	EXPECT_EQ(1, ring.getFrameCount());
+	set_frame(frame, 1, 1000, frame_dtime(1));
+	EXPECT_EQ(0, ring.append(frame));
+	EXPECT_EQ(2, ring.getFrameCount());
+	EXPECT_EQ(UVC_ERROR_INVALID_PARAM, ring.append(NULL));
+	uvc_free_frame(frame);
+}
+
+static void test_clear() {
+	RingFileBufferedPipeline ring(ring_path, 4, 64 * 1024, 0);
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	for (uint32_t i = 0; i < 20; i++) {
+		set_frame(frame, i, frame_bytes(i), frame_dtime(i));
+		ring.append(frame);
+	}
+	ring.clear();
+	EXPECT_EQ(0, ring.getFrameCount());
+	nsecs_t oldest, newest, dtime;
+	EXPECT_EQ(UVC_ERROR_NOT_FOUND, ring.getTimeRange(oldest, newest));
+	EXPECT_EQ(UVC_ERROR_NOT_FOUND, ring.readNext(0, frame, dtime));
+	for (uint32_t i = 20; i < 30; i++) {
+		set_frame(frame, i, frame_bytes(i), frame_dtime(i));
+		ring.append(frame);
+	}
+	uint32_t first = 0, last = 0;
+	EXPECT_EQ(10, read_all(ring, frame, first, last));
+	EXPECT_EQ(20, first);
+	uvc_free_frame(frame);
+}
+
+/**
+ * frames queued to the pipeline are appended on its thread
+ */
+static void test_queue_frame() {
+	RingFileBufferedPipeline ring(ring_path, 4, 1024 * 1024, 0);
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	ring.start();
+	// the handler thread clears the queue when it starts
+	for (int i = 0; (i < 100) && (ring.getState() != PIPELINE_STATE_RUNNING); i++) {
+		usleep(1000);
+	}
+	for (uint32_t i = 0; i < 30; i++) {
+		set_frame(frame, i, frame_bytes(i), frame_dtime(i));
+		ring.queueFrame(frame);
+		usleep(2000);
+	}
+	for (int i = 0; (i < 100) && (ring.getFrameCount() < 30); i++) {
+		usleep(10000);
+	}
+	ring.stop();
+	uint32_t first = 0, last = 0;
+	EXPECT_EQ(30, read_all(ring, frame, first, last));
+	uvc_free_frame(frame);
+}
+
+/**
+ * sustained append speed of 1080p MJPEG sized frames into the default sized ring
+ */
+static void bench_append() {
+	RingFileBufferedPipeline ring(ring_path);
+	const size_t bytes = 200 * 1024;
+	const int frames = 3000;
+	uvc_frame_t *frame = uvc_allocate_frame(1);
+	set_frame(frame, 0, bytes, 0);
+	const uint64_t start = test_now_ns();
+	for (int i = 0; i < frames; i++) {
+		frame->sequence = i;
+		frame->capture_time.tv_sec = frame_dtime(i) / 1000000000LL;
+		frame->capture_time.tv_usec = (frame_dtime(i) % 1000000000LL) / 1000;
+		ring.append(frame);
+	}
+	const uint64_t elapsed = test_now_ns() - start;
+	printf("append %d frames of %zu bytes: %.1f MB/s, %.1f us/frame\n",
+		frames, bytes, (double)bytes * frames * 1000.0 / elapsed, elapsed / 1000.0 / frames);
+	uvc_free_frame(frame);
+}
+
+int main(int argc, char **argv) {
+	const char *tmpdir = getenv("TMPDIR");
+	snprintf(ring_path, sizeof(ring_path), "%s/test_ring_XXXXXX", tmpdir ? tmpdir : "/tmp");
+	const int fd = mkstemp(ring_path);
+	if (fd < 0) {
+		fprintf(stderr, "failed to create %s\n", ring_path);
+		return 1;
+	}
+	close(fd);
+	RUN_TEST(test_append_and_read);
+	RUN_TEST(test_range_read);
+	RUN_TEST(test_wrap_around);
+	RUN_TEST(test_keep_time);
+	RUN_TEST(test_unique_dtime);
+	RUN_TEST(test_too_large_frame);
+	RUN_TEST(test_clear);
+	RUN_TEST(test_queue_frame);
+	bench_append();
+	unlink(ring_path);
+	return TEST_RESULT();
+}
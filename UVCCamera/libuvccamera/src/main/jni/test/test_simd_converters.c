@@ -0,0 +1,335 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: test_simd_converters.c
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+// bit exactness of the SIMD kernels of frame.c against the scalar code, and their speed.
+// The kernels for the host cpu are tested, SSE2 on x86/x86_64 and NEON on arm64.
+
+#include <stdlib.h>
+#include <string.h>
+
+#include "libuvc/libuvc.h"
+#include "test_common.h"
+
+typedef uvc_error_t (*converter_t)(uvc_frame_t *in, uvc_frame_t *out);
+
+typedef struct test_converter {
+	const char *name;
+	converter_t func;
+	// width should be multiple of this, the scalar code of yuv420SP rounds up the width to multiple of 4
+	int width_align;
+	// output bytes of 2 pixels
+	int bytes2;
+} test_converter_t;
+
+static const test_converter_t converters[] = {
+	{ "uvc_yuyv2rgbx", uvc_yuyv2rgbx, 2, 8 },
+	{ "uvc_yuyv2rgb565", uvc_yuyv2rgb565, 2, 4 },
+	{ "uvc_yuyv2yuv420SP", uvc_yuyv2yuv420SP, 4, 3 },
+	{ "uvc_yuyv2iyuv420SP", uvc_yuyv2iyuv420SP, 4, 3 },
+	{ "uvc_any2rgbx", uvc_any2rgbx, 2, 8 },
+};
+#define NUM_CONVERTERS (sizeof(converters) / sizeof(converters[0]))
+
+static uint32_t seed = 1;
+
+static inline uint32_t next_random() {
+	seed = seed * 1103515245 + 12345;
+	return seed >> 8;
+}
+
+/**
+ * YUYV frame with random data, some of them are extreme values to check saturation
+ */
+static uvc_frame_t *random_yuyv(const int width, const int height, const int step) {
+	uvc_frame_t *frame = uvc_allocate_frame(step * height);
+	frame->width = width;
+	frame->height = height;
+	frame->step = step;
+	frame->frame_format = UVC_FRAME_FORMAT_YUYV;
+	uint8_t *p = (uint8_t *)frame->data;
+	for (size_t i = 0; i < frame->data_bytes; i++) {
+		const uint32_t r = next_random();
+		p[i] = (r & 0x700) ? (uint8_t)r : ((r & 1) ? 255 : 0);
+	}
+	return frame;
+}
+
+/**
+ * I420/NV12/NV21 frame with random data, step is the pitch of the Y plane(0 for width)
+ * and the chroma planes follow as uvc_yuv420_2rgbx expects
+ */
+static uvc_frame_t *random_yuv420(const enum uvc_frame_format format,
+	const int width, const int height, const int step) {
+
+	const int y_step = step ? step : width;
+	const int chroma_height = (height + 1) >> 1;
+	const size_t bytes = (size_t)y_step * height + (format == UVC_FRAME_FORMAT_I420
+		? (size_t)((y_step + 1) >> 1) * chroma_height * 2
+		: (size_t)((y_step + 1) & ~1) * chroma_height);
+	uvc_frame_t *frame = uvc_allocate_frame(bytes);
+	frame->width = width;
+	frame->height = height;
+	frame->step = step;
+	frame->frame_format = format;
+	uint8_t *p = (uint8_t *)frame->data;
+	for (size_t i = 0; i < bytes; i++) {
+		const uint32_t r = next_random();
+		p[i] = (r & 0x700) ? (uint8_t)r : ((r & 1) ? 255 : 0);
+	}
+	return frame;
+}
+
+/**
+ * @return 1 if the outputs with and without SIMD are same
+ */
+static int compare(const test_converter_t *conv, uvc_frame_t *in) {
+	// the converters work by 8 pixels and do not write the pixels after the last 8 pixels of the frame,
+	// the outputs are filled with same value so that those pixels do not differ
+	const size_t out_bytes = (size_t)in->width * in->height * conv->bytes2 / 2;
+	uvc_frame_t *scalar = uvc_allocate_frame(out_bytes);
+	uvc_frame_t *simd = uvc_allocate_frame(out_bytes);
+	memset(scalar->data, 0x5a, out_bytes);
+	memset(simd->data, 0x5a, out_bytes);
+	uvc_set_simd_enabled(0);
+	const uvc_error_t r1 = conv->func(in, scalar);
+	uvc_set_simd_enabled(1);
+	const uvc_error_t r2 = conv->func(in, simd);
+	int result = (r1 == UVC_SUCCESS) && (r2 == UVC_SUCCESS)
+		&& (scalar->data_bytes == simd->data_bytes)
+		&& !memcmp(scalar->data, simd->data, scalar->data_bytes);
+	if (!result) {
+		size_t pos = 0;
+		for (; (pos < out_bytes) && (((uint8_t *)scalar->data)[pos] == ((uint8_t *)simd->data)[pos]); pos++);
+		fprintf(stderr, "  %s differs at %dx%d step %d, offset %zu of %zu\n",
+			conv->name, in->width, in->height, (int)in->step, pos, scalar->data_bytes);
+	}
+	uvc_free_frame(scalar);
+	uvc_free_frame(simd);
+	return result;
+}
+
+static void test_common_sizes() {
+	static const int sizes[][2] = {
+		{ 160, 120 }, { 176, 144 }, { 320, 240 }, { 640, 480 }, { 800, 600 },
+		{ 1280, 720 }, { 1920, 1080 }, { 2592, 1944 },
+	};
+	for (size_t k = 0; k < NUM_CONVERTERS; k++) {
+		for (size_t i = 0; i < sizeof(sizes) / sizeof(sizes[0]); i++) {
+			uvc_frame_t *in = random_yuyv(sizes[i][0], sizes[i][1], sizes[i][0] * 2);
+			EXPECT(compare(&converters[k], in));
+			uvc_free_frame(in);
+		}
+	}
+}
+
+/**
+ * the widths that leave remainder for the scalar code after the SIMD kernel
+ */
+static void test_odd_widths() {
+	for (size_t k = 0; k < NUM_CONVERTERS; k++) {
+		const int align = converters[k].width_align;
+		for (int width = align; width <= 72; width += align) {
+			uvc_frame_t *in = random_yuyv(width, 6, width * 2);
+			EXPECT(compare(&converters[k], in));
+			uvc_free_frame(in);
+		}
+	}
+}
+
+static void test_random_sizes() {
+	for (int n = 0; n < 200; n++) {
+		const test_converter_t *conv = &converters[n % NUM_CONVERTERS];
+		const int width = (8 + next_random() % 1000) & ~(conv->width_align - 1);
+		const int height = 2 + (next_random() % 100) * 2;
+		uvc_frame_t *in = random_yuyv(width, height, width * 2);
+		EXPECT(compare(conv, in));
+		uvc_free_frame(in);
+	}
+}
+
+/**
+ * input with padding at the end of each line, rgbx/rgb565 converts line by line then
+ */
+static void test_padded_step() {
+	for (size_t k = 0; k < NUM_CONVERTERS; k++) {
+		uvc_frame_t *in = random_yuyv(640, 480, 640 * 2 + 64);
+		EXPECT(compare(&converters[k], in));
+		uvc_free_frame(in);
+	}
+}
+
+/**
+ * output frame that the caller owns with its own step,
+ * the pixels beyond the width should not be touched
+ */
+static void test_caller_owned_output() {
+	const int width = 100, height = 10, out_step = 128 * 4;
+	uvc_frame_t *in = random_yuyv(width, height, width * 2);
+	uint8_t *buf[2];
+	for (int i = 0; i < 2; i++) {
+		buf[i] = malloc(out_step * height);
+		memset(buf[i], 0x5a, out_step * height);
+		uvc_frame_t out;
+		memset(&out, 0, sizeof(out));
+		out.data = buf[i];
+		out.data_bytes = out_step * height;
+		out.step = out_step;
+		out.library_owns_data = 0;
+		uvc_set_simd_enabled(i);
+		EXPECT_EQ(UVC_SUCCESS, uvc_yuyv2rgbx(in, &out));
+	}
+	EXPECT(!memcmp(buf[0], buf[1], out_step * height));
+	int touched = 0;
+	for (int y = 0; y < height; y++) {
+		// converters work by 8 pixels, 104 pixels are written for 100 pixels
+		for (int x = 104 * 4; x < out_step; x++) {
+			if (buf[1][y * out_step + x] != 0x5a) touched++;
+		}
+	}
+	EXPECT_EQ(0, touched);
+	free(buf[0]);
+	free(buf[1]);
+	uvc_free_frame(in);
+}
+
+static const test_converter_t yuv420_2rgbx = { "uvc_yuv420_2rgbx", uvc_yuv420_2rgbx, 1, 8 };
+static const enum uvc_frame_format yuv420_formats[] = {
+	UVC_FRAME_FORMAT_I420, UVC_FRAME_FORMAT_NV12, UVC_FRAME_FORMAT_NV21,
+};
+#define NUM_YUV420_FORMATS (sizeof(yuv420_formats) / sizeof(yuv420_formats[0]))
+
+/**
+ * I420/NV12/NV21 to RGBX with and without SIMD, including the widths
+ * that leave remainder for the scalar code and odd sizes
+ */
+static void test_yuv420_2rgbx() {
+	static const int sizes[][2] = { { 640, 480 }, { 1920, 1080 }, { 1, 1 }, { 33, 7 }, { 250, 3 } };
+	for (size_t k = 0; k < NUM_YUV420_FORMATS; k++) {
+		for (size_t i = 0; i < sizeof(sizes) / sizeof(sizes[0]); i++) {
+			uvc_frame_t *in = random_yuv420(yuv420_formats[k], sizes[i][0], sizes[i][1], 0);
+			EXPECT(compare(&yuv420_2rgbx, in));
+			uvc_free_frame(in);
+		}
+		for (int width = 2; width <= 72; width += 2) {
+			uvc_frame_t *in = random_yuv420(yuv420_formats[k], width, 6, 0);
+			EXPECT(compare(&yuv420_2rgbx, in));
+			uvc_free_frame(in);
+		}
+	}
+}
+
+/**
+ * I420/NV12/NV21 input with padding at the end of each row of each plane
+ * should give the same RGBX as the tightly packed one
+ */
+static void test_yuv420_padded_step() {
+	const int width = 640, height = 480, step = width + 64;
+	for (size_t k = 0; k < NUM_YUV420_FORMATS; k++) {
+		const int planar = yuv420_formats[k] == UVC_FRAME_FORMAT_I420;
+		uvc_frame_t *padded = random_yuv420(yuv420_formats[k], width, height, step);
+		uvc_frame_t *packed = random_yuv420(yuv420_formats[k], width, height, 0);
+		// copy each row of each plane into the packed frame
+		const int rows[3] = { height, height / 2, planar ? height / 2 : 0 };
+		const int row_bytes[3] = { width, planar ? width / 2 : width, width / 2 };
+		const int pitch[3] = { step, planar ? step / 2 : step, step / 2 };
+		const uint8_t *src = (const uint8_t *)padded->data;
+		uint8_t *dst = (uint8_t *)packed->data;
+		for (int plane = 0; plane < 3; plane++) {
+			for (int y = 0; y < rows[plane]; y++) {
+				memcpy(dst, src, row_bytes[plane]);
+				src += pitch[plane];
+				dst += row_bytes[plane];
+			}
+		}
+		EXPECT(compare(&yuv420_2rgbx, padded));
+		uvc_frame_t *out[2];
+		for (int i = 0; i < 2; i++) {
+			out[i] = uvc_allocate_frame(width * height * 4);
+			EXPECT_EQ(UVC_SUCCESS, uvc_yuv420_2rgbx(i ? padded : packed, out[i]));
+		}
+		EXPECT(!memcmp(out[0]->data, out[1]->data, width * height * 4));
+		uvc_free_frame(out[0]);
+		uvc_free_frame(out[1]);
+		uvc_free_frame(packed);
+		uvc_free_frame(padded);
+	}
+}
+
+static void bench_converters() {
+	const int width = 1920, height = 1080, frames = 100;
+	uvc_frame_t *in = random_yuyv(width, height, width * 2);
+	uvc_frame_t *out = uvc_allocate_frame(width * height * 4);
+	printf("%dx%d YUYV, ms/frame\n", width, height);
+	for (size_t k = 0; k < NUM_CONVERTERS; k++) {
+		double ms[2];
+		for (int enabled = 0; enabled < 2; enabled++) {
+			uvc_set_simd_enabled(enabled);
+			converters[k].func(in, out);
+			const uint64_t start = test_now_ns();
+			for (int i = 0; i < frames; i++) {
+				converters[k].func(in, out);
+			}
+			ms[enabled] = (test_now_ns() - start) / 1e6 / frames;
+		}
+		printf("  %-20s scalar %6.3f, %s %6.3f, x%.2f\n",
+			converters[k].name, ms[0], uvc_get_simd_name(), ms[1], ms[0] / ms[1]);
+	}
+	for (size_t k = 0; k < NUM_YUV420_FORMATS; k += 2) {
+		uvc_frame_t *yuv420 = random_yuv420(yuv420_formats[k], width, height, 0);
+		double ms[2];
+		for (int enabled = 0; enabled < 2; enabled++) {
+			uvc_set_simd_enabled(enabled);
+			uvc_yuv420_2rgbx(yuv420, out);
+			const uint64_t start = test_now_ns();
+			for (int i = 0; i < frames; i++) {
+				uvc_yuv420_2rgbx(yuv420, out);
+			}
+			ms[enabled] = (test_now_ns() - start) / 1e6 / frames;
+		}
+		printf("  %-20s scalar %6.3f, %s %6.3f, x%.2f\n",
+			k ? "uvc_yuv420_2rgbx(NV)" : "uvc_yuv420_2rgbx(I)", ms[0], uvc_get_simd_name(), ms[1], ms[0] / ms[1]);
+		uvc_free_frame(yuv420);
+	}
+	uvc_set_simd_enabled(1);
+	uvc_free_frame(out);
+	uvc_free_frame(in);
+}
+
+int main(int argc, char **argv) {
+	uvc_set_simd_enabled(1);
+	if (!strcmp(uvc_get_simd_name(), "none")) {
+		printf("no SIMD kernels for this cpu, nothing to compare\n");
+		return 0;
+	}
+	printf("SIMD kernels: %s\n", uvc_get_simd_name());
+	RUN_TEST(test_common_sizes);
+	RUN_TEST(test_odd_widths);
+	RUN_TEST(test_random_sizes);
+	RUN_TEST(test_padded_step);
+	RUN_TEST(test_caller_owned_output);
+	RUN_TEST(test_yuv420_2rgbx);
+	RUN_TEST(test_yuv420_padded_step);
+	bench_converters();
+	return TEST_RESULT();
+}
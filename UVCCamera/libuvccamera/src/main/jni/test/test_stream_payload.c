@@ -0,0 +1,528 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: test_stream_payload.c
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+// host harness that feeds payload packets through _uvc_process_payload
+// without USB device, checks the ownership transfer mode(uvc_stream_set_frame_pool)
+// and compares the time of the hand-off with the copying mode.
+//   test_stream_payload [payloads.bin]
+// payloads.bin is optional recorded payloads, each payload is 4 bytes little endian length
+// and the payload itself(with the UVC payload header) as it came from the transfer.
+
+#include <stdlib.h>
+#include <string.h>
+
+// static functions of stream.c are tested directly, this is linked without stream.o
+#include "libuvc/src/stream.c"
+#include "test_common.h"
+
+#define POOL_MAX 16
+#define PACKET_BYTES 3072
+#define HEADER_BYTES 12
+
+typedef struct test_pool {
+	uvc_frame_t *frames[POOL_MAX];
+	int num_free;
+	int outstanding;
+	int empty_count;
+	// the pool must be called without the stream lock, see uvc_stream_set_frame_pool
+	pthread_mutex_t *stream_lock;
+	int locked_calls;
+} test_pool_t;
+
+static void check_unlocked(test_pool_t *pool) {
+	if (pool->stream_lock) {
+		if (pthread_mutex_trylock(pool->stream_lock)) {
+			pool->locked_calls++;
+		} else {
+			pthread_mutex_unlock(pool->stream_lock);
+		}
+	}
+}
+
+static uvc_frame_t *pool_get(size_t data_bytes, void *user_ptr) {
+	test_pool_t *pool = (test_pool_t *)user_ptr;
+	check_unlocked(pool);
+	if (!pool->num_free) {
+		pool->empty_count++;
+		return NULL;
+	}
+	pool->outstanding++;
+	return pool->frames[--pool->num_free];
+}
+
+static void pool_recycle(uvc_frame_t *frame, void *user_ptr) {
+	test_pool_t *pool = (test_pool_t *)user_ptr;
+	check_unlocked(pool);
+	pool->outstanding--;
+	pool->frames[pool->num_free++] = frame;
+}
+
+static void pool_init(test_pool_t *pool, const int num, const size_t bytes) {
+	memset(pool, 0, sizeof(*pool));
+	for (int i = 0; i < num; i++) {
+		pool->frames[pool->num_free++] = uvc_allocate_frame(bytes);
+	}
+}
+
+static void pool_free(test_pool_t *pool) {
+	for (int i = 0; i < pool->num_free; i++) {
+		uvc_free_frame(pool->frames[i]);
+	}
+	pool->num_free = 0;
+}
+
+typedef struct test_stream {
+	uvc_device_handle_t devh;
+	uvc_stream_handle_t strmh;
+	test_pool_t pool;
+} test_stream_t;
+
+/**
+ * set up stream handle as uvc_stream_start does, without device and transfers
+ * @param pool_frames number of the frames in the pool, 0 for the copying mode
+ */
+static void stream_init(test_stream_t *s, const int pool_frames, const size_t frame_buf_size) {
+	memset(s, 0, sizeof(*s));
+	s->strmh.devh = &s->devh;
+	s->strmh.frame_buf_size = frame_buf_size;
+	pthread_mutex_init(&s->strmh.cb_mutex, NULL);
+	pthread_cond_init(&s->strmh.cb_cond, NULL);
+	if (pool_frames) {
+		pool_init(&s->pool, pool_frames, frame_buf_size);
+		s->pool.stream_lock = &s->strmh.cb_mutex;
+		uvc_stream_set_frame_pool(&s->strmh, pool_get, pool_recycle, &s->pool);
+		s->strmh.outframe = _uvc_get_pool_frame(&s->strmh);
+		s->strmh.outbuf = s->strmh.outframe->data;
+		s->strmh.size_buf = s->strmh.outframe->data_bytes;
+	} else {
+		s->strmh.outbuf = malloc(frame_buf_size);
+		s->strmh.holdbuf = malloc(frame_buf_size);
+		s->strmh.size_buf = frame_buf_size;
+	}
+	s->strmh.running = 1;
+}
+
+static void stream_release(test_stream_t *s) {
+	s->strmh.running = 0;
+	if (s->strmh.pool_get) {
+		uvc_stream_set_frame_pool(&s->strmh, NULL, NULL, NULL);
+		// the copying mode buffers are allocated when returning to the copying mode
+	}
+	EXPECT_EQ(0, s->pool.locked_calls);
+	free(s->strmh.outbuf);
+	free(s->strmh.holdbuf);
+	pool_free(&s->pool);
+	pthread_cond_destroy(&s->strmh.cb_cond);
+	pthread_mutex_destroy(&s->strmh.cb_mutex);
+}
+
+/**
+ * take the published frame as _uvc_user_caller_pool does
+ * @return NULL if no frame is published
+ */
+static uvc_frame_t *take_frame(test_stream_t *s) {
+	uvc_frame_t *frame;
+	pthread_mutex_lock(&s->strmh.cb_mutex);
+	{
+		frame = s->strmh.holdframe;
+		s->strmh.holdframe = NULL;
+		if (frame) {
+			frame->actual_bytes = !s->strmh.hold_bfh_err ? s->strmh.hold_bytes : 0;
+			frame->sequence = s->strmh.hold_seq;
+		}
+	}
+	pthread_mutex_unlock(&s->strmh.cb_mutex);
+	return frame;
+}
+
+static inline uint8_t pattern(const uint32_t index, const size_t offset) {
+	return (uint8_t)(index * 31 + offset * 7 + (offset >> 8));
+}
+
+static int check_pattern(const uvc_frame_t *frame, const uint32_t index, const size_t bytes) {
+	if (frame->actual_bytes != bytes) return 0;
+	const uint8_t *p = (const uint8_t *)frame->data;
+	for (size_t i = 0; i < bytes; i++) {
+		if (p[i] != pattern(index, i)) return 0;
+	}
+	return 1;
+}
+
+/**
+ * feed one frame of the pattern as payloads of PACKET_BYTES with PTS and SCR
+ * @param eof set EOF bit on the last payload
+ */
+static void feed_frame(test_stream_t *s, const uint32_t index, const size_t bytes, const int eof) {
+	uint8_t packet[PACKET_BYTES];
+	const uint8_t fid = index & 1;
+	size_t offset = 0;
+	while (offset < bytes) {
+		size_t len = bytes - offset;
+		if (len > PACKET_BYTES - HEADER_BYTES)
+			len = PACKET_BYTES - HEADER_BYTES;
+		packet[0] = HEADER_BYTES;
+		packet[1] = fid | UVC_STREAM_PTS | UVC_STREAM_SCR | UVC_STREAM_EOH
+			| (eof && (offset + len == bytes) ? UVC_STREAM_EOF : 0);
+		// PTS and SCR(4 bytes of source time clock and 2 bytes of SOF counter)
+		const uint32_t pts = 1000 + index, scr = 2000 + index;
+		memcpy(packet + 2, &pts, 4);
+		memcpy(packet + 6, &scr, 4);
+		packet[10] = packet[11] = 0;
+		for (size_t i = 0; i < len; i++) {
+			packet[HEADER_BYTES + i] = pattern(index, offset + i);
+		}
+		_uvc_process_payload(&s->strmh, packet, HEADER_BYTES + len);
+		offset += len;
+	}
+}
+
+static void test_eof_publishes_frame() {
+	test_stream_t s;
+	stream_init(&s, 4, 64 * 1024);
+	EXPECT(!take_frame(&s));
+	for (uint32_t i = 0; i < 3; i++) {
+		feed_frame(&s, i, 50000, 1);
+		uvc_frame_t *frame = take_frame(&s);
+		EXPECT(frame != NULL);
+		if (frame) {
+			EXPECT(check_pattern(frame, i, 50000));
+			EXPECT_EQ(i, frame->sequence);
+			EXPECT_EQ(1000 + i, s.strmh.hold_pts);
+			EXPECT_EQ(2000 + i, s.strmh.hold_last_scr);
+			pool_recycle(frame, &s.pool);
+		}
+		EXPECT(!take_frame(&s));
+	}
+	// only the working frame is out of the pool
+	EXPECT_EQ(1, s.pool.outstanding);
+	stream_release(&s);
+	EXPECT_EQ(0, s.pool.outstanding);
+}
+
+static void test_fid_toggle_publishes_frame() {
+	test_stream_t s;
+	stream_init(&s, 4, 64 * 1024);
+	// camera that does not set EOF, the previous frame is published when FID changes
+	feed_frame(&s, 0, 40000, 0);
+	EXPECT(!take_frame(&s));
+	feed_frame(&s, 1, 30000, 0);
+	uvc_frame_t *frame = take_frame(&s);
+	EXPECT(frame != NULL);
+	if (frame) {
+		EXPECT(check_pattern(frame, 0, 40000));
+		pool_recycle(frame, &s.pool);
+	}
+	feed_frame(&s, 2, 20000, 0);
+	frame = take_frame(&s);
+	EXPECT(frame != NULL);
+	if (frame) {
+		EXPECT(check_pattern(frame, 1, 30000));
+		pool_recycle(frame, &s.pool);
+	}
+	stream_release(&s);
+	EXPECT_EQ(0, s.pool.outstanding);
+}
+
+static void test_drop_oldest() {
+	test_stream_t s;
+	stream_init(&s, 4, 64 * 1024);
+	// consumer is too slow, only the latest frame is kept and the others go back to the pool
+	for (uint32_t i = 0; i < 10; i++) {
+		feed_frame(&s, i, 10000 + i, 1);
+		EXPECT_EQ(2, s.pool.outstanding);
+	}
+	uvc_frame_t *frame = take_frame(&s);
+	EXPECT(frame != NULL);
+	if (frame) {
+		EXPECT(check_pattern(frame, 9, 10009));
+		EXPECT_EQ(9, frame->sequence);
+		pool_recycle(frame, &s.pool);
+	}
+	EXPECT_EQ(0, s.pool.empty_count);
+	stream_release(&s);
+	EXPECT_EQ(0, s.pool.outstanding);
+}
+
+static void test_empty_pool_reuses_working_frame() {
+	test_stream_t s;
+	stream_init(&s, 2, 64 * 1024);
+	feed_frame(&s, 0, 10000, 1);
+	// consumer holds the frame, the pool is empty now
+	uvc_frame_t *held = take_frame(&s);
+	EXPECT(held != NULL);
+	EXPECT_EQ(2, s.pool.outstanding);
+	feed_frame(&s, 1, 10000, 1);
+	feed_frame(&s, 2, 10000, 1);
+	// the frames are discarded and the working frame is reused
+	EXPECT(!take_frame(&s));
+	EXPECT_EQ(2, s.pool.empty_count);
+	EXPECT(check_pattern(held, 0, 10000));
+	pool_recycle(held, &s.pool);
+	feed_frame(&s, 3, 12345, 1);
+	uvc_frame_t *frame = take_frame(&s);
+	EXPECT(frame != NULL);
+	if (frame) {
+		EXPECT(check_pattern(frame, 3, 12345));
+		// sequence counts the discarded frames too
+		EXPECT_EQ(3, frame->sequence);
+		pool_recycle(frame, &s.pool);
+	}
+	stream_release(&s);
+	EXPECT_EQ(0, s.pool.outstanding);
+}
+
+static void test_grow() {
+	test_stream_t s;
+	const size_t initial = 64 * 1024;
+	stream_init(&s, 4, initial);
+	// exactly fills the frame, should not grow
+	feed_frame(&s, 0, initial, 1);
+	EXPECT_EQ(initial, s.strmh.frame_buf_size);
+	uvc_frame_t *frame = take_frame(&s);
+	EXPECT(frame && check_pattern(frame, 0, initial));
+	if (frame) pool_recycle(frame, &s.pool);
+	// overflows, the received data should be moved to the larger frame
+	feed_frame(&s, 1, 300000, 1);
+	EXPECT(s.strmh.frame_buf_size >= 300000);
+	EXPECT(s.strmh.frame_buf_size <= LIBUVC_XFER_BUF_SIZE);
+	frame = take_frame(&s);
+	EXPECT(frame && check_pattern(frame, 1, 300000));
+	if (frame) pool_recycle(frame, &s.pool);
+	// following frames are assembled into the larger frames without growing again
+	const size_t grown = s.strmh.frame_buf_size;
+	EXPECT(s.strmh.size_buf >= grown);
+	feed_frame(&s, 2, 290000, 1);
+	EXPECT_EQ(grown, s.strmh.frame_buf_size);
+	frame = take_frame(&s);
+	EXPECT(frame && check_pattern(frame, 2, 290000));
+	if (frame) pool_recycle(frame, &s.pool);
+	EXPECT_EQ(1, s.pool.outstanding);
+	stream_release(&s);
+	EXPECT_EQ(0, s.pool.outstanding);
+}
+
+static void test_too_large_frame() {
+	test_stream_t s;
+	stream_init(&s, 4, 64 * 1024);
+	feed_frame(&s, 0, LIBUVC_XFER_BUF_SIZE + 100000, 1);
+	// the frame is dropped as error
+	EXPECT(!take_frame(&s));
+	EXPECT(s.strmh.frame_buf_size <= LIBUVC_XFER_BUF_SIZE);
+	EXPECT_EQ(0, s.strmh.bfh_err);
+	// and the stream recovers on next frame
+	feed_frame(&s, 1, 100000, 1);
+	uvc_frame_t *frame = take_frame(&s);
+	EXPECT(frame && check_pattern(frame, 1, 100000));
+	if (frame) pool_recycle(frame, &s.pool);
+	stream_release(&s);
+	EXPECT_EQ(0, s.pool.outstanding);
+}
+
+static void test_bogus_header() {
+	test_stream_t s;
+	stream_init(&s, 4, 64 * 1024);
+	feed_frame(&s, 0, 5000, 0);
+	// header_len is larger than the payload
+	const uint8_t bogus[] = { 40, UVC_STREAM_EOH, 1, 2, 3 };
+	_uvc_process_payload(&s.strmh, bogus, sizeof(bogus));
+	EXPECT(s.strmh.bfh_err & UVC_STREAM_ERR);
+	// EOF of the broken frame, it is not published
+	const uint8_t eof[] = { 2, UVC_STREAM_EOH | UVC_STREAM_EOF, 0xaa };
+	_uvc_process_payload(&s.strmh, eof, sizeof(eof));
+	EXPECT(!take_frame(&s));
+	EXPECT_EQ(1, s.pool.outstanding);
+	// empty payload and payload without header are ignored
+	_uvc_process_payload(&s.strmh, eof, 0);
+	_uvc_process_payload(&s.strmh, NULL, 10);
+	feed_frame(&s, 1, 5000, 1);
+	uvc_frame_t *frame = take_frame(&s);
+	EXPECT(frame && check_pattern(frame, 1, 5000));
+	if (frame) pool_recycle(frame, &s.pool);
+	stream_release(&s);
+	EXPECT_EQ(0, s.pool.outstanding);
+}
+
+static void test_truncated_pts() {
+	test_stream_t s;
+	stream_init(&s, 4, 64 * 1024);
+	// PTS and SCR bits are set but the header does not have them
+	const uint8_t packet[] = { 2, UVC_STREAM_EOH | UVC_STREAM_PTS | UVC_STREAM_SCR | UVC_STREAM_EOF, 1, 2, 3, 4 };
+	_uvc_process_payload(&s.strmh, packet, sizeof(packet));
+	uvc_frame_t *frame = take_frame(&s);
+	EXPECT(frame != NULL);
+	if (frame) {
+		EXPECT_EQ(4, frame->actual_bytes);
+		EXPECT_EQ(0, s.strmh.hold_pts);
+		EXPECT_EQ(0, s.strmh.hold_last_scr);
+		pool_recycle(frame, &s.pool);
+	}
+	stream_release(&s);
+	EXPECT_EQ(0, s.pool.outstanding);
+}
+
+static void test_copying_mode() {
+	test_stream_t s;
+	stream_init(&s, 0, 64 * 1024);
+	feed_frame(&s, 0, 200000, 1);
+	EXPECT_EQ(0, s.strmh.hold_bfh_err);
+	EXPECT_EQ(200000, s.strmh.hold_bytes);
+	int ok = 1;
+	for (size_t i = 0; i < 200000; i++) {
+		if (s.strmh.holdbuf[i] != pattern(0, i)) {
+			ok = 0;
+			break;
+		}
+	}
+	EXPECT(ok);
+	stream_release(&s);
+}
+
+/**
+ * replay recorded payloads, the frames should come back balanced to the pool
+ */
+static int replay(const char *path) {
+	FILE *fp = fopen(path, "rb");
+	if (!fp) {
+		fprintf(stderr, "failed to open %s\n", path);
+		return 1;
+	}
+	test_stream_t s;
+	stream_init(&s, 4, 64 * 1024);
+	uint8_t *payload = malloc(LIBUVC_XFER_BUF_SIZE);
+	uint32_t len;
+	size_t payloads = 0, bytes = 0, frames = 0, errors = 0;
+	uint64_t elapsed = 0;
+	while ((fread(&len, 4, 1, fp) == 1) && (len <= LIBUVC_XFER_BUF_SIZE)
+		&& (fread(payload, 1, len, fp) == len)) {
+
+		if ((len >= 2) && (payload[0] >= 2) && (payload[0] <= len) && (payload[1] & UVC_STREAM_ERR)) {
+			// error bit makes stream.c clear the halt of the endpoint that does not exist here
+			errors++;
+			continue;
+		}
+		const uint64_t start = test_now_ns();
+		_uvc_process_payload(&s.strmh, payload, len);
+		elapsed += test_now_ns() - start;
+		payloads++;
+		bytes += len;
+		uvc_frame_t *frame = take_frame(&s);
+		if (frame) {
+			if (frame->actual_bytes) frames++;
+			pool_recycle(frame, &s.pool);
+		}
+	}
+	fclose(fp);
+	free(payload);
+	EXPECT_EQ(1, s.pool.outstanding);
+	stream_release(&s);
+	EXPECT_EQ(0, s.pool.outstanding);
+	printf("replay %s: %zu payloads(%zu with error bit skipped), %zu bytes, %zu frames, %.1f MB/s\n",
+		path, payloads, errors, bytes, frames, elapsed ? bytes * 1000.0 / elapsed : 0.0);
+	return 0;
+}
+
+/**
+ * build payloads of one frame of the pattern as feed_frame does
+ * @return number of the payloads, each has PACKET_BYTES bytes except the last one
+ */
+static size_t build_payloads(uint8_t *dst, size_t *last_len, const uint32_t index, const size_t bytes) {
+	size_t offset = 0, n = 0;
+	while (offset < bytes) {
+		uint8_t *packet = dst + n * PACKET_BYTES;
+		size_t len = bytes - offset;
+		if (len > PACKET_BYTES - HEADER_BYTES)
+			len = PACKET_BYTES - HEADER_BYTES;
+		memset(packet, 0, HEADER_BYTES);
+		packet[0] = HEADER_BYTES;
+		packet[1] = (index & 1) | UVC_STREAM_EOH | ((offset + len == bytes) ? UVC_STREAM_EOF : 0);
+		for (size_t i = 0; i < len; i++) {
+			packet[HEADER_BYTES + i] = pattern(index, offset + i);
+		}
+		*last_len = HEADER_BYTES + len;
+		offset += len;
+		n++;
+	}
+	return n;
+}
+
+/**
+ * time of assembling 1080p YUYV frames and handing them to the consumer,
+ * the copying mode copies holdbuf into the user frame as _uvc_populate_frame does
+ */
+static void bench_hand_off() {
+	const size_t bytes = 1920 * 1080 * 2;
+	const int frames = 300;
+	const size_t max_payloads = bytes / (PACKET_BYTES - HEADER_BYTES) + 1;
+	uint8_t *payloads[2];
+	size_t num_payloads[2], last_len[2];
+	for (int i = 0; i < 2; i++) {
+		payloads[i] = malloc(max_payloads * PACKET_BYTES);
+		num_payloads[i] = build_payloads(payloads[i], &last_len[i], i, bytes);
+	}
+	for (int pool_mode = 0; pool_mode < 2; pool_mode++) {
+		test_stream_t s;
+		stream_init(&s, pool_mode ? 4 : 0, bytes);
+		uvc_frame_t *user_frame = uvc_allocate_frame(bytes);
+		const uint64_t start = test_now_ns();
+		for (int i = 0; i < frames; i++) {
+			const int k = i & 1;
+			for (size_t j = 0; j < num_payloads[k]; j++) {
+				_uvc_process_payload(&s.strmh, payloads[k] + j * PACKET_BYTES,
+					j + 1 < num_payloads[k] ? PACKET_BYTES : last_len[k]);
+			}
+			if (pool_mode) {
+				uvc_frame_t *frame = take_frame(&s);
+				if (frame) pool_recycle(frame, &s.pool);
+			} else {
+				pthread_mutex_lock(&s.strmh.cb_mutex);
+				memcpy(user_frame->data, s.strmh.holdbuf, s.strmh.hold_bytes);
+				pthread_mutex_unlock(&s.strmh.cb_mutex);
+			}
+		}
+		const uint64_t elapsed = test_now_ns() - start;
+		printf("%s mode, 1920x1080 YUYV: %.3f ms/frame\n",
+			pool_mode ? "ownership transfer" : "copying", elapsed / 1e6 / frames);
+		uvc_free_frame(user_frame);
+		stream_release(&s);
+	}
+	free(payloads[0]);
+	free(payloads[1]);
+}
+
+int main(int argc, char **argv) {
+	RUN_TEST(test_eof_publishes_frame);
+	RUN_TEST(test_fid_toggle_publishes_frame);
+	RUN_TEST(test_drop_oldest);
+	RUN_TEST(test_empty_pool_reuses_working_frame);
+	RUN_TEST(test_grow);
+	RUN_TEST(test_too_large_frame);
+	RUN_TEST(test_bogus_header);
+	RUN_TEST(test_truncated_pts);
+	RUN_TEST(test_copying_mode);
+	for (int i = 1; i < argc; i++) {
+		replay(argv[i]);
+	}
+	bench_hand_off();
+	return TEST_RESULT();
+}
@@ -0,0 +1,426 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: test_watermark.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+// host test of TimeWatermark with synthetic frames
+
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <string>
+#include <vector>
+
+#include "TimeWatermark.h"
+#include "test_common.h"
+
+// same layout as TimeWatermark::configure
+struct Layout {
+	int cellWidth, cellHeight, posX, posY, stripWidth;
+
+	Layout(const int height) {
+		int scale = height / 180;
+		if (scale < 1) scale = 1;
+		cellWidth = 8 * scale;
+		cellHeight = 9 * scale;
+		posX = (cellHeight / 2) & ~1;
+		posY = cellHeight / 2;
+		stripWidth = cellWidth * WATERMARK_TEXT_LENGTH;
+	}
+
+	bool inside(const int x, const int y) const {
+		return (x >= posX) && (x < posX + stripWidth) && (y >= posY) && (y < posY + cellHeight);
+	}
+};
+
+struct TestFrame {
+	std::vector<uint8_t> buf;
+	uvc_frame_t frame;
+
+	TestFrame(const uvc_frame_format format, const int width, const int height, const int step = 0) {
+		const size_t bytes = format == UVC_FRAME_FORMAT_YUYV
+			? (size_t)(step ? step : width * 2) * height
+			: (size_t)(step ? step : width) * height * 3 / 2;
+		buf.resize(bytes);
+		// pattern that never equals the values the watermark writes
+		for (size_t i = 0; i < bytes; i++) {
+			buf[i] = 40 + (uint8_t)((i * 7) % 64);
+		}
+		memset(&frame, 0, sizeof(frame));
+		frame.data = &buf[0];
+		frame.data_bytes = frame.actual_bytes = bytes;
+		frame.width = width;
+		frame.height = height;
+		frame.step = step;
+		frame.frame_format = format;
+	}
+
+	uint8_t original(const size_t i) const {
+		return 40 + (uint8_t)((i * 7) % 64);
+	}
+};
+
+static time_t make_time(const bool local, const int year, const int month, const int day, const int hour, const int min, const int sec) {
+	struct tm t;
+	memset(&t, 0, sizeof(t));
+	t.tm_year = year - 1900;
+	t.tm_mon = month - 1;
+	t.tm_mday = day;
+	t.tm_hour = hour;
+	t.tm_min = min;
+	t.tm_sec = sec;
+	t.tm_isdst = -1;
+	return local ? mktime(&t) : timegm(&t);
+}
+
+static time_t utc(const int year, const int month, const int day, const int hour, const int min, const int sec) {
+	return make_time(false, year, month, day, hour, min, sec);
+}
+
+static void copy_cell(const TestFrame &f, const Layout &l, const int index, std::vector<uint8_t> &dst) {
+	const int step = f.frame.step ? f.frame.step : f.frame.width * 2;
+	dst.clear();
+	for (int y = 0; y < l.cellHeight; y++) {
+		const uint8_t *row = &f.buf[(l.posY + y) * step + (l.posX + index * l.cellWidth) * 2];
+		for (int x = 0; x < l.cellWidth; x++) {
+			// the outline can spill over to the next cells, so only the foreground is compared
+			dst.push_back(row[x * 2] == 235);
+		}
+	}
+}
+
+/**
+ * read back the text by matching each cell with the cells of reference time
+ * that has all digits, "2034-05-06 17:28:09" in local time
+ */
+static std::string read_text(const TestFrame &f) {
+	const Layout l(f.frame.height);
+	static const char *REFERENCE = "2034-05-06 17:28:09";
+	TestFrame ref(UVC_FRAME_FORMAT_YUYV, f.frame.width, f.frame.height);
+	TimeWatermark w;
+	w.apply(&ref.frame, make_time(true, 2034, 5, 6, 17, 28, 9));
+	std::vector<uint8_t> cell, ref_cell;
+	std::string result;
+	for (int i = 0; i < WATERMARK_TEXT_LENGTH; i++) {
+		copy_cell(f, l, i, cell);
+		char c = '?';
+		for (int j = 0; j < WATERMARK_TEXT_LENGTH; j++) {
+			copy_cell(ref, l, j, ref_cell);
+			if (cell == ref_cell) {
+				c = REFERENCE[j];
+				break;
+			}
+		}
+		result += c;
+	}
+	return result;
+}
+
+static std::string format_local(const time_t sec) {
+	struct tm t;
+	localtime_r(&sec, &t);
+	char buf[64];
+	strftime(buf, sizeof(buf), "%Y-%m-%d %H:%M:%S", &t);
+	return buf;
+}
+
+static void test_unsupported_format() {
+	TestFrame f(UVC_FRAME_FORMAT_MJPEG, 640, 480);
+	TimeWatermark w;
+	EXPECT_EQ(UVC_ERROR_NOT_SUPPORTED, w.apply(&f.frame, 0));
+	EXPECT_EQ(UVC_ERROR_NOT_SUPPORTED, w.apply(NULL, 0));
+	f.frame.frame_format = UVC_FRAME_FORMAT_RGBX;
+	EXPECT_EQ(UVC_ERROR_NOT_SUPPORTED, w.apply(&f.frame, 0));
+	for (size_t i = 0; i < f.buf.size(); i++) {
+		if (f.buf[i] != f.original(i)) {
+			EXPECT(!"unsupported frame was modified");
+			break;
+		}
+	}
+}
+
+static void test_too_small_frame() {
+	TestFrame f(UVC_FRAME_FORMAT_YUYV, 120, 16);
+	TimeWatermark w;
+	EXPECT_EQ(UVC_ERROR_INVALID_PARAM, w.apply(&f.frame, 0));
+	for (size_t i = 0; i < f.buf.size(); i++) {
+		if (f.buf[i] != f.original(i)) {
+			EXPECT(!"too small frame was modified");
+			break;
+		}
+	}
+}
+
+static void test_yuyv_only_strip_changes() {
+	const int width = 640, height = 480;
+	const Layout l(height);
+	TestFrame f(UVC_FRAME_FORMAT_YUYV, width, height);
+	TimeWatermark w;
+	EXPECT_EQ(0, w.apply(&f.frame, utc(2018, 7, 15, 12, 34, 56)));
+	int outside = 0, fg = 0, outline = 0, bad = 0;
+	for (int y = 0; y < height; y++) {
+		for (int x = 0; x < width; x++) {
+			const size_t i = (size_t)(y * width + x) * 2;
+			const uint8_t luma = f.buf[i], chroma = f.buf[i + 1];
+			if (!l.inside(x, y)) {
+				if ((luma != f.original(i)) || (chroma != f.original(i + 1))) outside++;
+			} else if (luma == 235) {
+				fg++;
+			} else if (luma == 16) {
+				outline++;
+			} else if (luma != f.original(i)) {
+				bad++;
+			}
+			if (l.inside(x, y) && (chroma != f.original(i + 1)) && (chroma != 128)) bad++;
+		}
+	}
+	EXPECT_EQ(0, outside);
+	EXPECT_EQ(0, bad);
+	EXPECT(fg > 0);
+	EXPECT(outline > fg);
+}
+
+static void test_text() {
+	setenv("TZ", "UTC", 1);
+	tzset();
+	const int width = 640, height = 480;
+	TimeWatermark w;
+	const time_t times[] = {
+		utc(2018, 7, 15, 12, 34, 56),
+		utc(1999, 12, 31, 23, 59, 59),
+		utc(2000, 1, 1, 0, 0, 0),
+		utc(2020, 2, 29, 9, 8, 7),
+	};
+	for (size_t i = 0; i < sizeof(times) / sizeof(times[0]); i++) {
+		TestFrame f(UVC_FRAME_FORMAT_YUYV, width, height);
+		w.apply(&f.frame, times[i]);
+		const std::string text = read_text(f);
+		EXPECT(text == format_local(times[i]));
+		if (text != format_local(times[i])) {
+			fprintf(stderr, "  expected %s but was %s\n", format_local(times[i]).c_str(), text.c_str());
+		}
+	}
+}
+
+static void test_local_time() {
+	// UTC+9 without daylight saving time, new year comes at 15:00 UTC
+	setenv("TZ", "JST-9", 1);
+	tzset();
+	TestFrame f(UVC_FRAME_FORMAT_YUYV, 640, 480);
+	TimeWatermark w;
+	w.apply(&f.frame, utc(2018, 12, 31, 15, 0, 0));
+	const std::string text = read_text(f);
+	EXPECT(text == "2019-01-01 00:00:00");
+	if (text != "2019-01-01 00:00:00") {
+		fprintf(stderr, "  expected 2019-01-01 00:00:00 but was %s\n", text.c_str());
+	}
+	setenv("TZ", "UTC", 1);
+	tzset();
+}
+
+/**
+ * re-composing only the changed characters should give the same result as composing all
+ */
+static void test_incremental_update() {
+	setenv("TZ", "UTC", 1);
+	tzset();
+	const int width = 1280, height = 720;
+	const time_t t0 = utc(2018, 12, 31, 22, 58, 58);
+	const time_t steps[] = { 0, 1, 2, 61, 3601, 3662, 86400, 86401, 400 * 86400 };
+	TimeWatermark incremental;
+	for (size_t i = 0; i < sizeof(steps) / sizeof(steps[0]); i++) {
+		TestFrame a(UVC_FRAME_FORMAT_YUYV, width, height);
+		TestFrame b(UVC_FRAME_FORMAT_YUYV, width, height);
+		TimeWatermark fresh;
+		incremental.apply(&a.frame, t0 + steps[i]);
+		fresh.apply(&b.frame, t0 + steps[i]);
+		EXPECT(a.buf == b.buf);
+	}
+}
+
+static void test_frame_size_change() {
+	const time_t t = utc(2018, 7, 15, 12, 34, 56);
+	TimeWatermark w;
+	const int sizes[][2] = { { 640, 480 }, { 1920, 1080 }, { 320, 240 }, { 640, 480 } };
+	for (size_t i = 0; i < sizeof(sizes) / sizeof(sizes[0]); i++) {
+		TestFrame a(UVC_FRAME_FORMAT_YUYV, sizes[i][0], sizes[i][1]);
+		TestFrame b(UVC_FRAME_FORMAT_YUYV, sizes[i][0], sizes[i][1]);
+		TimeWatermark fresh;
+		EXPECT_EQ(0, w.apply(&a.frame, t));
+		fresh.apply(&b.frame, t);
+		EXPECT(a.buf == b.buf);
+	}
+}
+
+static void test_yuyv_step() {
+	const int width = 640, height = 480, step = width * 2 + 64;
+	const time_t t = utc(2018, 7, 15, 12, 34, 56);
+	TestFrame packed(UVC_FRAME_FORMAT_YUYV, width, height);
+	TestFrame padded(UVC_FRAME_FORMAT_YUYV, width, height, step);
+	TimeWatermark w;
+	w.apply(&packed.frame, t);
+	w.apply(&padded.frame, t);
+	int diff = 0, padding = 0;
+	for (int y = 0; y < height; y++) {
+		for (int x = 0; x < step; x++) {
+			const size_t i = (size_t)y * step + x;
+			if (x >= width * 2) {
+				if (padded.buf[i] != padded.original(i)) padding++;
+			} else {
+				const size_t j = (size_t)y * width * 2 + x;
+				const bool a = packed.buf[j] != packed.original(j);
+				const bool b = padded.buf[i] != padded.original(i);
+				if ((a != b) || (a && (packed.buf[j] != padded.buf[i]))) diff++;
+			}
+		}
+	}
+	EXPECT_EQ(0, diff);
+	EXPECT_EQ(0, padding);
+}
+
+/**
+ * luma of YUV420 formats should be same as YUYV,
+ * chroma should be neutral only around the text and untouched elsewhere
+ */
+static void test_yuv420() {
+	const int width = 640, height = 480;
+	const Layout l(height);
+	const time_t t = utc(2018, 7, 15, 12, 34, 56);
+	TestFrame yuyv(UVC_FRAME_FORMAT_YUYV, width, height);
+	TimeWatermark w;
+	w.apply(&yuyv.frame, t);
+	const uvc_frame_format formats[] = { UVC_FRAME_FORMAT_I420, UVC_FRAME_FORMAT_NV12, UVC_FRAME_FORMAT_NV21 };
+	for (size_t k = 0; k < sizeof(formats) / sizeof(formats[0]); k++) {
+		TestFrame f(formats[k], width, height);
+		EXPECT_EQ(0, w.apply(&f.frame, t));
+		int luma_diff = 0, chroma_outside = 0, chroma_bad = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				const size_t i = (size_t)y * width + x;
+				const size_t j = i * 2;
+				const bool a = f.buf[i] != f.original(i);
+				const bool b = yuyv.buf[j] != yuyv.original(j);
+				if ((a != b) || (a && (f.buf[i] != yuyv.buf[j]))) luma_diff++;
+			}
+		}
+		const size_t y_bytes = (size_t)width * height;
+		for (size_t i = y_bytes; i < f.buf.size(); i++) {
+			int cx, cy;
+			if (formats[k] == UVC_FRAME_FORMAT_I420) {
+				const size_t c = (i - y_bytes) % (y_bytes / 4);
+				cx = c % (width / 2);
+				cy = c / (width / 2);
+			} else {
+				cx = ((i - y_bytes) % width) / 2;
+				cy = (i - y_bytes) / width;
+			}
+			const bool near = l.inside(cx * 2, cy * 2) || l.inside(cx * 2, cy * 2 + 1);
+			if (f.buf[i] != f.original(i)) {
+				if (!near) chroma_outside++;
+				else if (f.buf[i] != 128) chroma_bad++;
+			}
+		}
+		EXPECT_EQ(0, luma_diff);
+		EXPECT_EQ(0, chroma_outside);
+		EXPECT_EQ(0, chroma_bad);
+	}
+}
+
+/**
+ * YUV420 frames with padded rows should have the same watermark as the packed ones
+ * in each row of each plane, and the padding should be untouched
+ */
+static void test_yuv420_step() {
+	const int width = 640, height = 480, step = width + 64;
+	const time_t t = utc(2018, 7, 15, 12, 34, 56);
+	const uvc_frame_format formats[] = { UVC_FRAME_FORMAT_I420, UVC_FRAME_FORMAT_NV12, UVC_FRAME_FORMAT_NV21 };
+	for (size_t k = 0; k < sizeof(formats) / sizeof(formats[0]); k++) {
+		const bool planar = formats[k] == UVC_FRAME_FORMAT_I420;
+		TestFrame packed(formats[k], width, height);
+		TestFrame padded(formats[k], width, height, step);
+		TimeWatermark w;
+		EXPECT_EQ(0, w.apply(&packed.frame, t));
+		EXPECT_EQ(0, w.apply(&padded.frame, t));
+		// offset, number of rows, bytes of a row and pitch of each plane
+		const size_t packed_planes[3][4] = {
+			{ 0, (size_t)height, (size_t)width, (size_t)width },
+			{ (size_t)width * height, (size_t)height / 2, (size_t)(planar ? width / 2 : width), (size_t)(planar ? width / 2 : width) },
+			{ (size_t)width * height * 5 / 4, (size_t)(planar ? height / 2 : 0), (size_t)width / 2, (size_t)width / 2 },
+		};
+		const size_t padded_planes[3][2] = {
+			{ 0, (size_t)step },
+			{ (size_t)step * height, (size_t)(planar ? step / 2 : step) },
+			{ (size_t)step * height * 5 / 4, (size_t)step / 2 },
+		};
+		int changed = 0, diff = 0, padding = 0;
+		for (int plane = 0; plane < 3; plane++) {
+			for (size_t y = 0; y < packed_planes[plane][1]; y++) {
+				for (size_t x = 0; x < padded_planes[plane][1]; x++) {
+					const size_t i = padded_planes[plane][0] + y * padded_planes[plane][1] + x;
+					if (x >= packed_planes[plane][2]) {
+						if (padded.buf[i] != padded.original(i)) padding++;
+						continue;
+					}
+					const size_t j = packed_planes[plane][0] + y * packed_planes[plane][3] + x;
+					const bool a = packed.buf[j] != packed.original(j);
+					const bool b = padded.buf[i] != padded.original(i);
+					if (a) changed++;
+					if ((a != b) || (a && (packed.buf[j] != padded.buf[i]))) diff++;
+				}
+			}
+		}
+		EXPECT(changed > 0);
+		EXPECT_EQ(0, diff);
+		EXPECT_EQ(0, padding);
+	}
+}
+
+static void bench_apply() {
+	const int width = 1920, height = 1080, frames = 3000;
+	TestFrame f(UVC_FRAME_FORMAT_YUYV, width, height);
+	TimeWatermark w;
+	time_t t = utc(2018, 7, 15, 12, 34, 56);
+	w.apply(&f.frame, t);
+	const uint64_t start = test_now_ns();
+	for (int i = 0; i < frames; i++) {
+		// 30fps, the text changes on every 30th frame
+		if (i % 30 == 0) t++;
+		w.apply(&f.frame, t);
+	}
+	const uint64_t elapsed = test_now_ns() - start;
+	printf("apply %dx%d YUYV: %.2f us/frame\n", width, height, elapsed / 1000.0 / frames);
+}
+
+int main(int argc, char **argv) {
+	RUN_TEST(test_unsupported_format);
+	RUN_TEST(test_too_small_frame);
+	RUN_TEST(test_yuyv_only_strip_changes);
+	RUN_TEST(test_text);
+	RUN_TEST(test_local_time);
+	RUN_TEST(test_incremental_update);
+	RUN_TEST(test_frame_size_change);
+	RUN_TEST(test_yuyv_step);
+	RUN_TEST(test_yuv420);
+	RUN_TEST(test_yuv420_step);
+	bench_apply();
+	return TEST_RESULT();
+}
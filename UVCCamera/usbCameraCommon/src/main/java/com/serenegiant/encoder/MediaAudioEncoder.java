@@ -31,7 +31,6 @@ import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.media.MediaRecorder;
 import android.util.Log;
@@ -74,7 +73,7 @@ public class MediaAudioEncoder extends MediaEncoder implements IAudioEncoder {
 //      audioFormat.setLong(MediaFormat.KEY_DURATION, (long)durationInMs );
 		if (DEBUG) Log.i(TAG, "format: " + audioFormat);
         mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
-        mMediaCodec.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        configure(audioFormat);
         mMediaCodec.start();
         if (DEBUG) Log.i(TAG, "prepare finishing");
         if (mListener != null) {
@@ -201,33 +200,16 @@ public class MediaAudioEncoder extends MediaEncoder implements IAudioEncoder {
     }
 
     /**
-     * select the first codec that match a specific MIME type
+     * select the first codec that match a specific MIME type,
+     * the result is cached in MediaCodecCapabilityCache
      * @param mimeType
-     * @return
+     * @return null if no codec matched
      */
     private static final MediaCodecInfo selectAudioCodec(final String mimeType) {
     	if (DEBUG) Log.v(TAG, "selectAudioCodec:");
-
-    	MediaCodecInfo result = null;
-    	// get the list of available codecs
-        final int numCodecs = MediaCodecList.getCodecCount();
-LOOP:	for (int i = 0; i < numCodecs; i++) {
-        	final MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-            if (!codecInfo.isEncoder()) {	// skipp decoder
-                continue;
-            }
-            final String[] types = codecInfo.getSupportedTypes();
-            for (int j = 0; j < types.length; j++) {
-            	if (DEBUG) Log.i(TAG, "supportedType:" + codecInfo.getName() + ",MIME=" + types[j]);
-                if (types[j].equalsIgnoreCase(mimeType)) {
-                	if (result == null) {
-                		result = codecInfo;
-               			break LOOP;
-                	}
-                }
-            }
-        }
-   		return result;
+    	final MediaCodecCapabilityCache.Selection selection
+    		= MediaCodecCapabilityCache.select(mimeType, null);
+   		return selection != null ? selection.codecInfo : null;
     }
 
 }
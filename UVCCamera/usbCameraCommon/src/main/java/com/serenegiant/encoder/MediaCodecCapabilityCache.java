@@ -0,0 +1,200 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.encoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Process-wide cache of encoders and their color formats.
+ * Walking MediaCodecList and MediaCodecInfo#getCapabilitiesForType take hundreds of milliseconds
+ * on some devices, so they are queried only once for each MIME type and codec,
+ * and the selected codec and color format are kept for each MIME type and color formats.
+ * Call #prefetch on startup to fill the cache on a background thread.
+ */
+public final class MediaCodecCapabilityCache {
+	private static final boolean DEBUG = true;	// TODO set false on release
+	private static final String TAG = "MediaCodecCapabilityCache";
+
+	/**
+	 * selected encoder and its color format
+	 */
+	public static final class Selection {
+		public final MediaCodecInfo codecInfo;
+		/**
+		 * first color format of the codec that was in the requested color formats,
+		 * 0 if color formats were not requested
+		 */
+		public final int colorFormat;
+
+		private Selection(final MediaCodecInfo codecInfo, final int colorFormat) {
+			this.codecInfo = codecInfo;
+			this.colorFormat = colorFormat;
+		}
+
+		public String getName() {
+			return codecInfo.getName();
+		}
+	}
+
+	private static final Object sSync = new Object();
+	/** encoders for each MIME type in MediaCodecList order, key is lower case MIME type */
+	private static final Map<String, MediaCodecInfo[]> sEncoders = new HashMap<String, MediaCodecInfo[]>();
+	/** color formats, key is codec name and MIME type */
+	private static final Map<String, int[]> sColorFormats = new HashMap<String, int[]>();
+	/** selection result, key is MIME type and requested color formats, null value means no codec found */
+	private static final Map<String, Selection> sSelections = new HashMap<String, Selection>();
+
+	private MediaCodecCapabilityCache() {
+		// never instantiate
+	}
+
+	/**
+	 * fill the cache on a background thread so that starting recording does not need to query codecs
+	 * @param mimeTypes
+	 */
+	public static void prefetch(final String... mimeTypes) {
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				final long start = System.nanoTime();
+				for (final String mimeType: mimeTypes) {
+					for (final MediaCodecInfo codecInfo: getEncoders(mimeType)) {
+						getColorFormats(codecInfo, mimeType);
+					}
+				}
+				if (DEBUG) Log.v(TAG, "prefetch:finished " + (System.nanoTime() - start) / 1000000 + "ms");
+			}
+		}, TAG);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * encoders that support the MIME type, in the order of MediaCodecList
+	 * @param mimeType
+	 * @return empty array if no encoder found
+	 */
+	@SuppressWarnings("deprecation")
+	public static MediaCodecInfo[] getEncoders(final String mimeType) {
+		final String key = mimeType.toLowerCase();
+		synchronized (sSync) {
+			MediaCodecInfo[] result = sEncoders.get(key);
+			if (result == null) {
+				final List<MediaCodecInfo> list = new ArrayList<MediaCodecInfo>();
+				final int numCodecs = MediaCodecList.getCodecCount();
+				for (int i = 0; i < numCodecs; i++) {
+					final MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+					if (!codecInfo.isEncoder()) {	// skip decoder
+						continue;
+					}
+					final String[] types = codecInfo.getSupportedTypes();
+					for (int j = 0; j < types.length; j++) {
+						if (types[j].equalsIgnoreCase(mimeType)) {
+							if (DEBUG) Log.i(TAG, "codec:" + codecInfo.getName() + ",MIME=" + types[j]);
+							list.add(codecInfo);
+							break;
+						}
+					}
+				}
+				result = list.toArray(new MediaCodecInfo[list.size()]);
+				sEncoders.put(key, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * color formats of the codec for the MIME type
+	 * @return empty array if the codec has no capabilities for the MIME type
+	 */
+	public static int[] getColorFormats(final MediaCodecInfo codecInfo, final String mimeType) {
+		final String key = codecInfo.getName() + "/" + mimeType.toLowerCase();
+		synchronized (sSync) {
+			int[] result = sColorFormats.get(key);
+			if (result == null) {
+				MediaCodecInfo.CodecCapabilities caps = null;
+				try {
+					caps = codecInfo.getCapabilitiesForType(mimeType);
+				} catch (final IllegalArgumentException e) {
+					Log.w(TAG, e);
+				}
+				result = (caps != null) && (caps.colorFormats != null) ? caps.colorFormats : new int[0];
+				sColorFormats.put(key, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * select the first encoder of the MIME type that has one of the color formats.
+	 * The color format is selected in the order of the codec's color formats.
+	 * @param mimeType
+	 * @param recognizedFormats null or empty array selects the first encoder without checking color format
+	 * @return null if no codec matched
+	 */
+	public static Selection select(final String mimeType, final int[] recognizedFormats) {
+		final boolean checkFormat = (recognizedFormats != null) && (recognizedFormats.length > 0);
+		final String key = mimeType.toLowerCase() + (checkFormat ? Arrays.toString(recognizedFormats) : "");
+		synchronized (sSync) {
+			if (sSelections.containsKey(key)) {
+				return sSelections.get(key);
+			}
+			Selection result = null;
+LOOP:		for (final MediaCodecInfo codecInfo: getEncoders(mimeType)) {
+				if (!checkFormat) {
+					result = new Selection(codecInfo, 0);
+					break;
+				}
+				for (final int colorFormat: getColorFormats(codecInfo, mimeType)) {
+					if (contains(recognizedFormats, colorFormat)) {
+						result = new Selection(codecInfo, colorFormat);
+						break LOOP;
+					}
+				}
+				Log.e(TAG, "couldn't find a good color format for " + codecInfo.getName() + " / " + mimeType);
+			}
+			if (DEBUG) Log.v(TAG, "select:" + key + "=" + (result != null ? result.getName() + "," + result.colorFormat : null));
+			sSelections.put(key, result);
+			return result;
+		}
+	}
+
+	private static boolean contains(final int[] formats, final int colorFormat) {
+		for (final int format: formats) {
+			if (format == colorFormat) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -26,9 +26,16 @@ package com.serenegiant.encoder;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 
 public abstract class MediaEncoder implements Runnable {
@@ -81,6 +88,27 @@ public abstract class MediaEncoder implements Runnable {
      * BufferInfo instance for dequeuing
      */
     private MediaCodec.BufferInfo mBufferInfo;		// API >= 16(Android4.1.2)
+    /**
+     * Thread that receives MediaCodec.Callback in asynchronous mode(API >= 21), null in polling mode
+     */
+    private volatile HandlerThread mCallbackThread;
+    /**
+     * lock for the states that are updated from MediaCodec.Callback,
+     * separated from mSync not to wake up the encoding loop on every callback
+     */
+    private final Object mCallbackSync = new Object();
+    /**
+     * indices of the input buffers that MediaCodec offered in asynchronous mode, guarded by mCallbackSync
+     */
+    private final ArrayDeque<Integer> mInputIndices = new ArrayDeque<Integer>();
+    /**
+     * Flag that indicate MediaCodec output EOS in asynchronous mode, guarded by mCallbackSync
+     */
+    private boolean mOutputEOS;
+    /**
+     * whether the input of MediaCodec is Surface
+     */
+    private boolean mSurfaceInput;
 
     protected final MediaEncoderListener mListener;
 
@@ -117,12 +145,40 @@ public abstract class MediaEncoder implements Runnable {
             if (!mIsCapturing || mRequestStop) {
                 return false;
             }
-            mRequestDrain++;
-            mSync.notifyAll();
+            if (mCallbackThread == null) {
+	            mRequestDrain++;
+	            mSync.notifyAll();
+            }
+            // in asynchronous mode encoded data is written from MediaCodec.Callback
         }
         return true;
     }
 
+    /**
+     * request the encoder to generate a sync frame as soon as possible, this works on API >= 19.
+     * On older devices next sync frame comes on the I-frame interval
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public void requestSyncFrame() {
+    	final MediaCodec codec = mMediaCodec;
+    	if ((codec != null) && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)) {
+    		final Bundle params = new Bundle();
+    		params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+    		try {
+    			codec.setParameters(params);	// API >= 19
+    		} catch (final IllegalStateException e) {
+    			Log.w(TAG, "requestSyncFrame:", e);
+    		}
+    	}
+    }
+
+    /**
+     * @return true if this encoder uses MediaCodec.Callback instead of polling MediaCodec
+     */
+    public boolean isAsyncMode() {
+    	return mCallbackThread != null;
+    }
+
     /**
      * encoding loop on private thread
      */
@@ -207,6 +263,63 @@ public abstract class MediaEncoder implements Runnable {
 
 //********************************************************************************
 //********************************************************************************
+    /**
+     * configure mMediaCodec for encoding, subclass should call this instead of MediaCodec#configure.
+     * On API >= 21, MediaCodec.Callback is set before configuring MediaCodec,
+     * input buffers are filled as soon as MediaCodec offers them
+     * and encoded data is written to the muxer from the callback without polling.
+     * Otherwise MediaCodec is polled by #encode and #drain.
+     * @param format
+     */
+    protected void configure(final MediaFormat format) {
+    	mSurfaceInput = format.containsKey(MediaFormat.KEY_COLOR_FORMAT)
+    		&& (format.getInteger(MediaFormat.KEY_COLOR_FORMAT) == MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+		synchronized (mCallbackSync) {
+			mInputIndices.clear();
+			mOutputEOS = false;
+		}
+    	if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+    		mCallbackThread = new HandlerThread(getClass().getSimpleName() + "Callback");
+    		mCallbackThread.start();
+    		setCallback(new Handler(mCallbackThread.getLooper()));
+    	}
+        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void setCallback(final Handler handler) {
+    	final MediaCodec.Callback callback = new AsyncCallback();
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+			mMediaCodec.setCallback(callback, handler);	// API >= 23
+		} else {
+			// MediaCodec#setCallback(Callback) delivers callbacks to the looper of the calling thread,
+			// so set it on the callback thread and wait for it
+			final boolean[] done = new boolean[1];
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						mMediaCodec.setCallback(callback);	// API >= 21
+					} finally {
+						synchronized (done) {
+							done[0] = true;
+							done.notifyAll();
+						}
+					}
+				}
+			});
+			synchronized (done) {
+				while (!done[0]) {
+					try {
+						done.wait();
+					} catch (final InterruptedException e) {
+						break;
+					}
+				}
+			}
+		}
+    }
+
     /**
      * Release all releated objects
      */
@@ -218,6 +331,11 @@ public abstract class MediaEncoder implements Runnable {
 			Log.e(TAG, "failed onStopped", e);
 		}
 		mIsCapturing = false;
+		if (mCallbackThread != null) {
+			// callbacks after this are discarded
+			mCallbackThread.quit();
+			mCallbackThread = null;
+		}
         if (mMediaCodec != null) {
 			try {
 	            mMediaCodec.stop();
@@ -242,6 +360,10 @@ public abstract class MediaEncoder implements Runnable {
 
     protected void signalEndOfInputStream() {
 		if (DEBUG) Log.d(TAG, "sending EOS to encoder");
+		if (mCallbackThread != null) {
+			signalEndOfInputStreamAsync();
+			return;
+		}
         // signalEndOfInputStream is only avairable for video encoding with surface
         // and equivalent sending a empty buffer with BUFFER_FLAG_END_OF_STREAM flag.
 //		mMediaCodec.signalEndOfInputStream();	// API >= 18
@@ -258,6 +380,10 @@ public abstract class MediaEncoder implements Runnable {
 	protected void encode(final byte[] buffer, final int length, final long presentationTimeUs) {
 //    	if (DEBUG) Log.v(TAG, "encode:buffer=" + buffer);
     	if (!mIsCapturing) return;
+    	if (mCallbackThread != null) {
+    		encodeAsync(buffer, null, length, presentationTimeUs);
+    		return;
+    	}
     	int ix = 0, sz;
         final ByteBuffer[] inputBuffers = mMediaCodec.getInputBuffers();
         while (mIsCapturing && ix < length) {
@@ -300,6 +426,10 @@ public abstract class MediaEncoder implements Runnable {
 	protected void encode(final ByteBuffer buffer, final int length, final long presentationTimeUs) {
 //    	if (DEBUG) Log.v(TAG, "encode:buffer=" + buffer);
     	if (!mIsCapturing) return;
+    	if (mCallbackThread != null) {
+    		encodeAsync(null, buffer, length, presentationTimeUs);
+    		return;
+    	}
     	int ix = 0, sz;
         final ByteBuffer[] inputBuffers = mMediaCodec.getInputBuffers();
         while (mIsCapturing && ix < length) {
@@ -341,6 +471,13 @@ public abstract class MediaEncoder implements Runnable {
     @SuppressWarnings("deprecation")
 	protected void drain() {
     	if (mMediaCodec == null) return;
+    	if (mCallbackThread != null) {
+    		// encoded data is written from MediaCodec.Callback, just wait for EOS here if it was sent
+    		if (mIsEOS) {
+    			waitOutputEOS();
+    		}
+    		return;
+    	}
         ByteBuffer[] encoderOutputBuffers = mMediaCodec.getOutputBuffers();
         int encoderStatus, count = 0;
         final MediaMuxerWrapper muxer = mWeakMuxer.get();
@@ -368,25 +505,11 @@ LOOP:	while (mIsCapturing) {
                 // this should come only once before actual encoded data
             	// but this status never come on Android4.3 or less
             	// and in that case, you should treat when MediaCodec.BUFFER_FLAG_CODEC_CONFIG come.
-                if (mMuxerStarted) {	// second time request is error
-                    throw new RuntimeException("format changed twice");
-                }
 				// get output format from codec and pass them to muxer
 				// getOutputFormat should be called after INFO_OUTPUT_FORMAT_CHANGED otherwise crash.
-                final MediaFormat format = mMediaCodec.getOutputFormat(); // API >= 16
-               	mTrackIndex = muxer.addTrack(format);
-               	mMuxerStarted = true;
-               	if (!muxer.start()) {
-               		// we should wait until muxer is ready
-               		synchronized (muxer) {
-	               		while (!muxer.isStarted())
-						try {
-							muxer.wait(100);
-						} catch (final InterruptedException e) {
-							break LOOP;
-						}
-               		}
-               	}
+                if (!startMuxer(muxer, mMediaCodec.getOutputFormat())) {	// API >= 16
+                	break LOOP;
+                }
             } else if (encoderStatus < 0) {
             	// unexpected status
             	if (DEBUG) Log.w(TAG, "drain:unexpected result from encoder#dequeueOutputBuffer: " + encoderStatus);
@@ -396,26 +519,9 @@ LOOP:	while (mIsCapturing) {
                 	// this never should come...may be a MediaCodec internal error
                     throw new RuntimeException("encoderOutputBuffer " + encoderStatus + " was null");
                 }
-                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                	// You shoud set output format to muxer here when you target Android4.3 or less
-                	// but MediaCodec#getOutputFormat can not call here(because INFO_OUTPUT_FORMAT_CHANGED don't come yet)
-                	// therefor we should expand and prepare output format from buffer data.
-                	// This sample is for API>=18(>=Android 4.3), just ignore this flag here
-					if (DEBUG) Log.d(TAG, "drain:BUFFER_FLAG_CODEC_CONFIG");
-					mBufferInfo.size = 0;
-                }
-
-                if (mBufferInfo.size != 0) {
+                if (writeSampleData(muxer, encodedData, mBufferInfo)) {
                 	// encoded data is ready, clear waiting counter
             		count = 0;
-                    if (!mMuxerStarted) {
-                    	// muxer is not ready...this will prrograming failure.
-                        throw new RuntimeException("drain:muxer hasn't started");
-                    }
-                    // write encoded data to muxer(need to adjust presentationTimeUs.
-                   	mBufferInfo.presentationTimeUs = getPTSUs();
-                   	muxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
-					prevOutputPTSUs = mBufferInfo.presentationTimeUs;
                 }
                 // return buffer to encoder
                 mMediaCodec.releaseOutputBuffer(encoderStatus, false);
@@ -428,6 +534,212 @@ LOOP:	while (mIsCapturing) {
         }
     }
 
+    /**
+     * pass output format of MediaCodec to muxer and start it
+     * @return false if interrupted while waiting for the muxer
+     */
+    private boolean startMuxer(final MediaMuxerWrapper muxer, final MediaFormat format) {
+        if (mMuxerStarted) {	// second time request is error
+            throw new RuntimeException("format changed twice");
+        }
+       	mTrackIndex = muxer.addTrack(format);
+       	mMuxerStarted = true;
+       	if (!muxer.start()) {
+       		// we should wait until muxer is ready
+       		synchronized (muxer) {
+           		while (!muxer.isStarted())
+				try {
+					muxer.wait(100);
+				} catch (final InterruptedException e) {
+					return false;
+				}
+       		}
+       	}
+       	return true;
+    }
+
+    /**
+     * write encoded data to muxer
+     * @return true if the data was written
+     */
+    private boolean writeSampleData(final MediaMuxerWrapper muxer, final ByteBuffer encodedData, final MediaCodec.BufferInfo bufferInfo) {
+        if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+        	// You shoud set output format to muxer here when you target Android4.3 or less
+        	// but MediaCodec#getOutputFormat can not call here(because INFO_OUTPUT_FORMAT_CHANGED don't come yet)
+        	// therefor we should expand and prepare output format from buffer data.
+        	// This sample is for API>=18(>=Android 4.3), just ignore this flag here
+			if (DEBUG) Log.d(TAG, "drain:BUFFER_FLAG_CODEC_CONFIG");
+			bufferInfo.size = 0;
+        }
+        if (bufferInfo.size == 0) {
+        	return false;
+        }
+        if (!mMuxerStarted) {
+        	// muxer is not ready...this will prrograming failure.
+            throw new RuntimeException("drain:muxer hasn't started");
+        }
+        // write encoded data to muxer with presentationTimeUs that was passed to the encoder
+        // (capture time when it is available) instead of the time of writing,
+        // otherwise the queueing delay in the encoder is added to the timestamp.
+        // presentationTimeUs should be monotonic otherwise muxer fail to write
+        if (bufferInfo.presentationTimeUs <= 0) {
+        	bufferInfo.presentationTimeUs = getPTSUs();
+        } else if (bufferInfo.presentationTimeUs < prevOutputPTSUs) {
+        	bufferInfo.presentationTimeUs = prevOutputPTSUs;
+        }
+       	muxer.writeSampleData(mTrackIndex, encodedData, bufferInfo);
+		prevOutputPTSUs = bufferInfo.presentationTimeUs;
+		return true;
+    }
+
+//********************************************************************************
+// asynchronous mode(API >= 21)
+//********************************************************************************
+	/**
+	 * get the index of input buffer that MediaCodec offered,
+	 * wait for maximum TIMEOUT_USEC if no input buffer is available now
+	 * @return negative value if no input buffer is available
+	 */
+	private int obtainInputIndex() {
+		synchronized (mCallbackSync) {
+			if (mInputIndices.isEmpty()) {
+				try {
+					mCallbackSync.wait(TIMEOUT_USEC / 1000);
+				} catch (final InterruptedException e) {
+					return -1;
+				}
+			}
+			final Integer index = mInputIndices.pollFirst();
+			return index != null ? index : -1;
+		}
+	}
+
+	/**
+	 * asynchronous mode version of #encode
+	 * @param bytes
+	 * @param buffer data from position 0, ignored when bytes is not null
+	 * @param length
+	 * @param presentationTimeUs
+	 */
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private void encodeAsync(final byte[] bytes, final ByteBuffer buffer,
+		final int length, final long presentationTimeUs) {
+
+		int ix = 0, sz;
+		while (mIsCapturing && ix < length) {
+			final int inputBufferIndex = obtainInputIndex();
+			if (inputBufferIndex < 0) continue;
+			final ByteBuffer inputBuffer = mMediaCodec.getInputBuffer(inputBufferIndex);	// API >= 21
+			inputBuffer.clear();
+			sz = inputBuffer.remaining();
+			sz = (ix + sz < length) ? sz : length - ix;
+			if (bytes != null) {
+				inputBuffer.put(bytes, ix, sz);
+			} else if (buffer != null) {
+				buffer.limit(ix + sz);
+				buffer.position(ix);
+				inputBuffer.put(buffer);
+			}
+			ix += sz;
+			mMediaCodec.queueInputBuffer(inputBufferIndex, 0, sz, presentationTimeUs, 0);
+		}
+	}
+
+	private void signalEndOfInputStreamAsync() {
+		if (mSurfaceInput) {
+			mMediaCodec.signalEndOfInputStream();	// API >= 18
+			mIsEOS = true;
+		} else {
+			// wait for maximum TIMEOUT_USEC x 5 = 50msec for input buffer
+			for (int i = 0; mIsCapturing && (i < 5); i++) {
+				final int inputBufferIndex = obtainInputIndex();
+				if (inputBufferIndex >= 0) {
+					mMediaCodec.queueInputBuffer(inputBufferIndex, 0, 0,
+						getPTSUs(), MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+					mIsEOS = true;
+					break;
+				}
+			}
+		}
+		if (DEBUG) Log.i(TAG, "send BUFFER_FLAG_END_OF_STREAM:" + mIsEOS);
+	}
+
+	/**
+	 * wait until MediaCodec outputs EOS, maximum TIMEOUT_USEC x 100 = 1sec
+	 */
+	private void waitOutputEOS() {
+		synchronized (mCallbackSync) {
+			for (int i = 0; !mOutputEOS && (i < 100); i++) {
+				try {
+					mCallbackSync.wait(TIMEOUT_USEC / 1000);
+				} catch (final InterruptedException e) {
+					break;
+				}
+			}
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private class AsyncCallback extends MediaCodec.Callback {
+		@Override
+		public void onInputBufferAvailable(final MediaCodec codec, final int index) {
+			synchronized (mCallbackSync) {
+				mInputIndices.addLast(index);
+				mCallbackSync.notifyAll();
+			}
+		}
+
+		@Override
+		public void onOutputBufferAvailable(final MediaCodec codec, final int index, final MediaCodec.BufferInfo info) {
+			final MediaMuxerWrapper muxer = mWeakMuxer.get();
+			try {
+				if (muxer != null) {
+					final ByteBuffer encodedData = codec.getOutputBuffer(index);	// API >= 21
+					if (encodedData == null) {
+						// this never should come...may be a MediaCodec internal error
+						throw new RuntimeException("encoderOutputBuffer " + index + " was null");
+					}
+					writeSampleData(muxer, encodedData, info);
+				} else {
+					Log.w(TAG, "muxer is unexpectedly null");
+				}
+				codec.releaseOutputBuffer(index, false);
+			} catch (final IllegalStateException e) {
+				// MediaCodec was already stopped
+				Log.w(TAG, "onOutputBufferAvailable:", e);
+			}
+			if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+				synchronized (mCallbackSync) {
+					mOutputEOS = true;
+					mCallbackSync.notifyAll();
+				}
+			}
+		}
+
+		@Override
+		public void onError(final MediaCodec codec, final MediaCodec.CodecException e) {
+			Log.e(TAG, "onError:", e);
+			synchronized (mCallbackSync) {
+				mOutputEOS = true;
+				mCallbackSync.notifyAll();
+			}
+			synchronized (mSync) {
+				// stop encoding, #run releases related objects
+				mRequestStop = true;
+				mSync.notifyAll();
+			}
+		}
+
+		@Override
+		public void onOutputFormatChanged(final MediaCodec codec, final MediaFormat format) {
+			if (DEBUG) Log.v(TAG, "onOutputFormatChanged:" + format);
+			final MediaMuxerWrapper muxer = mWeakMuxer.get();
+			if (muxer != null) {
+				startMuxer(muxer, format);
+			}
+		}
+	}
+
     /**
      * previous presentationTimeUs for writing
      */
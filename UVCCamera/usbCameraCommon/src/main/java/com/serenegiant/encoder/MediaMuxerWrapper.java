@@ -26,9 +26,12 @@ package com.serenegiant.encoder;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.text.SimpleDateFormat;
-import java.util.GregorianCalendar;
-import java.util.Locale;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import android.media.MediaCodec;
 import android.media.MediaFormat;
@@ -37,40 +40,138 @@ import android.os.Environment;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.serenegiant.mp4.FragmentedMp4Muxer;
+import com.serenegiant.usbcameracommon.ClockDigits;
+
 public class MediaMuxerWrapper {
 	private static final boolean DEBUG = true;	// TODO set false on release
 	private static final String TAG = "MediaMuxerWrapper";
 
+	/**
+	 * listener for segmented recording, this is called on the encoder thread
+	 */
+	public interface SegmentListener {
+		/**
+		 * the segment file was closed and the recording continues to the next segment
+		 * @param path path of the closed segment
+		 */
+		public void onSegmentClosed(final String path);
+	}
+
 	private static final String DIR_NAME = "USBCameraTest";
-    private static final SimpleDateFormat mDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
+    private static final ClockDigits mDateTimeFormat = new ClockDigits('-', '-', '-');
 
-	private String mOutputPath;
-	private final MediaMuxer mMediaMuxer;	// API >= 18
+	private final String mExt;
+	private final long mFragmentDurationUs;
+	private volatile String mOutputPath;
+	private MediaMuxer mMediaMuxer;	// API >= 18
+	/**
+	 * used instead of mMediaMuxer when fragmented mp4 is requested
+	 */
+	private FragmentedMp4Muxer mFragmentedMuxer;
 	private int mEncoderCount, mStatredCount;
 	private boolean mIsStarted;
 	private MediaEncoder mVideoEncoder, mAudioEncoder;
+	/**
+	 * formats of the added tracks, they are added again to the muxer of the next segment
+	 */
+	private final List<MediaFormat> mFormats = new ArrayList<MediaFormat>();
+	private int mVideoTrackIndex = -1;
+	// segmented recording
+	private long mSegmentDurationUs;
+	private long mMaxTotalBytes;
+	private SegmentListener mSegmentListener;
+	private long mSegmentStartUs = -1;
+	private boolean mSyncFrameRequested;
+	/**
+	 * deletes old segments out of the encoder thread, null if maxTotalBytes is not set
+	 */
+	private ExecutorService mDeleteExecutor;
+	/**
+	 * closed segment files that this instance created, oldest first.
+	 * This is accessed only on the thread of mDeleteExecutor
+	 */
+	private final LinkedList<File> mClosedSegments = new LinkedList<File>();
+
+	/**
+	 * Constructor
+	 * @param ext extension of output file
+	 * @throws IOException
+	 */
+	public MediaMuxerWrapper(final String ext) throws IOException {
+		this(ext, 0);
+	}
 
 	/**
 	 * Constructor
 	 * @param ext extension of output file
+	 * @param fragmentDurationUs if positive, fragmented mp4 is written with this fragment duration
+	 * so the movie is playable up to the last fragment even if the app crashed while recording.
+	 * otherwise MediaMuxer is used.
 	 * @throws IOException
 	 */
-	public MediaMuxerWrapper(String ext) throws IOException {
+	public MediaMuxerWrapper(String ext, final long fragmentDurationUs) throws IOException {
 		if (TextUtils.isEmpty(ext)) ext = ".mp4";
-		try {
-			mOutputPath = getCaptureFile(Environment.DIRECTORY_MOVIES, ext).toString();
-		} catch (final NullPointerException e) {
-			throw new RuntimeException("This app has no permission of writing external storage");
-		}
-		mMediaMuxer = new MediaMuxer(mOutputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+		mExt = ext;
+		mFragmentDurationUs = fragmentDurationUs;
+		createMuxer();
 		mEncoderCount = mStatredCount = 0;
 		mIsStarted = false;
 	}
 
+	/**
+	 * @return path of the current output file, this changes on each segment in segmented recording
+	 */
 	public String getOutputPath() {
 		return mOutputPath;
 	}
 
+	/**
+	 * split the recording into segments of the specific duration.
+	 * The muxer is switched to a new file on the next sync frame of video
+	 * without stopping encoders, so no frame is lost on the boundary.
+	 * You should call this before #prepare.
+	 * @param segmentDurationUs zero or negative disables segmentation
+	 * @param maxTotalBytes if positive, the oldest segment files of this recording are deleted
+	 * on a background thread while the total size of the segments exceeds this.
+	 * Other files in the output directory are never deleted
+	 * @param listener nullable
+	 */
+	public synchronized void setSegmentDuration(final long segmentDurationUs,
+		final long maxTotalBytes, final SegmentListener listener) {
+
+		if (mIsStarted)
+			throw new IllegalStateException("muxer already started");
+		mSegmentDurationUs = segmentDurationUs;
+		mMaxTotalBytes = maxTotalBytes;
+		mSegmentListener = listener;
+		if ((maxTotalBytes > 0) && (mDeleteExecutor == null)) {
+			mDeleteExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, TAG + "-delete");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	private void createMuxer() throws IOException {
+		try {
+			mOutputPath = getCaptureFile(Environment.DIRECTORY_MOVIES, mExt).toString();
+		} catch (final NullPointerException e) {
+			throw new RuntimeException("This app has no permission of writing external storage");
+		}
+		if (mFragmentDurationUs > 0) {
+			mMediaMuxer = null;
+			mFragmentedMuxer = new FragmentedMp4Muxer(mOutputPath, mFragmentDurationUs);
+		} else {
+			mMediaMuxer = new MediaMuxer(mOutputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+			mFragmentedMuxer = null;
+		}
+	}
+
 	public void prepare() throws IOException {
 		if (mVideoEncoder != null)
 			mVideoEncoder.prepare();
@@ -134,7 +235,7 @@ public class MediaMuxerWrapper {
 		if (DEBUG) Log.v(TAG,  "start:");
 		mStatredCount++;
 		if ((mEncoderCount > 0) && (mStatredCount == mEncoderCount)) {
-			mMediaMuxer.start();
+			startMuxer();
 			mIsStarted = true;
 			notifyAll();
 			if (DEBUG) Log.v(TAG,  "MediaMuxer started:");
@@ -149,12 +250,12 @@ public class MediaMuxerWrapper {
 		if (DEBUG) Log.v(TAG,  "stop:mStatredCount=" + mStatredCount);
 		mStatredCount--;
 		if ((mEncoderCount > 0) && (mStatredCount <= 0)) {
-			try {
-				mMediaMuxer.stop();
-			} catch (final Exception e) {
-				Log.w(TAG, e);
-			}
+			stopMuxer();
 			mIsStarted = false;
+			if (mDeleteExecutor != null) {
+				// the queued deletions still run
+				mDeleteExecutor.shutdown();
+			}
 			if (DEBUG) Log.v(TAG,  "MediaMuxer stopped:");
 		}
 	}
@@ -167,7 +268,13 @@ public class MediaMuxerWrapper {
 	/*package*/ synchronized int addTrack(final MediaFormat format) {
 		if (mIsStarted)
 			throw new IllegalStateException("muxer already started");
-		final int trackIx = mMediaMuxer.addTrack(format);
+		final int trackIx = mFragmentedMuxer != null
+			? addFragmentedTrack(format) : mMediaMuxer.addTrack(format);
+		mFormats.add(format);
+		final String mime = format.getString(MediaFormat.KEY_MIME);
+		if ((mime != null) && mime.startsWith("video/")) {
+			mVideoTrackIndex = trackIx;
+		}
 		if (DEBUG) Log.i(TAG, "addTrack:trackNum=" + mEncoderCount + ",trackIx=" + trackIx + ",format=" + format);
 		return trackIx;
 	}
@@ -179,8 +286,157 @@ public class MediaMuxerWrapper {
 	 * @param bufferInfo
 	 */
 	/*package*/ synchronized void writeSampleData(final int trackIndex, final ByteBuffer byteBuf, final MediaCodec.BufferInfo bufferInfo) {
-		if (mStatredCount > 0)
-			mMediaMuxer.writeSampleData(trackIndex, byteBuf, bufferInfo);
+		if (mStatredCount > 0) {
+			if ((mSegmentDurationUs > 0) && (trackIndex == mVideoTrackIndex)) {
+				checkSegment(bufferInfo);
+			}
+			if (mFragmentedMuxer != null) {
+				final ByteBuffer buf = byteBuf.duplicate();
+				buf.limit(bufferInfo.offset + bufferInfo.size);
+				buf.position(bufferInfo.offset);
+				try {
+					mFragmentedMuxer.writeSampleData(trackIndex, buf, bufferInfo.presentationTimeUs, bufferInfo.flags);
+				} catch (final IOException e) {
+					Log.w(TAG, "writeSampleData:", e);
+				}
+			} else {
+				mMediaMuxer.writeSampleData(trackIndex, byteBuf, bufferInfo);
+			}
+		}
+	}
+
+	private void startMuxer() {
+		if (mFragmentedMuxer != null) {
+			try {
+				mFragmentedMuxer.start();
+			} catch (final IOException e) {
+				throw new IllegalStateException(e);
+			}
+		} else {
+			mMediaMuxer.start();
+		}
+	}
+
+	private void stopMuxer() {
+		try {
+			if (mFragmentedMuxer != null) {
+				mFragmentedMuxer.stop();
+			} else {
+				mMediaMuxer.stop();
+				mMediaMuxer.release();
+			}
+		} catch (final Exception e) {
+			Log.w(TAG, e);
+		}
+	}
+
+	/**
+	 * switch to the next segment on the sync frame after the segment duration elapsed,
+	 * request a sync frame to the video encoder if it does not come yet
+	 */
+	@SuppressWarnings("deprecation")
+	private void checkSegment(final MediaCodec.BufferInfo bufferInfo) {
+		final long pts = bufferInfo.presentationTimeUs;
+		if (mSegmentStartUs < 0) {
+			mSegmentStartUs = pts;
+			return;
+		}
+		if (pts - mSegmentStartUs < mSegmentDurationUs) return;
+		if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0) {
+			nextSegment();
+			mSegmentStartUs = pts;
+			mSyncFrameRequested = false;
+		} else if (!mSyncFrameRequested) {
+			mSyncFrameRequested = true;
+			final MediaEncoder encoder = mVideoEncoder;
+			if (encoder != null) {
+				encoder.requestSyncFrame();
+			}
+		}
+	}
+
+	/**
+	 * close current file and continue recording to new file with the same tracks
+	 */
+	private void nextSegment() {
+		final String closedPath = mOutputPath;
+		stopMuxer();
+		try {
+			createMuxer();
+			for (final MediaFormat format: mFormats) {
+				if (mFragmentedMuxer != null) {
+					addFragmentedTrack(format);
+				} else {
+					mMediaMuxer.addTrack(format);
+				}
+			}
+			startMuxer();
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		if (DEBUG) Log.v(TAG, "nextSegment:" + closedPath + "->" + mOutputPath);
+		if (mSegmentListener != null) {
+			try {
+				mSegmentListener.onSegmentClosed(closedPath);
+			} catch (final Exception e) {
+				Log.w(TAG, e);
+			}
+		}
+		if (mDeleteExecutor != null) {
+			final File closed = new File(closedPath);
+			final File current = new File(mOutputPath);
+			final long maxTotalBytes = mMaxTotalBytes;
+			mDeleteExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					mClosedSegments.addLast(closed);
+					deleteOldSegments(current, maxTotalBytes);
+				}
+			});
+		}
+	}
+
+	/**
+	 * delete the oldest closed segments of this instance while the total size
+	 * of them and current segment exceeds maxTotalBytes, current segment is never deleted.
+	 * This is called on the thread of mDeleteExecutor
+	 */
+	private void deleteOldSegments(final File current, final long maxTotalBytes) {
+		long total = current.length();
+		for (final File file: mClosedSegments) {
+			total += file.length();
+		}
+		while ((total > maxTotalBytes) && !mClosedSegments.isEmpty()) {
+			final File file = mClosedSegments.removeFirst();
+			final long bytes = file.length();
+			if (file.delete()) {
+				if (DEBUG) Log.v(TAG, "deleteOldSegments:" + file);
+			}
+			// the file is forgotten even if it failed to delete, e.g. it was already deleted by user
+			total -= bytes;
+		}
+	}
+
+	private int addFragmentedTrack(final MediaFormat format) {
+		final String mime = format.getString(MediaFormat.KEY_MIME);
+		if ("video/avc".equals(mime)) {
+			return mFragmentedMuxer.addVideoTrack(
+				format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT),
+				getBytes(format, "csd-0"), getBytes(format, "csd-1"));
+		} else if ("audio/mp4a-latm".equals(mime)) {
+			return mFragmentedMuxer.addAudioTrack(
+				format.getInteger(MediaFormat.KEY_SAMPLE_RATE), format.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+				getBytes(format, "csd-0"));
+		}
+		throw new IllegalArgumentException("unsupported format:" + mime);
+	}
+
+	private static byte[] getBytes(final MediaFormat format, final String key) {
+		final ByteBuffer buf = format.getByteBuffer(key);
+		if (buf == null) return null;
+		final byte[] result = new byte[buf.remaining()];
+		buf.duplicate().get(result);
+		return result;
 	}
 
 //**********************************************************************
@@ -206,8 +462,10 @@ public class MediaMuxerWrapper {
      * @return
      */
     private static final String getDateTimeString() {
-    	final GregorianCalendar now = new GregorianCalendar();
-    	return mDateTimeFormat.format(now.getTime());
+    	synchronized (mDateTimeFormat) {
+    		mDateTimeFormat.update(System.currentTimeMillis());
+    		return mDateTimeFormat.toString();
+    	}
     }
 
 }
@@ -29,12 +29,14 @@ import java.nio.ByteBuffer;
 import android.annotation.TargetApi;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.util.Log;
 
+import com.serenegiant.usb.UVCFrame;
+
 /**
  * This class receives video images as ByteBuffer(strongly recommend direct ByteBuffer) as NV21(YUV420SP)
+ * or I420(YUV420P) depending on #getColorFormat
  * and encode them to h.264.
  * If you use this directly with IFrameCallback, you should know UVCCamera and it backend native libraries
  * never execute color space conversion. This means that color tone of resulted movie will be different
@@ -51,6 +53,12 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
 
 	private final int mWidth, mHeight;
     protected int mColorFormat;
+    /**
+     * sequence number of the last frame passed to #encode(ByteBuffer, int, long), -1 if not yet
+     */
+    private long mLastSequence = -1;
+    private long mPrevInputPTSUs;
+    private volatile int mDroppedFrames;
 
 	public MediaVideoBufferEncoder(final MediaMuxerWrapper muxer, final int width, final int height, final MediaEncoderListener listener) {
 		super(muxer, listener);
@@ -67,6 +75,48 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
 		encode(buffer, buffer.capacity(), getPTSUs());
     }
 
+	/**
+	 * encode frame with its capture time as presentationTimeUs
+	 * @param frame this method does not release the frame, caller should release it after this method returned
+	 */
+	public void encode(final UVCFrame frame) {
+		encode(frame.getBuffer(), frame.getSequence(), frame.getCaptureTimeNs());
+	}
+
+	/**
+	 * encode frame with its capture time as presentationTimeUs.
+	 * gaps of sequence number are counted as dropped frames
+	 * @param buffer frame data from position to limit
+	 * @param sequence sequence number of the frame
+	 * @param captureTimeNs capture time[nsec] of the frame, same time base as System#nanoTime,
+	 * 0 means unknown and the time of calling this method is used instead
+	 */
+	public void encode(final ByteBuffer buffer, final int sequence, final long captureTimeNs) {
+		synchronized (mSync) {
+			if (!mIsCapturing || mRequestStop) return;
+		}
+		final long seq = sequence & 0xffffffffL;
+		if ((mLastSequence >= 0) && (seq > mLastSequence + 1)) {
+			mDroppedFrames += (int)(seq - mLastSequence - 1);
+			if (DEBUG) Log.v(TAG, "encode:dropped " + (seq - mLastSequence - 1) + " frames before " + seq);
+		}
+		mLastSequence = seq;
+		long ptsUs = captureTimeNs > 0 ? captureTimeNs / 1000L : getPTSUs();
+		// presentationTimeUs should be monotonic
+		if (ptsUs <= mPrevInputPTSUs)
+			ptsUs = mPrevInputPTSUs + 1;
+		mPrevInputPTSUs = ptsUs;
+		encode(buffer, buffer.remaining(), ptsUs);
+	}
+
+	/**
+	 * number of frames that did not reach #encode(ByteBuffer, int, long) while recording,
+	 * counted from gaps of sequence number
+	 */
+	public int getDroppedFrames() {
+		return mDroppedFrames;
+	}
+
 	@Override
 	protected void prepare() throws IOException {
 		if (DEBUG) Log.i(TAG, "prepare: ");
@@ -88,7 +138,7 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
 		if (DEBUG) Log.i(TAG, "format: " + format);
 
         mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
-        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        configure(format);
         mMediaCodec.start();
         if (DEBUG) Log.i(TAG, "prepare finishing");
         if (mListener != null) {
@@ -100,6 +150,14 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
         }
 	}
 
+	/**
+	 * color format that was selected in #prepare
+	 * @return one of #recognizedFormats, 0 if not prepared yet
+	 */
+	public int getColorFormat() {
+		return mColorFormat;
+	}
+
 	private int calcBitRate() {
 		final int bitrate = (int)(BPP * FRAME_RATE * mWidth * mHeight);
 		Log.i(TAG, String.format("bitrate=%5.2f[Mbps]", bitrate / 1024f / 1024f));
@@ -107,35 +165,19 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
 	}
 
     /**
-     * select the first codec that match a specific MIME type
+     * select the first codec that match a specific MIME type and has color format we can use,
+     * the result is cached in MediaCodecCapabilityCache
      * @param mimeType
      * @return null if no codec matched
      */
-    @SuppressWarnings("deprecation")
 	protected final MediaCodecInfo selectVideoCodec(final String mimeType) {
     	if (DEBUG) Log.v(TAG, "selectVideoCodec:");
-
-    	// get the list of available codecs
-        final int numCodecs = MediaCodecList.getCodecCount();
-        for (int i = 0; i < numCodecs; i++) {
-        	final MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-
-            if (!codecInfo.isEncoder()) {	// skipp decoder
-                continue;
-            }
-            // select first codec that match a specific MIME type and color format
-            final String[] types = codecInfo.getSupportedTypes();
-            for (int j = 0; j < types.length; j++) {
-                if (types[j].equalsIgnoreCase(mimeType)) {
-                	if (DEBUG) Log.i(TAG, "codec:" + codecInfo.getName() + ",MIME=" + types[j]);
-            		final int format = selectColorFormat(codecInfo, mimeType);
-                	if (format > 0) {
-                		mColorFormat = format;
-                		return codecInfo;
-                	}
-                }
-            }
-        }
+    	final MediaCodecCapabilityCache.Selection selection
+    		= MediaCodecCapabilityCache.select(mimeType, recognizedFormats);
+    	if (selection != null) {
+    		mColorFormat = selection.colorFormat;
+    		return selection.codecInfo;
+    	}
         return null;
     }
 
@@ -146,16 +188,10 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
     protected static final int selectColorFormat(final MediaCodecInfo codecInfo, final String mimeType) {
 		if (DEBUG) Log.i(TAG, "selectColorFormat: ");
     	int result = 0;
-    	final MediaCodecInfo.CodecCapabilities caps;
-    	try {
-    		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-    		caps = codecInfo.getCapabilitiesForType(mimeType);
-    	} finally {
-    		Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
-    	}
+    	final int[] colorFormats = MediaCodecCapabilityCache.getColorFormats(codecInfo, mimeType);
         int colorFormat;
-        for (int i = 0; i < caps.colorFormats.length; i++) {
-        	colorFormat = caps.colorFormats[i];
+        for (int i = 0; i < colorFormats.length; i++) {
+        	colorFormat = colorFormats[i];
             if (isRecognizedViewoFormat(colorFormat)) {
             	if (result == 0)
             		result = colorFormat;
@@ -173,7 +209,7 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
     protected static int[] recognizedFormats;
 	static {
 		recognizedFormats = new int[] {
-//        	MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar,
+        	MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar,
         	MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
         	MediaCodecInfo.CodecCapabilities.COLOR_QCOM_FormatYUV420SemiPlanar,
 //        	MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface,
@@ -27,7 +27,6 @@ import java.io.IOException;
 
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.util.Log;
 import android.view.Surface;
@@ -103,7 +102,7 @@ public class MediaVideoEncoder extends MediaEncoder implements IVideoEncoder {
 		if (DEBUG) Log.i(TAG, "format: " + format);
 
         mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
-        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        configure(format);
         // get Surface for encoder input
         // this method only can call between #configure and #start
         mSurface = mMediaCodec.createInputSurface();	// API >= 18
@@ -143,33 +142,18 @@ public class MediaVideoEncoder extends MediaEncoder implements IVideoEncoder {
 	}
 
     /**
-     * select the first codec that match a specific MIME type
+     * select the first codec that match a specific MIME type and has color format we can use,
+     * the result is cached in MediaCodecCapabilityCache
      * @param mimeType
      * @return null if no codec matched
      */
     protected static final MediaCodecInfo selectVideoCodec(final String mimeType) {
     	if (DEBUG) Log.v(TAG, "selectVideoCodec:");
-
-    	// get the list of available codecs
-        final int numCodecs = MediaCodecList.getCodecCount();
-        for (int i = 0; i < numCodecs; i++) {
-        	final MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-
-            if (!codecInfo.isEncoder()) {	// skipp decoder
-                continue;
-            }
-            // select first codec that match a specific MIME type and color format
-            final String[] types = codecInfo.getSupportedTypes();
-            for (int j = 0; j < types.length; j++) {
-                if (types[j].equalsIgnoreCase(mimeType)) {
-                	if (DEBUG) Log.i(TAG, "codec:" + codecInfo.getName() + ",MIME=" + types[j]);
-            		final int format = selectColorFormat(codecInfo, mimeType);
-                	if (format > 0) {
-                		return codecInfo;
-                	}
-                }
-            }
-        }
+    	final MediaCodecCapabilityCache.Selection selection
+    		= MediaCodecCapabilityCache.select(mimeType, recognizedFormats);
+    	if (selection != null) {
+    		return selection.codecInfo;
+    	}
         return null;
     }
 
@@ -180,16 +164,10 @@ public class MediaVideoEncoder extends MediaEncoder implements IVideoEncoder {
     protected static final int selectColorFormat(final MediaCodecInfo codecInfo, final String mimeType) {
 		if (DEBUG) Log.i(TAG, "selectColorFormat: ");
     	int result = 0;
-    	final MediaCodecInfo.CodecCapabilities caps;
-    	try {
-    		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-    		caps = codecInfo.getCapabilitiesForType(mimeType);
-    	} finally {
-    		Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
-    	}
+    	final int[] colorFormats = MediaCodecCapabilityCache.getColorFormats(codecInfo, mimeType);
         int colorFormat;
-        for (int i = 0; i < caps.colorFormats.length; i++) {
-        	colorFormat = caps.colorFormats[i];
+        for (int i = 0; i < colorFormats.length; i++) {
+        	colorFormat = colorFormats[i];
             if (isRecognizedVideoFormat(colorFormat)) {
             	if (result == 0)
             		result = colorFormat;
@@ -0,0 +1,254 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.util.Log;
+
+import com.serenegiant.usb.RingFileBufferedPipeline;
+import com.serenegiant.usb.UVCCamera;
+
+/**
+ * Encode the frames kept in RingFileBufferedPipeline into a mp4 file,
+ * e.g. to save the last several seconds before an alarm fired.
+ * This runs synchronously on the caller thread, so you should not call this on UI thread.
+ * The frames are encoded as fast as the codec can, the presentation time of each frame
+ * is taken from the time when the frame was captured.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class PreEventMovieWriter implements RingFileBufferedPipeline.FrameReader {
+	private static final boolean DEBUG = false;	// TODO set false on release
+	private static final String TAG = "PreEventMovieWriter";
+
+	private static final String MIME_TYPE = "video/avc";
+	private static final int FRAME_RATE = 15;
+	private static final float BPP = 0.25f;
+	private static final int TIMEOUT_USEC = 10000;	// 10[msec]
+
+	/**
+	 * encode the frames within the last specific duration
+	 * @param ring
+	 * @param durationNs
+	 * @param outputPath
+	 * @return number of encoded frames
+	 * @throws IOException
+	 */
+	public static int writeLast(final RingFileBufferedPipeline ring,
+		final long durationNs, final String outputPath) throws IOException {
+
+		final long[] range = ring.getTimeRange();
+		if (range == null) return 0;
+		return write(ring, range[1] - durationNs, range[1], outputPath);
+	}
+
+	/**
+	 * encode the frames within the specific time range
+	 * @param ring
+	 * @param startNs same time base as System#nanoTime
+	 * @param endNs same time base as System#nanoTime
+	 * @param outputPath
+	 * @return number of encoded frames
+	 * @throws IOException
+	 */
+	public static int write(final RingFileBufferedPipeline ring,
+		final long startNs, final long endNs, final String outputPath) throws IOException {
+
+		final PreEventMovieWriter writer = new PreEventMovieWriter(outputPath);
+		try {
+			ring.read(startNs, endNs, writer.mPixelFormat, writer);
+			writer.finish();
+		} finally {
+			writer.release();
+		}
+		return writer.mEncodedFrames;
+	}
+
+	private final String mOutputPath;
+	private final MediaCodecInfo mCodecInfo;
+	private final int mColorFormat;
+	private final int mPixelFormat;
+	private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+	private MediaCodec mMediaCodec;
+	private MediaMuxer mMediaMuxer;
+	private int mTrackIndex = -1;
+	private boolean mMuxerStarted;
+	private int mWidth, mHeight;
+	private long mStartNs;
+	private int mEncodedFrames;
+
+	private PreEventMovieWriter(final String outputPath) throws IOException {
+		mOutputPath = outputPath;
+		mCodecInfo = selectVideoCodec(MIME_TYPE);
+		if (mCodecInfo == null) {
+			throw new IOException("Unable to find an appropriate codec for " + MIME_TYPE);
+		}
+		mColorFormat = MediaVideoBufferEncoder.selectColorFormat(mCodecInfo, MIME_TYPE);
+		// COLOR_FormatYUV420SemiPlanar is U/V order, that is same as PIXEL_FORMAT_NV21 of IFrameCallback
+		mPixelFormat = mColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar
+			? UVCCamera.PIXEL_FORMAT_I420 : UVCCamera.PIXEL_FORMAT_NV21;
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public void onFrame(final ByteBuffer frame, final int width, final int height, final long timeNs) {
+		try {
+			if (mMediaCodec == null) {
+				prepare(width, height);
+				mStartNs = timeNs;
+			} else if ((width != mWidth) || (height != mHeight)) {
+				Log.w(TAG, "frame size changed, skip:" + width + "x" + height);
+				return;
+			}
+			final ByteBuffer[] inputBuffers = mMediaCodec.getInputBuffers();
+			for ( ; ; ) {
+				final int inputBufferIndex = mMediaCodec.dequeueInputBuffer(TIMEOUT_USEC);
+				if (inputBufferIndex >= 0) {
+					final ByteBuffer inputBuffer = inputBuffers[inputBufferIndex];
+					inputBuffer.clear();
+					frame.clear();
+					if (frame.remaining() > inputBuffer.remaining()) {
+						frame.limit(inputBuffer.remaining());
+					}
+					final int sz = frame.remaining();
+					inputBuffer.put(frame);
+					mMediaCodec.queueInputBuffer(inputBufferIndex, 0, sz, (timeNs - mStartNs) / 1000L, 0);
+					mEncodedFrames++;
+					break;
+				}
+				// input buffers are full, drain output to make room
+				drain(false);
+			}
+			drain(false);
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void prepare(final int width, final int height) throws IOException {
+		if (DEBUG) Log.v(TAG, "prepare:" + width + "x" + height);
+		mWidth = width;
+		mHeight = height;
+		final MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+		format.setInteger(MediaFormat.KEY_COLOR_FORMAT, mColorFormat);
+		format.setInteger(MediaFormat.KEY_BIT_RATE, (int)(BPP * FRAME_RATE * width * height));
+		format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+		format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+		mMediaCodec = MediaCodec.createByCodecName(mCodecInfo.getName());
+		mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+		mMediaCodec.start();
+		mMediaMuxer = new MediaMuxer(mOutputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+	}
+
+	private void finish() {
+		if (mMediaCodec == null) return;
+		for ( ; ; ) {
+			final int inputBufferIndex = mMediaCodec.dequeueInputBuffer(TIMEOUT_USEC);
+			if (inputBufferIndex >= 0) {
+				mMediaCodec.queueInputBuffer(inputBufferIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+				break;
+			}
+			drain(false);
+		}
+		drain(true);
+	}
+
+	/**
+	 * write encoded data to the muxer
+	 * @param endOfStream true: wait until EOS comes
+	 */
+	@SuppressWarnings("deprecation")
+	private void drain(final boolean endOfStream) {
+		ByteBuffer[] outputBuffers = mMediaCodec.getOutputBuffers();
+		for ( ; ; ) {
+			final int encoderStatus = mMediaCodec.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
+			if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
+				if (!endOfStream) break;
+			} else if (encoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+				outputBuffers = mMediaCodec.getOutputBuffers();
+			} else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+				if (mMuxerStarted) {
+					throw new RuntimeException("format changed twice");
+				}
+				mTrackIndex = mMediaMuxer.addTrack(mMediaCodec.getOutputFormat());
+				mMediaMuxer.start();
+				mMuxerStarted = true;
+			} else if (encoderStatus >= 0) {
+				final ByteBuffer encodedData = outputBuffers[encoderStatus];
+				if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+					// already passed to the muxer with INFO_OUTPUT_FORMAT_CHANGED
+					mBufferInfo.size = 0;
+				}
+				if ((mBufferInfo.size != 0) && mMuxerStarted) {
+					encodedData.position(mBufferInfo.offset);
+					encodedData.limit(mBufferInfo.offset + mBufferInfo.size);
+					mMediaMuxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
+				}
+				mMediaCodec.releaseOutputBuffer(encoderStatus, false);
+				if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+					break;
+				}
+			}
+		}
+	}
+
+	private void release() {
+		if (mMediaCodec != null) {
+			try {
+				mMediaCodec.stop();
+			} catch (final Exception e) {
+				Log.w(TAG, e);
+			}
+			mMediaCodec.release();
+			mMediaCodec = null;
+		}
+		if (mMediaMuxer != null) {
+			try {
+				if (mMuxerStarted) {
+					mMediaMuxer.stop();
+				}
+			} catch (final Exception e) {
+				Log.w(TAG, e);
+			}
+			mMediaMuxer.release();
+			mMediaMuxer = null;
+		}
+	}
+
+	/**
+	 * select the first encoder that match a specific MIME type and has color format we can use
+	 * @return null if no codec matched
+	 */
+	private static MediaCodecInfo selectVideoCodec(final String mimeType) {
+		final MediaCodecCapabilityCache.Selection selection
+			= MediaCodecCapabilityCache.select(mimeType, MediaVideoBufferEncoder.recognizedFormats);
+		return selection != null ? selection.codecInfo : null;
+	}
+}
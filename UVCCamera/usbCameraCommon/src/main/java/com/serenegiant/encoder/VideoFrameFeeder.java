@@ -0,0 +1,214 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.encoder;
+
+import java.util.ArrayDeque;
+
+import android.util.Log;
+
+import com.serenegiant.usb.UVCFrame;
+
+/**
+ * Bounded queue and feeder thread between IPooledFrameCallback and MediaVideoBufferEncoder.
+ * #offer is called on the native capture thread and never blocks,
+ * the queued frames are passed to the encoder on the private thread,
+ * so a slow encoder never stalls preview and frame callback.
+ * The frames are kept as pooled UVCFrame without copying,
+ * so the pool of UVCCamera#setPooledFrameCallback should have #getPoolNum frames.
+ */
+public class VideoFrameFeeder implements Runnable {
+	private static final boolean DEBUG = true;	// TODO set false on release
+	private static final String TAG = "VideoFrameFeeder";
+
+	/**
+	 * drop the oldest queued frame when the queue is full, recorded movie keeps up with the camera
+	 */
+	public static final int DROP_OLDEST = 0;
+	/**
+	 * drop the new frame when the queue is full, queued frames are encoded without gap
+	 */
+	public static final int DROP_NEWEST = 1;
+
+	public static final int DEFAULT_CAPACITY = 3;
+
+	private final Object mSync = new Object();
+	private final MediaVideoBufferEncoder mEncoder;
+	private final int mCapacity;
+	private final int mDropPolicy;
+	private final ArrayDeque<UVCFrame> mQueue;
+	private volatile boolean mIsRunning;
+	private long mOfferedFrames;
+	private long mDroppedFrames;
+	private volatile long mEncodedFrames;
+
+	public VideoFrameFeeder(final MediaVideoBufferEncoder encoder) {
+		this(encoder, DEFAULT_CAPACITY, DROP_OLDEST);
+	}
+
+	/**
+	 * @param encoder
+	 * @param capacity maximum number of queued frames
+	 * @param dropPolicy DROP_OLDEST or DROP_NEWEST
+	 */
+	public VideoFrameFeeder(final MediaVideoBufferEncoder encoder, final int capacity, final int dropPolicy) {
+		if (encoder == null) throw new NullPointerException("MediaVideoBufferEncoder is null");
+		if (capacity <= 0) throw new IllegalArgumentException("capacity should be positive:" + capacity);
+		if ((dropPolicy != DROP_OLDEST) && (dropPolicy != DROP_NEWEST))
+			throw new IllegalArgumentException("unknown drop policy:" + dropPolicy);
+		mEncoder = encoder;
+		mCapacity = capacity;
+		mDropPolicy = dropPolicy;
+		mQueue = new ArrayDeque<UVCFrame>(capacity);
+		mIsRunning = true;
+		new Thread(this, TAG).start();
+	}
+
+	/**
+	 * number of pooled frames that this needs,
+	 * queued frames and the frames that are being encoded and offered
+	 */
+	public int getPoolNum() {
+		return mCapacity + 2;
+	}
+
+	/**
+	 * queue the frame for encoding, this never blocks.
+	 * The frame is released when it was encoded or dropped
+	 * @param frame
+	 */
+	public void offer(final UVCFrame frame) {
+		UVCFrame drop = null;
+		synchronized (mSync) {
+			mOfferedFrames++;
+			if (!mIsRunning) {
+				drop = frame;
+			} else {
+				if (mQueue.size() >= mCapacity) {
+					mDroppedFrames++;
+					drop = mDropPolicy == DROP_OLDEST ? mQueue.pollFirst() : frame;
+				}
+				if (drop != frame) {
+					mQueue.addLast(frame);
+					mSync.notify();
+				}
+			}
+		}
+		if (drop != null) {
+			drop.release();
+		}
+	}
+
+	/**
+	 * stop the feeder thread and release queued frames,
+	 * the frame that is being encoded is released by the feeder thread
+	 */
+	public void release() {
+		if (DEBUG) Log.v(TAG, "release:offered=" + getOfferedFrames()
+			+ ",dropped=" + getDroppedFrames() + ",encoded=" + getEncodedFrames());
+		synchronized (mSync) {
+			mIsRunning = false;
+			mSync.notifyAll();
+		}
+		releaseQueuedFrames();
+	}
+
+	/**
+	 * @return number of frames passed to #offer
+	 */
+	public long getOfferedFrames() {
+		synchronized (mSync) {
+			return mOfferedFrames;
+		}
+	}
+
+	/**
+	 * @return number of frames that were dropped because the queue was full
+	 */
+	public long getDroppedFrames() {
+		synchronized (mSync) {
+			return mDroppedFrames;
+		}
+	}
+
+	/**
+	 * @return number of frames that were passed to the encoder
+	 */
+	public long getEncodedFrames() {
+		return mEncodedFrames;
+	}
+
+	/**
+	 * @return number of frames that are waiting for encoding now
+	 */
+	public int getQueuedFrames() {
+		synchronized (mSync) {
+			return mQueue.size();
+		}
+	}
+
+	private void releaseQueuedFrames() {
+		for ( ; ; ) {
+			final UVCFrame frame;
+			synchronized (mSync) {
+				frame = mQueue.pollFirst();
+			}
+			if (frame == null) break;
+			frame.release();
+		}
+	}
+
+	/**
+	 * feeder loop on private thread
+	 */
+	@Override
+	public void run() {
+		if (DEBUG) Log.v(TAG, "feeder thread started");
+		for ( ; mIsRunning ; ) {
+			final UVCFrame frame;
+			synchronized (mSync) {
+				if (mQueue.isEmpty()) {
+					try {
+						mSync.wait();
+					} catch (final InterruptedException e) {
+						break;
+					}
+					continue;
+				}
+				frame = mQueue.pollFirst();
+			}
+			try {
+				if (mEncoder.frameAvailableSoon()) {
+					mEncoder.encode(frame);
+					mEncodedFrames++;
+				}
+			} catch (final Exception e) {
+				Log.w(TAG, e);
+			} finally {
+				frame.release();
+			}
+		}
+		mIsRunning = false;
+		releaseQueuedFrames();
+		if (DEBUG) Log.v(TAG, "feeder thread finished");
+	}
+}
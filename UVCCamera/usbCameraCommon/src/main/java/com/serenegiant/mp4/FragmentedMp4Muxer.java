@@ -0,0 +1,602 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fragmented mp4(ISO/IEC 14496-12) muxer for h.264 video and AAC audio written in pure Java.
+ * Unlike android.media.MediaMuxer that writes moov box only when it is stopped,
+ * this writes ftyp/moov on #start and then moof/mdat pair for each fragment,
+ * so the file is playable up to the last completed fragment even if the app crashed
+ * or the power was cut while recording.
+ * Fragments are cut on the sync frame of video track after the fragment duration elapsed
+ * (or after twice the fragment duration even if no sync frame came).
+ * This does not depend on any Android classes.
+ * This class is not thread safe, the caller should serialize the calls.
+ */
+public class FragmentedMp4Muxer {
+	/** same value as MediaCodec.BUFFER_FLAG_KEY_FRAME */
+	public static final int FLAG_SYNC_FRAME = 1;
+	/** same value as MediaCodec.BUFFER_FLAG_CODEC_CONFIG, samples with this flag are ignored */
+	public static final int FLAG_CODEC_CONFIG = 2;
+
+	public static final long DEFAULT_FRAGMENT_DURATION_US = 1000000L;	// 1[sec]
+
+	private static final int MOVIE_TIMESCALE = 1000;
+	private static final int VIDEO_TIMESCALE = 90000;
+	// sample_depends_on=2(does not depend on others)
+	private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+	// sample_depends_on=1, sample_is_non_sync_sample=1
+	private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+	private static final class Track {
+		private final int trackId;
+		private final boolean isVideo;
+		private final int timescale;
+		private final byte[] sampleEntry;
+		private final int width, height;
+		// samples of current fragment
+		private final List<long[]> samples = new ArrayList<long[]>();	// {time, size, flags}
+		private ByteBuffer data = ByteBuffer.allocate(64 * 1024);
+		private long lastTime = -1;
+		private long lastDuration;
+
+		private Track(final int trackId, final boolean isVideo, final int timescale,
+			final int width, final int height, final long defaultDuration, final byte[] sampleEntry) {
+
+			this.trackId = trackId;
+			this.isVideo = isVideo;
+			this.timescale = timescale;
+			this.width = width;
+			this.height = height;
+			this.lastDuration = defaultDuration;
+			this.sampleEntry = sampleEntry;
+		}
+
+		private void ensureData(final int bytes) {
+			if (data.remaining() < bytes) {
+				final ByteBuffer buf = ByteBuffer.allocate(
+					Math.max(data.capacity() * 2, data.position() + bytes));
+				data.flip();
+				buf.put(data);
+				data = buf;
+			}
+		}
+	}
+
+	private final FileChannel mChannel;
+	private final RandomAccessFile mFile;
+	private final long mFragmentDurationUs;
+	private final List<Track> mTracks = new ArrayList<Track>();
+	private ByteBuffer mWork = ByteBuffer.allocate(16 * 1024);
+	/** fragments are cut on the samples of this track */
+	private Track mPrimary;
+	private boolean mForceOnFragment = true;
+	private boolean mIsStarted;
+	private boolean mIsStopped;
+	private int mSequenceNumber;
+	private long mStartTimeUs = -1;
+	private long mFragmentStartUs = -1;
+	private long mFragmentCount;
+	private long mWrittenBytes;
+
+	/**
+	 * @param path output file path, existing file is truncated
+	 * @param fragmentDurationUs
+	 * @throws IOException
+	 */
+	public FragmentedMp4Muxer(final String path, final long fragmentDurationUs) throws IOException {
+		this(new RandomAccessFile(new File(path), "rw"), fragmentDurationUs);
+	}
+
+	private FragmentedMp4Muxer(final RandomAccessFile file, final long fragmentDurationUs) throws IOException {
+		if (fragmentDurationUs <= 0)
+			throw new IllegalArgumentException("fragment duration should be positive:" + fragmentDurationUs);
+		mFile = file;
+		mChannel = file.getChannel();
+		mChannel.truncate(0);
+		mFragmentDurationUs = fragmentDurationUs;
+	}
+
+	/**
+	 * whether FileChannel#force is called after writing each fragment, default is true.
+	 * if false, the fragments that are not written back to the storage yet are lost on power cut
+	 * @param force
+	 */
+	public void setForceOnFragment(final boolean force) {
+		mForceOnFragment = force;
+	}
+
+	/**
+	 * add h.264 video track
+	 * @param width
+	 * @param height
+	 * @param sps sequence parameter set, with or without start code(e.g. csd-0 of MediaFormat)
+	 * @param pps picture parameter set, with or without start code(e.g. csd-1 of MediaFormat)
+	 * @return track index
+	 */
+	public int addVideoTrack(final int width, final int height, final byte[] sps, final byte[] pps) {
+		checkNotStarted();
+		final byte[] s = stripStartCode(sps);
+		final byte[] p = stripStartCode(pps);
+		if (s.length < 4 || p.length < 1)
+			throw new IllegalArgumentException("invalid sps/pps");
+		final ByteBuffer buf = ByteBuffer.allocate(256 + s.length + p.length);
+		final int entry = beginBox(buf, "avc1");
+		buf.put(new byte[6]).putShort((short)1);	// reserved, data_reference_index
+		buf.put(new byte[16]);						// pre_defined, reserved, pre_defined
+		buf.putShort((short)width).putShort((short)height);
+		buf.putInt(0x00480000).putInt(0x00480000);	// 72dpi
+		buf.putInt(0).putShort((short)1);			// reserved, frame_count
+		buf.put(new byte[32]);						// compressorname
+		buf.putShort((short)0x0018).putShort((short)-1);	// depth, pre_defined
+		final int avcC = beginBox(buf, "avcC");
+		buf.put((byte)1).put(s[1]).put(s[2]).put(s[3]);	// version, profile, compatibility, level
+		buf.put((byte)0xff);						// lengthSizeMinusOne=3
+		buf.put((byte)0xe1).putShort((short)s.length).put(s);
+		buf.put((byte)1).putShort((short)p.length).put(p);
+		final int profile = s[1] & 0xff;
+		if ((profile == 100) || (profile == 110) || (profile == 122) || (profile == 144)) {
+			// assume 4:2:0, 8 bits
+			buf.put((byte)0xfd).put((byte)0xf8).put((byte)0xf8).put((byte)0);
+		}
+		endBox(buf, avcC);
+		endBox(buf, entry);
+		return addTrack(new Track(mTracks.size() + 1, true, VIDEO_TIMESCALE,
+			width, height, VIDEO_TIMESCALE / 15, toArray(buf)));
+	}
+
+	/**
+	 * add AAC audio track
+	 * @param sampleRate
+	 * @param channelCount
+	 * @param audioSpecificConfig e.g. csd-0 of MediaFormat
+	 * @return track index
+	 */
+	public int addAudioTrack(final int sampleRate, final int channelCount, final byte[] audioSpecificConfig) {
+		checkNotStarted();
+		if ((audioSpecificConfig == null) || (audioSpecificConfig.length > 100))
+			throw new IllegalArgumentException("invalid AudioSpecificConfig");
+		final int trackId = mTracks.size() + 1;
+		final int asc = audioSpecificConfig.length;
+		final ByteBuffer buf = ByteBuffer.allocate(128 + asc);
+		final int entry = beginBox(buf, "mp4a");
+		buf.put(new byte[6]).putShort((short)1);	// reserved, data_reference_index
+		buf.put(new byte[8]);						// reserved
+		buf.putShort((short)channelCount).putShort((short)16);	// channelcount, samplesize
+		buf.putInt(0);								// pre_defined, reserved
+		buf.putInt(sampleRate << 16);
+		final int esds = beginFullBox(buf, "esds", 0, 0);
+		buf.put((byte)0x03).put((byte)(23 + asc));	// ES_Descriptor
+		buf.putShort((short)trackId).put((byte)0);
+		buf.put((byte)0x04).put((byte)(15 + asc));	// DecoderConfigDescriptor
+		buf.put((byte)0x40);						// objectTypeIndication, MPEG-4 audio
+		buf.put((byte)0x15);						// streamType=audio, upStream=0, reserved=1
+		buf.put(new byte[3]);						// bufferSizeDB
+		buf.putInt(0).putInt(0);					// maxBitrate, avgBitrate
+		buf.put((byte)0x05).put((byte)asc).put(audioSpecificConfig);	// DecoderSpecificInfo
+		buf.put((byte)0x06).put((byte)1).put((byte)0x02);	// SLConfigDescriptor
+		endBox(buf, esds);
+		endBox(buf, entry);
+		// AAC frame has 1024 samples
+		return addTrack(new Track(trackId, false, sampleRate, 0, 0, 1024, toArray(buf)));
+	}
+
+	private int addTrack(final Track track) {
+		mTracks.add(track);
+		return mTracks.size() - 1;
+	}
+
+	/**
+	 * write ftyp and moov box, you can not add track after this
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		checkNotStarted();
+		if (mTracks.isEmpty())
+			throw new IllegalStateException("no track");
+		for (final Track track: mTracks) {
+			if (track.isVideo) {
+				mPrimary = track;
+				break;
+			}
+		}
+		if (mPrimary == null) {
+			mPrimary = mTracks.get(0);
+		}
+		final ByteBuffer buf = ByteBuffer.allocate(4096);
+		final int ftyp = beginBox(buf, "ftyp");
+		putFourCC(buf, "isom").putInt(0x200);
+		putFourCC(buf, "isom");
+		putFourCC(buf, "iso5");
+		putFourCC(buf, "avc1");
+		putFourCC(buf, "mp41");
+		endBox(buf, ftyp);
+		writeMoov(buf);
+		buf.flip();
+		write(buf);
+		mIsStarted = true;
+	}
+
+	/**
+	 * write encoded sample
+	 * @param trackIndex return value of #addVideoTrack or #addAudioTrack
+	 * @param data sample data from position to limit, h.264 data can be either Annex-B(with start code)
+	 * or length prefixed. The position is not changed.
+	 * @param presentationTimeUs should be monotonic in the same track
+	 * @param flags FLAG_SYNC_FRAME, FLAG_CODEC_CONFIG
+	 * @throws IOException
+	 */
+	public void writeSampleData(final int trackIndex, final ByteBuffer data,
+		final long presentationTimeUs, final int flags) throws IOException {
+
+		if (!mIsStarted || mIsStopped)
+			throw new IllegalStateException("muxer is not started");
+		if ((flags & FLAG_CODEC_CONFIG) != 0) return;
+		final Track track = mTracks.get(trackIndex);
+		final boolean sync = !track.isVideo || ((flags & FLAG_SYNC_FRAME) != 0);
+		if (mStartTimeUs < 0) {
+			mStartTimeUs = mFragmentStartUs = presentationTimeUs;
+		}
+		if (track == mPrimary) {
+			// cut the fragment before this sample
+			final long elapsed = presentationTimeUs - mFragmentStartUs;
+			if ((sync && (elapsed >= mFragmentDurationUs)) || (elapsed >= mFragmentDurationUs * 2)) {
+				if (track.lastTime >= 0) {
+					final long time = toTrackTime(track, presentationTimeUs);
+					if (time > track.lastTime)
+						track.lastDuration = time - track.lastTime;
+				}
+				flushFragment();
+				mFragmentStartUs = presentationTimeUs;
+			}
+		}
+		long time = toTrackTime(track, presentationTimeUs);
+		if (time <= track.lastTime) {
+			time = track.lastTime + 1;	// should be monotonic
+		}
+		if (track.lastTime >= 0) {
+			track.lastDuration = time - track.lastTime;
+		}
+		track.lastTime = time;
+		final int start = track.data.position();
+		if (track.isVideo) {
+			appendNalUnits(track, data);
+		} else {
+			track.ensureData(data.remaining());
+			track.data.put(data.duplicate());
+		}
+		track.samples.add(new long[] {time, track.data.position() - start,
+			sync ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC});
+	}
+
+	/**
+	 * write the remaining samples as the last fragment and close the file
+	 * @throws IOException
+	 */
+	public void stop() throws IOException {
+		if (mIsStopped) return;
+		mIsStopped = true;
+		try {
+			if (mIsStarted) {
+				flushFragment();
+			}
+		} finally {
+			mChannel.close();
+			mFile.close();
+		}
+	}
+
+	public long getFragmentCount() {
+		return mFragmentCount;
+	}
+
+	/**
+	 * @return number of bytes written to the file
+	 */
+	public long getWrittenBytes() {
+		return mWrittenBytes;
+	}
+
+//********************************************************************************
+	private void checkNotStarted() {
+		if (mIsStarted || mIsStopped)
+			throw new IllegalStateException("muxer already started");
+	}
+
+	private long toTrackTime(final Track track, final long presentationTimeUs) {
+		final long us = presentationTimeUs > mStartTimeUs ? presentationTimeUs - mStartTimeUs : 0;
+		return us * track.timescale / 1000000L;
+	}
+
+	private void writeMoov(final ByteBuffer buf) {
+		final int moov = beginBox(buf, "moov");
+		final int mvhd = beginFullBox(buf, "mvhd", 0, 0);
+		buf.putInt(0).putInt(0);					// creation_time, modification_time
+		buf.putInt(MOVIE_TIMESCALE).putInt(0);		// timescale, duration
+		buf.putInt(0x00010000).putShort((short)0x0100);	// rate, volume
+		buf.put(new byte[10]);						// reserved
+		putMatrix(buf);
+		buf.put(new byte[24]);						// pre_defined
+		buf.putInt(mTracks.size() + 1);				// next_track_ID
+		endBox(buf, mvhd);
+		for (final Track track: mTracks) {
+			final int trak = beginBox(buf, "trak");
+			final int tkhd = beginFullBox(buf, "tkhd", 0, 0x07);	// enabled, in movie, in preview
+			buf.putInt(0).putInt(0);				// creation_time, modification_time
+			buf.putInt(track.trackId).putInt(0);	// track_ID, reserved
+			buf.putInt(0);							// duration
+			buf.put(new byte[8]);					// reserved
+			buf.putShort((short)0).putShort((short)0);	// layer, alternate_group
+			buf.putShort((short)(track.isVideo ? 0 : 0x0100)).putShort((short)0);	// volume, reserved
+			putMatrix(buf);
+			buf.putInt(track.width << 16).putInt(track.height << 16);
+			endBox(buf, tkhd);
+			final int mdia = beginBox(buf, "mdia");
+			final int mdhd = beginFullBox(buf, "mdhd", 0, 0);
+			buf.putInt(0).putInt(0);				// creation_time, modification_time
+			buf.putInt(track.timescale).putInt(0);	// timescale, duration
+			buf.putShort((short)0x55c4).putShort((short)0);	// language='und', pre_defined
+			endBox(buf, mdhd);
+			final int hdlr = beginFullBox(buf, "hdlr", 0, 0);
+			buf.putInt(0);							// pre_defined
+			putFourCC(buf, track.isVideo ? "vide" : "soun");
+			buf.put(new byte[12]);					// reserved
+			buf.put((track.isVideo ? "VideoHandler" : "SoundHandler").getBytes()).put((byte)0);
+			endBox(buf, hdlr);
+			final int minf = beginBox(buf, "minf");
+			if (track.isVideo) {
+				final int vmhd = beginFullBox(buf, "vmhd", 0, 1);
+				buf.put(new byte[8]);				// graphicsmode, opcolor
+				endBox(buf, vmhd);
+			} else {
+				final int smhd = beginFullBox(buf, "smhd", 0, 0);
+				buf.putInt(0);						// balance, reserved
+				endBox(buf, smhd);
+			}
+			final int dinf = beginBox(buf, "dinf");
+			final int dref = beginFullBox(buf, "dref", 0, 0);
+			buf.putInt(1);
+			endBox(buf, beginFullBox(buf, "url ", 0, 1));	// media data is in this file
+			endBox(buf, dref);
+			endBox(buf, dinf);
+			final int stbl = beginBox(buf, "stbl");
+			final int stsd = beginFullBox(buf, "stsd", 0, 0);
+			buf.putInt(1).put(track.sampleEntry);
+			endBox(buf, stsd);
+			// samples are in fragments, so sample tables are empty
+			endBox(buf, putEmptyTable(buf, "stts"));
+			endBox(buf, putEmptyTable(buf, "stsc"));
+			final int stsz = beginFullBox(buf, "stsz", 0, 0);
+			buf.putInt(0).putInt(0);				// sample_size, sample_count
+			endBox(buf, stsz);
+			endBox(buf, putEmptyTable(buf, "stco"));
+			endBox(buf, stbl);
+			endBox(buf, minf);
+			endBox(buf, mdia);
+			endBox(buf, trak);
+		}
+		final int mvex = beginBox(buf, "mvex");
+		for (final Track track: mTracks) {
+			final int trex = beginFullBox(buf, "trex", 0, 0);
+			buf.putInt(track.trackId).putInt(1);	// track_ID, default_sample_description_index
+			buf.putInt(0).putInt(0).putInt(0);		// default duration, size, flags
+			endBox(buf, trex);
+		}
+		endBox(buf, mvex);
+		endBox(buf, moov);
+	}
+
+	/**
+	 * write samples of all tracks as a moof/mdat pair
+	 * @throws IOException
+	 */
+	private void flushFragment() throws IOException {
+		int mdatBytes = 0;
+		for (final Track track: mTracks) {
+			mdatBytes += track.data.position();
+		}
+		if (mdatBytes == 0) return;
+		mWork.clear();
+		ByteBuffer buf = mWork;
+		final int moof = beginBox(buf, "moof");
+		final int mfhd = beginFullBox(buf, "mfhd", 0, 0);
+		buf.putInt(++mSequenceNumber);
+		endBox(buf, mfhd);
+		final int[] dataOffsetPos = new int[mTracks.size()];
+		for (int i = 0; i < mTracks.size(); i++) {
+			final Track track = mTracks.get(i);
+			final int n = track.samples.size();
+			dataOffsetPos[i] = -1;
+			if (n == 0) continue;
+			buf = ensureWork(n * 12 + 128);
+			final int traf = beginBox(buf, "traf");
+			final int tfhd = beginFullBox(buf, "tfhd", 0, 0x020000);	// default-base-is-moof
+			buf.putInt(track.trackId);
+			endBox(buf, tfhd);
+			final int tfdt = beginFullBox(buf, "tfdt", 1, 0);
+			buf.putLong(track.samples.get(0)[0]);	// baseMediaDecodeTime
+			endBox(buf, tfdt);
+			// data-offset, sample-duration, sample-size, sample-flags
+			final int trun = beginFullBox(buf, "trun", 0, 0x000701);
+			buf.putInt(n);
+			dataOffsetPos[i] = buf.position();
+			buf.putInt(0);
+			for (int j = 0; j < n; j++) {
+				final long[] sample = track.samples.get(j);
+				final long duration = j + 1 < n ? track.samples.get(j + 1)[0] - sample[0] : track.lastDuration;
+				buf.putInt((int)duration).putInt((int)sample[1]).putInt((int)sample[2]);
+			}
+			endBox(buf, trun);
+			endBox(buf, traf);
+		}
+		buf = ensureWork(8);
+		endBox(buf, moof);
+		final int moofBytes = buf.position();
+		int offset = moofBytes + 8;
+		for (int i = 0; i < mTracks.size(); i++) {
+			if (dataOffsetPos[i] >= 0) {
+				buf.putInt(dataOffsetPos[i], offset);
+				offset += mTracks.get(i).data.position();
+			}
+		}
+		buf.putInt(8 + mdatBytes);
+		putFourCC(buf, "mdat");
+		buf.flip();
+		write(buf);
+		for (final Track track: mTracks) {
+			track.data.flip();
+			write(track.data);
+			track.data.clear();
+			track.samples.clear();
+		}
+		if (mForceOnFragment) {
+			mChannel.force(false);
+		}
+		mFragmentCount++;
+	}
+
+	private ByteBuffer ensureWork(final int bytes) {
+		if (mWork.remaining() < bytes) {
+			final ByteBuffer buf = ByteBuffer.allocate(Math.max(mWork.capacity() * 2, mWork.position() + bytes));
+			mWork.flip();
+			buf.put(mWork);
+			mWork = buf;
+		}
+		return mWork;
+	}
+
+	private void write(final ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			mWrittenBytes += mChannel.write(buf);
+		}
+	}
+
+	/**
+	 * append h.264 NAL units as 4 bytes length prefixed format
+	 */
+	private static void appendNalUnits(final Track track, final ByteBuffer data) {
+		final int start = data.position();
+		final int end = data.limit();
+		if (!hasStartCode(data, start, end)) {
+			// already length prefixed
+			track.ensureData(end - start);
+			track.data.put(data.duplicate());
+			return;
+		}
+		track.ensureData(end - start + 64);
+		int nal = skipStartCode(data, start, end);
+		while (nal < end) {
+			int next = nal;
+			int nalEnd = end;
+			for ( ; next + 2 < end; next++) {
+				if ((data.get(next) == 0) && (data.get(next + 1) == 0) && (data.get(next + 2) == 1)) {
+					nalEnd = (next > nal) && (data.get(next - 1) == 0) ? next - 1 : next;
+					break;
+				}
+			}
+			if (nalEnd == end) next = end;
+			final int len = nalEnd - nal;
+			if (len > 0) {
+				track.ensureData(len + 4);
+				track.data.putInt(len);
+				final ByteBuffer src = data.duplicate();
+				src.limit(nalEnd).position(nal);
+				track.data.put(src);
+			}
+			nal = next < end ? next + 3 : end;
+		}
+	}
+
+	private static boolean hasStartCode(final ByteBuffer data, final int start, final int end) {
+		return ((end - start >= 3) && (data.get(start) == 0) && (data.get(start + 1) == 0)
+			&& ((data.get(start + 2) == 1)
+				|| ((end - start >= 4) && (data.get(start + 2) == 0) && (data.get(start + 3) == 1))));
+	}
+
+	private static int skipStartCode(final ByteBuffer data, final int start, final int end) {
+		return data.get(start + 2) == 1 ? start + 3 : start + 4;
+	}
+
+	private static byte[] stripStartCode(final byte[] nal) {
+		if (nal == null) return new byte[0];
+		final ByteBuffer buf = ByteBuffer.wrap(nal);
+		if (!hasStartCode(buf, 0, nal.length)) return nal;
+		final int start = skipStartCode(buf, 0, nal.length);
+		final byte[] result = new byte[nal.length - start];
+		System.arraycopy(nal, start, result, 0, result.length);
+		return result;
+	}
+
+	private static byte[] toArray(final ByteBuffer buf) {
+		final byte[] result = new byte[buf.position()];
+		System.arraycopy(buf.array(), 0, result, 0, result.length);
+		return result;
+	}
+
+	private static ByteBuffer putFourCC(final ByteBuffer buf, final String type) {
+		for (int i = 0; i < 4; i++) {
+			buf.put((byte)type.charAt(i));
+		}
+		return buf;
+	}
+
+	/**
+	 * @return position of the box, pass this to #endBox
+	 */
+	private static int beginBox(final ByteBuffer buf, final String type) {
+		final int pos = buf.position();
+		buf.putInt(0);
+		putFourCC(buf, type);
+		return pos;
+	}
+
+	private static int beginFullBox(final ByteBuffer buf, final String type, final int version, final int flags) {
+		final int pos = beginBox(buf, type);
+		buf.putInt((version << 24) | (flags & 0xffffff));
+		return pos;
+	}
+
+	private static void endBox(final ByteBuffer buf, final int pos) {
+		buf.putInt(pos, buf.position() - pos);
+	}
+
+	private static int putEmptyTable(final ByteBuffer buf, final String type) {
+		final int pos = beginFullBox(buf, type, 0, 0);
+		buf.putInt(0);	// entry_count
+		return pos;
+	}
+
+	private static void putMatrix(final ByteBuffer buf) {
+		buf.putInt(0x00010000).putInt(0).putInt(0);
+		buf.putInt(0).putInt(0x00010000).putInt(0);
+		buf.putInt(0).putInt(0).putInt(0x40000000);
+	}
+}
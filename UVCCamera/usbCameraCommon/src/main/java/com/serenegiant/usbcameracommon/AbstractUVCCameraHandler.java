@@ -29,6 +29,7 @@ import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
 import android.hardware.usb.UsbDevice;
 import android.media.AudioManager;
+import android.media.MediaCodecInfo;
 import android.media.MediaScannerConnection;
 import android.media.SoundPool;
 import android.os.Environment;
@@ -41,14 +42,17 @@ import android.view.Surface;
 import android.view.SurfaceHolder;
 
 import com.serenegiant.encoder.MediaAudioEncoder;
+import com.serenegiant.encoder.MediaCodecCapabilityCache;
 import com.serenegiant.encoder.MediaEncoder;
 import com.serenegiant.encoder.MediaMuxerWrapper;
 import com.serenegiant.encoder.MediaSurfaceEncoder;
 import com.serenegiant.encoder.MediaVideoBufferEncoder;
 import com.serenegiant.encoder.MediaVideoEncoder;
-import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.encoder.VideoFrameFeeder;
+import com.serenegiant.usb.IPooledFrameCallback;
 import com.serenegiant.usb.USBMonitor;
 import com.serenegiant.usb.UVCCamera;
+import com.serenegiant.usb.UVCFrame;
 import com.serenegiant.widget.CameraViewInterface;
 
 import java.io.BufferedOutputStream;
@@ -59,8 +63,8 @@ import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -201,6 +205,19 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		sendMessage(obtainMessage(MSG_CAPTURE_STILL, path));
 	}
 
+	/**
+	 * set callback for still capture, still images except PNG are compressed into JPEG asynchronously
+	 * and this is called on the worker thread when the file was written.
+	 * @param callback nullable
+	 */
+	public void setStillCaptureCallback(final JpegStillCapture.Callback callback) {
+		checkReleased();
+		final CameraThread thread = mWeakThread.get();
+		if (thread != null) {
+			thread.mStillCallback = callback;
+		}
+	}
+
 	public void startRecording() {
 		checkReleased();
 		sendEmptyMessage(MSG_CAPTURE_START);
@@ -210,6 +227,22 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		sendEmptyMessage(MSG_CAPTURE_STOP);
 	}
 
+	/**
+	 * split following recordings into files of the specific duration for continuous recording.
+	 * Each closed file is registered to MediaScanner.
+	 * @param segmentDurationMs zero disables segmentation
+	 * @param maxTotalBytes if positive, the oldest files of each recording are deleted
+	 * while total size of the files of the recording exceeds this
+	 */
+	public void setSegmentedRecording(final long segmentDurationMs, final long maxTotalBytes) {
+		checkReleased();
+		final CameraThread thread = mWeakThread.get();
+		if (thread != null) {
+			thread.mSegmentDurationMs = segmentDurationMs;
+			thread.mMaxTotalBytes = maxTotalBytes;
+		}
+	}
+
 	public void release() {
 		mReleased = true;
 		close();
@@ -355,6 +388,17 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		 */
 		private MediaMuxerWrapper mMuxer;
 		private MediaVideoBufferEncoder mVideoEncoder;
+		private VideoFrameFeeder mFrameFeeder;
+		/**
+		 * segmented recording, see #setSegmentedRecording
+		 */
+		private volatile long mSegmentDurationMs;
+		private volatile long mMaxTotalBytes;
+		/**
+		 * JPEG still capture, created on the first capture
+		 */
+		private JpegStillCapture mStillCapture;
+		private volatile JpegStillCapture.Callback mStillCallback;
 
 		/**
 		 *
@@ -382,6 +426,8 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			mWeakParent = new WeakReference<Activity>(parent);
 			mWeakCameraView = new WeakReference<CameraViewInterface>(cameraView);
 			loadShutterSound(parent);
+			// query encoders in background now, otherwise it takes hundreds of milliseconds on starting recording
+			MediaCodecCapabilityCache.prefetch("video/avc", "audio/mp4a-latm");
 		}
 
 		@Override
@@ -518,12 +564,20 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			mSoundPool.play(mSoundId, 0.2f, 0.2f, 0, 0, 1.0f);	// play shutter sound
 			try {
 				final Bitmap bitmap = mWeakCameraView.get().captureStillImage();
-				// get buffered output stream for saving a captured still image as a file on external storage.
 				// the file name is came from current time.
-				// You should use extension name as same as CompressFormat when calling Bitmap#compress.
 				final File outputFile = TextUtils.isEmpty(path)
-					? MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_DCIM, ".png")
+					? MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_DCIM, ".jpg")
 					: new File(path);
+				if (!outputFile.getName().toLowerCase(Locale.US).endsWith(".png")) {
+					// compress and write on the worker thread of JpegStillCapture not to block camera thread
+					if (mStillCapture == null) {
+						mStillCapture = new JpegStillCapture();
+					}
+					mStillCapture.capture(bitmap, outputFile, mStillCaptureCallback);
+					return;
+				}
+				// get buffered output stream for saving a captured still image as a file on external storage.
+				// You should use extension name as same as CompressFormat when calling Bitmap#compress.
 				final BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(outputFile));
 				try {
 					try {
@@ -545,6 +599,9 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			try {
 				if ((mUVCCamera == null) || (mMuxer != null)) return;
 				final MediaMuxerWrapper muxer = new MediaMuxerWrapper(".mp4");	// if you record audio only, ".m4a" is also OK.
+				if (mSegmentDurationMs > 0) {
+					muxer.setSegmentDuration(mSegmentDurationMs * 1000L, mMaxTotalBytes, mSegmentListener);
+				}
 				MediaVideoBufferEncoder videoEncoder = null;
 				switch (mEncoderType) {
 				case 1:	// for video capturing using MediaVideoEncoder
@@ -564,8 +621,18 @@ abstract class AbstractUVCCameraHandler extends Handler {
 				}
 				muxer.prepare();
 				muxer.startRecording();
+				VideoFrameFeeder feeder = null;
 				if (videoEncoder != null) {
-					mUVCCamera.setFrameCallback(mIFrameCallback, UVCCamera.PIXEL_FORMAT_NV21);
+					// MJPEG frames are decoded directly into this format and passed to the encoder without conversion
+					final int pixelFormat = videoEncoder.getColorFormat() == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar
+						? UVCCamera.PIXEL_FORMAT_I420 : UVCCamera.PIXEL_FORMAT_NV21;
+					// the frames are encoded on the feeder thread not to stall the capture thread,
+					// pooled frames carry sequence number and capture time to the encoder
+					feeder = new VideoFrameFeeder(videoEncoder);
+					synchronized (mSync) {
+						mFrameFeeder = feeder;
+					}
+					mUVCCamera.setPooledFrameCallback(mIFrameCallback, pixelFormat, feeder.getPoolNum());
 				}
 				synchronized (mSync) {
 					mMuxer = muxer;
@@ -581,10 +648,15 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		public void handleStopRecording() {
 			if (DEBUG) Log.v(TAG_THREAD, "handleStopRecording:mMuxer=" + mMuxer);
 			final MediaMuxerWrapper muxer;
+			final MediaVideoBufferEncoder videoEncoder;
+			final VideoFrameFeeder feeder;
 			synchronized (mSync) {
 				muxer = mMuxer;
+				videoEncoder = mVideoEncoder;
+				feeder = mFrameFeeder;
 				mMuxer = null;
 				mVideoEncoder = null;
+				mFrameFeeder = null;
 				if (mUVCCamera != null) {
 					mUVCCamera.stopCapture();
 				}
@@ -597,21 +669,30 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			if (muxer != null) {
 				muxer.stopRecording();
 				mUVCCamera.setFrameCallback(null, 0);
+				if (feeder != null) {
+					feeder.release();
+				}
+				if (videoEncoder != null) {
+					Log.i(TAG, "handleStopRecording:dropped frames=" + videoEncoder.getDroppedFrames()
+						+ (feeder != null ? ",dropped in queue=" + feeder.getDroppedFrames() : ""));
+				}
 				// you should not wait here
 				callOnStopRecording();
 			}
 		}
 
-		private final IFrameCallback mIFrameCallback = new IFrameCallback() {
+		private final IPooledFrameCallback mIFrameCallback = new IPooledFrameCallback() {
 			@Override
-			public void onFrame(final ByteBuffer frame) {
-				final MediaVideoBufferEncoder videoEncoder;
+			public void onFrame(final UVCFrame frame) {
+				final VideoFrameFeeder feeder;
 				synchronized (mSync) {
-					videoEncoder = mVideoEncoder;
+					feeder = mFrameFeeder;
 				}
-				if (videoEncoder != null) {
-					videoEncoder.frameAvailableSoon();
-					videoEncoder.encode(frame);
+				if (feeder != null) {
+					// this never blocks, the frame is released by the feeder
+					feeder.offer(frame);
+				} else {
+					frame.release();
 				}
 			}
 		};
@@ -641,6 +722,10 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			if (DEBUG) Log.v(TAG_THREAD, "handleRelease:mIsRecording=" + mIsRecording);
 			handleClose();
 			mCallbacks.clear();
+			if (mStillCapture != null) {
+				mStillCapture.release();
+				mStillCapture = null;
+			}
 			if (!mIsRecording) {
 				mHandler.mReleased = true;
 				Looper.myLooper().quit();
@@ -697,6 +782,48 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			}
 		};
 
+		/**
+		 * register captured still image to MediaScanner and notify to the callback,
+		 * this is called on the worker thread of JpegStillCapture
+		 */
+		private final JpegStillCapture.Callback mStillCaptureCallback = new JpegStillCapture.Callback() {
+			@Override
+			public void onCaptured(final String path) {
+				final AbstractUVCCameraHandler handler = mHandler;
+				if ((handler != null) && !handler.mReleased) {
+					handler.updateMedia(path);
+				}
+				final JpegStillCapture.Callback callback = mStillCallback;
+				if (callback != null) {
+					callback.onCaptured(path);
+				}
+			}
+
+			@Override
+			public void onError(final Exception e) {
+				final JpegStillCapture.Callback callback = mStillCallback;
+				if (callback != null) {
+					callback.onError(e);
+				} else {
+					callOnError(e);
+				}
+			}
+		};
+
+		/**
+		 * register each closed segment to MediaScanner while segmented recording continues
+		 */
+		private final MediaMuxerWrapper.SegmentListener mSegmentListener = new MediaMuxerWrapper.SegmentListener() {
+			@Override
+			public void onSegmentClosed(final String path) {
+				if (DEBUG) Log.v(TAG_THREAD, "onSegmentClosed:" + path);
+				final AbstractUVCCameraHandler handler = mHandler;
+				if ((handler != null) && !handler.mReleased) {
+					handler.updateMedia(path);
+				}
+			}
+		};
+
 		/**
 		 * prepare and load shutter sound for still image capturing
 		 */
@@ -0,0 +1,227 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usbcameracommon;
+
+import java.util.TimeZone;
+
+/**
+ * Formats wall clock time as "yyyy?MM?dd?HH?mm?ss" into a fixed char array
+ * without allocating any object on each update.
+ * Only the fields that changed since the last update are re-written,
+ * seconds first, then minutes, hours and the date.
+ * The local time is derived from the UTC offset of the time zone at each tick,
+ * so daylight saving time transitions are followed in both directions.
+ * This class is not thread safe, the caller should synchronize if it is shared.
+ */
+public final class ClockDigits {
+	/** number of characters of the formatted time */
+	public static final int LENGTH = 19;
+
+	/** glyph index of digits are same as its value, 0-9 */
+	public static final int GLYPH_MINUS = 10;
+	public static final int GLYPH_COLON = 11;
+	public static final int GLYPH_SPACE = 12;
+	public static final int NUM_GLYPHS = 13;
+
+	// index of each field in the formatted time
+	public static final int INDEX_YEAR = 0;
+	public static final int INDEX_MONTH = 5;
+	public static final int INDEX_DAY = 8;
+	public static final int INDEX_HOUR = 11;
+	public static final int INDEX_MINUTE = 14;
+	public static final int INDEX_SECOND = 17;
+
+	private static final long SECONDS_PER_DAY = 86400L;
+
+	private final char[] mChars = new char[LENGTH];
+	private TimeZone mTimeZone;
+	// local time of the last update, in seconds since epoch
+	private long mLocalSeconds = Long.MIN_VALUE;
+	// UTC time range[mUtcSecondStart, mUtcSecondEnd) that gives same result
+	private long mUtcSecondStart = Long.MAX_VALUE;
+	private long mUtcSecondEnd = Long.MIN_VALUE;
+
+	/**
+	 * Constructor, uses the default time zone
+	 * @param dateSeparator separator between year, month and day, e.g. '-'
+	 * @param dateTimeSeparator separator between the date and the time, e.g. ' '
+	 * @param timeSeparator separator between hour, minute and second, e.g. ':'
+	 */
+	public ClockDigits(final char dateSeparator, final char dateTimeSeparator, final char timeSeparator) {
+		this(dateSeparator, dateTimeSeparator, timeSeparator, TimeZone.getDefault());
+	}
+
+	/**
+	 * Constructor
+	 * @param dateSeparator
+	 * @param dateTimeSeparator
+	 * @param timeSeparator
+	 * @param timeZone
+	 */
+	public ClockDigits(final char dateSeparator, final char dateTimeSeparator, final char timeSeparator,
+		final TimeZone timeZone) {
+
+		mChars[INDEX_MONTH - 1] = mChars[INDEX_DAY - 1] = dateSeparator;
+		mChars[INDEX_HOUR - 1] = dateTimeSeparator;
+		mChars[INDEX_MINUTE - 1] = mChars[INDEX_SECOND - 1] = timeSeparator;
+		mTimeZone = timeZone;
+	}
+
+	/**
+	 * change the time zone, all fields are re-written on next update
+	 * @param timeZone
+	 */
+	public void setTimeZone(final TimeZone timeZone) {
+		mTimeZone = timeZone;
+		mLocalSeconds = Long.MIN_VALUE;
+		mUtcSecondStart = Long.MAX_VALUE;
+		mUtcSecondEnd = Long.MIN_VALUE;
+	}
+
+	/**
+	 * update the formatted time
+	 * @param utcMillis milliseconds since epoch, e.g. System.currentTimeMillis()
+	 * @return index of the first character that changed, LENGTH if nothing changed
+	 */
+	public int update(final long utcMillis) {
+		if ((utcMillis >= mUtcSecondStart) && (utcMillis < mUtcSecondEnd)) {
+			return LENGTH;
+		}
+		final long utcSeconds = floorDiv(utcMillis, 1000);
+		mUtcSecondStart = utcSeconds * 1000;
+		mUtcSecondEnd = mUtcSecondStart + 1000;
+		final long localSeconds = utcSeconds + mTimeZone.getOffset(utcMillis) / 1000;
+		final long prev = mLocalSeconds;
+		mLocalSeconds = localSeconds;
+		if (localSeconds == prev) {
+			return LENGTH;
+		}
+		int first = INDEX_SECOND;
+		putDigits(INDEX_SECOND, (int)floorMod(localSeconds, 60), 2);
+		final long minutes = floorDiv(localSeconds, 60);
+		if ((prev == Long.MIN_VALUE) || (minutes != floorDiv(prev, 60))) {
+			first = INDEX_MINUTE;
+			putDigits(INDEX_MINUTE, (int)floorMod(minutes, 60), 2);
+			final long hours = floorDiv(minutes, 60);
+			if ((prev == Long.MIN_VALUE) || (hours != floorDiv(prev, 3600))) {
+				first = INDEX_HOUR;
+				putDigits(INDEX_HOUR, (int)floorMod(hours, 24), 2);
+				final long days = floorDiv(hours, 24);
+				if ((prev == Long.MIN_VALUE) || (days != floorDiv(prev, SECONDS_PER_DAY))) {
+					first = updateDate(days);
+				}
+			}
+		}
+		return first;
+	}
+
+	/**
+	 * convert days since epoch to year/month/day(proleptic Gregorian calendar)
+	 * and write only the fields that changed
+	 * @return index of the first character that changed
+	 */
+	private int updateDate(final long days) {
+		final long z = days + 719468;
+		final long era = floorDiv(z, 146097);
+		final long doe = z - era * 146097;
+		final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		final long mp = (5 * doy + 2) / 153;
+		final int day = (int)(doy - (153 * mp + 2) / 5 + 1);
+		final int month = (int)(mp < 10 ? mp + 3 : mp - 9);
+		final int year = (int)(yoe + era * 400 + (month <= 2 ? 1 : 0));
+		int first = INDEX_DAY;
+		putDigits(INDEX_DAY, day, 2);
+		if (putDigits(INDEX_MONTH, month, 2)) {
+			first = INDEX_MONTH;
+		}
+		if (putDigits(INDEX_YEAR, (int)floorMod(year, 10000), 4)) {
+			first = INDEX_YEAR;
+		}
+		return first;
+	}
+
+	/**
+	 * @return true if any digit changed
+	 */
+	private boolean putDigits(final int index, int value, final int digits) {
+		boolean changed = false;
+		for (int i = index + digits - 1; i >= index; i--) {
+			final char c = (char)('0' + (value % 10));
+			if (mChars[i] != c) {
+				mChars[i] = c;
+				changed = true;
+			}
+			value /= 10;
+		}
+		return changed;
+	}
+
+	/**
+	 * copy the formatted time
+	 * @param dst array that has at least offset + LENGTH elements
+	 * @param offset
+	 */
+	public void getChars(final char[] dst, final int offset) {
+		System.arraycopy(mChars, 0, dst, offset, LENGTH);
+	}
+
+	/**
+	 * copy the formatted time as glyph indices, 0-9 for digits,
+	 * GLYPH_MINUS/GLYPH_COLON/GLYPH_SPACE for separators
+	 * @param dst array that has at least offset + LENGTH elements
+	 * @param offset
+	 */
+	public void getGlyphs(final int[] dst, final int offset) {
+		for (int i = 0; i < LENGTH; i++) {
+			dst[offset + i] = glyphIndex(mChars[i]);
+		}
+	}
+
+	/**
+	 * @return glyph index of specific character, GLYPH_SPACE if unknown
+	 */
+	public static int glyphIndex(final char c) {
+		if ((c >= '0') && (c <= '9')) return c - '0';
+		if (c == '-') return GLYPH_MINUS;
+		if (c == ':') return GLYPH_COLON;
+		return GLYPH_SPACE;
+	}
+
+	@Override
+	public String toString() {
+		return new String(mChars);
+	}
+
+	// Math#floorDiv/floorMod are not available before API 24
+	private static long floorDiv(final long x, final long y) {
+		long q = x / y;
+		if (((x % y) != 0) && ((x < 0) != (y < 0))) q--;
+		return q;
+	}
+
+	private static long floorMod(final long x, final long y) {
+		return x - floorDiv(x, y) * y;
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usbcameracommon;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.serenegiant.usb.TurboJpegCompressor;
+import com.serenegiant.usb.UVCCamera;
+import com.serenegiant.usb.UVCFrame;
+
+/**
+ * Non-blocking JPEG still capture.
+ * Frames are compressed with TurboJPEG and written with EXIF on background threads,
+ * the caller returns immediately, so burst capture does not stall the camera thread.
+ * Buffers are kept for each worker thread and reused while the frame size does not change.
+ */
+public class JpegStillCapture {
+	private static final boolean DEBUG = true;	// TODO set false on release
+	private static final String TAG = "JpegStillCapture";
+
+	public static final int DEFAULT_QUALITY = 90;
+	public static final int DEFAULT_THREADS = 2;
+
+	/**
+	 * callback of still capture, this is called on the worker thread
+	 */
+	public interface Callback {
+		public void onCaptured(final String path);
+		public void onError(final Exception e);
+	}
+
+	/**
+	 * reusable buffers for each worker thread
+	 */
+	private static final class WorkBuffers {
+		private ByteBuffer src;
+		private ByteBuffer dst;
+
+		private ByteBuffer obtainSrc(final int bytes) {
+			if ((src == null) || (src.capacity() < bytes)) {
+				src = ByteBuffer.allocateDirect(bytes);
+			}
+			src.clear();
+			return src;
+		}
+
+		private ByteBuffer obtainDst(final int bytes) {
+			if ((dst == null) || (dst.capacity() < bytes)) {
+				dst = ByteBuffer.allocateDirect(bytes);
+			}
+			dst.clear();
+			return dst;
+		}
+	}
+
+	private final int mQuality;
+	private final ExecutorService mExecutor;
+	private final ThreadLocal<WorkBuffers> mWorkBuffers = new ThreadLocal<WorkBuffers>() {
+		@Override
+		protected WorkBuffers initialValue() {
+			return new WorkBuffers();
+		}
+	};
+
+	public JpegStillCapture() {
+		this(DEFAULT_QUALITY, DEFAULT_THREADS);
+	}
+
+	/**
+	 * @param quality JPEG quality, 1-100
+	 * @param threads number of worker threads
+	 */
+	public JpegStillCapture(final int quality, final int threads) {
+		if ((quality < 1) || (quality > 100))
+			throw new IllegalArgumentException("quality should be 1-100:" + quality);
+		mQuality = quality;
+		mExecutor = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+			private int mCount;
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, TAG + "-" + (mCount++));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * stop worker threads after the queued captures finished
+	 */
+	public void release() {
+		mExecutor.shutdown();
+	}
+
+	/**
+	 * compress the pooled frame and write it to the file.
+	 * The frame should be PIXEL_FORMAT_I420 or PIXEL_FORMAT_RGBX, it is released on the worker thread.
+	 * PIXEL_FORMAT_MJPEG frame from UVCCamera#setMjpegCallback is written as it is without re-encoding.
+	 * @param frame
+	 * @param output
+	 * @param callback nullable
+	 * @return Future that returns the path of the written file
+	 */
+	public Future<String> capture(final UVCFrame frame, final File output, final Callback callback) {
+		return mExecutor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				try {
+					final long captureTimeMs = System.currentTimeMillis()
+						- (System.nanoTime() - frame.getCaptureTimeNs()) / 1000000L;
+					final int width = frame.getWidth(), height = frame.getHeight();
+					final ByteBuffer jpeg;
+					final int bytes;
+					try {
+						if (frame.getPixelFormat() == UVCCamera.PIXEL_FORMAT_MJPEG) {
+							final ByteBuffer src = frame.getBuffer();
+							bytes = src.remaining();
+							jpeg = mWorkBuffers.get().obtainDst(bytes);
+							jpeg.put(src);
+							jpeg.flip();
+						} else {
+							jpeg = mWorkBuffers.get().obtainDst(
+								TurboJpegCompressor.getBufferSize(width, height));
+							bytes = TurboJpegCompressor.compress(frame, mQuality, jpeg);
+						}
+					} finally {
+						frame.release();
+					}
+					if (bytes <= 0)
+						throw new IOException("failed to compress JPEG:err=" + bytes);
+					return write(jpeg, width, height, captureTimeMs, output, callback);
+				} catch (final Exception e) {
+					frame.release();
+					return onError(e, callback);
+				}
+			}
+		});
+	}
+
+	/**
+	 * compress the bitmap and write it to the file.
+	 * The bitmap should be ARGB_8888, it is not recycled and you should not change it until this finished.
+	 * @param bitmap
+	 * @param output
+	 * @param callback nullable
+	 * @return Future that returns the path of the written file
+	 */
+	public Future<String> capture(final Bitmap bitmap, final File output, final Callback callback) {
+		final long captureTimeMs = System.currentTimeMillis();
+		return mExecutor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				try {
+					final int width = bitmap.getWidth(), height = bitmap.getHeight();
+					final WorkBuffers buffers = mWorkBuffers.get();
+					// ARGB_8888 is stored as R,G,B,A byte order, that is same as RGBX of TurboJPEG
+					final ByteBuffer src = buffers.obtainSrc(width * height * 4);
+					bitmap.copyPixelsToBuffer(src);
+					final ByteBuffer jpeg = buffers.obtainDst(TurboJpegCompressor.getBufferSize(width, height));
+					final int bytes = TurboJpegCompressor.compress(src, width, height,
+						UVCCamera.PIXEL_FORMAT_RGBX, mQuality, jpeg);
+					if (bytes <= 0)
+						throw new IOException("failed to compress JPEG:err=" + bytes);
+					return write(jpeg, width, height, captureTimeMs, output, callback);
+				} catch (final Exception e) {
+					return onError(e, callback);
+				}
+			}
+		});
+	}
+
+	private String onError(final Exception e, final Callback callback) throws Exception {
+		Log.w(TAG, e);
+		if (callback != null) {
+			callback.onError(e);
+		}
+		throw e;
+	}
+
+	/**
+	 * write JPEG data with EXIF, APP1 segment is inserted just after SOI
+	 */
+	private static String write(final ByteBuffer jpeg, final int width, final int height,
+		final long captureTimeMs, final File output, final Callback callback) throws IOException {
+
+		if ((jpeg.remaining() < 4) || ((jpeg.get(0) & 0xff) != 0xff) || ((jpeg.get(1) & 0xff) != 0xd8))
+			throw new IOException("not a JPEG data");
+		final FileOutputStream out = new FileOutputStream(output);
+		try {
+			final FileChannel channel = out.getChannel();
+			final ByteBuffer exif = createExif(width, height, captureTimeMs);
+			jpeg.position(2);	// skip SOI, it is written with APP1
+			while (exif.hasRemaining()) {
+				channel.write(exif);
+			}
+			while (jpeg.hasRemaining()) {
+				channel.write(jpeg);
+			}
+		} finally {
+			out.close();
+		}
+		final String path = output.getPath();
+		if (DEBUG) Log.v(TAG, "write:" + path);
+		if (callback != null) {
+			callback.onCaptured(path);
+		}
+		return path;
+	}
+
+	private static final int TYPE_SHORT = 3;
+	private static final int TYPE_ASCII = 2;
+	private static final int TYPE_LONG = 4;
+	private static final int TYPE_UNDEFINED = 7;
+	private static final int DATE_TIME_BYTES = 20;
+
+	/**
+	 * SOI and APP1 segment that has minimum EXIF,
+	 * Orientation, DateTime, ExifVersion, DateTimeOriginal and pixel dimensions
+	 */
+	private static ByteBuffer createExif(final int width, final int height, final long captureTimeMs) {
+		final byte[] dateTime = new byte[DATE_TIME_BYTES];
+		final String str = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US)
+			.format(new Date(captureTimeMs));
+		System.arraycopy(str.getBytes(), 0, dateTime, 0, Math.min(str.length(), DATE_TIME_BYTES - 1));
+		// offsets from the start of TIFF header
+		final int ifd0 = 8;
+		final int ifd0DateTime = ifd0 + 2 + 3 * 12 + 4;
+		final int exifIfd = ifd0DateTime + DATE_TIME_BYTES;
+		final int exifDateTime = exifIfd + 2 + 4 * 12 + 4;
+		final int tiffBytes = exifDateTime + DATE_TIME_BYTES;
+
+		final ByteBuffer buf = ByteBuffer.allocate(2 + 4 + 6 + tiffBytes);
+		buf.put((byte)0xff).put((byte)0xd8);	// SOI
+		buf.put((byte)0xff).put((byte)0xe1);	// APP1
+		buf.putShort((short)(2 + 6 + tiffBytes));
+		buf.put("Exif".getBytes()).put((byte)0).put((byte)0);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		final int tiff = buf.position();
+		buf.put((byte)'I').put((byte)'I').putShort((short)42).putInt(ifd0);
+		// IFD0
+		buf.putShort((short)3);
+		putEntry(buf, 0x0112, TYPE_SHORT, 1, 1);	// Orientation, top-left
+		putEntry(buf, 0x0132, TYPE_ASCII, DATE_TIME_BYTES, ifd0DateTime);	// DateTime
+		putEntry(buf, 0x8769, TYPE_LONG, 1, exifIfd);	// Exif IFD pointer
+		buf.putInt(0);
+		buf.put(dateTime);
+		// Exif IFD
+		buf.putShort((short)4);
+		buf.putShort((short)0x9000).putShort((short)TYPE_UNDEFINED).putInt(4)
+			.put((byte)'0').put((byte)'2').put((byte)'3').put((byte)'0');	// ExifVersion
+		putEntry(buf, 0x9003, TYPE_ASCII, DATE_TIME_BYTES, exifDateTime);	// DateTimeOriginal
+		putEntry(buf, 0xa002, TYPE_LONG, 1, width);	// PixelXDimension
+		putEntry(buf, 0xa003, TYPE_LONG, 1, height);	// PixelYDimension
+		buf.putInt(0);
+		buf.put(dateTime);
+		if (buf.position() - tiff != tiffBytes)
+			throw new IllegalStateException("unexpected EXIF size");
+		buf.flip();
+		return buf;
+	}
+
+	private static void putEntry(final ByteBuffer buf,
+		final int tag, final int type, final int count, final int value) {
+
+		buf.putShort((short)tag).putShort((short)type).putInt(count);
+		if (type == TYPE_SHORT) {
+			buf.putShort((short)value).putShort((short)0);
+		} else {
+			buf.putInt(value);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * write throughput of FragmentedMp4Muxer, each invocation writes 10 seconds of
+ * 30fps video with 1 second fragments into a new file.
+ * Multiply the score(samples/s) by sampleBytes to get bytes/s.
+ * Run #main from the test classpath.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FragmentedMp4MuxerBenchmark {
+	private static final int FRAMES = 300;
+	private static final int GOP = 30;
+	private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte)0xc0, 0x1e, (byte)0xda, 0x02, (byte)0x80};
+	private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte)0xce, 0x3c, (byte)0x80};
+
+	@Param({"8192", "65536"})
+	public int sampleBytes;
+	/** whether FileChannel#force is called on each fragment */
+	@Param({"false", "true"})
+	public boolean force;
+
+	private File mFile;
+	private ByteBuffer mSample;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		mFile = File.createTempFile("fmp4bench", ".mp4");
+		mSample = ByteBuffer.allocate(sampleBytes);
+		mSample.putInt(1).put((byte)0x65);
+		while (mSample.hasRemaining()) mSample.put((byte)0x5a);
+		mSample.flip();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mFile.delete();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public long writeVideo() throws IOException {
+		final FragmentedMp4Muxer muxer = new FragmentedMp4Muxer(mFile.getPath(),
+			FragmentedMp4Muxer.DEFAULT_FRAGMENT_DURATION_US);
+		muxer.setForceOnFragment(force);
+		final int track = muxer.addVideoTrack(1280, 720, SPS, PPS);
+		muxer.start();
+		for (int i = 0; i < FRAMES; i++) {
+			muxer.writeSampleData(track, mSample, i * 1000000L / 30,
+				i % GOP == 0 ? FragmentedMp4Muxer.FLAG_SYNC_FRAME : 0);
+		}
+		muxer.stop();
+		return muxer.getWrittenBytes();
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(FragmentedMp4MuxerBenchmark.class.getSimpleName())
+			.build()).run();
+	}
+}
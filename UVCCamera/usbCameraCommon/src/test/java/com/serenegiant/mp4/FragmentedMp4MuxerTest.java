@@ -0,0 +1,273 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.mp4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * parses the written file box by box and checks that the data offset of each trun
+ * points to the samples of the track in the following mdat
+ */
+public class FragmentedMp4MuxerTest {
+	private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte)0xc0, 0x1e, (byte)0xda, 0x02, (byte)0x80};
+	private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte)0xce, 0x3c, (byte)0x80};
+	private static final byte[] ASC = {0x12, 0x10};	// AAC-LC, 44100Hz, stereo
+	private static final long FRAGMENT_US = 1000000L;
+	private static final int VIDEO_FPS = 30;
+	private static final int GOP = 30;
+
+	private static final class Box {
+		private final String type;
+		private final long offset;
+		private final long size;
+
+		private Box(final String type, final long offset, final long size) {
+			this.type = type;
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+
+	private File mFile;
+
+	@Before
+	public void setUp() throws IOException {
+		mFile = File.createTempFile("fmp4", ".mp4");
+	}
+
+	@After
+	public void tearDown() {
+		mFile.delete();
+	}
+
+	/**
+	 * Annex-B video sample, the payload starts with the sample index.
+	 * The payload has no zero byte so that it never contains start code.
+	 */
+	private static ByteBuffer videoSample(final int index, final boolean sync) {
+		final ByteBuffer buf = ByteBuffer.allocate(4 + 1 + 2 + 100 + index % 7);
+		buf.putInt(1).put((byte)(sync ? 0x65 : 0x41)).putShort(encodeIndex(index));
+		while (buf.hasRemaining()) buf.put((byte)0x5a);
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * 14 bits index in 2 bytes without zero byte
+	 */
+	private static short encodeIndex(final int index) {
+		return (short)(0x8080 | ((index << 1) & 0x7f00) | (index & 0x7f));
+	}
+
+	private static ByteBuffer audioSample(final int index) {
+		final ByteBuffer buf = ByteBuffer.allocate(4 + 20 + index % 5);
+		buf.putInt(index);
+		while (buf.hasRemaining()) buf.put((byte)~index);
+		buf.flip();
+		return buf;
+	}
+
+	private static List<Box> readBoxes(final ByteBuffer data, final long start, final long end) {
+		final List<Box> result = new ArrayList<Box>();
+		long pos = start;
+		while (pos < end) {
+			final long size = data.getInt((int)pos) & 0xffffffffL;
+			final byte[] type = new byte[4];
+			for (int i = 0; i < 4; i++) type[i] = data.get((int)pos + 4 + i);
+			assertTrue("invalid box size at " + pos, (size >= 8) && (pos + size <= end));
+			result.add(new Box(new String(type), pos, size));
+			pos += size;
+		}
+		assertEquals(end, pos);
+		return result;
+	}
+
+	private static List<Box> children(final ByteBuffer data, final Box box, final int headerBytes) {
+		return readBoxes(data, box.offset + headerBytes, box.offset + box.size);
+	}
+
+	private static Box find(final List<Box> boxes, final String type) {
+		for (final Box box: boxes) {
+			if (box.type.equals(type)) return box;
+		}
+		throw new AssertionError("no " + type + " box");
+	}
+
+	private static ByteBuffer readFile(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final byte[] bytes = new byte[(int)raf.length()];
+			raf.readFully(bytes);
+			return ByteBuffer.wrap(bytes);
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void fragmentsHaveValidOffsets() throws IOException {
+		final FragmentedMp4Muxer muxer = new FragmentedMp4Muxer(mFile.getPath(), FRAGMENT_US);
+		muxer.setForceOnFragment(false);
+		final int videoTrack = muxer.addVideoTrack(640, 480, SPS, PPS);
+		final int audioTrack = muxer.addAudioTrack(44100, 2, ASC);
+		muxer.start();
+		// 2.5 seconds of 30fps video with a sync frame every second and interleaved audio
+		final int videoFrames = VIDEO_FPS * 5 / 2;
+		final long audioIntervalUs = 1024 * 1000000L / 44100;
+		int audioFrames = 0;
+		for (int i = 0; i < videoFrames; i++) {
+			final long pts = 1000L + i * 1000000L / VIDEO_FPS;
+			for ( ; 1000L + audioFrames * audioIntervalUs <= pts; audioFrames++) {
+				muxer.writeSampleData(audioTrack, audioSample(audioFrames),
+					1000L + audioFrames * audioIntervalUs, 0);
+			}
+			final boolean sync = i % GOP == 0;
+			muxer.writeSampleData(videoTrack, videoSample(i, sync), pts,
+				sync ? FragmentedMp4Muxer.FLAG_SYNC_FRAME : 0);
+		}
+		muxer.stop();
+		assertEquals(3, muxer.getFragmentCount());
+		assertEquals(mFile.length(), muxer.getWrittenBytes());
+
+		final ByteBuffer data = readFile(mFile);
+		final List<Box> boxes = readBoxes(data, 0, data.limit());
+		assertEquals(2 + 2 * 3, boxes.size());
+		assertEquals("ftyp", boxes.get(0).type);
+		assertEquals("moov", boxes.get(1).type);
+		final List<Box> moov = children(data, boxes.get(1), 8);
+		find(moov, "mvhd");
+		find(moov, "mvex");
+		int traks = 0;
+		for (final Box box: moov) {
+			if (box.type.equals("trak")) traks++;
+		}
+		assertEquals(2, traks);
+
+		int nextVideo = 0, nextAudio = 0;
+		for (int f = 0; f < 3; f++) {
+			final Box moof = boxes.get(2 + f * 2);
+			final Box mdat = boxes.get(3 + f * 2);
+			assertEquals("moof", moof.type);
+			assertEquals("mdat", mdat.type);
+			final List<Box> moofChildren = children(data, moof, 8);
+			final Box mfhd = find(moofChildren, "mfhd");
+			assertEquals(f + 1, data.getInt((int)mfhd.offset + 12));
+			long expectedOffset = mdat.offset + 8;
+			for (final Box traf: moofChildren) {
+				if (!traf.type.equals("traf")) continue;
+				final List<Box> trafChildren = children(data, traf, 8);
+				final Box tfhd = find(trafChildren, "tfhd");
+				assertEquals(0x020000, data.getInt((int)tfhd.offset + 8) & 0xffffff);	// default-base-is-moof
+				final int trackId = data.getInt((int)tfhd.offset + 12);
+				final Box trun = find(trafChildren, "trun");
+				assertEquals(0x000701, data.getInt((int)trun.offset + 8) & 0xffffff);
+				final int n = data.getInt((int)trun.offset + 12);
+				final long dataOffset = data.getInt((int)trun.offset + 16);
+				assertEquals(20 + n * 12, trun.size);
+				// samples of the tracks are contiguous in the mdat
+				long sampleOffset = moof.offset + dataOffset;
+				assertEquals(expectedOffset, sampleOffset);
+				for (int j = 0; j < n; j++) {
+					final int entry = (int)trun.offset + 20 + j * 12;
+					final int size = data.getInt(entry + 4);
+					final int flags = data.getInt(entry + 8);
+					assertTrue(data.getInt(entry) > 0);
+					final int pos = (int)sampleOffset;
+					if (trackId == 1) {
+						// NAL unit with 4 bytes length instead of start code
+						assertEquals(size - 4, data.getInt(pos));
+						final boolean sync = nextVideo % GOP == 0;
+						assertEquals(sync ? 0x65 : 0x41, data.get(pos + 4));
+						assertEquals(encodeIndex(nextVideo), data.getShort(pos + 5));
+						assertEquals(sync, (flags & 0x00010000) == 0);
+						if (j == 0) assertTrue("fragment should start with sync frame", sync);
+						nextVideo++;
+					} else {
+						assertEquals(2, trackId);
+						assertEquals(audioSample(nextAudio).remaining(), size);
+						assertEquals(nextAudio, data.getInt(pos));
+						nextAudio++;
+					}
+					sampleOffset += size;
+				}
+				expectedOffset = sampleOffset;
+			}
+			assertEquals(mdat.offset + mdat.size, expectedOffset);
+		}
+		assertEquals(videoFrames, nextVideo);
+		assertEquals(audioFrames, nextAudio);
+	}
+
+	@Test
+	public void sampleEntryHasParameterSets() throws IOException {
+		final FragmentedMp4Muxer muxer = new FragmentedMp4Muxer(mFile.getPath(), FRAGMENT_US);
+		muxer.addVideoTrack(640, 480, SPS, PPS);
+		muxer.start();
+		muxer.stop();
+		final ByteBuffer data = readFile(mFile);
+		final byte[] bytes = data.array();
+		final int avcC = indexOf(bytes, "avcC".getBytes());
+		assertTrue(avcC > 0);
+		// configurationVersion, profile, compatibility, level, lengthSizeMinusOne, numOfSPS
+		final int sps = avcC + 4 + 6;
+		assertEquals(SPS.length - 4, data.getShort(sps));
+		final byte[] actualSps = new byte[SPS.length - 4];
+		System.arraycopy(bytes, sps + 2, actualSps, 0, actualSps.length);
+		final byte[] expectedSps = new byte[SPS.length - 4];
+		System.arraycopy(SPS, 4, expectedSps, 0, expectedSps.length);
+		assertArrayEquals(expectedSps, actualSps);
+		final int pps = sps + 2 + actualSps.length + 1;
+		assertEquals(PPS.length - 4, data.getShort(pps));
+		// no fragment without samples
+		final List<Box> boxes = readBoxes(data, 0, data.limit());
+		assertEquals(2, boxes.size());
+	}
+
+	private static int indexOf(final byte[] bytes, final byte[] pattern) {
+		for (int i = 0; i + pattern.length <= bytes.length; i++) {
+			boolean match = true;
+			for (int j = 0; j < pattern.length; j++) {
+				if (bytes[i + j] != pattern[j]) {
+					match = false;
+					break;
+				}
+			}
+			if (match) return i;
+		}
+		return -1;
+	}
+}
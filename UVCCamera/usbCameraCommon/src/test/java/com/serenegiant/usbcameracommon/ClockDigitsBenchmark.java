@@ -0,0 +1,84 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usbcameracommon;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * compares ClockDigits with SimpleDateFormat that the watermark and file naming used before.
+ * Each invocation advances the clock by 1/30 second like the watermark of 30fps preview.
+ * Run #main from the test classpath, add -prof gc to the arguments of Runner to see the allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClockDigitsBenchmark {
+	private static final long FRAME_INTERVAL_MS = 33;
+
+	private final ClockDigits mClockDigits = new ClockDigits('-', ' ', ':');
+	private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+	private final int[] mGlyphs = new int[ClockDigits.LENGTH];
+	private long mTime = System.currentTimeMillis();
+
+	@Benchmark
+	public int clockDigits() {
+		mTime += FRAME_INTERVAL_MS;
+		final int first = mClockDigits.update(mTime);
+		if (first < ClockDigits.LENGTH) {
+			mClockDigits.getGlyphs(mGlyphs, 0);
+		}
+		return mGlyphs[ClockDigits.LENGTH - 1];
+	}
+
+	@Benchmark
+	public String simpleDateFormat() {
+		mTime += FRAME_INTERVAL_MS;
+		return mDateFormat.format(new Date(mTime));
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(ClockDigitsBenchmark.class.getSimpleName())
+			.build()).run();
+	}
+}
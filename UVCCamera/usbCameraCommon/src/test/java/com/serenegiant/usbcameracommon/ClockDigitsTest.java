@@ -0,0 +1,176 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usbcameracommon;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class ClockDigitsTest {
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+	private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+	private static final TimeZone TOKYO = TimeZone.getTimeZone("Asia/Tokyo");
+
+	/**
+	 * @return milliseconds since epoch of the specific UTC time
+	 */
+	private static long utc(final String time) throws Exception {
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		format.setTimeZone(UTC);
+		return format.parse(time).getTime();
+	}
+
+	private static String expected(final long utcMillis, final TimeZone timeZone) {
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		format.setTimeZone(timeZone);
+		return format.format(new Date(utcMillis));
+	}
+
+	private static ClockDigits create(final TimeZone timeZone) {
+		return new ClockDigits('-', ' ', ':', timeZone);
+	}
+
+	@Test
+	public void firstUpdateWritesAllFields() throws Exception {
+		final ClockDigits clock = create(UTC);
+		assertEquals(ClockDigits.INDEX_YEAR, clock.update(utc("2018-07-15 12:34:56.789")));
+		assertEquals("2018-07-15 12:34:56", clock.toString());
+	}
+
+	@Test
+	public void sameSecondChangesNothing() throws Exception {
+		final ClockDigits clock = create(UTC);
+		clock.update(utc("2018-07-15 12:34:56.000"));
+		assertEquals(ClockDigits.LENGTH, clock.update(utc("2018-07-15 12:34:56.999")));
+		assertEquals("2018-07-15 12:34:56", clock.toString());
+	}
+
+	@Test
+	public void onlyChangedFieldsAreReported() throws Exception {
+		final ClockDigits clock = create(UTC);
+		clock.update(utc("2018-07-15 12:34:56.000"));
+		assertEquals(ClockDigits.INDEX_SECOND, clock.update(utc("2018-07-15 12:34:57.000")));
+		assertEquals(ClockDigits.INDEX_MINUTE, clock.update(utc("2018-07-15 12:35:00.000")));
+		assertEquals(ClockDigits.INDEX_HOUR, clock.update(utc("2018-07-15 13:00:00.000")));
+		assertEquals(ClockDigits.INDEX_DAY, clock.update(utc("2018-07-16 00:00:00.000")));
+		assertEquals(ClockDigits.INDEX_MONTH, clock.update(utc("2018-08-01 00:00:00.000")));
+		assertEquals("2018-08-01 00:00:00", clock.toString());
+	}
+
+	@Test
+	public void yearRollover() throws Exception {
+		final ClockDigits clock = create(UTC);
+		clock.update(utc("2018-12-31 23:59:59.500"));
+		assertEquals("2018-12-31 23:59:59", clock.toString());
+		assertEquals(ClockDigits.INDEX_YEAR, clock.update(utc("2019-01-01 00:00:00.000")));
+		assertEquals("2019-01-01 00:00:00", clock.toString());
+	}
+
+	@Test
+	public void yearRolloverInLocalTime() throws Exception {
+		// new year of Tokyo(UTC+9) comes at 15:00 UTC
+		final ClockDigits clock = create(TOKYO);
+		clock.update(utc("2018-12-31 14:59:59.000"));
+		assertEquals("2018-12-31 23:59:59", clock.toString());
+		assertEquals(ClockDigits.INDEX_YEAR, clock.update(utc("2018-12-31 15:00:00.000")));
+		assertEquals("2019-01-01 00:00:00", clock.toString());
+	}
+
+	@Test
+	public void leapDay() throws Exception {
+		final ClockDigits clock = create(UTC);
+		clock.update(utc("2020-02-28 23:59:59.000"));
+		assertEquals(ClockDigits.INDEX_DAY, clock.update(utc("2020-02-29 00:00:00.000")));
+		assertEquals("2020-02-29 00:00:00", clock.toString());
+		assertEquals(ClockDigits.INDEX_MONTH, clock.update(utc("2020-03-01 00:00:00.000")));
+		assertEquals("2020-03-01 00:00:00", clock.toString());
+	}
+
+	@Test
+	public void daylightSavingTimeStarts() throws Exception {
+		// 2018-03-11 02:00 EST jumps to 03:00 EDT
+		final ClockDigits clock = create(NEW_YORK);
+		clock.update(utc("2018-03-11 06:59:59.000"));
+		assertEquals("2018-03-11 01:59:59", clock.toString());
+		assertEquals(ClockDigits.INDEX_HOUR, clock.update(utc("2018-03-11 07:00:00.000")));
+		assertEquals("2018-03-11 03:00:00", clock.toString());
+	}
+
+	@Test
+	public void daylightSavingTimeEnds() throws Exception {
+		// 2018-11-04 02:00 EDT goes back to 01:00 EST
+		final ClockDigits clock = create(NEW_YORK);
+		clock.update(utc("2018-11-04 05:59:59.000"));
+		assertEquals("2018-11-04 01:59:59", clock.toString());
+		assertEquals(ClockDigits.INDEX_MINUTE, clock.update(utc("2018-11-04 06:00:00.000")));
+		assertEquals("2018-11-04 01:00:00", clock.toString());
+		clock.update(utc("2018-11-04 06:59:59.000"));
+		assertEquals("2018-11-04 01:59:59", clock.toString());
+		assertEquals(ClockDigits.INDEX_HOUR, clock.update(utc("2018-11-04 07:00:00.000")));
+		assertEquals("2018-11-04 02:00:00", clock.toString());
+	}
+
+	@Test
+	public void setTimeZoneRewritesAllFields() throws Exception {
+		final ClockDigits clock = create(UTC);
+		final long t = utc("2018-12-31 20:00:00.000");
+		clock.update(t);
+		clock.setTimeZone(TOKYO);
+		assertEquals(ClockDigits.INDEX_YEAR, clock.update(t));
+		assertEquals("2019-01-01 05:00:00", clock.toString());
+	}
+
+	@Test
+	public void matchesSimpleDateFormat() throws Exception {
+		// random jumps including before epoch and across DST transitions
+		final Random random = new Random(1234);
+		for (final TimeZone timeZone: new TimeZone[] {UTC, NEW_YORK, TOKYO}) {
+			final ClockDigits clock = create(timeZone);
+			long t = utc("1969-12-25 00:00:00.000");
+			for (int i = 0; i < 20000; i++) {
+				t += (long)(random.nextDouble() * (i % 2 == 0 ? 1500 : 7 * 86400000L));
+				clock.update(t);
+				assertEquals(expected(t, timeZone), clock.toString());
+			}
+		}
+	}
+
+	@Test
+	public void glyphs() throws Exception {
+		final ClockDigits clock = create(UTC);
+		clock.update(utc("2018-07-15 12:34:56.000"));
+		final int[] glyphs = new int[ClockDigits.LENGTH + 1];
+		clock.getGlyphs(glyphs, 1);
+		assertEquals(2, glyphs[1]);
+		assertEquals(ClockDigits.GLYPH_MINUS, glyphs[1 + ClockDigits.INDEX_MONTH - 1]);
+		assertEquals(ClockDigits.GLYPH_SPACE, glyphs[1 + ClockDigits.INDEX_HOUR - 1]);
+		assertEquals(ClockDigits.GLYPH_COLON, glyphs[1 + ClockDigits.INDEX_SECOND - 1]);
+		assertEquals(6, glyphs[ClockDigits.LENGTH]);
+	}
+}
@@ -2,7 +2,6 @@ package com.serenegiant.media.manager;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Matrix;
 import android.graphics.SurfaceTexture;
 import android.opengl.GLES20;
 import android.os.AsyncTask;
@@ -15,16 +14,11 @@ import com.serenegiant.media.opengl.WindowSurface;
 import com.serenegiant.media.render.GlDisplayGroup;
 import com.serenegiant.media.render.GlRecordGroup;
 import com.serenegiant.media.render.GlRenderImgList;
-import com.serenegiant.media.utils.BitmapUtils;
+import com.serenegiant.media.render.GlRenderPhotoReader;
 import com.serenegiant.media.utils.GlUtil;
-import com.serenegiant.medialocal.drawer.TextureHelper;
-import com.serenegiant.medialocal.drawer.WaterSignSProgram;
-import com.serenegiant.medialocal.drawer.WaterSignature;
+import com.serenegiant.medialocal.drawer.TimeStampDrawer;
 
 import java.lang.ref.WeakReference;
-import java.nio.Buffer;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 
 import javax.microedition.khronos.opengles.GL10;
 
@@ -68,14 +62,13 @@ public class GlRenderManager {
 
     //是否拍照状态
     private boolean takePhoto = false;
+    //拍照读取，PBO异步读出
+    private GlRenderPhotoReader photoReader;
 
-    private final static SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-    private WaterSignature mWaterSign;//水印
-    private int[] mWaterTexId = new int[12];
-    private int[] textureObjectIds = new int[1];
+    private TimeStampDrawer mWaterSign;//时间水印
 
 
-    private static class TakePhotoTask extends AsyncTask<Object, Object, Bitmap> {
+    private static class TakePhotoTask extends AsyncTask<GlRenderPhotoReader.Frame, Object, Bitmap> {
         private WeakReference<GlRenderManager> glRenderManagerRef;
 
         TakePhotoTask(GlRenderManager glRenderManager) {
@@ -83,16 +76,12 @@ public class GlRenderManager {
         }
 
         @Override
-        protected Bitmap doInBackground(Object[] objects) {
-            Buffer buffer = (Buffer) objects[0];
-            int width = (int) objects[1];
-            int height = (int) objects[2];
-            Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-            bmp.copyPixelsFromBuffer(buffer);
-            Matrix matrix = new Matrix();
-            matrix.postRotate(180); /*翻转90度*/
-            matrix.postScale(-1, 1);
-            bmp = Bitmap.createBitmap(bmp, 0, 0, width, height, matrix, true);
+        protected Bitmap doInBackground(GlRenderPhotoReader.Frame... frames) {
+            GlRenderPhotoReader.Frame frame = frames[0];
+            //翻转在着色器里已经完成，直接拷贝
+            Bitmap bmp = Bitmap.createBitmap(frame.width, frame.height, Bitmap.Config.ARGB_8888);
+            bmp.copyPixelsFromBuffer(frame.buffer);
+            frame.recycle();
             return bmp;
         }
 
@@ -129,21 +118,10 @@ public class GlRenderManager {
         displayRenderGroup = new GlDisplayGroup(context);
         //录制渲染组
         recordRenderGroup = new GlRecordGroup(context);
-        //设置水印
-        mWaterSign = new WaterSignature();
-        mWaterSign.setShaderProgram(new WaterSignSProgram());
-        //mSignTexId = TextureHelper.loadTexture(context, R.mipmap.watermark);静态水印
-        //初始化文字转图片所需的对象，避免多次生成新对象消耗过多内存
-        //将字符图片与纹理绑定，返回纹理id
-        for (int i = 0; i < 12; i++) {
-            if (i == 10) {
-                mWaterTexId[i] = TextureHelper.loadTexture(BitmapUtils.textToBitmap("-"), textureObjectIds);
-            } else if (i == 11) {
-                mWaterTexId[i] = TextureHelper.loadTexture(BitmapUtils.textToBitmap(":"), textureObjectIds);
-            } else {
-                mWaterTexId[i] = TextureHelper.loadTexture(BitmapUtils.textToBitmap(i + ""), textureObjectIds);
-            }
-        }
+        //拍照读取
+        photoReader = new GlRenderPhotoReader(context, mEglCore.getGlVersion());
+        //设置水印，所有字符在同一张图集纹理里，一次绘制完成
+        mWaterSign = new TimeStampDrawer(waterMaskStartX, waterMaskStartY, waterMaskCharWidth, waterMaskHeight);
     }
 
 
@@ -151,6 +129,10 @@ public class GlRenderManager {
      * 销毁
      */
     public void release() {
+        if (mWaterSign != null) {
+            mWaterSign.release();
+            mWaterSign = null;
+        }
         if (displayRenderGroup != null) {
             displayRenderGroup.release();
             displayRenderGroup = null;
@@ -159,6 +141,10 @@ public class GlRenderManager {
             recordRenderGroup.release();
             recordRenderGroup = null;
         }
+        if (photoReader != null) {
+            photoReader.release();
+            photoReader = null;
+        }
         if (mEncoderSurface != null) {
             mEncoderSurface.release();
             mEncoderSurface = null;
@@ -171,10 +157,6 @@ public class GlRenderManager {
             mEglCore.release();
             mEglCore = null;
         }
-        if (mWaterSign != null) {
-            mWaterSign.release();
-            mWaterSign = null;
-        }
     }
 
 
@@ -206,12 +188,17 @@ public class GlRenderManager {
             displayRenderGroup.setMirroring(mirroring);
             currentTexture = displayRenderGroup.drawFrame(currentTexture);
         }
-        //拍照状态
-        if (takePhoto) {
-            takePhoto = false;
-            new TakePhotoTask(this).execute(mDisplaySurface.getCurrentFrame(), mDisplayWidth, mDisplayHeight);
+        //拍照状态，PBO都在使用中时下一帧再读
+        if (photoReader != null) {
+            if (takePhoto && photoReader.readFrame(currentTexture)) {
+                takePhoto = false;
+            }
+            GlRenderPhotoReader.Frame frame = photoReader.fetchFrame();
+            if (frame != null) {
+                new TakePhotoTask(this).execute(frame);
+            }
         }
-        drawWaterSign();
+        drawWaterSign(mDisplayWidth, mDisplayHeight);
         mDisplaySurface.swapBuffers();
         if (is_record && mEncoderSurface != null && recordRenderGroup != null) {
             mEncoderSurface.makeCurrent();
@@ -224,7 +211,7 @@ public class GlRenderManager {
             recordRenderGroup.onDisplayChanged(mRecordWidth, mRecordHeight);
             recordRenderGroup.setRotate(recordRotate);
             recordRenderGroup.drawFrame(currentTexture);
-            drawWaterSign();
+            drawWaterSign(mRecordWidth, mRecordHeight);
             mEncoderSurface.setPresentationTime(surfaceTexture.getTimestamp());
             mEncoderSurface.swapBuffers();
         }
@@ -260,6 +247,8 @@ public class GlRenderManager {
             displayRenderGroup.onDisplayChanged(width, height);
         if (recordRenderGroup != null)
             recordRenderGroup.onDisplayChanged(width, height);
+        if (photoReader != null)
+            photoReader.onDisplayChanged(width, height);
     }
 
 
@@ -317,59 +306,15 @@ public class GlRenderManager {
         displayRenderGroup.setCameraRotate(cameraRotate);
     }
 
-    private int waterMaskWidth = 220;
+    private int waterMaskCharWidth = 15;
     private int waterMaskHeight = 40;
     private int waterMaskStartX = 20;
     private int waterMaskStartY = 20;
 
 
-    private void drawWaterSign() {
-        String time = formatter.format(new Date());
-        int x = waterMaskStartX;
-        int y = waterMaskStartY;
-        if ("".equals(time)) {
-            return;
+    private void drawWaterSign(int width, int height) {
+        if (mWaterSign != null) {
+            mWaterSign.drawFrame(width, height);
         }
-        GLES20.glEnable(GLES20.GL_BLEND);
-        //开启GL的混合模式，即图像叠加
-        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-        //画水印
-        GLES20.glViewport(x, y, waterMaskWidth, waterMaskHeight);//60
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(0, 1))]);
-        GLES20.glViewport(x + 15, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(1, 2))]);
-        GLES20.glViewport(x + 15 * 2, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(2, 3))]);
-        GLES20.glViewport(x + 15 * 3, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(3, 4))]);
-        GLES20.glViewport(x + 15 * 4, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[10]); // -
-        GLES20.glViewport(x + 15 * 5, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(5, 6))]);
-        GLES20.glViewport(x + 15 * 6, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(6, 7))]);
-        GLES20.glViewport(x + 15 * 7, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[10]); // -
-        GLES20.glViewport(x + 15 * 8, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(8, 9))]);
-        GLES20.glViewport(x + 15 * 9, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(9, 10))]);
-        GLES20.glViewport(x + 15 * 11, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(11, 12))]);
-        GLES20.glViewport(x + 15 * 12, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(12, 13))]);
-        GLES20.glViewport(x + 15 * 13, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[11]); // :
-        GLES20.glViewport(x + 15 * 14, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(14, 15))]);
-        GLES20.glViewport(x + 15 * 15, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(15, 16))]);
-        GLES20.glViewport(x + 15 * 16, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[11]); // :
-        GLES20.glViewport(x + 15 * 17, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(17, 18))]);
-        GLES20.glViewport(x + 15 * 18, y, waterMaskWidth, waterMaskHeight);
-        mWaterSign.drawFrame(mWaterTexId[Integer.parseInt(time.substring(18, 19))]);
-        //GLES30.glDisable(GLES30.GL_BLEND);
     }
 }
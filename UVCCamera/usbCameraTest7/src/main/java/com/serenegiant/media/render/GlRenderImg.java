@@ -11,6 +11,7 @@ import java.nio.FloatBuffer;
 
 /**
  * Created by Lzc on 2018/3/12 0012.
+ * 图片由GlRenderImgList装进共用的图集纹理，这里不再单独创建纹理
  */
 
 public class GlRenderImg {
@@ -19,13 +20,21 @@ public class GlRenderImg {
     private FloatBuffer vertexPositionHorizontal;
     private FloatBuffer fragmentPosition;
     private Bitmap bitmap;
+    // 绘制顺序，小的先画(在下面)，相同时按添加顺序
+    private int zOrder;
+    // 位置或顺序改变时加1，GlRenderImgList据此重建顶点缓冲
+    private volatile int version;
+    // GlRenderImgList使用，图集里的位置和重建顶点缓冲时的version
+    GlTextureAtlas.Region region;
+    int builtVersion = -1;
 
 
     /**
+     * 可以在任意线程创建，bitmap在{@link #release()}之前不能回收
+     *
      * @param bitmap 图片
      */
     public GlRenderImg(Bitmap bitmap) {
-        texture = GlUtil.create2DTexture(bitmap);
         fragmentPosition = TexturePositionUtil.DefaultTextureFloatBuffer;
         this.bitmap = bitmap;
     }
@@ -54,6 +63,7 @@ public class GlRenderImg {
      */
     public void initVerticalPosition(float verticalWidth, float verticalHeight, float positionX, float positionY) {
         vertexPosition = createVerticalPosition(verticalWidth, verticalHeight, positionX, positionY);
+        version++;
     }
 //            -1.0f, -1.0f,  // 0 bottom left
 //                    1.0f, -1.0f,  // 1 bottom right
@@ -68,6 +78,7 @@ public class GlRenderImg {
      */
     public void initHorizontalPosition(float verticalWidth, float verticalHeight, float positionX, float positionY) {
         vertexPositionHorizontal = createVerticalPosition(verticalWidth, verticalHeight, positionX, positionY);
+        version++;
     }
 
 
@@ -84,13 +95,42 @@ public class GlRenderImg {
 
     public void setVertexPosition(FloatBuffer vertexPosition) {
         this.vertexPosition = vertexPosition;
+        version++;
     }
 
     public void setVertexPositionHorizontal(FloatBuffer vertexPositionHorizontal) {
         this.vertexPositionHorizontal = vertexPositionHorizontal;
+        version++;
     }
 
+    public int getZOrder() {
+        return zOrder;
+    }
+
+    /**
+     * @param zOrder 大的画在上面
+     */
+    public void setZOrder(int zOrder) {
+        this.zOrder = zOrder;
+        version++;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * 单独的纹理，只在第一次调用时创建，需要在GL线程调用
+     * GlRenderImgList用图集绘制，不使用这个纹理
+     */
     public int getTexture() {
+        if (texture == -1 && bitmap != null && !bitmap.isRecycled()) {
+            texture = GlUtil.create2DTexture(bitmap);
+        }
         return texture;
     }
 
@@ -1,26 +1,66 @@
 package com.serenegiant.media.render;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.opengl.GLES30;
+import android.util.Log;
 
 
 import com.serenegiant.media.render.base.GlRenderNormalFBO;
 import com.serenegiant.media.utils.StringManagerUtil;
 import com.serenegiant.usbcameratest7.R;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * Created by Lzc on 2018/3/13 0013.
+ * 所有贴图装进一张图集纹理，顶点(x, y, s, t)交错放进一个VBO，每帧只绑定一次纹理、一次glDrawArrays
+ * 图集和VBO只在贴图增减、位置、顺序或横竖屏改变时重建
+ * 按z-order绘制，z-order相同时按添加顺序
  */
 
 public class GlRenderImgList extends GlRenderNormalFBO {
-
-    // 水印
-    private HashMap<String, GlRenderImg> glRenderImgArrayList = new HashMap<>(10);
+    private static final String TAG = "GlRenderImgList";
+    // 图集最小边长
+    private static final int MIN_ATLAS_SIZE = 512;
+    private static final int SIZE_OF_FLOAT = 4;
+    // x, y, s, t
+    private static final int FLOATS_PER_VERTEX = 4;
+    private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * SIZE_OF_FLOAT;
+    // 两个三角形
+    private static final int VERTICES_PER_IMG = 6;
+    private static final int FLOATS_PER_IMG = FLOATS_PER_VERTEX * VERTICES_PER_IMG;
+    // 三角形带的4个顶点拆成两个三角形
+    private static final int[] STRIP_TO_TRIANGLES = {0, 1, 2, 2, 1, 3};
+
+    private static final Comparator<GlRenderImg> Z_ORDER = new Comparator<GlRenderImg>() {
+        @Override
+        public int compare(GlRenderImg lhs, GlRenderImg rhs) {
+            return lhs.getZOrder() < rhs.getZOrder() ? -1 : (lhs.getZOrder() == rhs.getZOrder() ? 0 : 1);
+        }
+    };
+
+    // 水印，按添加顺序保存
+    private LinkedHashMap<String, GlRenderImg> glRenderImgArrayList = new LinkedHashMap<>(10);
+    // 按z-order排好的绘制列表，只在GL线程使用
+    private final ArrayList<GlRenderImg> drawList = new ArrayList<>();
+    // 贴图有增减
+    private boolean overlaysChanged;
+
+    private GlTextureAtlas atlas;
+    private int[] vbo;
+    private float[] vertices = new float[0];
+    private FloatBuffer vertexData;
+    private int vertexCount;
+    private boolean builtVertical;
 
     private boolean vertical = true;
 
@@ -53,31 +93,195 @@ public class GlRenderImgList extends GlRenderNormalFBO {
     @Override
     protected void unBindValue() {
         super.unBindValue();
+        synchronized (this) {
+            updateOverlays();
+        }
+        if (vertexCount <= 0)
+            return;
         //绘制原图完成后利用同一个program进行处理
         GLES30.glUseProgram(mProgram);
         GLES30.glEnable(GLES30.GL_BLEND);
         GLES30.glBlendFunc(GLES30.GL_SRC_ALPHA, GLES30.GL_ONE_MINUS_SRC_ALPHA);
 
-        for (HashMap.Entry<String, GlRenderImg> entry : glRenderImgArrayList.entrySet()) {
+        GLES30.glUniform1i(mInputTextureLoc, 0);
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, atlas.getTexture());
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, vbo[0]);
+        GLES30.glEnableVertexAttribArray(maPositionLoc);
+        GLES30.glVertexAttribPointer(maPositionLoc, 2, GLES30.GL_FLOAT, false, VERTEX_STRIDE, 0);
+        GLES30.glEnableVertexAttribArray(maTextureCoordLoc);
+        GLES30.glVertexAttribPointer(maTextureCoordLoc, 2, GLES30.GL_FLOAT, false, VERTEX_STRIDE, 2 * SIZE_OF_FLOAT);
+        GLES30.glUniformMatrix4fv(muMVPMatrixLoc, 1, false, mMVPMatrix, 0);
+        GLES30.glUniformMatrix4fv(uTexMatrix, 1, false, mTexMatrix, 0);
+
+        GLES30.glDrawArrays(GLES30.GL_TRIANGLES, 0, vertexCount);
+
+        GLES30.glDisableVertexAttribArray(maPositionLoc);
+        GLES30.glDisableVertexAttribArray(maTextureCoordLoc);
+        // 其他渲染器用客户端数组，必须解除VBO
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+        GLES30.glDisable(GLES30.GL_BLEND);
+    }
 
-            FloatBuffer buffer;
-            GlRenderImg value = entry.getValue();
+    /**
+     * 贴图有变化时更新图集和VBO，没有变化时只比较每个贴图的version
+     */
+    private void updateOverlays() {
+        boolean rebuild = overlaysChanged || builtVertical != vertical;
+        if (overlaysChanged) {
+            overlaysChanged = false;
+            drawList.clear();
+            drawList.addAll(glRenderImgArrayList.values());
+            packOverlays();
+        }
+        if (!rebuild) {
+            for (GlRenderImg img : drawList) {
+                if (img.builtVersion != img.getVersion()) {
+                    rebuild = true;
+                    break;
+                }
+            }
+        }
+        if (rebuild) {
+            // 每次从添加顺序重新排序，z-order相同时的顺序不受以前的排序影响
+            drawList.clear();
+            drawList.addAll(glRenderImgArrayList.values());
+            Collections.sort(drawList, Z_ORDER);
+            buildVertexBuffer();
+        }
+    }
 
-            if (vertical) {
-                buffer = value.getVertexPosition();
-            } else {
-                buffer = value.getVertexPositionHorizontal();
+    /**
+     * 新的贴图装进现有图集的空位，放不下时重新装入全部贴图
+     */
+    private void packOverlays() {
+        if (atlas != null) {
+            boolean fits = true;
+            for (GlRenderImg img : drawList) {
+                if (img.region == null && isDrawable(img.getBitmap())) {
+                    Bitmap bitmap = img.getBitmap();
+                    img.region = atlas.insert(bitmap.getWidth(), bitmap.getHeight());
+                    if (img.region == null) {
+                        fits = false;
+                        break;
+                    }
+                    atlas.upload(bitmap, img.region);
+                }
             }
+            if (fits)
+                return;
+        }
+        repackAll();
+    }
 
-            // 绑定数据
-            bindValue(value.getTexture(), buffer, value.getFragmentPosition());
-            GLES30.glDrawArrays(GLES30.GL_TRIANGLE_STRIP, 0, 4);
-            // GLES30.glDrawElements(GLES20.GL_TRIANGLES, drawOrder.length, GLES20.GL_UNSIGNED_SHORT, drawListBuffer);
-            GLES30.glDisableVertexAttribArray(maPositionLoc);
-            GLES30.glDisableVertexAttribArray(maTextureCoordLoc);
+    /**
+     * 按需要的大小(2的幂)重新创建图集，高的先装，减少shelf的浪费
+     */
+    private void repackAll() {
+        ArrayList<GlRenderImg> list = new ArrayList<>(drawList.size());
+        long area = 0;
+        int maxSide = 0;
+        for (GlRenderImg img : drawList) {
+            img.region = null;
+            Bitmap bitmap = img.getBitmap();
+            if (isDrawable(bitmap)) {
+                list.add(img);
+                area += (long) (bitmap.getWidth() + 1) * (bitmap.getHeight() + 1);
+                maxSide = Math.max(maxSide, Math.max(bitmap.getWidth(), bitmap.getHeight()) + 1);
+            }
         }
+        if (list.isEmpty())
+            return;
+        Collections.sort(list, new Comparator<GlRenderImg>() {
+            @Override
+            public int compare(GlRenderImg lhs, GlRenderImg rhs) {
+                return rhs.getBitmap().getHeight() - lhs.getBitmap().getHeight();
+            }
+        });
+        int[] maxTextureSize = new int[1];
+        GLES30.glGetIntegerv(GLES30.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+        int size = MIN_ATLAS_SIZE;
+        while (size < maxTextureSize[0] && (size < maxSide || (long) size * size < area)) {
+            size <<= 1;
+        }
+        for (; ; size <<= 1) {
+            size = Math.min(size, maxTextureSize[0]);
+            if (atlas == null || atlas.getWidth() != size) {
+                if (atlas != null)
+                    atlas.release();
+                atlas = new GlTextureAtlas(size, size);
+            } else {
+                atlas.reset();
+            }
+            boolean fits = true;
+            for (GlRenderImg img : list) {
+                img.region = atlas.insert(img.getBitmap().getWidth(), img.getBitmap().getHeight());
+                if (img.region == null)
+                    fits = false;
+            }
+            if (fits || size >= maxTextureSize[0])
+                break;
+        }
+        for (GlRenderImg img : list) {
+            if (img.region != null) {
+                atlas.upload(img.getBitmap(), img.region);
+            } else {
+                Log.w(TAG, "overlay does not fit in the atlas:" + img.getBitmap().getWidth() + "x" + img.getBitmap().getHeight());
+            }
+        }
+    }
 
-        GLES30.glDisable(GLES30.GL_BLEND);
+    private static boolean isDrawable(Bitmap bitmap) {
+        return bitmap != null && !bitmap.isRecycled();
+    }
+
+    /**
+     * 按drawList的顺序把每个贴图的两个三角形写进VBO
+     * 纹理坐标映射到图集里的区域，往里缩半个像素，不会采样到相邻的贴图
+     */
+    private void buildVertexBuffer() {
+        builtVertical = vertical;
+        if (vertices.length < drawList.size() * FLOATS_PER_IMG) {
+            vertices = new float[drawList.size() * FLOATS_PER_IMG];
+        }
+        int count = 0;
+        for (GlRenderImg img : drawList) {
+            img.builtVersion = img.getVersion();
+            FloatBuffer position = vertical ? img.getVertexPosition() : img.getVertexPositionHorizontal();
+            FloatBuffer fragment = img.getFragmentPosition();
+            GlTextureAtlas.Region region = img.region;
+            if (position == null || region == null || atlas == null)
+                continue;
+            final float atlasWidth = atlas.getWidth();
+            final float atlasHeight = atlas.getHeight();
+            int i = count * FLOATS_PER_IMG;
+            for (int index : STRIP_TO_TRIANGLES) {
+                vertices[i++] = position.get(index * 2);
+                vertices[i++] = position.get(index * 2 + 1);
+                vertices[i++] = (region.x + 0.5f + fragment.get(index * 2) * (region.width - 1)) / atlasWidth;
+                vertices[i++] = (region.y + 0.5f + fragment.get(index * 2 + 1) * (region.height - 1)) / atlasHeight;
+            }
+            count++;
+        }
+        vertexCount = count * VERTICES_PER_IMG;
+        if (count == 0)
+            return;
+        final int floats = count * FLOATS_PER_IMG;
+        if (vertexData == null || vertexData.capacity() < floats) {
+            vertexData = ByteBuffer.allocateDirect(vertices.length * SIZE_OF_FLOAT)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        vertexData.clear();
+        vertexData.put(vertices, 0, floats);
+        vertexData.flip();
+        if (vbo == null) {
+            vbo = new int[1];
+            GLES30.glGenBuffers(1, vbo, 0);
+        }
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, vbo[0]);
+        GLES30.glBufferData(GLES30.GL_ARRAY_BUFFER, floats * SIZE_OF_FLOAT, vertexData, GLES30.GL_STATIC_DRAW);
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
     }
 
     @Override
@@ -85,26 +289,44 @@ public class GlRenderImgList extends GlRenderNormalFBO {
         return GLES30.GL_TEXTURE_2D;
     }
 
-    public void add(String key, GlRenderImg openGlImgTexture) {
+    public synchronized void add(String key, GlRenderImg openGlImgTexture) {
+        // 以前加过又移除的贴图，图集里原来的位置可能已经被别的贴图占用
+        openGlImgTexture.region = null;
         glRenderImgArrayList.put(key, openGlImgTexture);
+        overlaysChanged = true;
     }
 
-    public void remove(int position) {
-        GlRenderImg openGlImgTexture = glRenderImgArrayList.remove(position);
+    /**
+     * @param position 按z-order绘制的顺序
+     */
+    public synchronized void remove(int position) {
+        ArrayList<Map.Entry<String, GlRenderImg>> entries = new ArrayList<>(glRenderImgArrayList.entrySet());
+        if (position < 0 || position >= entries.size())
+            return;
+        // 和绘制时一样，从添加顺序稳定排序
+        Collections.sort(entries, new Comparator<Map.Entry<String, GlRenderImg>>() {
+            @Override
+            public int compare(Map.Entry<String, GlRenderImg> lhs, Map.Entry<String, GlRenderImg> rhs) {
+                return Z_ORDER.compare(lhs.getValue(), rhs.getValue());
+            }
+        });
+        GlRenderImg openGlImgTexture = glRenderImgArrayList.remove(entries.get(position).getKey());
+        overlaysChanged = true;
         if (openGlImgTexture != null)
             openGlImgTexture.release();
     }
 
-    public boolean contains(String key) {
+    public synchronized boolean contains(String key) {
         return glRenderImgArrayList.containsKey(key);
     }
 
-    public void clear(String key) {
+    public synchronized void clear(String key) {
 
         glRenderImgArrayList.remove(key);
+        overlaysChanged = true;
     }
 
-    public void clear() {
+    public synchronized void clear() {
 
         Iterator<Map.Entry<String, GlRenderImg>> iterator = glRenderImgArrayList.entrySet().iterator();
         while (iterator.hasNext()) {
@@ -114,23 +336,31 @@ public class GlRenderImgList extends GlRenderNormalFBO {
                 next.getValue().release();
             }
         }
+        overlaysChanged = true;
     }
 
-    public void replace(String key, GlRenderImg openGlImgTexture) {
+    public synchronized void replace(String key, GlRenderImg openGlImgTexture) {
         GlRenderImg last = glRenderImgArrayList.get(key);
         if (null != last) {
             last.release();
             glRenderImgArrayList.remove(key);
         }
+        openGlImgTexture.region = null;
         glRenderImgArrayList.put(key, openGlImgTexture);
+        overlaysChanged = true;
     }
 
-    public void remove(GlRenderImg openGlImgTexture) {
-        glRenderImgArrayList.remove(openGlImgTexture);
+    public synchronized void remove(GlRenderImg openGlImgTexture) {
+        Iterator<GlRenderImg> iterator = glRenderImgArrayList.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == openGlImgTexture)
+                iterator.remove();
+        }
+        overlaysChanged = true;
         openGlImgTexture.release();
     }
 
-    public int getSize() {
+    public synchronized int getSize() {
         return glRenderImgArrayList.size();
     }
 
@@ -138,19 +368,30 @@ public class GlRenderImgList extends GlRenderNormalFBO {
         return vertical;
     }
 
-    public void setVertical(boolean vertical) {
+    public synchronized void setVertical(boolean vertical) {
         this.vertical = vertical;
     }
 
     @Override
     public void release() {
         super.release();
-        if (glRenderImgArrayList != null) {
-            for (HashMap.Entry<String, GlRenderImg> entry : glRenderImgArrayList.entrySet()) {
-                entry.getValue().release();
+        synchronized (this) {
+            if (glRenderImgArrayList != null) {
+                for (Map.Entry<String, GlRenderImg> entry : glRenderImgArrayList.entrySet()) {
+                    entry.getValue().release();
+                }
+                glRenderImgArrayList.clear();
             }
-            glRenderImgArrayList.clear();
+            drawList.clear();
+            vertexCount = 0;
+        }
+        if (atlas != null) {
+            atlas.release();
+            atlas = null;
+        }
+        if (vbo != null) {
+            GLES30.glDeleteBuffers(1, vbo, 0);
+            vbo = null;
         }
-        glRenderImgArrayList = null;
     }
 }
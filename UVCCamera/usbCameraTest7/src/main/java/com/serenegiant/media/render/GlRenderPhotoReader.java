@@ -0,0 +1,269 @@
+package com.serenegiant.media.render;
+
+import android.content.Context;
+import android.opengl.GLES30;
+import android.opengl.Matrix;
+import android.util.Log;
+
+
+import com.serenegiant.media.render.base.GlRenderNormalFBO;
+import com.serenegiant.media.utils.StringManagerUtil;
+import com.serenegiant.media.utils.TexturePositionUtil;
+import com.serenegiant.usbcameratest7.R;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * 拍照读取
+ * 把显示纹理画到FBO里，上下翻转和镜像在顶点着色器里完成，不再用Bitmap的Matrix处理
+ * GLES3时用两个PBO异步glReadPixels，下一帧以后GPU完成了才map，不阻塞渲染线程
+ * 读出的ByteBuffer从缓存池里取，用完调用{@link Frame#recycle()}放回
+ */
+public class GlRenderPhotoReader extends GlRenderNormalFBO {
+    private static final String TAG = "GlRenderPhotoReader";
+    // PBO个数，双缓冲
+    private static final int PBO_NUM = 2;
+    // 缓存池里最多保留的ByteBuffer个数
+    private static final int MAX_POOL_NUM = 2;
+
+    /**
+     * 读出的一帧，RGBA，从上到下的行顺序，可以直接Bitmap#copyPixelsFromBuffer
+     */
+    public static class Frame {
+        public final ByteBuffer buffer;
+        public final int width;
+        public final int height;
+        private final GlRenderPhotoReader parent;
+
+        private Frame(GlRenderPhotoReader parent, ByteBuffer buffer, int width, int height) {
+            this.parent = parent;
+            this.buffer = buffer;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * 把buffer放回缓存池，可以在任意线程调用
+         */
+        public void recycle() {
+            parent.recycleBuffer(buffer);
+        }
+    }
+
+    private final boolean usePbo;
+    private int[] mPixelBuffers;
+    private final long[] mFences = new long[PBO_NUM];
+    // 下一个写入的PBO，最早的还没读出的PBO
+    private int mWriteIndex;
+    private int mReadIndex;
+    private int mPendingNum;
+    private volatile int mBufferSize;
+    // 读完的帧(GLES2时同步读出)
+    private final ArrayDeque<Frame> mReadyFrames = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> mBufferPool = new ArrayDeque<>();
+
+    private boolean mirroring = false;
+
+    /**
+     * @param context
+     * @param glVersion EglCore#getGlVersion，3以上用PBO
+     */
+    public GlRenderPhotoReader(Context context, int glVersion) {
+        super(context);
+        textureBuffer = TexturePositionUtil.DefaultTextureFloatBuffer;
+        usePbo = glVersion >= 3;
+    }
+
+    @Override
+    public String getFragmentShaderCode() {
+
+        return StringManagerUtil.getStringFromRaw(context,
+                R.raw.normal_fragment_shader);
+    }
+
+
+    @Override
+    public String getVertexShaderCode() {
+        return StringManagerUtil.getStringFromRaw(context, R.raw.camera_vertex_shader);
+    }
+
+    @Override
+    public void onDrawArraysBegin() {
+
+    }
+
+    @Override
+    public void onDrawArraysAfter() {
+
+    }
+
+    @Override
+    public int getTextureType() {
+        return GLES30.GL_TEXTURE_2D;
+    }
+
+    /**
+     * 输入纹理和显示的大小一样，只按显示大小创建FBO和PBO
+     */
+    @Override
+    public void onInputSizeChanged(int width, int height) {
+        mImageWidth = width;
+        mImageHeight = height;
+    }
+
+    @Override
+    public void onDisplayChanged(int width, int height) {
+        super.onDisplayChanged(width, height);
+        if (width <= 0 || height <= 0)
+            return;
+        initFramebuffer(width, height);
+        if (mBufferSize != width * height * 4) {
+            destroyPixelBuffers();
+            mBufferSize = width * height * 4;
+            synchronized (mBufferPool) {
+                mBufferPool.clear();
+            }
+            if (usePbo) {
+                mPixelBuffers = new int[PBO_NUM];
+                GLES30.glGenBuffers(PBO_NUM, mPixelBuffers, 0);
+                for (int i = 0; i < PBO_NUM; i++) {
+                    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[i]);
+                    GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, mBufferSize, null, GLES30.GL_STREAM_READ);
+                }
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            }
+        }
+    }
+
+    /**
+     * 开始读取当前显示的纹理，GLES3时结果在以后的{@link #fetchFrame()}里返回
+     *
+     * @param textureId 显示的纹理
+     * @return false PBO都在使用中，下一帧再调用
+     */
+    public boolean readFrame(int textureId) {
+        if (mFramebuffers == null || mBufferSize <= 0)
+            return false;
+        if (usePbo && mPendingNum >= PBO_NUM)
+            return false;
+        // 上下翻转（glReadPixels是从下到上的行顺序）和镜像
+        Matrix.setIdentityM(mMVPMatrix, 0);
+        Matrix.scaleM(mMVPMatrix, 0, mirroring ? -1f : 1f, -1f, 1f);
+        drawFrame(textureId, vertexBuffer, textureBuffer);
+
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFramebuffers[0]);
+        if (usePbo) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[mWriteIndex]);
+            GLES30.glReadPixels(0, 0, mFrameWidth, mFrameHeight,
+                    GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            mFences[mWriteIndex] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            mWriteIndex = (mWriteIndex + 1) % PBO_NUM;
+            mPendingNum++;
+        } else {
+            ByteBuffer buffer = obtainBuffer();
+            GLES30.glReadPixels(0, 0, mFrameWidth, mFrameHeight,
+                    GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, buffer);
+            buffer.rewind();
+            mReadyFrames.addLast(new Frame(this, buffer, mFrameWidth, mFrameHeight));
+        }
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+        GLES30.glViewport(0, 0, mDisplayWidth, mDisplayHeight);
+        return true;
+    }
+
+    /**
+     * 每帧调用，GPU已经写完的PBO才map，没有完成的帧返回null
+     *
+     * @return 读完的一帧，用完调用{@link Frame#recycle()}
+     */
+    public Frame fetchFrame() {
+        if (!mReadyFrames.isEmpty())
+            return mReadyFrames.removeFirst();
+        if (!usePbo || mPendingNum <= 0)
+            return null;
+        int status = GLES30.glClientWaitSync(mFences[mReadIndex], 0, 0);
+        if (status != GLES30.GL_ALREADY_SIGNALED && status != GLES30.GL_CONDITION_SATISFIED) {
+            if (status == GLES30.GL_WAIT_FAILED)
+                Log.w(TAG, "fetchFrame:glClientWaitSync failed");
+            else
+                return null;
+        }
+        GLES30.glDeleteSync(mFences[mReadIndex]);
+        mFences[mReadIndex] = 0;
+        Frame frame = null;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[mReadIndex]);
+        ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER,
+                0, mBufferSize, GLES30.GL_MAP_READ_BIT);
+        if (mapped != null) {
+            ByteBuffer buffer = obtainBuffer();
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(mapped);
+            buffer.rewind();
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            frame = new Frame(this, buffer, mFrameWidth, mFrameHeight);
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        mReadIndex = (mReadIndex + 1) % PBO_NUM;
+        mPendingNum--;
+        return frame;
+    }
+
+    private ByteBuffer obtainBuffer() {
+        ByteBuffer buffer;
+        synchronized (mBufferPool) {
+            buffer = mBufferPool.pollFirst();
+        }
+        if (buffer == null || buffer.capacity() != mBufferSize) {
+            buffer = ByteBuffer.allocateDirect(mBufferSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void recycleBuffer(ByteBuffer buffer) {
+        synchronized (mBufferPool) {
+            if (buffer.capacity() == mBufferSize && mBufferPool.size() < MAX_POOL_NUM)
+                mBufferPool.addLast(buffer);
+        }
+    }
+
+    private void destroyPixelBuffers() {
+        for (int i = 0; i < PBO_NUM; i++) {
+            if (mFences[i] != 0) {
+                GLES30.glDeleteSync(mFences[i]);
+                mFences[i] = 0;
+            }
+        }
+        if (mPixelBuffers != null) {
+            GLES30.glDeleteBuffers(PBO_NUM, mPixelBuffers, 0);
+            mPixelBuffers = null;
+        }
+        mWriteIndex = mReadIndex = mPendingNum = 0;
+        mReadyFrames.clear();
+    }
+
+    public boolean isMirroring() {
+        return mirroring;
+    }
+
+    /**
+     * 照片是否左右镜像
+     */
+    public void setMirroring(boolean mirroring) {
+        this.mirroring = mirroring;
+    }
+
+    @Override
+    public void release() {
+        destroyPixelBuffers();
+        mBufferSize = 0;
+        synchronized (mBufferPool) {
+            mBufferPool.clear();
+        }
+        super.release();
+    }
+}
@@ -0,0 +1,138 @@
+package com.serenegiant.media.render;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES30;
+import android.opengl.GLUtils;
+
+import java.util.ArrayList;
+
+/**
+ * 贴图图集
+ * 多个Bitmap装进同一张纹理，用shelf算法：按行(shelf)从上到下排，每行里从左到右
+ * 新的图片用glTexSubImage2D只上传自己的区域，放不下时由调用者换更大的图集重新装入
+ * 需要在GL线程调用
+ */
+public class GlTextureAtlas {
+    // 图片之间留的空白
+    private static final int PADDING = 1;
+
+    /**
+     * 图片在图集里的位置，像素
+     */
+    public static class Region {
+        public final int x;
+        public final int y;
+        public final int width;
+        public final int height;
+
+        private Region(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private static class Shelf {
+        final int y;
+        final int height;
+        int cursorX;
+
+        Shelf(int y, int height) {
+            this.y = y;
+            this.height = height;
+        }
+    }
+
+    private int texture = -1;
+    private final int width;
+    private final int height;
+    private final ArrayList<Shelf> shelves = new ArrayList<>();
+    // 下一个shelf的Y
+    private int nextShelfY;
+
+    /**
+     * 创建空的RGBA纹理，内容不清空，采样时纹理坐标往里缩半个像素，不会采到空白部分
+     */
+    public GlTextureAtlas(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int[] textures = new int[1];
+        GLES30.glGenTextures(1, textures, 0);
+        texture = textures[0];
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA, width, height, 0,
+                GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * 找一块空位，选高度够用的最矮的shelf，都放不下时在下面开新的shelf
+     *
+     * @return null 放不下
+     */
+    public Region insert(int w, int h) {
+        if (w <= 0 || h <= 0)
+            return null;
+        final int paddedW = w + PADDING;
+        final int paddedH = h + PADDING;
+        Shelf best = null;
+        for (Shelf shelf : shelves) {
+            if (shelf.height >= paddedH && shelf.cursorX + paddedW <= width
+                    && (best == null || shelf.height < best.height)) {
+                best = shelf;
+            }
+        }
+        if (best == null) {
+            if (nextShelfY + paddedH > height || paddedW > width)
+                return null;
+            best = new Shelf(nextShelfY, paddedH);
+            shelves.add(best);
+            nextShelfY += paddedH;
+        }
+        Region region = new Region(best.cursorX, best.y, w, h);
+        best.cursorX += paddedW;
+        return region;
+    }
+
+    /**
+     * 把Bitmap上传到图集的指定位置
+     */
+    public void upload(Bitmap bitmap, Region region) {
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture);
+        GLUtils.texSubImage2D(GLES30.GL_TEXTURE_2D, 0, region.x, region.y, bitmap);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * 清空装箱状态，纹理保留，以后上传的图片会覆盖原来的内容
+     */
+    public void reset() {
+        shelves.clear();
+        nextShelfY = 0;
+    }
+
+    public int getTexture() {
+        return texture;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void release() {
+        if (texture != -1) {
+            GLES30.glDeleteTextures(1, new int[]{texture}, 0);
+            texture = -1;
+        }
+        shelves.clear();
+    }
+}
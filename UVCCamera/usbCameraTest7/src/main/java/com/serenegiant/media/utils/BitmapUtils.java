@@ -831,6 +831,28 @@ public class BitmapUtils {
         return bmp;
     }
 
+    /**
+     * 把多个字符画到同一张图上，每个字符占一个cellWidth x cellHeight的格子，横向排列
+     * 字体同textToBitmap(String)，用于生成水印的字符图集
+     */
+    public static Bitmap glyphsToAtlasBitmap(String glyphs, int cellWidth, int cellHeight){
+        Paint p = new Paint();
+        Typeface font = Typeface.create("monospace", Typeface.BOLD);
+
+        p.setColor(Color.RED);
+        p.setTypeface(font);
+        p.setTextSize(30);
+        p.setAntiAlias(true);
+        Bitmap bmp = Bitmap.createBitmap(cellWidth * glyphs.length(), cellHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvasTemp = new Canvas(bmp);
+        canvasTemp.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);//设置透明画布，无背景色
+        for (int i = 0; i < glyphs.length(); i++) {
+            //字符左右各留2像素，避免线性过滤时采样到相邻格子
+            canvasTemp.drawText(glyphs, i, i + 1, cellWidth * i + 2, 30, p);
+        }
+        return bmp;
+    }
+
     public static Bitmap textToBitmap(String msg, int fontSize){
         Bitmap bmp;
         Canvas canvasTemp;
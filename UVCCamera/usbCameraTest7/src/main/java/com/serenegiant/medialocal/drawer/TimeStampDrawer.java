@@ -0,0 +1,218 @@
+package com.serenegiant.medialocal.drawer;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import com.serenegiant.media.utils.BitmapUtils;
+import com.serenegiant.media.utils.GlUtil;
+import com.serenegiant.usbcameracommon.ClockDigits;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 时间水印
+ * 所有字符放在一张图集纹理里，19个字符的四边形写进同一个顶点缓冲，每次只需一次glDrawArrays
+ * 只有在秒数变化时才重新计算字符，并且只改写变化了的字符的纹理坐标
+ */
+public class TimeStampDrawer {
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n" +
+                    "attribute vec4 aPosition;\n" +
+                    "attribute vec4 aTextureCoord;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "void main() {\n" +
+                    "    gl_Position = uMVPMatrix * aPosition;\n" +
+                    "    vTextureCoord = aTextureCoord.xy;\n" +
+                    "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform sampler2D sTexture;\n" +
+                    "void main() {\n" +
+                    "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+                    "}\n";
+
+    // 图集里的字符顺序, 下标即ClockDigits的字符编号
+    private static final String GLYPHS = "0123456789-: ";
+    // 图集中每个字符格子的大小(像素)
+    private static final int CELL_WIDTH = 22;
+    private static final int CELL_HEIGHT = 40;
+
+    // "yyyy-MM-dd HH:mm:ss"
+    public static final int TEXT_LENGTH = ClockDigits.LENGTH;
+
+    private static final int SIZE_OF_FLOAT = 4;
+    // x, y, s, t
+    private static final int FLOATS_PER_VERTEX = 4;
+    private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * SIZE_OF_FLOAT;
+    // 两个三角形
+    private static final int VERTICES_PER_GLYPH = 6;
+    private static final int FLOATS_PER_GLYPH = FLOATS_PER_VERTEX * VERTICES_PER_GLYPH;
+    private static final int VERTEX_COUNT = VERTICES_PER_GLYPH * TEXT_LENGTH;
+
+    private int hProgram;
+    private final int uMVPMatrixLoc;
+    private final int aPositionLoc;
+    private final int aTextureCoordLoc;
+    private final int sTextureLoc;
+    private int mAtlasTexId;
+
+    private final FloatBuffer mVertexBuffer;
+    private final float[] mGlyphVertices = new float[FLOATS_PER_GLYPH];
+    private final float[] mMVPMatrix = new float[16];
+    private int mSurfaceWidth = -1;
+    private int mSurfaceHeight = -1;
+
+    // 当前顶点缓冲里每个位置的字符编号
+    private final int[] mGlyphs = new int[TEXT_LENGTH];
+    private final int[] mWork = new int[TEXT_LENGTH];
+    private final ClockDigits mClock = new ClockDigits('-', ' ', ':');
+
+    /**
+     * 需要在GL context中调用
+     *
+     * @param startX 水印左下角X, 像素
+     * @param startY 水印左下角Y, 像素
+     * @param glyphWidth 屏幕上每个字符的宽度, 像素
+     * @param glyphHeight 屏幕上每个字符的高度, 像素
+     */
+    public TimeStampDrawer(int startX, int startY, int glyphWidth, int glyphHeight) {
+        hProgram = GLDrawer2D.loadShader(VERTEX_SHADER, FRAGMENT_SHADER);
+        uMVPMatrixLoc = GLES20.glGetUniformLocation(hProgram, "uMVPMatrix");
+        GlUtil.checkLocation(uMVPMatrixLoc, "uMVPMatrix");
+        aPositionLoc = GLES20.glGetAttribLocation(hProgram, "aPosition");
+        GlUtil.checkLocation(aPositionLoc, "aPosition");
+        aTextureCoordLoc = GLES20.glGetAttribLocation(hProgram, "aTextureCoord");
+        GlUtil.checkLocation(aTextureCoordLoc, "aTextureCoord");
+        sTextureLoc = GLES20.glGetUniformLocation(hProgram, "sTexture");
+        GlUtil.checkLocation(sTextureLoc, "sTexture");
+
+        final Bitmap atlas = BitmapUtils.glyphsToAtlasBitmap(GLYPHS, CELL_WIDTH, CELL_HEIGHT);
+        mAtlasTexId = GlUtil.create2DTexture(atlas);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        atlas.recycle();
+
+        final ByteBuffer bb = ByteBuffer.allocateDirect(VERTEX_COUNT * VERTEX_STRIDE);
+        bb.order(ByteOrder.nativeOrder());
+        mVertexBuffer = bb.asFloatBuffer();
+        // 位置固定不变, 只在这里写一次
+        for (int i = 0; i < TEXT_LENGTH; i++) {
+            final float x0 = startX + glyphWidth * i;
+            final float x1 = x0 + glyphWidth;
+            final float y0 = startY;
+            final float y1 = y0 + glyphHeight;
+            setGlyphVertices(x0, y0, x1, y1, ClockDigits.GLYPH_SPACE);
+            mVertexBuffer.position(FLOATS_PER_GLYPH * i);
+            mVertexBuffer.put(mGlyphVertices);
+            mGlyphs[i] = ClockDigits.GLYPH_SPACE;
+        }
+        mVertexBuffer.position(0);
+    }
+
+    /**
+     * 把当前时间画到当前的surface上
+     * 需要在GL context中调用, 会修改glViewport
+     *
+     * @param surfaceWidth 当前surface的宽度
+     * @param surfaceHeight 当前surface的高度
+     */
+    public void drawFrame(int surfaceWidth, int surfaceHeight) {
+        if (hProgram < 0 || surfaceWidth <= 0 || surfaceHeight <= 0) {
+            return;
+        }
+        updateText(System.currentTimeMillis());
+        if (surfaceWidth != mSurfaceWidth || surfaceHeight != mSurfaceHeight) {
+            mSurfaceWidth = surfaceWidth;
+            mSurfaceHeight = surfaceHeight;
+            // 像素坐标直接映射到NDC, 左下角为原点
+            Matrix.orthoM(mMVPMatrix, 0, 0, surfaceWidth, 0, surfaceHeight, -1, 1);
+        }
+        GLES20.glViewport(0, 0, surfaceWidth, surfaceHeight);
+        GLES20.glEnable(GLES20.GL_BLEND);
+        //开启GL的混合模式，即图像叠加
+        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GLES20.glUseProgram(hProgram);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mAtlasTexId);
+        GLES20.glUniform1i(sTextureLoc, 0);
+        GLES20.glUniformMatrix4fv(uMVPMatrixLoc, 1, false, mMVPMatrix, 0);
+        mVertexBuffer.position(0);
+        GLES20.glEnableVertexAttribArray(aPositionLoc);
+        GLES20.glVertexAttribPointer(aPositionLoc, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, mVertexBuffer);
+        mVertexBuffer.position(2);
+        GLES20.glEnableVertexAttribArray(aTextureCoordLoc);
+        GLES20.glVertexAttribPointer(aTextureCoordLoc, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, mVertexBuffer);
+        mVertexBuffer.position(0);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, VERTEX_COUNT);
+        GLES20.glDisableVertexAttribArray(aPositionLoc);
+        GLES20.glDisableVertexAttribArray(aTextureCoordLoc);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glUseProgram(0);
+    }
+
+    /**
+     * 秒数变化时重新计算字符, 只改写变化了的字符的纹理坐标
+     */
+    private void updateText(long now) {
+        final int first = mClock.update(now);
+        if (first >= TEXT_LENGTH) {
+            return;
+        }
+        mClock.getGlyphs(mWork, 0);
+        for (int i = first; i < TEXT_LENGTH; i++) {
+            if (mWork[i] != mGlyphs[i]) {
+                setGlyph(i, mWork[i]);
+            }
+        }
+    }
+
+    /**
+     * 改写第index个字符的纹理坐标
+     */
+    private void setGlyph(int index, int glyph) {
+        final int base = FLOATS_PER_GLYPH * index;
+        mVertexBuffer.position(base);
+        mVertexBuffer.get(mGlyphVertices);
+        setGlyphVertices(mGlyphVertices[0], mGlyphVertices[1],
+                mGlyphVertices[FLOATS_PER_VERTEX * 2], mGlyphVertices[FLOATS_PER_VERTEX * 2 + 1], glyph);
+        mVertexBuffer.position(base);
+        mVertexBuffer.put(mGlyphVertices);
+        mVertexBuffer.position(0);
+        mGlyphs[index] = glyph;
+    }
+
+    /**
+     * 生成一个字符的6个顶点, 左下、右下、右上、左下、右上、左上
+     * 图集纹理的t坐标是上下反的
+     */
+    private void setGlyphVertices(float x0, float y0, float x1, float y1, int glyph) {
+        final float s0 = (float) glyph / GLYPHS.length();
+        final float s1 = (float) (glyph + 1) / GLYPHS.length();
+        final float[] v = mGlyphVertices;
+        int i = 0;
+        v[i++] = x0; v[i++] = y0; v[i++] = s0; v[i++] = 1.0f;
+        v[i++] = x1; v[i++] = y0; v[i++] = s1; v[i++] = 1.0f;
+        v[i++] = x1; v[i++] = y1; v[i++] = s1; v[i++] = 0.0f;
+        v[i++] = x0; v[i++] = y0; v[i++] = s0; v[i++] = 1.0f;
+        v[i++] = x1; v[i++] = y1; v[i++] = s1; v[i++] = 0.0f;
+        v[i++] = x0; v[i++] = y1; v[i++] = s0; v[i] = 0.0f;
+    }
+
+    /**
+     * terminatinng, this should be called in GL context
+     */
+    public void release() {
+        if (mAtlasTexId > 0) {
+            GLES20.glDeleteTextures(1, new int[]{mAtlasTexId}, 0);
+        }
+        mAtlasTexId = -1;
+        if (hProgram >= 0)
+            GLES20.glDeleteProgram(hProgram);
+        hProgram = -1;
+    }
+}